@@ -42,6 +42,7 @@ public class BroadcastContract {
     public static final String BROADCAST_PLUGIN_SYNC_RESULT = "cz.maresmar.sfm.broadcast.plugin-sync-result";
     public static final String BROADCAST_PORTAL_TEST_RESULT = "cz.maresmar.sfm.broadcast.portal-test-result";
     public static final String BROADCAST_EXTRA_FORMAT = "cz.maresmar.sfm.broadcast.extra-format";
+    public static final String BROADCAST_PLUGIN_SYNC_PROGRESS = "cz.maresmar.sfm.broadcast.plugin-sync-progress";
 
     // Extras
     public static final String EXTRA_TASKS_LIST = "cz.maresmar.sfm.extra.doneTasks";
@@ -54,6 +55,10 @@ public class BroadcastContract {
     public static final String EXTRA_PLUGIN = ActionContract.EXTRA_PLUGIN;
     public static final String EXTRA_FORMAT_TYPE = ActionContract.EXTRA_FORMAT_TYPE;
     public static final String EXTRA_ERROR_MESSAGE = "cz.maresmar.sfm.extra.errorMsg";
+    public static final String EXTRA_PROGRESS_EVENT = "cz.maresmar.sfm.extra.progressEvent";
+    public static final String EXTRA_PROGRESS_TASKS = "cz.maresmar.sfm.extra.progressTasks";
+    public static final String EXTRA_BYTES_READ = "cz.maresmar.sfm.extra.bytesRead";
+    public static final String EXTRA_ROWS_WRITTEN = "cz.maresmar.sfm.extra.rowsWritten";
 
     // Test result
     public static final int TEST_RESULT_OK = 0;
@@ -78,6 +83,8 @@ public class BroadcastContract {
     public static final int RESULT_WRONG_CREDENTIALS = 400;
     public static final int RESULT_UNKNOWN_PORTAL_FORMAT = 500;
     public static final int RESULT_PLUGIN_TIMEOUT = 600;
+    // Reported only by app when the sync failed because of bug in app or in plugin
+    public static final int RESULT_INTERNAL_ERROR = 700;
 
     @IntDef(value = {
             RESULT_NOT_SUPPORTED,
@@ -86,12 +93,30 @@ public class BroadcastContract {
             RESULT_IO_EXCEPTION,
             RESULT_WRONG_CREDENTIALS,
             RESULT_UNKNOWN_PORTAL_FORMAT,
-            RESULT_PLUGIN_TIMEOUT
+            RESULT_PLUGIN_TIMEOUT,
+            RESULT_INTERNAL_ERROR
     })
     @Retention(RetentionPolicy.SOURCE)
     public @interface SyncResult {
     }
 
+    /**
+     * The sync progress event (plugin heartbeat)
+     */
+
+    public static final int PROGRESS_TASKS_STARTED = 0;
+    public static final int PROGRESS_BYTES_READ = 1;
+    public static final int PROGRESS_ROWS_WRITTEN = 2;
+
+    @IntDef(value = {
+            PROGRESS_TASKS_STARTED,
+            PROGRESS_BYTES_READ,
+            PROGRESS_ROWS_WRITTEN
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface ProgressEvent {
+    }
+
     // Static constants
     public static final int UNKNOWN_ID = ActionContract.UNKNOWN_ID;
 
@@ -131,6 +156,39 @@ public class BroadcastContract {
         context.sendBroadcast(intent);
     }
 
+    /**
+     * Send broadcast to tell that sync is still in progress. The app extends plugin's timeout while it
+     * receives these broadcasts, so plugin should send them regularly (but at most once per second)
+     * during long tasks. Plugin that stops sending them is considered as hung.
+     * <p>
+     * <p>This is progress of {@link ActionContract#ACTION_SYNC}
+     *
+     * @param context        Some valid context
+     * @param destinationPkg package name of application that will receive broadcast
+     * @param portalId       ID of portal that is being synced
+     * @param credentialsId  ID of credentials that is being synced
+     * @param event          Event that caused the broadcast
+     * @param tasks          Tasks that are being done
+     * @param bytesRead      Number of bytes read from portal since the sync start
+     * @param rowsWritten    Number of rows written to app since the sync start
+     * @see Intent#setPackage(String)
+     */
+    public static void broadcastSyncProgress(@NonNull Context context, @Nullable String destinationPkg,
+                                             long portalId, long credentialsId, @ProgressEvent int event,
+                                             @ActionContract.SyncTask int tasks, long bytesRead, long rowsWritten) {
+        Intent intent = new Intent();
+        // Explicitly select a package to communicate with
+        intent.setPackage(destinationPkg);
+        intent.setAction(BROADCAST_PLUGIN_SYNC_PROGRESS);
+        intent.putExtra(EXTRA_PORTAL_ID, portalId);
+        intent.putExtra(EXTRA_CREDENTIAL_ID, credentialsId);
+        intent.putExtra(EXTRA_PROGRESS_EVENT, event);
+        intent.putExtra(EXTRA_PROGRESS_TASKS, tasks);
+        intent.putExtra(EXTRA_BYTES_READ, bytesRead);
+        intent.putExtra(EXTRA_ROWS_WRITTEN, rowsWritten);
+        context.sendBroadcast(intent);
+    }
+
     /**
      * Send broadcast to tell that portal test is done. Extra information contains results.
      * <p>
@@ -0,0 +1,314 @@
+package cz.maresmar.sfm.provider;
+
+import android.content.ContentValues;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary stream of {@link ContentValues} used for streaming inserts to provider
+ * (see {@link PublicProviderContract#METHOD_STREAM_INSERT})
+ * <p>
+ * Stream starts with {@link #MAGIC} and {@link #VERSION} followed by records. Each record is
+ * prefixed with its length in bytes and contains number of columns and the columns. Column name is
+ * sent only at its first occurrence, later it's referenced by its index. The stream ends with
+ * zero length record, so truncated stream (eg. when the writer crashes) could be recognized.
+ * </p>
+ */
+public final class ContentValuesStream {
+
+    // To prevent someone from accidentally instantiating the this class,
+    // make the constructor private.
+    private ContentValuesStream() {
+    }
+
+    public static final int MAGIC = 0x53464D56;
+    public static final int VERSION = 1;
+    public static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_BYTES = 7;
+
+    /**
+     * Writes {@link ContentValues} records to stream
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream mOut;
+        private final ByteArrayOutputStream mRecordBuffer = new ByteArrayOutputStream(256);
+        private final DataOutputStream mRecord = new DataOutputStream(mRecordBuffer);
+        private final Map<String, Integer> mColumns = new HashMap<>();
+        private final List<String> mRecordColumns = new ArrayList<>();
+
+        private boolean mFinished = false;
+
+        /**
+         * Creates new writer and writes stream header
+         *
+         * @param out Output stream (it should be buffered)
+         * @throws IOException If header cannot be written
+         */
+        public Writer(@NonNull OutputStream out) throws IOException {
+            mOut = new DataOutputStream(out);
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(VERSION);
+        }
+
+        /**
+         * Writes one record to stream
+         *
+         * @param values Values to be written
+         * @throws IOException If the record cannot be written
+         */
+        public void write(@NonNull ContentValues values) throws IOException {
+            if (mFinished) {
+                throw new IllegalStateException("Stream is already finished");
+            }
+
+            mRecordBuffer.reset();
+            mRecordColumns.clear();
+            mRecord.writeShort(values.size());
+            for (Map.Entry<String, Object> column : values.valueSet()) {
+                writeColumnName(column.getKey());
+                writeValue(column.getValue());
+            }
+            mRecord.flush();
+
+            if (mRecordBuffer.size() > MAX_RECORD_SIZE) {
+                throw new IllegalArgumentException("Record is too big (" + mRecordBuffer.size() + " B)");
+            }
+            // Columns of rejected record are unknown to reader
+            for (String name : mRecordColumns) {
+                mColumns.put(name, mColumns.size());
+            }
+            mOut.writeInt(mRecordBuffer.size());
+            mRecordBuffer.writeTo(mOut);
+        }
+
+        private void writeColumnName(@NonNull String name) throws IOException {
+            Integer index = mColumns.get(name);
+            if (index != null) {
+                mRecord.writeShort(index);
+            } else {
+                // New column is defined by index that is equal to count of known columns
+                mRecord.writeShort(mColumns.size() + mRecordColumns.size());
+                writeString(name);
+                mRecordColumns.add(name);
+            }
+        }
+
+        private void writeValue(@Nullable Object value) throws IOException {
+            if (value == null) {
+                mRecord.writeByte(TYPE_NULL);
+            } else if (value instanceof String) {
+                mRecord.writeByte(TYPE_STRING);
+                writeString((String) value);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                mRecord.writeByte(TYPE_INTEGER);
+                mRecord.writeInt(((Number) value).intValue());
+            } else if (value instanceof Long) {
+                mRecord.writeByte(TYPE_LONG);
+                mRecord.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                mRecord.writeByte(TYPE_DOUBLE);
+                mRecord.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                mRecord.writeByte(TYPE_FLOAT);
+                mRecord.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                mRecord.writeByte(TYPE_BOOLEAN);
+                mRecord.writeBoolean((Boolean) value);
+            } else if (value instanceof byte[]) {
+                mRecord.writeByte(TYPE_BYTES);
+                byte[] bytes = (byte[]) value;
+                mRecord.writeInt(bytes.length);
+                mRecord.write(bytes);
+            } else {
+                throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+            }
+        }
+
+        private void writeString(@NonNull String text) throws IOException {
+            // Not writeUTF() as it's limited to 64 KiB
+            byte[] bytes = text.getBytes(UTF_8);
+            mRecord.writeInt(bytes.length);
+            mRecord.write(bytes);
+        }
+
+        /**
+         * Writes end of stream mark and flushes the stream. Stream that is closed without finishing
+         * is considered as broken by reader.
+         *
+         * @throws IOException If the mark cannot be written
+         */
+        public void finish() throws IOException {
+            if (!mFinished) {
+                mOut.writeInt(0);
+                mOut.flush();
+                mFinished = true;
+            }
+        }
+
+        /**
+         * Closes the underlying stream
+         *
+         * @throws IOException If the stream cannot be closed
+         */
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    /**
+     * Reads {@link ContentValues} records from stream
+     */
+    public static class Reader implements Closeable {
+
+        private final DataInputStream mIn;
+        private final List<String> mColumns = new ArrayList<>();
+        private byte[] mRecordBuffer = new byte[256];
+
+        /**
+         * Creates new reader and checks stream header
+         *
+         * @param in Input stream (it should be buffered)
+         * @throws IOException If the header is missing or has unsupported version
+         */
+        public Reader(@NonNull InputStream in) throws IOException {
+            mIn = new DataInputStream(in);
+            if (mIn.readInt() != MAGIC) {
+                throw new IOException("Stream doesn't contain ContentValues records");
+            }
+            int version = mIn.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported stream version " + version);
+            }
+        }
+
+        /**
+         * Reads next record from stream
+         *
+         * @return Next record or {@code null} if the end of stream was reached
+         * @throws EOFException If the stream ends without end of stream mark
+         * @throws IOException  If the stream is broken
+         */
+        @Nullable
+        public ContentValues read() throws IOException {
+            int length = mIn.readInt();
+            if (length == 0) {
+                return null;
+            }
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                throw new IOException("Illegal record length " + length);
+            }
+
+            if (mRecordBuffer.length < length) {
+                mRecordBuffer = new byte[Math.max(length, mRecordBuffer.length * 2)];
+            }
+            mIn.readFully(mRecordBuffer, 0, length);
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(mRecordBuffer, 0, length));
+
+            int size = record.readUnsignedShort();
+            ContentValues values = new ContentValues(size);
+            for (int i = 0; i < size; i++) {
+                String column = readColumnName(record);
+                readValue(record, values, column);
+            }
+            return values;
+        }
+
+        private String readColumnName(@NonNull DataInputStream record) throws IOException {
+            int index = record.readUnsignedShort();
+            if (index < mColumns.size()) {
+                return mColumns.get(index);
+            } else if (index == mColumns.size()) {
+                String name = readString(record);
+                mColumns.add(name);
+                return name;
+            } else {
+                throw new IOException("Unknown column index " + index);
+            }
+        }
+
+        private static void readValue(@NonNull DataInputStream record, @NonNull ContentValues values,
+                                      @NonNull String column) throws IOException {
+            byte type = record.readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    values.putNull(column);
+                    break;
+                case TYPE_STRING:
+                    values.put(column, readString(record));
+                    break;
+                case TYPE_INTEGER:
+                    values.put(column, record.readInt());
+                    break;
+                case TYPE_LONG:
+                    values.put(column, record.readLong());
+                    break;
+                case TYPE_DOUBLE:
+                    values.put(column, record.readDouble());
+                    break;
+                case TYPE_FLOAT:
+                    values.put(column, record.readFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(column, record.readBoolean());
+                    break;
+                case TYPE_BYTES:
+                    values.put(column, readBytes(record));
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+
+        private static String readString(@NonNull DataInputStream record) throws IOException {
+            return new String(readBytes(record), UTF_8);
+        }
+
+        private static byte[] readBytes(@NonNull DataInputStream record) throws IOException {
+            int length = record.readInt();
+            // Record is already in memory so the length cannot be bigger than remaining bytes
+            if (length < 0 || length > record.available()) {
+                throw new IOException("Illegal value length " + length);
+            }
+            byte[] bytes = new byte[length];
+            record.readFully(bytes);
+            return bytes;
+        }
+
+        /**
+         * Closes the underlying stream
+         *
+         * @throws IOException If the stream cannot be closed
+         */
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+}
@@ -130,6 +130,23 @@ public class PublicProviderContract {
     public @interface MenuStatus {
     }
 
+    // Provider methods
+    /**
+     * Inserts records from {@link ContentValuesStream} to Uri from {@code arg} in chunks, each chunk
+     * in its own transaction. The insert isn't atomic, when the stream fails the chunks before stay
+     * inserted. The stream read side is sent in {@link #EXTRA_STREAM}, the number of inserted rows
+     * is returned in {@link #EXTRA_INSERTED_ROWS}. The caller needs write permission to the Uri.
+     */
+    public static final String METHOD_STREAM_INSERT = "stream-insert";
+    /**
+     * Extra of {@link #METHOD_STREAM_INSERT} with read side of pipe (ParcelFileDescriptor)
+     */
+    public static final String EXTRA_STREAM = "stream";
+    /**
+     * Result of {@link #METHOD_STREAM_INSERT} with number of inserted rows (int)
+     */
+    public static final String EXTRA_INSERTED_ROWS = "inserted-rows";
+
     static final String DOT = ".";
 
 
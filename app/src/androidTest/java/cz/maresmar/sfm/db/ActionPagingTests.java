@@ -0,0 +1,191 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import cz.maresmar.sfm.db.controller.ActionController;
+import cz.maresmar.sfm.db.controller.SimpleController;
+import cz.maresmar.sfm.provider.ProviderContract;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+import cz.maresmar.sfm.provider.schema.UriParams;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Tests of keyset paging of actions
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class ActionPagingTests {
+
+    private static final long CREDENTIAL_ID = 1;
+    private static final long PORTAL_ID = 1;
+    private static final int PAGE_SIZE = 50;
+    private static final String[] PROJECTION = new String[]{
+            ProviderContract.Action._ID,
+            ProviderContract.Action.LAST_CHANGE,
+            ProviderContract.Action.ME_PORTAL_NAME
+    };
+
+    private SQLiteDatabase db;
+    private ActionController controller;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(LastQueryCursorFactory.INSTANCE);
+        db.execSQL("PRAGMA foreign_keys=ON;");
+        DbHelper.createTables(db);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (1, 'User', '')");
+        db.execSQL("INSERT INTO " + PortalGroup.TABLE_NAME + " VALUES (1, 'Group', NULL)");
+        db.execSQL("INSERT INTO " + CredentialsGroup.TABLE_NAME + " VALUES (1, 'Adult', NULL)");
+        db.execSQL("INSERT INTO " + Portal.TABLE_NAME + " (" + Portal._ID + "," + Portal.COLUMN_NAME_PGID + "," +
+                Portal.COLUMN_NAME_NAME + "," + Portal.COLUMN_NAME_PLUGIN + ") VALUES (" + PORTAL_ID +
+                ", 1, 'Portal', 'plugin')");
+        db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + "," +
+                Credential.COLUMN_NAME_CGID + "," + Credential.COLUMN_NAME_UID + "," +
+                Credential.COLUMN_NAME_PGID + ") VALUES (" + CREDENTIAL_ID + ", 1, 1, 1)");
+
+        controller = new ActionController();
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    // Inserts payments, every 10 of them have the same last change
+    private void insertHistory(int from, int to) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = from; i < to; i++) {
+                values.put(FoodAction.COLUMN_NAME_FA_RELATIVE_ID, i);
+                values.put(FoodAction.COLUMN_NAME_CID, CREDENTIAL_ID);
+                values.put(FoodAction.COLUMN_NAME_SYNC_STATUS, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED);
+                values.put(FoodAction.COLUMN_NAME_ENTRY_TYPE, PublicProviderContract.ACTION_ENTRY_TYPE_PAYMENT);
+                values.put(FoodAction.COLUMN_NAME_DESCRIPTION, "Payment " + i);
+                values.put(FoodAction.COLUMN_NAME_PRICE, 100);
+                values.put(FoodAction.COLUMN_NAME_RESERVED_AMOUNT, 0);
+                values.put(FoodAction.COLUMN_NAME_OFFERED_AMOUNT, 0);
+                values.put(FoodAction.COLUMN_NAME_LAST_CHANGE, 1_500_000_000_000L + i / 10);
+                db.insertOrThrow(FoodAction.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.execSQL("ANALYZE");
+    }
+
+    private Cursor queryPage(Cursor previousPage) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (previousPage != null) {
+            selection = ActionController.buildPageSelection(null);
+            selectionArgs = ActionController.buildPageSelectionArgs(null,
+                    previousPage.getLong(1), previousPage.getLong(0));
+        }
+        return controller.query(db, PROJECTION.clone(), selection, selectionArgs,
+                ProviderContract.ACTION_PAGE_SORT_ORDER, new UriParams(), Integer.toString(PAGE_SIZE));
+    }
+
+    @Test
+    public void testPagingWithTies() {
+        int actions = 10 * PAGE_SIZE + 7;
+        insertHistory(0, actions);
+
+        Set<Long> ids = new HashSet<>();
+        long lastChange = Long.MAX_VALUE;
+        long lastId = Long.MAX_VALUE;
+        Cursor previousPage = null;
+        int pages = 0;
+        while (true) {
+            Cursor page = queryPage(previousPage);
+            if (previousPage != null) {
+                previousPage.close();
+            }
+            if (page.getCount() == 0) {
+                page.close();
+                break;
+            }
+
+            pages++;
+            while (page.moveToNext()) {
+                long id = page.getLong(0);
+                long change = page.getLong(1);
+                Assert.assertTrue("Pages aren't sorted", change < lastChange ||
+                        (change == lastChange && id < lastId));
+                Assert.assertTrue("Duplicate action " + id, ids.add(id));
+                lastChange = change;
+                lastId = id;
+            }
+            page.moveToLast();
+            previousPage = page;
+        }
+
+        Assert.assertEquals(actions, ids.size());
+        Assert.assertEquals(11, pages);
+    }
+
+    @Test
+    public void testFirstPageIsNotSorted() {
+        insertHistory(0, 10 * PAGE_SIZE);
+
+        // Last change index gives the page order, so the whole history isn't read and sorted
+        LastQueryCursorFactory.clear();
+        try (Cursor cursor = queryPage(null)) {
+            Assert.assertEquals(PAGE_SIZE, cursor.getCount());
+        }
+        String sql = LastQueryCursorFactory.takeLastSql();
+        Assert.assertNotNull(sql);
+        Assert.assertTrue(sql, sql.endsWith(" LIMIT " + PAGE_SIZE));
+
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null)) {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append("; ");
+            }
+        }
+        Assert.assertTrue(plan.toString(), plan.indexOf("FoodActionLastChangeIndex") >= 0);
+        Assert.assertTrue(plan.toString(), plan.indexOf("TEMP B-TREE") < 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testLimitNeedsSupport() {
+        new SimpleController(FoodAction.TABLE_NAME).query(db, null, null, null, null,
+                new UriParams(), Integer.toString(PAGE_SIZE));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import cz.maresmar.sfm.db.controller.ActionController;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Tests of sync results resolving in {@link ActionController} and benchmark that compares it with the
+ * original correlated subqueries over big action history (see logcat for results)
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class ActionResultsTests {
+
+    private static final String TAG = "ActionResultsTests";
+    private static final long USER_ID = 1;
+    private static final long PORTAL_ID = 1;
+    private static final long CREDENTIAL_ID = 1;
+    private static final int BENCHMARK_HISTORY = 10_000;
+    private static final int BENCHMARK_LOCAL = 200;
+    private static final int BENCHMARK_CONFLICTS = 50;
+
+    // Original queries that were run through provider, they are used as reference
+    private static final String SYNCED_ACTION_MATCH = "EXISTS ( SELECT * FROM " + FoodAction.TABLE_NAME +
+            " AS SyncedAct WHERE " +
+            "SyncedAct." + FoodAction.COLUMN_NAME_CID + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_CID + " AND " +
+            "SyncedAct." + FoodAction.COLUMN_NAME_ME_PID + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + " AND " +
+            "SyncedAct." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
+            "SyncedAct." + FoodAction.COLUMN_NAME_SYNC_STATUS + " == " + PublicProviderContract.ACTION_SYNC_STATUS_SYNCED + " AND ";
+    private static final String SAME_AMOUNTS =
+            "SyncedAct." + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " AND " +
+            "SyncedAct." + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + ")";
+    private static final String DIFFERENT_AMOUNTS =
+            "(SyncedAct." + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " != " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " OR " +
+            "SyncedAct." + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " != " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + "))";
+    private static final String IS_LOCAL = FoodAction.COLUMN_NAME_SYNC_STATUS + " == " +
+            PublicProviderContract.ACTION_SYNC_STATUS_LOCAL + " AND ";
+    private static final String LEGACY_FAILED = IS_LOCAL +
+            "((" + SYNCED_ACTION_MATCH + DIFFERENT_AMOUNTS + ") OR (" +
+            "NOT " + SYNCED_ACTION_MATCH + SAME_AMOUNTS + " AND (" +
+            FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " != 0 OR " + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " != 0)))";
+    private static final String LEGACY_DONE = IS_LOCAL +
+            "((" + SYNCED_ACTION_MATCH + SAME_AMOUNTS + ") OR (" +
+            "NOT " + SYNCED_ACTION_MATCH + DIFFERENT_AMOUNTS + " AND " +
+            FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " == 0 AND " + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " == 0))";
+    private static final String LEGACY_CONFLICT = FoodAction.COLUMN_NAME_SYNC_STATUS + " == " +
+            PublicProviderContract.ACTION_SYNC_STATUS_FAILED + " AND " +
+            "EXISTS ( SELECT * FROM " + FoodAction.TABLE_NAME + " AS LocAct WHERE " +
+            "LocAct." + FoodAction.COLUMN_NAME_CID + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_CID + " AND " +
+            "LocAct." + FoodAction.COLUMN_NAME_ME_PID + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + " AND " +
+            "LocAct." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " == " + FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
+            "LocAct." + FoodAction.COLUMN_NAME_SYNC_STATUS + " == " + PublicProviderContract.ACTION_SYNC_STATUS_LOCAL + ")";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("PRAGMA foreign_keys=ON;");
+        DbHelper.createTables(db);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (" + USER_ID + ", 'User', '')");
+        db.execSQL("INSERT INTO " + PortalGroup.TABLE_NAME + " VALUES (1, 'Group', NULL)");
+        db.execSQL("INSERT INTO " + CredentialsGroup.TABLE_NAME + " VALUES (1, 'Adult', NULL)");
+        db.execSQL("INSERT INTO " + Portal.TABLE_NAME + " (" + Portal._ID + "," + Portal.COLUMN_NAME_PGID + "," +
+                Portal.COLUMN_NAME_NAME + "," + Portal.COLUMN_NAME_PLUGIN + ") VALUES (" + PORTAL_ID +
+                ", 1, 'Portal', 'plugin')");
+        db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + "," +
+                Credential.COLUMN_NAME_CGID + "," + Credential.COLUMN_NAME_UID + "," +
+                Credential.COLUMN_NAME_PGID + ") VALUES (" + CREDENTIAL_ID + ", 1, " + USER_ID + ", 1)");
+        db.execSQL("INSERT INTO " + Food.TABLE_NAME + " VALUES (1, 'Food')");
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    private void insertMenuEntries(int count) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < count; i++) {
+                values.put(MenuEntry.COLUMN_NAME_RELATIVE_ID, i);
+                values.put(MenuEntry.COLUMN_NAME_PID, PORTAL_ID);
+                values.put(MenuEntry.COLUMN_NAME_FID, 1);
+                values.put(MenuEntry.COLUMN_NAME_LABEL, "L");
+                values.put(MenuEntry.COLUMN_NAME_DATE, 1_500_000_000_000L + i);
+                db.insertOrThrow(MenuEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void insertAction(int menuEntry, int syncStatus, int reserved, int offered) {
+        insertAction(CREDENTIAL_ID, menuEntry, syncStatus, reserved, offered);
+    }
+
+    private void insertAction(long credentialId, int menuEntry, int syncStatus, int reserved, int offered) {
+        ContentValues values = new ContentValues();
+        if (syncStatus == PublicProviderContract.ACTION_SYNC_STATUS_SYNCED) {
+            values.put(FoodAction.COLUMN_NAME_FA_RELATIVE_ID, menuEntry);
+        }
+        values.put(FoodAction.COLUMN_NAME_CID, credentialId);
+        values.put(FoodAction.COLUMN_NAME_SYNC_STATUS, syncStatus);
+        values.put(FoodAction.COLUMN_NAME_ENTRY_TYPE, PublicProviderContract.ACTION_ENTRY_TYPE_STANDARD);
+        values.put(FoodAction.COLUMN_NAME_ME_RELATIVE_ID, menuEntry);
+        values.put(FoodAction.COLUMN_NAME_ME_PID, PORTAL_ID);
+        values.put(FoodAction.COLUMN_NAME_PRICE, 25);
+        values.put(FoodAction.COLUMN_NAME_RESERVED_AMOUNT, reserved);
+        values.put(FoodAction.COLUMN_NAME_OFFERED_AMOUNT, offered);
+        values.put(FoodAction.COLUMN_NAME_LAST_CHANGE, 1_500_000_000_000L);
+        db.insertOrThrow(FoodAction.TABLE_NAME, null, values);
+    }
+
+    private long count(int syncStatus) {
+        return DatabaseUtils.queryNumEntries(db, FoodAction.TABLE_NAME,
+                FoodAction.COLUMN_NAME_SYNC_STATUS + " = " + syncStatus);
+    }
+
+    @Test
+    public void testResolving() {
+        insertMenuEntries(6);
+
+        // Synced as requested
+        insertAction(0, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED, 1, 0);
+        insertAction(0, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 1, 0);
+        // Portal didn't accept the change
+        insertAction(1, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED, 1, 0);
+        insertAction(1, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 2, 0);
+        // Order wasn't created
+        insertAction(2, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 1, 1);
+        // Cancelled order that is no more in portal
+        insertAction(3, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 0, 0);
+        // Old failed action replaced by new local one
+        insertAction(4, PublicProviderContract.ACTION_SYNC_STATUS_FAILED, 1, 0);
+        insertAction(4, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 0, 0);
+        // Old failed action without local one
+        insertAction(5, PublicProviderContract.ACTION_SYNC_STATUS_FAILED, 1, 0);
+
+        Assert.assertEquals(1, ActionController.deleteConflictFailedActions(db));
+        Assert.assertEquals(2, ActionController.markFailedActions(db, System.currentTimeMillis()));
+        Assert.assertEquals(3, ActionController.deleteDoneActions(db));
+
+        Assert.assertEquals(0, count(PublicProviderContract.ACTION_SYNC_STATUS_LOCAL));
+        Assert.assertEquals(3, count(PublicProviderContract.ACTION_SYNC_STATUS_FAILED));
+        Assert.assertEquals(2, count(PublicProviderContract.ACTION_SYNC_STATUS_SYNCED));
+    }
+
+    @Test
+    public void testCredentialsAreNotMixed() {
+        long otherCredentialId = CREDENTIAL_ID + 1;
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (" + (USER_ID + 1) + ", 'Other', '')");
+        db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + "," +
+                Credential.COLUMN_NAME_CGID + "," + Credential.COLUMN_NAME_UID + "," +
+                Credential.COLUMN_NAME_PGID + ") VALUES (" + otherCredentialId + ", 1, " + (USER_ID + 1) + ", 1)");
+        insertMenuEntries(2);
+
+        // Synced action of other user doesn't confirm the local one
+        insertAction(otherCredentialId, 0, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED, 1, 0);
+        insertAction(0, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 1, 0);
+        // Local action of other user doesn't conflict with the failed one
+        insertAction(1, PublicProviderContract.ACTION_SYNC_STATUS_FAILED, 1, 0);
+        insertAction(otherCredentialId, 1, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 0, 0);
+
+        long lastChange = 1_600_000_000_000L;
+        Assert.assertEquals(0, ActionController.deleteConflictFailedActions(db));
+        Assert.assertEquals(1, ActionController.markFailedActions(db, lastChange));
+        Assert.assertEquals(1, ActionController.deleteDoneActions(db));
+
+        // Failed action has time of the check
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, FoodAction.TABLE_NAME,
+                FoodAction.COLUMN_NAME_SYNC_STATUS + " = " + PublicProviderContract.ACTION_SYNC_STATUS_FAILED +
+                        " AND " + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " = 0 AND " +
+                        FoodAction.COLUMN_NAME_LAST_CHANGE + " = " + lastChange));
+        Assert.assertEquals(2, count(PublicProviderContract.ACTION_SYNC_STATUS_FAILED));
+        Assert.assertEquals(0, count(PublicProviderContract.ACTION_SYNC_STATUS_LOCAL));
+    }
+
+    private long measureLegacy(int[] counts) {
+        ContentValues values = new ContentValues();
+        values.put(FoodAction.COLUMN_NAME_SYNC_STATUS, PublicProviderContract.ACTION_SYNC_STATUS_FAILED);
+        values.put(FoodAction.COLUMN_NAME_LAST_CHANGE, System.currentTimeMillis());
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        db.beginTransaction();
+        try {
+            counts[0] = db.delete(FoodAction.TABLE_NAME, LEGACY_CONFLICT, null);
+            counts[1] = db.update(FoodAction.TABLE_NAME, values, LEGACY_FAILED, null);
+            counts[2] = db.delete(FoodAction.TABLE_NAME, LEGACY_DONE, null);
+        } finally {
+            // Rollback, so the data could be used again
+            db.endTransaction();
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private long measureJoin(int[] counts) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        db.beginTransaction();
+        try {
+            counts[0] = ActionController.deleteConflictFailedActions(db);
+            counts[1] = ActionController.markFailedActions(db, System.currentTimeMillis());
+            counts[2] = ActionController.deleteDoneActions(db);
+        } finally {
+            // Rollback, so the data could be used again
+            db.endTransaction();
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    @Test
+    public void benchmarkHistory() {
+        insertMenuEntries(BENCHMARK_HISTORY);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_HISTORY; i++) {
+                insertAction(i, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED, 1, 0);
+            }
+            // Half of local actions is synced, the other half failed
+            for (int i = 0; i < BENCHMARK_LOCAL; i++) {
+                insertAction(i, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL, 1 + i % 2, 0);
+            }
+            for (int i = 0; i < BENCHMARK_CONFLICTS; i++) {
+                insertAction(i, PublicProviderContract.ACTION_SYNC_STATUS_FAILED, 1, 0);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.execSQL("ANALYZE");
+
+        int[] legacyCounts = new int[3];
+        int[] joinCounts = new int[3];
+        long legacyNs = measureLegacy(legacyCounts);
+        long joinNs = measureJoin(joinCounts);
+
+        Log.i(TAG, String.format("Resolving %d local actions over %d synced actions: correlated subqueries " +
+                "%d us, join %d us", BENCHMARK_LOCAL, BENCHMARK_HISTORY, legacyNs / 1000, joinNs / 1000));
+        Assert.assertArrayEquals(legacyCounts, joinCounts);
+        Assert.assertArrayEquals(new int[]{BENCHMARK_CONFLICTS, BENCHMARK_LOCAL / 2, BENCHMARK_LOCAL / 2},
+                joinCounts);
+    }
+}
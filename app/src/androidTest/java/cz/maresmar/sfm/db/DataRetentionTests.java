@@ -0,0 +1,194 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+
+import cz.maresmar.sfm.db.controller.NameIdCache;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Tests of {@link DataRetention} policy
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataRetentionTests {
+
+    private static final long PORTAL_ID = 1;
+    private static final long CREDENTIAL_ID = 1;
+    private static final long CUTOFF = 1_500_000_000_000L;
+    private static final long OLD_DATE = CUTOFF - 1_000_000;
+    private static final long NEW_DATE = CUTOFF + 1_000_000;
+    private static final int OLD_ENTRIES = DataRetention.CHUNK_SIZE * 2 + 1;
+    private static final int NEW_ENTRY = OLD_ENTRIES;
+
+    private static final long OLD_FOOD = 1;
+    private static final long NEW_FOOD = 2;
+    private static final long ORDERED_FOOD = 3;
+    private static final long OLD_GROUP = 1;
+    private static final long NEW_GROUP = 2;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("PRAGMA foreign_keys=ON;");
+        DbHelper.createTables(db);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (1, 'User', '')");
+        db.execSQL("INSERT INTO " + PortalGroup.TABLE_NAME + " VALUES (1, 'Group', NULL)");
+        db.execSQL("INSERT INTO " + CredentialsGroup.TABLE_NAME + " VALUES (1, 'Adult', NULL)");
+        db.execSQL("INSERT INTO " + Portal.TABLE_NAME + " (" + Portal._ID + "," + Portal.COLUMN_NAME_PGID + "," +
+                Portal.COLUMN_NAME_NAME + "," + Portal.COLUMN_NAME_PLUGIN + ") VALUES (" + PORTAL_ID +
+                ", 1, 'Portal', 'plugin')");
+        db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + "," +
+                Credential.COLUMN_NAME_CGID + "," + Credential.COLUMN_NAME_UID + "," +
+                Credential.COLUMN_NAME_PGID + ") VALUES (" + CREDENTIAL_ID + ", 1, 1, 1)");
+        db.execSQL("INSERT INTO " + Food.TABLE_NAME + " VALUES (" + OLD_FOOD + ", 'Old food')");
+        db.execSQL("INSERT INTO " + Food.TABLE_NAME + " VALUES (" + NEW_FOOD + ", 'New food')");
+        db.execSQL("INSERT INTO " + Food.TABLE_NAME + " VALUES (" + ORDERED_FOOD + ", 'Ordered food')");
+        db.execSQL("INSERT INTO " + MenuGroup.TABLE_NAME + " VALUES (" + OLD_GROUP + ", 'Old group')");
+        db.execSQL("INSERT INTO " + MenuGroup.TABLE_NAME + " VALUES (" + NEW_GROUP + ", 'New group')");
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    private void insertMenuEntry(int relativeId, long foodId, long groupId, long date) {
+        ContentValues values = new ContentValues();
+        values.put(MenuEntry.COLUMN_NAME_RELATIVE_ID, relativeId);
+        values.put(MenuEntry.COLUMN_NAME_PID, PORTAL_ID);
+        values.put(MenuEntry.COLUMN_NAME_FID, foodId);
+        values.put(MenuEntry.COLUMN_NAME_MGID, groupId);
+        values.put(MenuEntry.COLUMN_NAME_LABEL, "L");
+        values.put(MenuEntry.COLUMN_NAME_DATE, date);
+        db.insertOrThrow(MenuEntry.TABLE_NAME, null, values);
+    }
+
+    private void insertAction(int menuEntry, int syncStatus) {
+        ContentValues values = new ContentValues();
+        if (syncStatus == PublicProviderContract.ACTION_SYNC_STATUS_SYNCED) {
+            values.put(FoodAction.COLUMN_NAME_FA_RELATIVE_ID, menuEntry);
+        }
+        values.put(FoodAction.COLUMN_NAME_CID, CREDENTIAL_ID);
+        values.put(FoodAction.COLUMN_NAME_SYNC_STATUS, syncStatus);
+        values.put(FoodAction.COLUMN_NAME_ENTRY_TYPE, PublicProviderContract.ACTION_ENTRY_TYPE_STANDARD);
+        values.put(FoodAction.COLUMN_NAME_ME_RELATIVE_ID, menuEntry);
+        values.put(FoodAction.COLUMN_NAME_ME_PID, PORTAL_ID);
+        values.put(FoodAction.COLUMN_NAME_PRICE, 25);
+        values.put(FoodAction.COLUMN_NAME_RESERVED_AMOUNT, 1);
+        values.put(FoodAction.COLUMN_NAME_OFFERED_AMOUNT, 0);
+        values.put(FoodAction.COLUMN_NAME_LAST_CHANGE, OLD_DATE);
+        db.insertOrThrow(FoodAction.TABLE_NAME, null, values);
+    }
+
+    @Test
+    public void testRetention() {
+        db.beginTransaction();
+        try {
+            // Old entry with local action is kept together with its food
+            insertMenuEntry(0, ORDERED_FOOD, OLD_GROUP, OLD_DATE);
+            insertAction(0, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL);
+            // Old entry with old synced action is deleted with the action
+            insertMenuEntry(1, OLD_FOOD, OLD_GROUP, OLD_DATE);
+            insertAction(1, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED);
+            for (int i = 2; i < OLD_ENTRIES; i++) {
+                insertMenuEntry(i, OLD_FOOD, OLD_GROUP, OLD_DATE + i);
+            }
+            // Old synced action of new entry is kept
+            insertMenuEntry(NEW_ENTRY, NEW_FOOD, NEW_GROUP, NEW_DATE);
+            insertAction(NEW_ENTRY, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Assert.assertEquals(1, DataRetention.deleteOldActions(db, CUTOFF));
+        Assert.assertEquals(OLD_ENTRIES - 1, DataRetention.deleteOldMenuEntries(db, CUTOFF));
+        Assert.assertEquals(1, DataRetention.deleteOrphanFoods(db));
+        Assert.assertEquals(0, DataRetention.deleteOrphanMenuGroups(db));
+
+        Assert.assertEquals(2, DatabaseUtils.queryNumEntries(db, FoodAction.TABLE_NAME));
+        Assert.assertEquals(2, DatabaseUtils.queryNumEntries(db, MenuEntry.TABLE_NAME));
+        Assert.assertEquals(0, DatabaseUtils.queryNumEntries(db, Food.TABLE_NAME,
+                Food._ID + " = " + OLD_FOOD));
+
+        // Nothing more to delete
+        Assert.assertEquals(0, DataRetention.deleteOldActions(db, CUTOFF));
+        Assert.assertEquals(0, DataRetention.deleteOldMenuEntries(db, CUTOFF));
+    }
+
+    @Test
+    public void testOrphanGroups() {
+        insertMenuEntry(0, OLD_FOOD, OLD_GROUP, OLD_DATE);
+        NameIdCache cache = NameIdCache.of(db);
+        cache.put(Food.TABLE_NAME, "New food", NEW_FOOD);
+        cache.put(MenuGroup.TABLE_NAME, "New group", NEW_GROUP);
+
+        // New group and new and ordered foods aren't used
+        Assert.assertEquals(1, DataRetention.deleteOrphanMenuGroups(db));
+        Assert.assertEquals(2, DataRetention.deleteOrphanFoods(db));
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, MenuEntry.TABLE_NAME,
+                MenuEntry.COLUMN_NAME_MGID + " = " + OLD_GROUP));
+
+        // Cached IDs of deleted rows mustn't be used by next sync
+        Assert.assertNull(cache.get(Food.TABLE_NAME, "New food"));
+        Assert.assertNull(cache.get(MenuGroup.TABLE_NAME, "New group"));
+    }
+
+    @Test
+    public void testKeepForever() {
+        insertMenuEntry(0, OLD_FOOD, OLD_GROUP, OLD_DATE);
+        insertAction(0, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED);
+
+        long cutoff = DataRetention.getCutoff(NEW_DATE, Calendar.MONTH, 0);
+        Assert.assertEquals(0, DataRetention.deleteOldActions(db, cutoff));
+        Assert.assertEquals(0, DataRetention.deleteOldMenuEntries(db, cutoff));
+    }
+
+    @Test
+    public void testCompact() {
+        for (int i = 0; i < OLD_ENTRIES; i++) {
+            insertMenuEntry(i, OLD_FOOD, OLD_GROUP, OLD_DATE + i);
+        }
+        DataRetention.compact(db);
+        Assert.assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+
+        DataRetention.deleteOldMenuEntries(db, CUTOFF);
+        Assert.assertTrue("Nothing was reclaimed", DataRetention.compact(db) > 0);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests of {@link DbHelper} journaling. It also measures latency of menu reads during heavy writes
+ * with and without write-ahead logging (see logcat for results)
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbJournalTests {
+
+    private static final String TAG = "DbJournalTests";
+    private static final String BENCHMARK_DB_NAME = "JournalBenchmark.db";
+    private static final int WRITE_BATCH_ROWS = 500;
+    private static final int READS = 100;
+
+    @Test
+    public void testWalEnabled() {
+        Context testContext = InstrumentationRegistry.getTargetContext();
+        DbHelper helper = new DbHelper(testContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        String journalMode = DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null);
+        Assert.assertEquals("wal", journalMode.toLowerCase());
+
+        helper.close();
+    }
+
+    @Test
+    public void testReadDoesNotWaitForWriter() throws InterruptedException {
+        Context testContext = InstrumentationRegistry.getTargetContext();
+        DbHelper helper = new DbHelper(testContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        String countQuery = "SELECT COUNT(*) FROM " + DbContract.Food.TABLE_NAME +
+                " WHERE " + DbContract.Food.COLUMN_NAME_NAME + " = '" + TAG + "'";
+
+        // Writer keeps transaction open until the read is done, the row is never committed
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch readDone = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            db.beginTransaction();
+            try {
+                db.execSQL("INSERT INTO " + DbContract.Food.TABLE_NAME + " (" +
+                        DbContract.Food.COLUMN_NAME_NAME + ") VALUES ('" + TAG + "')");
+                written.countDown();
+                readDone.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                db.endTransaction();
+            }
+        });
+        writer.start();
+
+        try {
+            Assert.assertTrue(written.await(10, TimeUnit.SECONDS));
+            long count = DatabaseUtils.longForQuery(helper.getReadableDatabase(), countQuery, null);
+
+            // Reader wasn't blocked until writer gave up and it doesn't see uncommitted row
+            Assert.assertTrue(writer.isAlive());
+            Assert.assertEquals(0, count);
+        } finally {
+            readDone.countDown();
+            writer.join();
+        }
+
+        Assert.assertEquals(0, DatabaseUtils.longForQuery(db, countQuery, null));
+        helper.close();
+    }
+
+    @Test
+    public void benchmarkReadsDuringSync() throws InterruptedException {
+        long rollbackLatency = measureReadLatency(false);
+        long walLatency = measureReadLatency(true);
+
+        Log.i(TAG, "Average menu read latency during writes: rollback journal " + rollbackLatency +
+                " us, WAL " + walLatency + " us");
+    }
+
+    private long measureReadLatency(boolean wal) throws InterruptedException {
+        Context testContext = InstrumentationRegistry.getTargetContext();
+        File file = testContext.getDatabasePath(BENCHMARK_DB_NAME);
+        SQLiteDatabase.deleteDatabase(file);
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        if (wal) {
+            db.enableWriteAheadLogging();
+        }
+        DbHelper.createTables(db);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+        db.execSQL("INSERT INTO " + DbContract.Food.TABLE_NAME + " (" + DbContract.Food._ID + "," +
+                DbContract.Food.COLUMN_NAME_NAME + ") VALUES (1, 'Food')");
+
+        // Simulates sync that writes menu in big transactions
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " +
+                    DbContract.MenuEntry.TABLE_NAME + " (" + DbContract.MenuEntry.COLUMN_NAME_RELATIVE_ID +
+                    "," + DbContract.MenuEntry.COLUMN_NAME_PID + "," + DbContract.MenuEntry.COLUMN_NAME_FID +
+                    "," + DbContract.MenuEntry.COLUMN_NAME_LABEL + "," + DbContract.MenuEntry.COLUMN_NAME_DATE +
+                    ") VALUES (?, 1, 1, 'L', ?)");
+            int i = 0;
+            while (running.get()) {
+                db.beginTransaction();
+                try {
+                    for (int j = 0; j < WRITE_BATCH_ROWS; j++, i++) {
+                        statement.bindLong(1, i % 5000);
+                        statement.bindLong(2, 1_500_000_000_000L + i % 100);
+                        statement.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            statement.close();
+        });
+        writer.start();
+
+        long total = 0;
+        for (int i = 0; i < READS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            try (Cursor cursor = db.rawQuery("SELECT * FROM " + DbContract.MenuEntry.TABLE_NAME +
+                    " WHERE " + DbContract.MenuEntry.COLUMN_NAME_DATE + " = 1500000000042", null)) {
+                // Each of 5000 relative IDs has always one of 100 dates, so readers never see more
+                Assert.assertTrue(cursor.getCount() <= 5000 / 100);
+            }
+            total += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        running.set(false);
+        writer.join();
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+
+        return total / READS / 1000;
+    }
+}
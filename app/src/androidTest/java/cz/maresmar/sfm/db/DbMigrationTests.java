@@ -0,0 +1,345 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import cz.maresmar.sfm.db.controller.ActionController;
+import cz.maresmar.sfm.db.controller.DayController;
+import cz.maresmar.sfm.db.controller.MenuEntryController;
+import cz.maresmar.sfm.provider.ProviderContract;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+import cz.maresmar.sfm.provider.schema.UriParams;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Tests of {@link DbHelper} migrations. It also prints query plans and timings of the menu, day and
+ * sync results queries (run through {@link MenuEntryController}, {@link DayController} and
+ * {@link ActionController}) on big database without and with migration indexes (see logcat for results)
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbMigrationTests {
+
+    private static final String TAG = "DbMigrationTests";
+    private static final int MENU_ENTRIES = 20_000;
+    private static final int PORTALS = 10;
+    private static final int USERS = 5;
+    private static final int DAYS = 200;
+    private static final int LOCAL_ACTION_EACH = 50;
+    private static final long FIRST_DATE = 1_500_000_000_000L;
+    private static final long USER_ID = 3;
+    private static final long DATE = FIRST_DATE + DAYS / 2;
+    private static final int REPEATS = 20;
+    private static final String COMMA = ",";
+
+    // Indexes created by migrations, they are dropped to get plans of the same queries without them
+    private static final String[] MIGRATION_INDEXES = new String[]{
+            "MenuEntryDateIndex",
+            "FoodActionCredentialIndex",
+            "FoodActionMenuEntryIndex",
+            "GroupMenuEntryPortalIndex",
+            "UserMenuEntryUserIndex",
+            "UserMenuEntryMenuIndex",
+            "FoodActionSyncStatusIndex",
+            "FoodActionLastChangeIndex"
+    };
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void init() {
+        // Cursor factory tells the final SQL of controller queries
+        db = SQLiteDatabase.create(LastQueryCursorFactory.INSTANCE);
+        DbHelper.createTables(db);
+        fillDatabase();
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    private void fillDatabase() {
+        db.beginTransaction();
+        try {
+            db.execSQL("INSERT INTO " + PortalGroup.TABLE_NAME + " VALUES (1, 'Group', NULL)");
+            db.execSQL("INSERT INTO " + CredentialsGroup.TABLE_NAME + " VALUES (1, 'Adult', NULL)");
+            db.execSQL("INSERT INTO " + Food.TABLE_NAME + " (" + Food._ID + COMMA + Food.COLUMN_NAME_NAME +
+                    ") VALUES (1, 'Food')");
+            for (int i = 1; i <= PORTALS; i++) {
+                db.execSQL("INSERT INTO " + Portal.TABLE_NAME + " (" + Portal._ID + COMMA + Portal.COLUMN_NAME_PGID +
+                        COMMA + Portal.COLUMN_NAME_NAME + COMMA + Portal.COLUMN_NAME_PLUGIN + ") VALUES (" + i +
+                        ", 1, 'Portal " + i + "', 'plugin')");
+            }
+            // Each user has one credential with the same ID
+            for (int i = 1; i <= USERS; i++) {
+                db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (" + i + ", 'User " + i + "', '')");
+                db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + COMMA +
+                        Credential.COLUMN_NAME_CGID + COMMA + Credential.COLUMN_NAME_UID + COMMA +
+                        Credential.COLUMN_NAME_PGID + ") VALUES (" + i + ", 1, " + i + ", 1)");
+            }
+
+            SQLiteStatement menuStatement = db.compileStatement("INSERT INTO " + MenuEntry.TABLE_NAME +
+                    " (" + MenuEntry.COLUMN_NAME_RELATIVE_ID + COMMA + MenuEntry.COLUMN_NAME_PID + COMMA +
+                    MenuEntry.COLUMN_NAME_FID + COMMA + MenuEntry.COLUMN_NAME_LABEL + COMMA +
+                    MenuEntry.COLUMN_NAME_DATE + ") VALUES (?, ?, 1, 'L', ?)");
+            SQLiteStatement groupStatement = db.compileStatement("INSERT INTO " + GroupMenuEntry.TABLE_NAME +
+                    " (" + GroupMenuEntry.COLUMN_NAME_CGID + COMMA + GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID +
+                    COMMA + GroupMenuEntry.COLUMN_NAME_ME_PID + COMMA + GroupMenuEntry.COLUMN_NAME_PRICE +
+                    COMMA + GroupMenuEntry.COLUMN_NAME_STATUS + ") VALUES (1, ?, ?, 100, 0)");
+            SQLiteStatement actionStatement = db.compileStatement("INSERT INTO " + FoodAction.TABLE_NAME +
+                    " (" + FoodAction.COLUMN_NAME_FA_RELATIVE_ID + COMMA + FoodAction.COLUMN_NAME_CID + COMMA +
+                    FoodAction.COLUMN_NAME_SYNC_STATUS + COMMA + FoodAction.COLUMN_NAME_ENTRY_TYPE + COMMA +
+                    FoodAction.COLUMN_NAME_ME_RELATIVE_ID + COMMA + FoodAction.COLUMN_NAME_ME_PID + COMMA +
+                    FoodAction.COLUMN_NAME_PRICE + COMMA + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + COMMA +
+                    FoodAction.COLUMN_NAME_OFFERED_AMOUNT + ") VALUES (?, ?, ?, " +
+                    PublicProviderContract.ACTION_ENTRY_TYPE_STANDARD + ", ?, ?, 100, ?, 0)");
+            try {
+                for (int i = 0; i < MENU_ENTRIES; i++) {
+                    long portalId = i % PORTALS + 1;
+                    long relativeId = i / PORTALS;
+                    long credentialId = i % USERS + 1;
+
+                    menuStatement.bindLong(1, relativeId);
+                    menuStatement.bindLong(2, portalId);
+                    menuStatement.bindLong(3, FIRST_DATE + (i % DAYS));
+                    menuStatement.executeInsert();
+
+                    groupStatement.bindLong(1, relativeId);
+                    groupStatement.bindLong(2, portalId);
+                    groupStatement.executeInsert();
+
+                    // Synced history
+                    actionStatement.bindLong(1, i);
+                    actionStatement.bindLong(2, credentialId);
+                    actionStatement.bindLong(3, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED);
+                    actionStatement.bindLong(4, relativeId);
+                    actionStatement.bindLong(5, portalId);
+                    actionStatement.bindLong(6, 1);
+                    actionStatement.executeInsert();
+
+                    // Few local actions, half of them is done and half of them failed
+                    if (i % LOCAL_ACTION_EACH == 0) {
+                        actionStatement.bindNull(1);
+                        actionStatement.bindLong(3, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL);
+                        actionStatement.bindLong(6, (i % (2 * LOCAL_ACTION_EACH) == 0) ? 1 : 2);
+                        actionStatement.executeInsert();
+                    }
+                }
+            } finally {
+                menuStatement.close();
+                groupStatement.close();
+                actionStatement.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void migrate() {
+        db.beginTransaction();
+        try {
+            DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private String explain(String query, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args)) {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append("; ");
+                }
+                plan.append(cursor.getString(detailIndex));
+            }
+        }
+        return plan.toString();
+    }
+
+    private static long measure(Runnable query) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < REPEATS; i++) {
+            query.run();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / REPEATS / 1000;
+    }
+
+    private static int readAll(Cursor cursor) {
+        try {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @NonNull
+    private static UriParams userParams() {
+        // The same params as /user/#/menu and /user/#/day Uris add
+        UriParams params = new UriParams();
+        params.add(Credential.COLUMN_NAME_UID, USER_ID);
+        return params;
+    }
+
+    private Cursor queryMenu() {
+        // Menu of one day as shown by day menu
+        String[] projection = new String[]{
+                ProviderContract.MenuEntry._ID,
+                ProviderContract.MenuEntry.DATE,
+                ProviderContract.MenuEntry.TEXT,
+                ProviderContract.MenuEntry.PRICE,
+                ProviderContract.MenuEntry.SYNCED_RESERVED_AMOUNT,
+                ProviderContract.MenuEntry.LOCAL_RESERVED_AMOUNT,
+                ProviderContract.MenuEntry.PORTAL_ID
+        };
+        return new MenuEntryController().query(db, projection,
+                ProviderContract.MenuEntry.DATE + " = " + DATE, null, null, userParams());
+    }
+
+    private Cursor queryDays() {
+        // Upcoming days as shown by portal menu
+        String[] projection = new String[]{
+                ProviderContract.Day._ID,
+                ProviderContract.Day.DATE
+        };
+        return new DayController().query(db, projection,
+                ProviderContract.Day.DATE + " >= " + DATE, null, null, userParams());
+    }
+
+    private void checkActionResults() {
+        // Rolled back so each run works with the same actions
+        db.beginTransaction();
+        try {
+            ActionController.deleteConflictFailedActions(db);
+            ActionController.markFailedActions(db, System.currentTimeMillis());
+            ActionController.deleteDoneActions(db);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private String controllerPlan(Cursor cursor) {
+        readAll(cursor);
+        String sql = LastQueryCursorFactory.takeLastSql();
+        Assert.assertNotNull(sql);
+        return explain(sql, new String[]{Long.toString(USER_ID)});
+    }
+
+    /**
+     * Logs plans and timings of the queries
+     *
+     * @return Plans of menu query, day query and check results selections (in this order)
+     */
+    private String[] report(String stage) {
+        String[] selections = ActionController.getCheckResultsSelections();
+        String[] plans = new String[2 + selections.length];
+
+        plans[0] = controllerPlan(queryMenu());
+        Log.i(TAG, stage + " menu [" + measure(() -> readAll(queryMenu())) + " us] -> " + plans[0]);
+
+        plans[1] = controllerPlan(queryDays());
+        Log.i(TAG, stage + " days [" + measure(() -> readAll(queryDays())) + " us] -> " + plans[1]);
+
+        for (int i = 0; i < selections.length; i++) {
+            plans[2 + i] = explain("SELECT " + FoodAction._ID + " FROM " + FoodAction.TABLE_NAME +
+                    " WHERE " + selections[i], null);
+            Log.i(TAG, stage + " check results " + i + " -> " + plans[2 + i]);
+        }
+        Log.i(TAG, stage + " check results [" + measure(this::checkActionResults) + " us]");
+
+        return plans;
+    }
+
+    private static int countScans(String plan) {
+        int count = 0;
+        for (String detail : plan.split("; ")) {
+            if (detail.startsWith("SCAN")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testMigrationUsesIndexes() {
+        migrate();
+        int menuCount = readAll(queryMenu());
+        int dayCount = readAll(queryDays());
+
+        // Same queries without indexes added by migrations
+        for (String index : MIGRATION_INDEXES) {
+            db.execSQL("DROP INDEX " + index);
+        }
+        db.execSQL("ANALYZE");
+        report("Without indexes");
+
+        // Migrations are repeatable so they recreate the dropped indexes
+        migrate();
+        String[] plans = report("v" + DbHelper.DATABASE_VERSION);
+
+        Assert.assertTrue(plans[0], plans[0].contains("UserMenuEntryUserIndex"));
+        Assert.assertTrue(plans[1], plans[1].contains("UserMenuEntryUserIndex"));
+        // Actions are joined using indexes, only the outer table could be scanned
+        for (int i = 2; i < plans.length; i++) {
+            Assert.assertTrue(plans[i], countScans(plans[i]) <= 1);
+        }
+
+        // Indexes don't change the results
+        Assert.assertEquals(menuCount, readAll(queryMenu()));
+        Assert.assertEquals(dayCount, readAll(queryDays()));
+        // All users have credential in the only portal group so they see whole menu
+        Assert.assertEquals(MENU_ENTRIES / DAYS, menuCount);
+        Assert.assertEquals(DAYS / 2, dayCount);
+    }
+
+    @Test
+    public void testMigrationIsRepeatable() {
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMissingMigration() {
+        DbHelper.migrate(db, DbHelper.DATABASE_VERSION, DbHelper.DATABASE_VERSION + 1);
+    }
+}
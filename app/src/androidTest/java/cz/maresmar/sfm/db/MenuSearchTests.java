@@ -0,0 +1,158 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import cz.maresmar.sfm.db.controller.MenuEntryController;
+import cz.maresmar.sfm.db.controller.SimpleMenuEntryController;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+import cz.maresmar.sfm.provider.schema.UriParams;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Tests of {@link MenuSearchTable} index
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class MenuSearchTests {
+
+    private static final long PORTAL_ID = 1;
+    private static final long USER_ID = 1;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("PRAGMA foreign_keys=ON;");
+        DbHelper.createTables(db);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+
+        db.execSQL("INSERT INTO " + PortalGroup.TABLE_NAME + " VALUES (1, 'Group', NULL)");
+        db.execSQL("INSERT INTO " + Portal.TABLE_NAME + " (" + Portal._ID + "," + Portal.COLUMN_NAME_PGID + "," +
+                Portal.COLUMN_NAME_NAME + "," + Portal.COLUMN_NAME_PLUGIN + ") VALUES (" + PORTAL_ID +
+                ", 1, 'Portal', 'plugin')");
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    private static ContentValues menuEntry(int relativeId, String text, String group) {
+        ContentValues values = new ContentValues();
+        values.put(MenuEntry.COLUMN_NAME_RELATIVE_ID, relativeId);
+        values.put(MenuEntry.COLUMN_NAME_PID, PORTAL_ID);
+        values.put(PublicProviderContract.MenuEntry.TEXT, text);
+        values.put(PublicProviderContract.MenuEntry.GROUP, group);
+        values.put(MenuEntry.COLUMN_NAME_LABEL, "L");
+        values.put(MenuEntry.COLUMN_NAME_DATE, 1_500_000_000_000L);
+        return values;
+    }
+
+    private long countMatches(String table, String query) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + table + " WHERE " + table +
+                " MATCH ?", new String[]{MenuSearchTable.buildMatchQuery(query)});
+    }
+
+    @Test
+    public void testMatchQuery() {
+        Assert.assertEquals("svickova na smetane", MenuSearchTable.normalize("Svíčková na SMETANĚ"));
+        Assert.assertEquals("svick* kned*", MenuSearchTable.buildMatchQuery(" Svíčk, kned-"));
+        Assert.assertEquals("or* not*", MenuSearchTable.buildMatchQuery("OR \"NOT\""));
+        Assert.assertNull(MenuSearchTable.buildMatchQuery(" *-\" "));
+    }
+
+    @Test
+    public void testIndexMaintenance() {
+        new SimpleMenuEntryController().bulkInsert(db, new ContentValues[]{
+                menuEntry(1, "Svíčková na smetaně", "Hlavní jídla"),
+                menuEntry(2, "Kuře na paprice", "Hlavní jídla"),
+                menuEntry(3, "Česnečka", "Polévky")
+        });
+
+        Assert.assertEquals(3, DatabaseUtils.queryNumEntries(db, FoodSearch.TABLE_NAME));
+        Assert.assertEquals(2, DatabaseUtils.queryNumEntries(db, MenuGroupSearch.TABLE_NAME));
+        Assert.assertEquals(2, countMatches(FoodSearch.TABLE_NAME, "na"));
+        Assert.assertEquals(1, countMatches(FoodSearch.TABLE_NAME, "cesn"));
+        Assert.assertEquals(1, countMatches(MenuGroupSearch.TABLE_NAME, "hlavni jid"));
+
+        // Deleted names disappear from index
+        db.delete(MenuEntry.TABLE_NAME, null, null);
+        db.delete(Food.TABLE_NAME, Food.COLUMN_NAME_NAME + " = ?", new String[]{"Česnečka"});
+        Assert.assertEquals(0, countMatches(FoodSearch.TABLE_NAME, "cesn"));
+
+        // Rebuild gives the same index
+        db.execSQL("DELETE FROM " + FoodSearch.TABLE_NAME);
+        MenuSearchTable.rebuild(db);
+        Assert.assertEquals(2, DatabaseUtils.queryNumEntries(db, FoodSearch.TABLE_NAME));
+        Assert.assertEquals(2, countMatches(FoodSearch.TABLE_NAME, "na"));
+    }
+
+    @Test
+    public void testRanking() {
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (" + USER_ID + ", 'User', '')");
+        db.execSQL("INSERT INTO " + CredentialsGroup.TABLE_NAME + " VALUES (1, 'Adult', NULL)");
+        db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + "," +
+                Credential.COLUMN_NAME_CGID + "," + Credential.COLUMN_NAME_UID + "," +
+                Credential.COLUMN_NAME_PGID + ") VALUES (1, 1, " + USER_ID + ", 1)");
+        new SimpleMenuEntryController().bulkInsert(db, new ContentValues[]{
+                menuEntry(1, "Svíčková na smetaně", "Hlavní jídla"),
+                menuEntry(2, "Svíčková", "Hlavní jídla"),
+                menuEntry(3, "Kuře", "Svíčkový den"),
+                menuEntry(4, "Kuře na paprice", "Polévky")
+        });
+
+        // Whole food name first, then longer food name and the menu group only match at the end
+        Assert.assertArrayEquals(new long[]{2, 1, 3}, search("svic", null));
+        Assert.assertArrayEquals(new long[]{2, 1}, search("svic", "2"));
+        Assert.assertArrayEquals(new long[]{1}, search("svic na", null));
+        Assert.assertArrayEquals(new long[0], search("knedlik", null));
+    }
+
+    private long[] search(String query, String limit) {
+        UriParams params = new UriParams();
+        params.add(Credential.COLUMN_NAME_UID, USER_ID);
+
+        String[] projection = new String[]{PublicProviderContract.MenuEntry.ME_RELATIVE_ID};
+        String[] selectionArgs = MenuEntryController.buildSearchSelectionArgs(null,
+                MenuSearchTable.buildMatchQuery(query));
+        try (Cursor cursor = new MenuEntryController(true).query(db, projection, null, selectionArgs,
+                MenuEntryController.buildSearchSortOrder(1_500_000_000_000L), params, limit)) {
+            long[] relativeIds = new long[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                relativeIds[cursor.getPosition()] = cursor.getLong(0);
+            }
+            return relativeIds;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import cz.maresmar.sfm.plugin.ActionContract;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Tests of {@link SyncFreshnessTable}
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncFreshnessTableTests {
+
+    private static final long PORTAL_ID = 1;
+    private static final long CREDENTIAL_ID = 1;
+    private static final long OTHER_CREDENTIAL_ID = 2;
+    private static final long TIME = 1_500_000_000_000L;
+
+    private static final int MENU_INDEX = Integer.numberOfTrailingZeros(ActionContract.TASK_MENU_SYNC);
+    private static final int HISTORY_INDEX = Integer.numberOfTrailingZeros(ActionContract.TASK_ACTION_HISTORY_SYNC);
+    private static final int CREDIT_INDEX = Integer.numberOfTrailingZeros(ActionContract.TASK_CREDIT_SYNC);
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("PRAGMA foreign_keys=ON;");
+        DbHelper.createTables(db);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (1, 'User', '')");
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (2, 'Other user', '')");
+        db.execSQL("INSERT INTO " + PortalGroup.TABLE_NAME + " VALUES (1, 'Group', NULL)");
+        db.execSQL("INSERT INTO " + CredentialsGroup.TABLE_NAME + " VALUES (1, 'Adult', NULL)");
+        db.execSQL("INSERT INTO " + Portal.TABLE_NAME + " (" + Portal._ID + "," + Portal.COLUMN_NAME_PGID + "," +
+                Portal.COLUMN_NAME_NAME + "," + Portal.COLUMN_NAME_PLUGIN + ") VALUES (" + PORTAL_ID +
+                ", 1, 'Portal', 'plugin')");
+        for (long credentialId : new long[]{CREDENTIAL_ID, OTHER_CREDENTIAL_ID}) {
+            db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + "," +
+                    Credential.COLUMN_NAME_CGID + "," + Credential.COLUMN_NAME_UID + "," +
+                    Credential.COLUMN_NAME_PGID + ") VALUES (" + credentialId + ", 1, " + credentialId + ", 1)");
+        }
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    @Test
+    public void testLastSuccesses() {
+        int count = SyncFreshnessTable.markSynced(db, PORTAL_ID, CREDENTIAL_ID,
+                ActionContract.TASK_MENU_SYNC | ActionContract.TASK_CREDIT_SYNC, TIME);
+        Assert.assertEquals(2, count);
+        SyncFreshnessTable.markSynced(db, PORTAL_ID, OTHER_CREDENTIAL_ID, ActionContract.TASK_ACTION_HISTORY_SYNC,
+                TIME + 1);
+
+        long[] lastSuccesses = SyncFreshnessTable.getLastSuccesses(db, PORTAL_ID, CREDENTIAL_ID);
+        Assert.assertEquals(ActionContract.PLUGIN_TASKS_LENGTH, lastSuccesses.length);
+        Assert.assertEquals(TIME, lastSuccesses[MENU_INDEX]);
+        Assert.assertEquals(TIME, lastSuccesses[CREDIT_INDEX]);
+        Assert.assertEquals(0, lastSuccesses[HISTORY_INDEX]);
+
+        // Menu is shared by portal, credit isn't
+        long[] otherSuccesses = SyncFreshnessTable.getLastSuccesses(db, PORTAL_ID, OTHER_CREDENTIAL_ID);
+        Assert.assertEquals(TIME, otherSuccesses[MENU_INDEX]);
+        Assert.assertEquals(0, otherSuccesses[CREDIT_INDEX]);
+        Assert.assertEquals(TIME + 1, otherSuccesses[HISTORY_INDEX]);
+
+        // Newer sync replaces the old time
+        SyncFreshnessTable.markSynced(db, PORTAL_ID, CREDENTIAL_ID, ActionContract.TASK_CREDIT_SYNC, TIME + 2);
+        Assert.assertEquals(TIME + 2, SyncFreshnessTable.getLastSuccesses(db, PORTAL_ID, CREDENTIAL_ID)[CREDIT_INDEX]);
+        Assert.assertEquals(3, DatabaseUtils.queryNumEntries(db, SyncFreshness.TABLE_NAME));
+    }
+
+    @Test
+    public void testDeletedWithCredential() {
+        SyncFreshnessTable.markSynced(db, PORTAL_ID, CREDENTIAL_ID, ActionContract.TASK_MENU_SYNC, TIME);
+        SyncFreshnessTable.markSynced(db, PORTAL_ID, OTHER_CREDENTIAL_ID, ActionContract.TASK_CREDIT_SYNC, TIME);
+
+        db.delete(Credential.TABLE_NAME, Credential._ID + " = " + CREDENTIAL_ID, null);
+
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, SyncFreshness.TABLE_NAME));
+        Assert.assertEquals(0, SyncFreshnessTable.getLastSuccesses(db, PORTAL_ID, OTHER_CREDENTIAL_ID)[MENU_INDEX]);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import cz.maresmar.sfm.provider.PublicProviderContract;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Tests that {@link UserMenuTable} is kept in sync with source tables
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class UserMenuTableTests {
+
+    private static final long USER_ID = 1;
+    private static final long PORTAL_ID = 1;
+    private static final long CREDENTIAL_ID = 1;
+    private static final long ME_RELATIVE_ID = 7;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("PRAGMA foreign_keys=ON;");
+        DbHelper.createTables(db);
+        DbHelper.migrate(db, 1, DbHelper.DATABASE_VERSION);
+
+        db.execSQL("INSERT INTO " + User.TABLE_NAME + " VALUES (" + USER_ID + ", 'User', '')");
+        db.execSQL("INSERT INTO " + PortalGroup.TABLE_NAME + " VALUES (1, 'Group', NULL)");
+        db.execSQL("INSERT INTO " + CredentialsGroup.TABLE_NAME + " VALUES (1, 'Adult', NULL)");
+        db.execSQL("INSERT INTO " + Portal.TABLE_NAME + " (" + Portal._ID + "," + Portal.COLUMN_NAME_PGID + "," +
+                Portal.COLUMN_NAME_NAME + "," + Portal.COLUMN_NAME_PLUGIN + ") VALUES (" + PORTAL_ID +
+                ", 1, 'Portal', 'plugin')");
+        db.execSQL("INSERT INTO " + Food.TABLE_NAME + " VALUES (1, 'Food')");
+        db.execSQL("INSERT INTO " + MenuEntry.TABLE_NAME + " (" + MenuEntry.COLUMN_NAME_RELATIVE_ID + "," +
+                MenuEntry.COLUMN_NAME_PID + "," + MenuEntry.COLUMN_NAME_FID + "," + MenuEntry.COLUMN_NAME_LABEL +
+                "," + MenuEntry.COLUMN_NAME_DATE + ") VALUES (" + ME_RELATIVE_ID + ", " + PORTAL_ID +
+                ", 1, 'L', 1500000000000)");
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    private long count() {
+        return DatabaseUtils.queryNumEntries(db, UserMenuEntry.TABLE_NAME,
+                UserMenuEntry.COLUMN_NAME_UID + " = " + USER_ID);
+    }
+
+    private long longForColumn(String column) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(" + column + ", -1) FROM " +
+                UserMenuEntry.TABLE_NAME, null);
+    }
+
+    private void insertCredential() {
+        db.execSQL("INSERT INTO " + Credential.TABLE_NAME + " (" + Credential._ID + "," +
+                Credential.COLUMN_NAME_CGID + "," + Credential.COLUMN_NAME_UID + "," +
+                Credential.COLUMN_NAME_PGID + ") VALUES (" + CREDENTIAL_ID + ", 1, " + USER_ID + ", 1)");
+    }
+
+    @Test
+    public void testCredentialChanges() {
+        Assert.assertEquals(0, count());
+
+        insertCredential();
+        Assert.assertEquals(1, count());
+
+        // Credit isn't in the menu
+        db.execSQL("UPDATE " + Credential.TABLE_NAME + " SET " + Credential.COLUMN_NAME_CREDIT + " = 10");
+        Assert.assertEquals(1, count());
+
+        db.execSQL("DELETE FROM " + Credential.TABLE_NAME);
+        Assert.assertEquals(0, count());
+    }
+
+    @Test
+    public void testMenuChanges() {
+        insertCredential();
+
+        db.execSQL("INSERT INTO " + GroupMenuEntry.TABLE_NAME + " (" + GroupMenuEntry.COLUMN_NAME_CGID + "," +
+                GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + "," + GroupMenuEntry.COLUMN_NAME_ME_PID + "," +
+                GroupMenuEntry.COLUMN_NAME_PRICE + "," + GroupMenuEntry.COLUMN_NAME_STATUS + ") VALUES (1, " +
+                ME_RELATIVE_ID + ", " + PORTAL_ID + ", 25, 0)");
+        Assert.assertEquals(25, longForColumn(UserMenuEntry.COLUMN_NAME_PRICE));
+
+        db.execSQL("INSERT INTO " + FoodAction.TABLE_NAME + " (" + FoodAction.COLUMN_NAME_CID + "," +
+                FoodAction.COLUMN_NAME_SYNC_STATUS + "," + FoodAction.COLUMN_NAME_ENTRY_TYPE + "," +
+                FoodAction.COLUMN_NAME_ME_RELATIVE_ID + "," + FoodAction.COLUMN_NAME_ME_PID + "," +
+                FoodAction.COLUMN_NAME_PRICE + "," + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + "," +
+                FoodAction.COLUMN_NAME_OFFERED_AMOUNT + ") VALUES (" + CREDENTIAL_ID + ", " +
+                PublicProviderContract.ACTION_SYNC_STATUS_LOCAL + ", 0, " + ME_RELATIVE_ID + ", " +
+                PORTAL_ID + ", 25, 2, 0)");
+        Assert.assertEquals(2, longForColumn(UserMenuEntry.COLUMN_NAME_LOCAL_RESERVED_AMOUNT));
+        Assert.assertEquals(-1, longForColumn(UserMenuEntry.COLUMN_NAME_SYNCED_RESERVED_AMOUNT));
+
+        db.execSQL("DELETE FROM " + FoodAction.TABLE_NAME);
+        Assert.assertEquals(-1, longForColumn(UserMenuEntry.COLUMN_NAME_LOCAL_RESERVED_AMOUNT));
+
+        // Portal delete cascades to menu entries
+        db.execSQL("DELETE FROM " + Portal.TABLE_NAME);
+        Assert.assertEquals(0, count());
+    }
+
+    @Test
+    public void testRebuild() {
+        insertCredential();
+        db.execSQL("DELETE FROM " + UserMenuEntry.TABLE_NAME);
+
+        UserMenuTable.rebuild(db);
+        Assert.assertEquals(1, count());
+    }
+
+    @Test
+    public void testTranslateColumns() {
+        Assert.assertEquals(UserMenuEntry.COLUMN_NAME_SYNCED_RESERVED_AMOUNT + " > 0",
+                UserMenuTable.translateColumns(PublicProviderContract.MenuEntry.SYNCED_RESERVED_AMOUNT + " > 0"));
+        Assert.assertEquals(UserMenuEntry.COLUMN_NAME_ME_ID + " = 5 AND " + UserMenuEntry.COLUMN_NAME_DATE + " = 1",
+                UserMenuTable.translateColumns(PublicProviderContract.MenuEntry._ID + " = 5 AND " +
+                        PublicProviderContract.MenuEntry.DATE + " = 1"));
+        Assert.assertNull(UserMenuTable.translateColumns(null));
+        // Literals and longer names aren't translated
+        String literal = "'" + PublicProviderContract.MenuEntry._ID + "' = X" + PublicProviderContract.MenuEntry._ID;
+        Assert.assertSame(literal, UserMenuTable.translateColumns(literal));
+    }
+
+    @Test
+    public void testUnusedColumnsDontRefresh() {
+        insertCredential();
+        db.execSQL("INSERT INTO " + FoodAction.TABLE_NAME + " (" + FoodAction.COLUMN_NAME_CID + "," +
+                FoodAction.COLUMN_NAME_SYNC_STATUS + "," + FoodAction.COLUMN_NAME_ENTRY_TYPE + "," +
+                FoodAction.COLUMN_NAME_ME_RELATIVE_ID + "," + FoodAction.COLUMN_NAME_ME_PID + "," +
+                FoodAction.COLUMN_NAME_PRICE + "," + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + "," +
+                FoodAction.COLUMN_NAME_OFFERED_AMOUNT + ") VALUES (" + CREDENTIAL_ID + ", " +
+                PublicProviderContract.ACTION_SYNC_STATUS_LOCAL + ", 0, " + ME_RELATIVE_ID + ", " +
+                PORTAL_ID + ", 25, 2, 0)");
+
+        // Only the updated row is changed (total changes include changes made by triggers)
+        Assert.assertEquals(1, changesOf("UPDATE " + FoodAction.TABLE_NAME + " SET " +
+                FoodAction.COLUMN_NAME_DESCRIPTION + " = 'Desc'"));
+        Assert.assertEquals(1, changesOf("UPDATE " + MenuEntry.TABLE_NAME + " SET " +
+                MenuEntry.COLUMN_NAME_LABEL + " = " + MenuEntry.COLUMN_NAME_LABEL));
+
+        // Used columns refresh the menu entry
+        Assert.assertTrue(changesOf("UPDATE " + FoodAction.TABLE_NAME + " SET " +
+                FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " = 3") > 1);
+        Assert.assertEquals(3, longForColumn(UserMenuEntry.COLUMN_NAME_LOCAL_RESERVED_AMOUNT));
+        Assert.assertTrue(changesOf("UPDATE " + MenuEntry.TABLE_NAME + " SET " +
+                MenuEntry.COLUMN_NAME_LABEL + " = 'New'") > 1);
+    }
+
+    private long changesOf(String sql) {
+        long before = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null);
+        db.execSQL(sql);
+        return DatabaseUtils.longForQuery(db, "SELECT total_changes()", null) - before;
+    }
+
+    @Test
+    public void testRecreateTriggers() {
+        UserMenuTable.recreateTriggers(db);
+        insertCredential();
+        Assert.assertEquals(1, count());
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, "sqlite_master",
+                "type = 'trigger' AND name = 'UserMenuEntryFAUpdate'"));
+    }
+}
@@ -89,4 +89,16 @@ public class MenuEntryControllerTests {
         nextId = SimpleMenuEntryController.findOrInsertFood(db, "testFood");
         Assert.assertEquals("Inserted new value on second try", entryId, nextId);
     }
+
+    @Test
+    public void testNameCache() {
+        NameIdCache cache = NameIdCache.of(db);
+        int hits = cache.hitCount();
+
+        long entryId = SimpleMenuEntryController.findOrInsertFood(db, "testCachedFood");
+        long nextId = SimpleMenuEntryController.findOrInsertFood(db, "testCachedFood");
+
+        Assert.assertEquals("Cache returned another ID", entryId, nextId);
+        Assert.assertEquals("Second lookup wasn't cached", hits + 1, cache.hitCount());
+    }
 }
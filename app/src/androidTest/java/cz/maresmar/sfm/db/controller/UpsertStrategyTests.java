@@ -0,0 +1,157 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db.controller;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests and micro-benchmark of {@link ViewController} upsert strategies (see logcat for results)
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class UpsertStrategyTests {
+
+    private static final String TAG = "UpsertStrategyTests";
+    private static final String TABLE = "Bench";
+    private static final String[] UNIQUE_COLUMNS = new String[]{"A", "B"};
+    private static final int BENCHMARK_ROWS = 2000;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + TABLE + " (_id INTEGER PRIMARY KEY, A INTEGER NOT NULL," +
+                " B INTEGER NOT NULL, V TEXT, UNIQUE (A, B))");
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    private static ContentValues row(int i, String value) {
+        ContentValues values = new ContentValues();
+        values.put("A", i % 10);
+        values.put("B", i);
+        values.put("V", value);
+        return values;
+    }
+
+    private void testStrategy(@ViewController.UpsertStrategy int strategy) {
+        long insertedId = ViewController.insertOrUpdate(db, TABLE, row(1, "first"), UNIQUE_COLUMNS, strategy);
+        long updatedId = ViewController.insertOrUpdate(db, TABLE, row(1, "second"), UNIQUE_COLUMNS, strategy);
+
+        Assert.assertEquals("Update changed the row ID", insertedId, updatedId);
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, TABLE));
+        Assert.assertEquals("second", DatabaseUtils.stringForQuery(db,
+                "SELECT V FROM " + TABLE + " WHERE _id = " + insertedId, null));
+    }
+
+    @Test
+    public void testSelectFirst() {
+        testStrategy(ViewController.UPSERT_SELECT_FIRST);
+    }
+
+    @Test
+    public void testOnConflict() {
+        testStrategy(ViewController.UPSERT_ON_CONFLICT);
+    }
+
+    private long findId(int i) {
+        return DatabaseUtils.longForQuery(db, "SELECT _id FROM " + TABLE + " WHERE A = ? AND B = ?",
+                new String[]{"" + (i % 10), "" + i});
+    }
+
+    @Test
+    public void testOnConflictReturnsChangedRowId() {
+        int strategy = ViewController.UPSERT_ON_CONFLICT;
+        long firstId = ViewController.insertOrUpdate(db, TABLE, row(1, "first"), UNIQUE_COLUMNS, strategy);
+        long secondId = ViewController.insertOrUpdate(db, TABLE, row(2, "second"), UNIQUE_COLUMNS, strategy);
+        Assert.assertEquals(findId(1), firstId);
+        Assert.assertEquals(findId(2), secondId);
+
+        // Update of older row must not return ID of the last inserted one
+        Assert.assertEquals(firstId, ViewController.insertOrUpdate(db, TABLE, row(1, "updated"),
+                UNIQUE_COLUMNS, strategy));
+
+        // Row with only unique columns doesn't update anything
+        ContentValues uniqueOnly = row(2, null);
+        uniqueOnly.remove("V");
+        Assert.assertEquals(secondId, ViewController.insertOrUpdate(db, TABLE, uniqueOnly,
+                UNIQUE_COLUMNS, strategy));
+        Assert.assertEquals(2, DatabaseUtils.queryNumEntries(db, TABLE));
+    }
+
+    private long measure(@ViewController.UpsertStrategy int strategy, String value) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_ROWS; i++) {
+                ViewController.insertOrUpdate(db, TABLE, row(i, value), UNIQUE_COLUMNS, strategy);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_ROWS;
+    }
+
+    private long measureBulk(@ViewController.UpsertStrategy int strategy, String value) {
+        ContentValues[] values = new ContentValues[BENCHMARK_ROWS];
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            values[i] = row(i, value);
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        ViewController.bulkInsertOrUpdate(db, TABLE, values, UNIQUE_COLUMNS, strategy);
+        return (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_ROWS;
+    }
+
+    @Test
+    public void benchmarkStrategies() {
+        int[] strategies = new int[]{ViewController.UPSERT_SELECT_FIRST, ViewController.UPSERT_ON_CONFLICT};
+        for (int strategy : strategies) {
+            db.delete(TABLE, null, null);
+            long insertNs = measure(strategy, "insert");
+            long updateNs = measure(strategy, "update");
+
+            db.delete(TABLE, null, null);
+            long bulkInsertNs = measureBulk(strategy, "insert");
+            long bulkUpdateNs = measureBulk(strategy, "update");
+
+            Log.i(TAG, String.format("Strategy %d (native upsert %b) per row: insert %d ns, " +
+                            "update %d ns, bulk insert %d ns, bulk update %d ns", strategy,
+                    ViewController.NATIVE_UPSERT_SUPPORTED, insertNs, updateNs, bulkInsertNs, bulkUpdateNs));
+            Assert.assertEquals(BENCHMARK_ROWS, DatabaseUtils.queryNumEntries(db, TABLE));
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.repository;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import cz.maresmar.sfm.db.LastQueryCursorFactory;
+import cz.maresmar.sfm.db.controller.SimpleController;
+import cz.maresmar.sfm.provider.schema.IdEndingUriSchema;
+
+/**
+ * Tests of {@link ContentRepository} dispatch and stats and micro-benchmark of its per-call overhead (Uri dispatch,
+ * params parsing and selection building) compared to direct SQLite calls (see logcat for results)
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContentRepositoryTests {
+
+    private static final String TAG = "ContentRepositoryTests";
+    private static final String AUTHORITY = "cz.maresmar.sfm.test";
+    private static final String TABLE = "Bench";
+    private static final int BENCHMARK_CALLS = 2000;
+    private static final long GROUP_ID = 7;
+
+    private SQLiteDatabase db;
+    private ContentRepository repository;
+    private Uri dirUri;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(LastQueryCursorFactory.INSTANCE);
+        db.execSQL("CREATE TABLE " + TABLE + " (_id INTEGER PRIMARY KEY, GID INTEGER NOT NULL, V TEXT, N)");
+
+        repository = new ContentRepository(InstrumentationRegistry.getTargetContext(), AUTHORITY);
+        repository.registerSchema(new IdEndingUriSchema("group/#/bench", TABLE + "._id", TABLE + ".GID"),
+                new ViewType("vnd.cz.maresmar.sfm.test.bench", new SimpleController(TABLE)),
+                new NotifyChangeListener());
+
+        dirUri = new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath("group")
+                .appendPath("" + GROUP_ID)
+                .appendPath("bench")
+                .build();
+    }
+
+    @After
+    public void finish() {
+        db.close();
+    }
+
+    private static ContentValues row(int i) {
+        ContentValues values = new ContentValues();
+        values.put("V", "value " + i);
+        return values;
+    }
+
+    @Test
+    public void testInsertAndQuery() {
+        Uri entryUri = repository.doInsert(db, dirUri, row(1));
+        Assert.assertEquals(dirUri.getPathSegments().size() + 1, entryUri.getPathSegments().size());
+
+        try (Cursor cursor = repository.doQuery(db, entryUri, new String[]{"GID", "V"}, null, null, null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals(GROUP_ID, cursor.getLong(0));
+            Assert.assertEquals("value 1", cursor.getString(1));
+        }
+
+        try (Cursor cursor = repository.doQuery(db, dirUri, null, "V = ?", new String[]{"value 2"}, null)) {
+            Assert.assertEquals(0, cursor.getCount());
+        }
+        Assert.assertEquals("vnd.android.cursor.item/vnd.cz.maresmar.sfm.test.bench",
+                repository.getMineType(entryUri));
+    }
+
+    @Test
+    public void testPrefixedValuesKeepTypes() {
+        // Column N has no affinity so it stores the type it gets
+        ContentValues values = new ContentValues();
+        values.put(TABLE + ".V", "prefixed");
+        values.put(TABLE + ".N", 5);
+        Uri entryUri = repository.doInsert(db, dirUri, values);
+
+        try (Cursor cursor = repository.doQuery(db, entryUri, new String[]{"V", "typeof(N)"}, null, null, null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals("prefixed", cursor.getString(0));
+            Assert.assertEquals("integer", cursor.getString(1));
+        }
+    }
+
+    @Test
+    public void testUriParamsAreNotShared() {
+        repository.doInsert(db, dirUri, row(1));
+        Uri otherGroupUri = new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath("group")
+                .appendPath("" + (GROUP_ID + 1))
+                .appendPath("bench")
+                .build();
+
+        // Each call parses its own group ID
+        try (Cursor cursor = repository.doQuery(db, otherGroupUri, null, null, null, null)) {
+            Assert.assertEquals(0, cursor.getCount());
+        }
+        try (Cursor cursor = repository.doQuery(db, dirUri, null, null, null, null)) {
+            Assert.assertEquals(1, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void testStats() {
+        repository.doInsert(db, dirUri, row(1));
+        repository.doInsert(db, dirUri, row(2));
+        repository.doQuery(db, dirUri, null, null, null, null).close();
+
+        Bundle stats = repository.getStats();
+        Bundle insertStats = stats.getBundle("group/#/bench insert");
+        Bundle queryStats = stats.getBundle("group/#/bench query");
+
+        Assert.assertNotNull(insertStats);
+        Assert.assertEquals(2, insertStats.getLong(QueryStats.KEY_COUNT));
+        Assert.assertNotNull(queryStats);
+        Assert.assertEquals(2, queryStats.getLong(QueryStats.KEY_ROWS));
+        Assert.assertEquals(QueryStats.BUCKETS_COUNT, queryStats.getLongArray(QueryStats.KEY_HISTOGRAM).length);
+        Assert.assertNull(stats.getBundle("group/#/bench delete"));
+
+        repository.resetStats();
+        Assert.assertTrue(repository.getStats().isEmpty());
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        Assert.assertEquals(0, QueryStats.getBucket(500_000));
+        Assert.assertEquals(1, QueryStats.getBucket(1_000_000));
+        Assert.assertEquals(2, QueryStats.getBucket(3_000_000));
+        Assert.assertEquals(QueryStats.BUCKETS_COUNT - 1, QueryStats.getBucket(60_000_000_000L));
+    }
+
+    @Test
+    public void testSlowQueryLog() {
+        // Every query is slow, it has to survive the EXPLAIN QUERY PLAN logging
+        repository.setSlowQueryThreshold(0);
+        repository.doInsert(db, dirUri, row(1));
+        try (Cursor cursor = repository.doQuery(db, dirUri, null, "V = ?", new String[]{"value 1"}, null)) {
+            Assert.assertEquals(1, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void benchmarkCallOverhead() {
+        // Warm up (and data for queries)
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            repository.doInsert(db, dirUri, row(i));
+        }
+
+        // Insert
+        long start = SystemClock.elapsedRealtimeNanos();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_CALLS; i++) {
+                ContentValues values = row(i);
+                values.put("GID", GROUP_ID);
+                db.insertOrThrow(TABLE, null, values);
+            }
+        } finally {
+            db.endTransaction();
+        }
+        long directInsertNs = (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_CALLS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_CALLS; i++) {
+                repository.doInsert(db, dirUri, row(i));
+            }
+        } finally {
+            db.endTransaction();
+        }
+        long repositoryInsertNs = (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_CALLS;
+
+        // Query
+        String[] projection = new String[]{"V"};
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 1; i <= BENCHMARK_CALLS; i++) {
+            try (Cursor cursor = db.query(TABLE, projection, "(_id = ?) AND (GID = ?)",
+                    new String[]{Long.toString(i), Long.toString(GROUP_ID)}, null, null, null)) {
+                cursor.moveToFirst();
+            }
+        }
+        long directQueryNs = (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_CALLS;
+
+        Uri[] entryUris = new Uri[BENCHMARK_CALLS + 1];
+        for (int i = 1; i <= BENCHMARK_CALLS; i++) {
+            entryUris[i] = dirUri.buildUpon().appendPath("" + i).build();
+        }
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 1; i <= BENCHMARK_CALLS; i++) {
+            try (Cursor cursor = repository.doQuery(db, entryUris[i], projection, null, null, null)) {
+                Assert.assertTrue(cursor.moveToFirst());
+                // Rows inserted in warm up have IDs from 1
+                Assert.assertEquals("value " + (i - 1), cursor.getString(0));
+            }
+        }
+        long repositoryQueryNs = (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_CALLS;
+
+        // Repository insert also includes change notification
+        Log.i(TAG, String.format("Per call: insert %d ns (direct %d ns, overhead %d ns), " +
+                        "query %d ns (direct %d ns, overhead %d ns)",
+                repositoryInsertNs, directInsertNs, repositoryInsertNs - directInsertNs,
+                repositoryQueryNs, directQueryNs, repositoryQueryNs - directQueryNs));
+    }
+}
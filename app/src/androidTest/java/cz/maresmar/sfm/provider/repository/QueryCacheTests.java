@@ -0,0 +1,295 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.repository;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import cz.maresmar.sfm.db.controller.SimpleController;
+import cz.maresmar.sfm.provider.schema.IdEndingUriSchema;
+
+/**
+ * Tests of {@link QueryCache} and its invalidation in {@link ContentRepository}
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryCacheTests {
+
+    private static final String AUTHORITY = "cz.maresmar.sfm.test";
+    private static final String TABLE = "Bench";
+
+    private SQLiteDatabase db;
+    private ContentRepository repository;
+
+    @Before
+    public void init() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + TABLE + " (_id INTEGER PRIMARY KEY, GID INTEGER NOT NULL, CID INTEGER, V TEXT)");
+
+        repository = new ContentRepository(InstrumentationRegistry.getTargetContext(), AUTHORITY);
+        ViewType viewType = new ViewType("vnd.cz.maresmar.sfm.test.bench", new SimpleController(TABLE));
+        repository.registerSchema(new IdEndingUriSchema("group/#/bench", TABLE + "._id", TABLE + ".GID"),
+                viewType, new NotifyChangeListener());
+        // The same table is reachable also through Uri without common prefix
+        repository.registerSchema(new IdEndingUriSchema("credential/#/bench", TABLE + "._id", TABLE + ".CID"),
+                viewType, new NotifyChangeListener());
+        repository.setQueryCacheSize(1000);
+    }
+
+    @After
+    public void finish() {
+        repository.setQueryCacheSize(0);
+        db.close();
+    }
+
+    private static Uri groupUri(long groupId) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath("group")
+                .appendPath("" + groupId)
+                .appendPath("bench")
+                .build();
+    }
+
+    private static Uri credentialUri(long credentialId) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath("credential")
+                .appendPath("" + credentialId)
+                .appendPath("bench")
+                .build();
+    }
+
+    private static ContentValues row(String value) {
+        ContentValues values = new ContentValues();
+        values.put("V", value);
+        return values;
+    }
+
+    private Bundle getCacheStats() {
+        Bundle stats = repository.getStats().getBundle(ContentRepository.STATS_QUERY_CACHE);
+        Assert.assertNotNull(stats);
+        return stats;
+    }
+
+    private int count(Uri uri) {
+        try (Cursor cursor = repository.doQuery(db, uri, new String[]{"V"}, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        repository.doInsert(db, groupUri(1), row("a"));
+
+        try (Cursor cursor = repository.doQuery(db, groupUri(1), new String[]{"V"}, null, null, null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals("a", cursor.getString(0));
+        }
+        try (Cursor cursor = repository.doQuery(db, groupUri(1), new String[]{"V"}, null, null, null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals("a", cursor.getString(0));
+        }
+        // Different query
+        count(groupUri(2));
+
+        Bundle stats = getCacheStats();
+        Assert.assertEquals(1, stats.getLong(QueryCache.KEY_HITS));
+        Assert.assertEquals(2, stats.getLong(QueryCache.KEY_MISSES));
+    }
+
+    @Test
+    public void testInvalidation() {
+        Assert.assertEquals(0, count(groupUri(1)));
+        Assert.assertEquals(0, count(groupUri(2)));
+
+        repository.doInsert(db, groupUri(1), row("a"));
+
+        // Every write invalidates all results
+        Assert.assertEquals(1, count(groupUri(1)));
+        Assert.assertEquals(0, count(groupUri(2)));
+
+        Bundle stats = getCacheStats();
+        Assert.assertEquals(0, stats.getLong(QueryCache.KEY_HITS));
+        Assert.assertEquals(2, stats.getLong(QueryCache.KEY_INVALIDATIONS));
+        Assert.assertEquals(0, stats.getLong(QueryCache.KEY_EVICTIONS));
+    }
+
+    @Test
+    public void testWriteThroughOtherUri() {
+        Assert.assertEquals(0, count(credentialUri(5)));
+
+        // Written through Uri that shares no path with the cached one
+        ContentValues values = row("a");
+        values.put("CID", 5);
+        repository.doInsert(db, groupUri(1), values);
+        Assert.assertEquals(1, count(credentialUri(5)));
+
+        values.put("V", "b");
+        repository.doUpdate(db, groupUri(1), values, null, null);
+        try (Cursor cursor = repository.doQuery(db, credentialUri(5), new String[]{"V"}, null, null, null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals("b", cursor.getString(0));
+        }
+
+        repository.doDelete(db, groupUri(1), null, null);
+        Assert.assertEquals(0, count(credentialUri(5)));
+    }
+
+    @Test
+    public void testExplicitInvalidation() {
+        Assert.assertEquals(0, count(groupUri(1)));
+
+        // Write that doesn't use the repository
+        db.execSQL("INSERT INTO " + TABLE + " (GID, V) VALUES (1, 'a')");
+        repository.invalidateQueryCache();
+
+        Assert.assertEquals(1, count(groupUri(1)));
+    }
+
+    @Test
+    public void testChangeDuringQuery() {
+        QueryCache cache = new QueryCache(1000);
+        QueryCache.Key key = new QueryCache.Key(groupUri(1), null, null, null, null);
+
+        long generation = cache.getGeneration();
+        // Data changed while the query was running
+        cache.invalidateAll();
+        cache.put(key, generation, new MatrixCursor(new String[]{"V"})).close();
+        Assert.assertNull(cache.get(key));
+
+        cache.put(key, cache.getGeneration(), new MatrixCursor(new String[]{"V"})).close();
+        Assert.assertNotNull(cache.get(key));
+    }
+
+    @Test
+    public void testValueTypes() {
+        QueryCache cache = new QueryCache(1000);
+        QueryCache.Key key = new QueryCache.Key(groupUri(1), null, null, null, null);
+
+        MatrixCursor source = new MatrixCursor(new String[]{"L", "D", "S", "B", "N"});
+        source.addRow(new Object[]{42L, 1.5d, "text", new byte[]{1, 2}, null});
+
+        try (Cursor cursor = cache.put(key, cache.getGeneration(), source)) {
+            Assert.assertTrue(source.isClosed());
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(0));
+            Assert.assertEquals(42L, cursor.getLong(0));
+            Assert.assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(1));
+            Assert.assertEquals(1.5d, cursor.getDouble(1), 0);
+            Assert.assertEquals(Cursor.FIELD_TYPE_STRING, cursor.getType(2));
+            Assert.assertEquals("text", cursor.getString(2));
+            Assert.assertEquals(Cursor.FIELD_TYPE_BLOB, cursor.getType(3));
+            Assert.assertArrayEquals(new byte[]{1, 2}, cursor.getBlob(3));
+            Assert.assertTrue(cursor.isNull(4));
+            Assert.assertFalse(cursor.moveToNext());
+        }
+    }
+
+    @Test
+    public void testTooBigResult() {
+        QueryCache cache = new QueryCache(8);
+        QueryCache.Key key = new QueryCache.Key(groupUri(1), null, null, null, null);
+
+        MatrixCursor source = new MatrixCursor(new String[]{"V"});
+        for (int i = 0; i < 10; i++) {
+            source.addRow(new Object[]{i});
+        }
+
+        // Too big results are returned as they are
+        Assert.assertSame(source, cache.put(key, cache.getGeneration(), source));
+        Assert.assertNull(cache.get(key));
+        source.close();
+    }
+
+    @Test
+    public void testEviction() {
+        // Each result has 10 cells, so the cache keeps 4 of them
+        QueryCache cache = new QueryCache(40);
+        for (int i = 1; i <= 5; i++) {
+            MatrixCursor source = new MatrixCursor(new String[]{"V"});
+            for (int row = 0; row < 10; row++) {
+                source.addRow(new Object[]{row});
+            }
+            cache.put(new QueryCache.Key(groupUri(i), null, null, null, null), cache.getGeneration(), source).close();
+        }
+
+        // The least recently used one is evicted
+        Assert.assertNull(cache.get(new QueryCache.Key(groupUri(1), null, null, null, null)));
+        try (Cursor cursor = cache.get(new QueryCache.Key(groupUri(5), null, null, null, null))) {
+            Assert.assertNotNull(cursor);
+            Assert.assertEquals(10, cursor.getCount());
+        }
+
+        Bundle stats = new Bundle();
+        cache.writeTo(stats);
+        Assert.assertEquals(1, stats.getLong(QueryCache.KEY_EVICTIONS));
+        Assert.assertEquals(40, stats.getLong(QueryCache.KEY_SIZE));
+    }
+
+    @Test
+    public void testKeys() {
+        String[] selectionArgs = new String[]{"a"};
+        QueryCache.Key key = new QueryCache.Key(groupUri(1), new String[]{"V"}, "V = ?", selectionArgs, null);
+
+        Assert.assertEquals(key, new QueryCache.Key(groupUri(1), new String[]{"V"}, "V = ?", new String[]{"a"}, null));
+        Assert.assertEquals(key.hashCode(),
+                new QueryCache.Key(groupUri(1), new String[]{"V"}, "V = ?", new String[]{"a"}, null).hashCode());
+        Assert.assertNotEquals(key, new QueryCache.Key(groupUri(1), new String[]{"V"}, "V = ?", new String[]{"b"}, null));
+        Assert.assertNotEquals(key, new QueryCache.Key(groupUri(1), new String[]{"V"}, "V = ?", new String[]{"a"}, "V"));
+
+        // Arrays are copied
+        selectionArgs[0] = "b";
+        Assert.assertEquals(key, new QueryCache.Key(groupUri(1), new String[]{"V"}, "V = ?", new String[]{"a"}, null));
+    }
+
+    @Test
+    public void testCachedCursorsAreIndependent() {
+        repository.doInsert(db, groupUri(1), row("a"));
+        repository.doInsert(db, groupUri(1), row("b"));
+        String[] projection = new String[]{"V"};
+
+        try (Cursor first = repository.doQuery(db, groupUri(1), projection, null, null, "V");
+             Cursor second = repository.doQuery(db, groupUri(1), projection, null, null, "V")) {
+            Assert.assertEquals(1, getCacheStats().getLong(QueryCache.KEY_HITS));
+
+            Assert.assertTrue(first.moveToLast());
+            Assert.assertEquals("b", first.getString(0));
+            // Position of one cursor doesn't move the other one
+            Assert.assertTrue(second.moveToFirst());
+            Assert.assertEquals("a", second.getString(0));
+            Assert.assertEquals("b", first.getString(0));
+        }
+    }
+}
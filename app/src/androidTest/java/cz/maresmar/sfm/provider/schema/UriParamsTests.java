@@ -0,0 +1,125 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.schema;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of {@link UriParams} selection building and Uri schemas parsing
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class UriParamsTests {
+
+    private static UriParams buildParams(long id, long userId) {
+        UriParams params = new UriParams();
+        params.add("_id", id);
+        params.add("UID", userId);
+        return params;
+    }
+
+    @Test
+    public void testSameSelectionForAllIds() {
+        UriParams first = buildParams(1, 2);
+        UriParams second = buildParams(3, 4);
+
+        Assert.assertEquals("(_id = ?) AND (UID = ?)", first.buildSelection(null));
+        Assert.assertEquals(first.buildSelection(null), second.buildSelection(null));
+        Assert.assertArrayEquals(new String[]{"3", "4"}, second.buildSelectionArgs(null));
+    }
+
+    @Test
+    public void testCallerSelectionGoesFirst() {
+        UriParams params = buildParams(1, 2);
+
+        Assert.assertEquals("(a = ? OR b = ?) AND (_id = ?) AND (UID = ?)",
+                params.buildSelection("a = ? OR b = ?"));
+        Assert.assertArrayEquals(new String[]{"x", "y", "1", "2"},
+                params.buildSelectionArgs(new String[]{"x", "y"}));
+    }
+
+    @Test
+    public void testWithClause() {
+        UriParams params = buildParams(1, 2).withClause("UID", "CID IN (SELECT _id FROM Credential WHERE UID = ?)");
+
+        Assert.assertEquals("(_id = ?) AND (CID IN (SELECT _id FROM Credential WHERE UID = ?))",
+                params.buildSelection(null));
+        Assert.assertArrayEquals(new String[]{"1", "2"}, params.buildSelectionArgs(null));
+    }
+
+    @Test
+    public void testValues() {
+        UriParams params = buildParams(1, 2);
+
+        Assert.assertTrue(params.contains("UID"));
+        Assert.assertEquals(2, params.getLong("UID"));
+        Assert.assertEquals(-1, params.getLong("CID", -1));
+        Assert.assertNull(new UriParams().buildSelection(null));
+    }
+
+    @Test
+    public void testReuse() {
+        UriParams params = buildParams(1, 2);
+        params.clear();
+
+        Assert.assertTrue(params.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            params.add("C" + i, i);
+        }
+        Assert.assertEquals(10, params.size());
+        Assert.assertEquals(9, params.getLong("C9"));
+    }
+
+    @Test
+    public void testSchemaParsing() {
+        IdEndingUriSchema schema = new IdEndingUriSchema("user/#/menu", "_id", "UID");
+        UriParams params = new UriParams();
+
+        List<String> itemSegments = Arrays.asList("user", "5", "menu", "42");
+        schema.parseParams(itemSegments, params);
+        Assert.assertEquals(AbstractUriSchema.MINE_KIND_ITEM, schema.getKind(itemSegments));
+        Assert.assertEquals(42, params.getLong("_id"));
+        Assert.assertEquals(5, params.getLong("UID"));
+
+        params.clear();
+        List<String> dirSegments = Arrays.asList("user", "5", "menu");
+        schema.parseParams(dirSegments, params);
+        Assert.assertEquals(AbstractUriSchema.MINE_KIND_DIR, schema.getKind(dirSegments));
+        Assert.assertFalse(params.contains("_id"));
+        Assert.assertEquals(5, params.getLong("UID"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSchemaWithoutColumnNames() {
+        new IdEndingUriSchema("user/#/menu", "_id");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParam() {
+        buildParams(1, 2).getLong("CID");
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.service.plugin.sync;
+
+import androidx.annotation.NonNull;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import cz.maresmar.sfm.plugin.ActionContract;
+import cz.maresmar.sfm.plugin.BroadcastContract;
+
+/**
+ * Tests of {@link SyncScheduler} ordering, concurrency limit, deadlines and progress reports
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncSchedulerTests {
+
+    private static final long TIMEOUT_MILLIS = 200;
+    private static final long MAX_TIMEOUT_MILLIS = 1000;
+    private static final long SILENCE_TIMEOUT_MILLIS = 150;
+
+    private ScheduledExecutorService mExecutor;
+
+    /**
+     * Records started jobs and completes them from executor (like broadcast receiver)
+     */
+    private class RecordingStarter implements SyncScheduler.JobStarter, SyncScheduler.SyncJob.Listener {
+        SyncScheduler scheduler;
+        final List<Long> startedCredentials = new ArrayList<>();
+        final List<Integer> startedTasks = new ArrayList<>();
+        final List<Long> timedOutCredentials = new ArrayList<>();
+        final List<SyncScheduler.SyncJob> doneJobs = new ArrayList<>();
+        final long hangingCredentialId;
+        final CountDownLatch doneLatch;
+        int running = 0;
+        int maxRunning = 0;
+
+        RecordingStarter(long hangingCredentialId, int jobsCount) {
+            this.hangingCredentialId = hangingCredentialId;
+            doneLatch = new CountDownLatch(jobsCount);
+        }
+
+        @Override
+        public void startJob(@NonNull SyncScheduler.SyncJob job) {
+            startedCredentials.add(job.credentialId);
+            startedTasks.add(job.tasks);
+            running++;
+            maxRunning = Math.max(maxRunning, running);
+
+            if (job.credentialId != hangingCredentialId) {
+                mExecutor.execute(() -> {
+                    // Scheduler starts next job before the job listener is called
+                    running--;
+                    scheduler.complete(job.portalId, job.credentialId, BroadcastContract.RESULT_OK);
+                });
+            }
+        }
+
+        @Override
+        public void onJobDone(@NonNull SyncScheduler.SyncJob job) {
+            if (job.getResult() == BroadcastContract.RESULT_PLUGIN_TIMEOUT) {
+                running--;
+                timedOutCredentials.add(job.credentialId);
+            }
+            doneJobs.add(job);
+            doneLatch.countDown();
+        }
+
+        SyncScheduler.SyncJob job(long portalId, long credentialId, boolean prioritized) {
+            return job(portalId, credentialId, ActionContract.TASK_MENU_SYNC, prioritized);
+        }
+
+        SyncScheduler.SyncJob job(long portalId, long credentialId, @ActionContract.SyncTask int tasks,
+                                  boolean prioritized) {
+            return new SyncScheduler.SyncJob("plugin", portalId, credentialId, tasks, prioritized,
+                    TIMEOUT_MILLIS, TIMEOUT_MILLIS, MAX_TIMEOUT_MILLIS, this);
+        }
+
+        void awaitDone() throws InterruptedException {
+            Assert.assertTrue(doneLatch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    private RecordingStarter createScheduler(int concurrency, long hangingCredentialId, int jobsCount) {
+        RecordingStarter starter = new RecordingStarter(hangingCredentialId, jobsCount);
+        starter.scheduler = new SyncScheduler(concurrency, SILENCE_TIMEOUT_MILLIS, mExecutor, starter);
+        return starter;
+    }
+
+    @Test
+    public void testOrderAndConcurrency() throws InterruptedException {
+        RecordingStarter starter = createScheduler(1, -1, 4);
+
+        mExecutor.execute(() -> starter.scheduler.addAll(Arrays.asList(
+                starter.job(1, 11, false),
+                starter.job(2, 21, true),
+                starter.job(1, 12, false),
+                starter.job(3, 31, true)
+        )));
+
+        starter.awaitDone();
+        // Prioritized portals first, jobs of portal in order in which they were added
+        Assert.assertEquals(Arrays.asList(21L, 31L, 11L, 12L), starter.startedCredentials);
+        Assert.assertEquals(1, starter.maxRunning);
+        Assert.assertTrue(starter.timedOutCredentials.isEmpty());
+    }
+
+    @Test
+    public void testPortalJobsRunOneByOne() throws InterruptedException {
+        RecordingStarter starter = createScheduler(3, -1, 5);
+
+        List<SyncScheduler.SyncJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            jobs.add(starter.job(1, 10 + i, false));
+        }
+        mExecutor.execute(() -> starter.scheduler.addAll(jobs));
+
+        starter.awaitDone();
+        Assert.assertEquals(5, starter.startedCredentials.size());
+        Assert.assertEquals(1, starter.maxRunning);
+    }
+
+    @Test
+    public void testOverlappingSyncs() throws InterruptedException {
+        RecordingStarter starter = createScheduler(2, -1, 4);
+
+        // Second sync is added while the first one is running
+        mExecutor.execute(() -> starter.scheduler.addAll(Arrays.asList(
+                starter.job(1, 11, false),
+                starter.job(2, 21, false)
+        )));
+        mExecutor.execute(() -> starter.scheduler.addAll(Arrays.asList(
+                starter.job(1, 12, false),
+                starter.job(3, 31, false)
+        )));
+
+        starter.awaitDone();
+        Assert.assertEquals(4, starter.startedCredentials.size());
+        Assert.assertTrue(starter.maxRunning <= 2);
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        // Each job reports its result, including the coalesced ones
+        RecordingStarter starter = createScheduler(1, -1, 5);
+        int[] coalescedCount = new int[1];
+
+        mExecutor.execute(() -> {
+            starter.scheduler.addAll(Arrays.asList(
+                    starter.job(1, 11, ActionContract.TASK_MENU_SYNC, false),
+                    starter.job(2, 21, ActionContract.TASK_MENU_SYNC, false)
+            ));
+            // Portal 1 is running, portal 2 is waiting
+            coalescedCount[0] = starter.scheduler.addAll(Arrays.asList(
+                    starter.job(1, 11, ActionContract.TASK_MENU_SYNC, false),
+                    starter.job(2, 21, ActionContract.TASK_ACTION_HISTORY_SYNC, false),
+                    starter.job(1, 11, ActionContract.TASK_ACTION_PRESENT_SYNC, false)
+            ));
+        });
+
+        starter.awaitDone();
+        Assert.assertEquals(2, coalescedCount[0]);
+        // Local changes are uploaded by new plugin run
+        Assert.assertEquals(Arrays.asList(11L, 21L, 11L), starter.startedCredentials);
+        Assert.assertEquals(Arrays.asList(
+                ActionContract.TASK_MENU_SYNC,
+                ActionContract.TASK_MENU_SYNC | ActionContract.TASK_ACTION_HISTORY_SYNC,
+                ActionContract.TASK_ACTION_PRESENT_SYNC
+        ), starter.startedTasks);
+    }
+
+    @Test
+    public void testSlowPortalDoesNotBlockOthers() throws Exception {
+        RecordingStarter starter = createScheduler(2, 11, 11);
+
+        List<SyncScheduler.SyncJob> jobs = new ArrayList<>();
+        jobs.add(starter.job(1, 11, false));
+        for (int i = 0; i < 10; i++) {
+            jobs.add(starter.job(2 + i, 20 + i, false));
+        }
+        mExecutor.execute(() -> starter.scheduler.addAll(jobs));
+
+        starter.awaitDone();
+        Assert.assertEquals(11, starter.startedCredentials.size());
+        Assert.assertEquals(Arrays.asList(11L), starter.timedOutCredentials);
+        // Late result of timed out job is ignored
+        SyncScheduler.SyncJob completed = mExecutor.submit(() ->
+                starter.scheduler.complete(1, 11, BroadcastContract.RESULT_OK)).get();
+        Assert.assertNull(completed);
+        Assert.assertEquals(0, (int) mExecutor.submit(starter.scheduler::getUnfinishedCount).get());
+    }
+
+    @Test
+    public void testProgressExtendsDeadline() throws InterruptedException {
+        RecordingStarter starter = createScheduler(1, 11, 1);
+
+        mExecutor.execute(() -> starter.scheduler.addAll(Arrays.asList(starter.job(1, 11, false))));
+        // Plugin keeps reporting progress but never finishes
+        mExecutor.scheduleWithFixedDelay(() -> starter.scheduler.onProgress(1, 11), 50, 50,
+                TimeUnit.MILLISECONDS);
+
+        starter.awaitDone();
+        SyncScheduler.SyncJob job = starter.doneJobs.get(0);
+        Assert.assertEquals(BroadcastContract.RESULT_PLUGIN_TIMEOUT, job.getResult());
+        Assert.assertTrue(job.reportsProgress());
+        // Runs over the timeout but not over the max timeout
+        Assert.assertTrue(job.getDurationMillis() >= MAX_TIMEOUT_MILLIS);
+        Assert.assertTrue(job.getDurationMillis() < 2 * MAX_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void testSilentPluginIsKilledEarly() throws InterruptedException {
+        RecordingStarter starter = createScheduler(1, 11, 1);
+
+        mExecutor.execute(() -> starter.scheduler.addAll(Arrays.asList(
+                new SyncScheduler.SyncJob("plugin", 1, 11, ActionContract.TASK_MENU_SYNC, false,
+                        MAX_TIMEOUT_MILLIS, MAX_TIMEOUT_MILLIS, MAX_TIMEOUT_MILLIS, starter))));
+        // Plugin reports progress only once and then hangs
+        mExecutor.schedule(() -> starter.scheduler.onProgress(1, 11), 20, TimeUnit.MILLISECONDS);
+
+        starter.awaitDone();
+        SyncScheduler.SyncJob job = starter.doneJobs.get(0);
+        Assert.assertEquals(BroadcastContract.RESULT_PLUGIN_TIMEOUT, job.getResult());
+        Assert.assertTrue(job.getDurationMillis() >= SILENCE_TIMEOUT_MILLIS);
+        Assert.assertTrue(job.getDurationMillis() < MAX_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void testSilentPluginKeepsTimeout() throws InterruptedException {
+        RecordingStarter starter = createScheduler(1, 11, 1);
+
+        // Short progress timeout doesn't apply to plugin that never reported progress
+        mExecutor.execute(() -> starter.scheduler.addAll(Arrays.asList(
+                new SyncScheduler.SyncJob("plugin", 1, 11, ActionContract.TASK_MENU_SYNC, false,
+                        TIMEOUT_MILLIS, TIMEOUT_MILLIS / 4, MAX_TIMEOUT_MILLIS, starter))));
+
+        starter.awaitDone();
+        SyncScheduler.SyncJob job = starter.doneJobs.get(0);
+        Assert.assertEquals(BroadcastContract.RESULT_PLUGIN_TIMEOUT, job.getResult());
+        Assert.assertFalse(job.reportsProgress());
+        Assert.assertTrue(job.getDurationMillis() >= TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void testProgressTimeoutAppliesAfterProgress() throws InterruptedException {
+        RecordingStarter starter = createScheduler(1, 11, 1);
+        long progressTimeoutMillis = SILENCE_TIMEOUT_MILLIS / 2;
+
+        mExecutor.execute(() -> starter.scheduler.addAll(Arrays.asList(
+                new SyncScheduler.SyncJob("plugin", 1, 11, ActionContract.TASK_MENU_SYNC, false,
+                        MAX_TIMEOUT_MILLIS, progressTimeoutMillis, MAX_TIMEOUT_MILLIS, starter))));
+        // The first progress replaces the long timeout with the progress one
+        mExecutor.schedule(() -> starter.scheduler.onProgress(1, 11), 20, TimeUnit.MILLISECONDS);
+
+        starter.awaitDone();
+        SyncScheduler.SyncJob job = starter.doneJobs.get(0);
+        Assert.assertEquals(BroadcastContract.RESULT_PLUGIN_TIMEOUT, job.getResult());
+        Assert.assertTrue(job.reportsProgress());
+        Assert.assertTrue(job.getDurationMillis() >= progressTimeoutMillis);
+        Assert.assertTrue(job.getDurationMillis() < MAX_TIMEOUT_MILLIS);
+    }
+}
@@ -37,6 +37,21 @@ public class SettingsContract {
     public static final String PLUGINS_TIMEOUT = "pluginsTimeout";
     public static final String PLUGINS_TIMEOUT_DEFAULT = "120";
 
+    public static final String SYNC_CONCURRENCY = "syncConcurrency";
+    public static final String SYNC_CONCURRENCY_DEFAULT = "3";
+
+    public static final String SYNC_MENU_TTL = "syncMenuTtl";
+    public static final String SYNC_MENU_TTL_DEFAULT = "60";
+
+    public static final String SYNC_REMAINING_TTL = "syncRemainingTtl";
+    public static final String SYNC_REMAINING_TTL_DEFAULT = "1";
+
+    public static final String SYNC_HISTORY_TTL = "syncHistoryTtl";
+    public static final String SYNC_HISTORY_TTL_DEFAULT = "60";
+
+    public static final String SYNC_CREDIT_TTL = "syncCreditTtl";
+    public static final String SYNC_CREDIT_TTL_DEFAULT = "1";
+
     public static final String SYNC_FREQUENCY = "syncFrequency";
     public static final String SYNC_FREQUENCY_DEFAULT = "7";
 
@@ -52,6 +67,12 @@ public class SettingsContract {
     public static final String UPDATE_PORTALS_AUTOMATICALLY = "portalsAutoUpdate";
     public static final boolean UPDATE_PORTALS_AUTOMATICALLY_DEFAULT = true;
 
+    public static final String MENU_RETENTION_DAYS = "menuRetentionDays";
+    public static final String MENU_RETENTION_DAYS_DEFAULT = "30";
+
+    public static final String HISTORY_RETENTION_MONTHS = "historyRetentionMonths";
+    public static final String HISTORY_RETENTION_MONTHS_DEFAULT = "12";
+
     public static final String LAST_DONE_SYNC = "lastSync";
     public static final long LAST_DONE_SYNC_DEFAULT = 0;
 
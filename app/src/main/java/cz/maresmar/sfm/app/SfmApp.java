@@ -59,6 +59,7 @@ import java.util.Locale;
 import cz.maresmar.sfm.Assert;
 import cz.maresmar.sfm.BuildConfig;
 import cz.maresmar.sfm.R;
+import cz.maresmar.sfm.service.db.DataRetentionJob;
 import io.fabric.sdk.android.Fabric;
 import timber.log.Timber;
 
@@ -143,6 +144,9 @@ public class SfmApp extends Application implements ProviderInstaller.ProviderIns
 
         NotificationContract.initNotificationChannels(this);
 
+        // Keep database small (it's planed here as existing installations haven't seen welcome activity)
+        DataRetentionJob.plan(this);
+
         // Update the security provider
         ProviderInstaller.installIfNeededAsync(this, this);
     }
@@ -0,0 +1,207 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+
+import java.util.Calendar;
+
+import cz.maresmar.sfm.db.controller.NameIdCache;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Retention policy of menu and actions history
+ * <p>
+ * Old rows are deleted in chunks of {@link #CHUNK_SIZE} rows, each chunk in its own transaction,
+ * so the writer lock is never held for long and readers (and sync) can interleave with the
+ * cleanup. Menu entries are kept while some action references them (the actions are history),
+ * so foods and menu groups become orphans only after their last menu entry is deleted.</p>
+ * <p>
+ * The freed pages are returned to file system using incremental vacuum. The database is switched
+ * to incremental auto vacuum (that needs one full {@code VACUUM}) when it's compacted first time.</p>
+ */
+public final class DataRetention {
+
+    /**
+     * Maximal number of rows deleted in one transaction
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Synced or failed actions older than cutoff whose menu entry is old too (or that are payments)
+    private static final String SQL_SELECT_OLD_ACTIONS = "SELECT " + FoodAction._ID +
+            " FROM " + FoodAction.TABLE_NAME +
+            " WHERE " + FoodAction.COLUMN_NAME_LAST_CHANGE + " < ? AND " +
+            FoodAction.COLUMN_NAME_SYNC_STATUS + " IN (" + PublicProviderContract.ACTION_SYNC_STATUS_SYNCED +
+            ", " + PublicProviderContract.ACTION_SYNC_STATUS_FAILED + ") AND NOT EXISTS (SELECT 1 FROM " +
+            MenuEntry.TABLE_NAME + " WHERE " +
+            MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID + " = " +
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + " AND " +
+            MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_RELATIVE_ID + " = " +
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
+            MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_DATE + " >= ?)";
+
+    // Menu entries older than cutoff without any action
+    private static final String SQL_SELECT_OLD_MENU_ENTRIES = "SELECT " + MenuEntry._ID +
+            " FROM " + MenuEntry.TABLE_NAME +
+            " WHERE " + MenuEntry.COLUMN_NAME_DATE + " < ? AND NOT EXISTS (SELECT 1 FROM " +
+            FoodAction.TABLE_NAME + " WHERE " +
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + " = " +
+            MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID + " AND " +
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " = " +
+            MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_RELATIVE_ID + ")";
+
+    private static final String SQL_SELECT_ORPHAN_FOODS = "SELECT " + Food._ID +
+            " FROM " + Food.TABLE_NAME +
+            " WHERE " + Food._ID + " NOT IN (SELECT " + MenuEntry.COLUMN_NAME_FID +
+            " FROM " + MenuEntry.TABLE_NAME + " WHERE " + MenuEntry.COLUMN_NAME_FID + " IS NOT NULL)";
+
+    private static final String SQL_SELECT_ORPHAN_MENU_GROUPS = "SELECT " + MenuGroup._ID +
+            " FROM " + MenuGroup.TABLE_NAME +
+            " WHERE " + MenuGroup._ID + " NOT IN (SELECT " + MenuEntry.COLUMN_NAME_MGID +
+            " FROM " + MenuEntry.TABLE_NAME + " WHERE " + MenuEntry.COLUMN_NAME_MGID + " IS NOT NULL)";
+
+    // To prevent someone from accidentally instantiating the this class,
+    // make the constructor private.
+    private DataRetention() {
+    }
+
+    /**
+     * Returns oldest time that should be kept
+     *
+     * @param now    Actual time in millis
+     * @param field  {@link Calendar} field of amount
+     * @param amount How long should be the data kept, {@code 0} means forever
+     * @return Cutoff time in millis ({@code 0} if the data should be kept forever)
+     */
+    public static long getCutoff(long now, int field, int amount) {
+        if (amount <= 0) {
+            return 0;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.add(field, -amount);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Deletes synced and failed actions that were changed before cutoff and aren't related to newer
+     * menu entry
+     *
+     * @param db     Writable database that isn't in transaction
+     * @param cutoff Oldest last change time to be kept
+     * @return Number of deleted actions
+     */
+    public static int deleteOldActions(@NonNull SQLiteDatabase db, long cutoff) {
+        String cutoffArg = Long.toString(cutoff);
+        return deleteInChunks(db, FoodAction.TABLE_NAME, FoodAction._ID, SQL_SELECT_OLD_ACTIONS,
+                new String[]{cutoffArg, cutoffArg}, false);
+    }
+
+    /**
+     * Deletes menu entries older than cutoff that aren't referenced by any action
+     *
+     * @param db     Writable database that isn't in transaction
+     * @param cutoff Oldest menu date to be kept
+     * @return Number of deleted menu entries
+     */
+    public static int deleteOldMenuEntries(@NonNull SQLiteDatabase db, long cutoff) {
+        return deleteInChunks(db, MenuEntry.TABLE_NAME, MenuEntry._ID, SQL_SELECT_OLD_MENU_ENTRIES,
+                new String[]{Long.toString(cutoff)}, false);
+    }
+
+    /**
+     * Deletes foods that aren't used by any menu entry, the cached food IDs are invalidated with
+     * each deleted chunk
+     *
+     * @param db Writable database that isn't in transaction
+     * @return Number of deleted foods
+     */
+    public static int deleteOrphanFoods(@NonNull SQLiteDatabase db) {
+        return deleteInChunks(db, Food.TABLE_NAME, Food._ID, SQL_SELECT_ORPHAN_FOODS, null, true);
+    }
+
+    /**
+     * Deletes menu groups that aren't used by any menu entry, the cached menu group IDs are
+     * invalidated with each deleted chunk
+     *
+     * @param db Writable database that isn't in transaction
+     * @return Number of deleted menu groups
+     */
+    public static int deleteOrphanMenuGroups(@NonNull SQLiteDatabase db) {
+        return deleteInChunks(db, MenuGroup.TABLE_NAME, MenuGroup._ID, SQL_SELECT_ORPHAN_MENU_GROUPS, null, true);
+    }
+
+    private static int deleteInChunks(@NonNull SQLiteDatabase db, @NonNull String table,
+                                      @NonNull String idColumn, @NonNull String selectIds,
+                                      String[] selectionArgs, boolean cachedNames) {
+        String where = idColumn + " IN (" + selectIds + " LIMIT " + CHUNK_SIZE + ")";
+
+        int deleted = 0;
+        int chunk;
+        do {
+            db.beginTransaction();
+            try {
+                chunk = db.delete(table, where, selectionArgs);
+                if (cachedNames && chunk > 0) {
+                    // Before commit, sync that starts after it must not insert cached ID of deleted row
+                    NameIdCache.of(db).invalidate(table);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            deleted += chunk;
+        } while (chunk == CHUNK_SIZE);
+        return deleted;
+    }
+
+    /**
+     * Returns free pages to file system and updates query planner statistics
+     *
+     * @param db Writable database that isn't in transaction
+     * @return Number of reclaimed bytes
+     */
+    public static long compact(@NonNull SQLiteDatabase db) {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            // Auto vacuum mode of existing database is changed only by full vacuum
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            // PRAGMA returns rows so it cannot be run with execSQL, each step frees some pages
+            try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null)) {
+                cursor.getCount();
+            }
+        }
+        db.execSQL("ANALYZE");
+
+        long pagesAfter = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        return (pagesBefore - pagesAfter) * pageSize;
+    }
+}
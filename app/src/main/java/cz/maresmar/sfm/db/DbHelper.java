@@ -22,14 +22,20 @@ package cz.maresmar.sfm.db;
 import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 import cz.maresmar.sfm.provider.ProviderContract;
 import cz.maresmar.sfm.provider.PublicProviderContract;
 
 import cz.maresmar.sfm.R;
+import timber.log.Timber;
 
 import static cz.maresmar.sfm.db.DbContract.*;
 
@@ -223,19 +229,111 @@ public class DbHelper extends SQLiteOpenHelper {
                     FoodAction.COLUMN_NAME_SYNC_STATUS + ")" +
                     " )";
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
+    // Indexes for frequent queries (added in version 2)
+    private static final String SQL_CREATE_INDEXES_V2[] = new String[]{
+            "CREATE INDEX IF NOT EXISTS MenuEntryDateIndex ON " + MenuEntry.TABLE_NAME +
+                    " (" + MenuEntry.COLUMN_NAME_DATE + ")",
+            "CREATE INDEX IF NOT EXISTS FoodActionCredentialIndex ON " + FoodAction.TABLE_NAME +
+                    " (" + FoodAction.COLUMN_NAME_CID + COMMA_SEP + FoodAction.COLUMN_NAME_SYNC_STATUS + ")",
+            "CREATE INDEX IF NOT EXISTS FoodActionMenuEntryIndex ON " + FoodAction.TABLE_NAME +
+                    " (" + FoodAction.COLUMN_NAME_ME_PID + COMMA_SEP + FoodAction.COLUMN_NAME_ME_RELATIVE_ID +
+                    COMMA_SEP + FoodAction.COLUMN_NAME_SYNC_STATUS + ")",
+            "CREATE INDEX IF NOT EXISTS GroupMenuEntryPortalIndex ON " + GroupMenuEntry.TABLE_NAME +
+                    " (" + GroupMenuEntry.COLUMN_NAME_ME_PID + COMMA_SEP + GroupMenuEntry.COLUMN_NAME_CGID + ")"
+            // Credential(UID) is covered by UNIQUE (UID, PGID) index
+    };
+
+    /**
+     * Ordered database migrations, each of them upgrades database by one version. New database is
+     * created in version 1 and then it's upgraded using all migrations.
+     */
+    static final Migration[] MIGRATIONS = new Migration[]{
+            // 1 -> 2: Indexes
+            new Migration(1) {
+                @Override
+                public void migrate(@NonNull SQLiteDatabase db) {
+                    for (String sql : SQL_CREATE_INDEXES_V2) {
+                        db.execSQL(sql);
+                    }
+                    db.execSQL("ANALYZE");
+                }
+            },
+            // 2 -> 3: Materialized user menu
+            new Migration(2) {
+                @Override
+                public void migrate(@NonNull SQLiteDatabase db) {
+                    UserMenuTable.create(db);
+                }
+            },
+            // 3 -> 4: Index of actions by sync status (used when sync results are checked)
+            new Migration(3) {
+                @Override
+                public void migrate(@NonNull SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS FoodActionSyncStatusIndex ON " + FoodAction.TABLE_NAME +
+                            " (" + FoodAction.COLUMN_NAME_SYNC_STATUS + ")");
+                    db.execSQL("ANALYZE " + FoodAction.TABLE_NAME);
+                }
+            },
+            // 4 -> 5: Index of actions by last change (used by keyset paging of actions)
+            new Migration(4) {
+                @Override
+                public void migrate(@NonNull SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS FoodActionLastChangeIndex ON " + FoodAction.TABLE_NAME +
+                            " (" + FoodAction.COLUMN_NAME_LAST_CHANGE + ")");
+                    db.execSQL("ANALYZE " + FoodAction.TABLE_NAME);
+                }
+            },
+            // 5 -> 6: Full-text search of foods and menu groups
+            new Migration(5) {
+                @Override
+                public void migrate(@NonNull SQLiteDatabase db) {
+                    MenuSearchTable.create(db);
+                    db.execSQL("ANALYZE");
+                }
+            },
+            // 6 -> 7: Time of last successful sync of plugin tasks
+            new Migration(6) {
+                @Override
+                public void migrate(@NonNull SQLiteDatabase db) {
+                    SyncFreshnessTable.create(db);
+                }
+            },
+            // 7 -> 8: User menu isn't refreshed by updates of unused columns
+            new Migration(7) {
+                @Override
+                public void migrate(@NonNull SQLiteDatabase db) {
+                    UserMenuTable.recreateTriggers(db);
+                }
+            }
+    };
+
+    // If you change the database schema, you must add new migration (it increments the database version).
+    static final int DATABASE_VERSION = MIGRATIONS.length + 1;
     private static final String DATABASE_NAME = "FoodUser.db";
+
+    /**
+     * Number of written rows after that the WAL checkpoint is run
+     *
+     * @see #onRowsWritten(SQLiteDatabase, int)
+     */
+    static final int CHECKPOINT_ROWS = 2000;
+
     private Context mContext;
+    private final AtomicInteger mRowsSinceCheckpoint = new AtomicInteger();
 
     /**
      * Create new DbHelper
      * @param context Some valid context (used for language settings)
      */
     public DbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        super(context, DATABASE_NAME, LastQueryCursorFactory.INSTANCE, DATABASE_VERSION);
 
         mContext = context;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Readers use another connections from pool so they don't wait for writer
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     /**
@@ -262,11 +360,51 @@ public class DbHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Enables write-ahead logging on Android 4.0 (for newer it's enabled in constructor)
+     * @param db Database where it will be enabled
+     */
+    private void enableWriteAheadLogging(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            if (!db.enableWriteAheadLogging()) {
+                Timber.w("Write-ahead logging is not supported, using rollback journal");
+            }
+        }
+    }
+
     @Override
     public void onOpen(SQLiteDatabase db) {
         super.onOpen(db);
         //noinspection deprecation
         enableForeignKeySupport(db);
+        enableWriteAheadLogging(db);
+    }
+
+    /**
+     * Notifies helper about written rows. When there are more than {@link #CHECKPOINT_ROWS} rows
+     * written since last checkpoint, the passive WAL checkpoint is run, so the WAL file doesn't grow
+     * during long sync and the readers don't need to search in long WAL.
+     * <p>
+     * The checkpoint is postponed when the database is in transaction. The passive checkpoint never
+     * blocks readers or writer, it only copies pages that aren't used by readers.
+     * </p>
+     *
+     * @param db   Database where the rows were written
+     * @param rows Number of written rows
+     */
+    public void onRowsWritten(@NonNull SQLiteDatabase db, int rows) {
+        if (mRowsSinceCheckpoint.addAndGet(rows) < CHECKPOINT_ROWS || db.inTransaction()) {
+            return;
+        }
+        mRowsSinceCheckpoint.set(0);
+
+        // PRAGMA returns row so it cannot be run with execSQL
+        try (Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null)) {
+            if (cursor.moveToFirst()) {
+                Timber.d("WAL checkpoint done (busy %d, log pages %d, checkpointed pages %d)",
+                        cursor.getInt(0), cursor.getInt(1), cursor.getInt(2));
+            }
+        }
     }
 
     @Override
@@ -278,9 +416,17 @@ public class DbHelper extends SQLiteOpenHelper {
         createTables(db);
 
         insertCredentialGroups(db);
+
+        // Upgrade new database to actual version
+        migrate(db, 1, DATABASE_VERSION);
     }
 
-    private void createTables(SQLiteDatabase db) {
+    /**
+     * Creates tables in version 1 of database
+     *
+     * @param db Empty database
+     */
+    static void createTables(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_USER_ENTRIES);
         db.execSQL(SQL_CREATE_CREDENTIALS_GROUP_ENTRIES);
         db.execSQL(SQL_CREATE_PORTAL_GROUP_ENTRIES);
@@ -323,10 +469,40 @@ public class DbHelper extends SQLiteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         //noinspection deprecation
         enableForeignKeySupport(db);
-        if((oldVersion == 1) && (newVersion == 1)) {
-            return;
+
+        // SQLiteOpenHelper runs this method inside transaction
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Upgrades database using {@link #MIGRATIONS} in order
+     *
+     * @param db          Database to be upgraded
+     * @param oldVersion  Actual version of database
+     * @param newVersion  Wanted version of database
+     * @throws UnsupportedOperationException If some migration is missing
+     */
+    static void migrate(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        while (version < newVersion) {
+            Migration migration = findMigration(version);
+            if (migration == null) {
+                throw new UnsupportedOperationException("Missing migration from version " + version);
+            }
+
+            Timber.i("Migrating database from version %d to %d", version, migration.getToVersion());
+            migration.migrate(db);
+            version = migration.getToVersion();
+        }
+    }
+
+    @Nullable
+    private static Migration findMigration(int fromVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getFromVersion() == fromVersion) {
+                return migration;
+            }
         }
-        throw new UnsupportedOperationException("SqLiteDb don't have more versions");
-        // you should call onCreate(db); on the end when it changed
+        return null;
     }
 }
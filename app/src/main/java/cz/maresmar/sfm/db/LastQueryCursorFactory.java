@@ -0,0 +1,84 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import androidx.annotation.Nullable;
+
+/**
+ * Cursor factory that remembers the last query compiled on each thread. It allows to log slow
+ * queries with their final SQL (including joins and selections added by controllers).
+ *
+ * @see cz.maresmar.sfm.provider.repository.ContentRepository#setSlowQueryThreshold(long)
+ */
+public final class LastQueryCursorFactory implements SQLiteDatabase.CursorFactory {
+
+    /**
+     * Shared factory instance
+     */
+    public static final LastQueryCursorFactory INSTANCE = new LastQueryCursorFactory();
+
+    // SQLiteQuery#toString() returns "SQLiteQuery: " + SQL
+    private static final String SQL_PREFIX = "SQLiteQuery: ";
+
+    private static final ThreadLocal<SQLiteQuery> sLastQuery = new ThreadLocal<>();
+
+    private LastQueryCursorFactory() {
+    }
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                            SQLiteQuery query) {
+        // Only reference is saved, the SQL string is created only when it's needed
+        sLastQuery.set(query);
+        return new SQLiteCursor(masterQuery, editTable, query);
+    }
+
+    /**
+     * Forgets the last query of current thread
+     */
+    public static void clear() {
+        sLastQuery.set(null);
+    }
+
+    /**
+     * Returns SQL of the last query created on current thread and forgets it
+     *
+     * @return SQL with {@code ?} placeholders or {@code null} if there was no query since last
+     * {@link #clear()}
+     */
+    @Nullable
+    public static String takeLastSql() {
+        SQLiteQuery query = sLastQuery.get();
+        if (query == null) {
+            return null;
+        }
+        sLastQuery.set(null);
+
+        String sql = query.toString();
+        if (sql.startsWith(SQL_PREFIX)) {
+            sql = sql.substring(SQL_PREFIX.length());
+        }
+        return sql;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Full-text search index of food and menu group names
+ * <p>
+ * The {@link FoodSearch} and {@link MenuGroupSearch} FTS4 tables contain names without diacritics
+ * and in lower case, so {@code svickova} finds {@code Svíčková}. The names are normalized in Java
+ * as tokenizers that remove diacritics aren't available in all Android versions. Names are never
+ * updated, so the index rows are inserted together with food or menu group (see
+ * {@link #getIndexSql(String)}) and deleted by triggers.</p>
+ * <p>
+ * Searched menu entries are found through {@code MenuEntry(FID)} and {@code MenuEntry(MGID)}
+ * indexes and then joined with {@link UserMenuEntry} by {@code MEID} index, so the search cost
+ * depends on the number of matches, not on the menu size.</p>
+ */
+public final class MenuSearchTable {
+
+    // To prevent someone from accidentally instantiating the this class,
+    // make the constructor private.
+    private MenuSearchTable() {
+    }
+
+    private static final Pattern DIACRITICS_PATTERN = Pattern.compile("\\p{M}+");
+    private static final Pattern TOKEN_SEPARATOR_PATTERN = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Prefix indexes speed up short prefixes that are used while typing
+    private static final String[] SQL_CREATE = new String[]{
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + FoodSearch.TABLE_NAME + " USING fts4(" +
+                    FoodSearch.COLUMN_NAME_NAME + ", prefix=\"2,3\")",
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + MenuGroupSearch.TABLE_NAME + " USING fts4(" +
+                    MenuGroupSearch.COLUMN_NAME_NAME + ", prefix=\"2,3\")",
+            "CREATE TRIGGER IF NOT EXISTS FoodSearchDelete AFTER DELETE ON " + Food.TABLE_NAME +
+                    " BEGIN DELETE FROM " + FoodSearch.TABLE_NAME + " WHERE " +
+                    FoodSearch.COLUMN_NAME_DOC_ID + " = OLD." + Food._ID + "; END",
+            "CREATE TRIGGER IF NOT EXISTS MenuGroupSearchDelete AFTER DELETE ON " + MenuGroup.TABLE_NAME +
+                    " BEGIN DELETE FROM " + MenuGroupSearch.TABLE_NAME + " WHERE " +
+                    MenuGroupSearch.COLUMN_NAME_DOC_ID + " = OLD." + MenuGroup._ID + "; END",
+            "CREATE INDEX IF NOT EXISTS MenuEntryFoodIndex ON " + MenuEntry.TABLE_NAME +
+                    " (" + MenuEntry.COLUMN_NAME_FID + ")",
+            "CREATE INDEX IF NOT EXISTS MenuEntryGroupIndex ON " + MenuEntry.TABLE_NAME +
+                    " (" + MenuEntry.COLUMN_NAME_MGID + ")",
+            "CREATE INDEX IF NOT EXISTS UserMenuEntrySearchIndex ON " + UserMenuEntry.TABLE_NAME +
+                    " (" + UserMenuEntry.COLUMN_NAME_ME_ID + ")"
+    };
+
+    private static final String SQL_INDEX_FOOD = "INSERT INTO " + FoodSearch.TABLE_NAME + " (" +
+            FoodSearch.COLUMN_NAME_DOC_ID + ", " + FoodSearch.COLUMN_NAME_NAME + ") VALUES (?, ?)";
+    private static final String SQL_INDEX_MENU_GROUP = "INSERT INTO " + MenuGroupSearch.TABLE_NAME + " (" +
+            MenuGroupSearch.COLUMN_NAME_DOC_ID + ", " + MenuGroupSearch.COLUMN_NAME_NAME + ") VALUES (?, ?)";
+
+    /**
+     * Creates the index tables, their triggers and indexes used by search and fills them with
+     * actual data
+     *
+     * @param db Database where the tables will be created
+     */
+    static void create(@NonNull SQLiteDatabase db) {
+        for (String sql : SQL_CREATE) {
+            db.execSQL(sql);
+        }
+        rebuild(db);
+    }
+
+    /**
+     * Deletes all rows in index tables and fills them again from food and menu group tables. It
+     * should be called inside transaction.
+     *
+     * @param db Database with the tables
+     */
+    public static void rebuild(@NonNull SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + FoodSearch.TABLE_NAME);
+        db.execSQL("DELETE FROM " + MenuGroupSearch.TABLE_NAME);
+
+        rebuild(db, Food.TABLE_NAME, Food.COLUMN_NAME_NAME, SQL_INDEX_FOOD);
+        rebuild(db, MenuGroup.TABLE_NAME, MenuGroup.COLUMN_NAME_NAME, SQL_INDEX_MENU_GROUP);
+    }
+
+    private static void rebuild(@NonNull SQLiteDatabase db, @NonNull String tableName,
+                                @NonNull String colName, @NonNull String indexSql) {
+        SQLiteStatement statement = db.compileStatement(indexSql);
+        try (Cursor cursor = db.query(tableName, new String[]{BaseColumns._ID, colName},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                statement.bindLong(1, cursor.getLong(0));
+                statement.bindString(2, normalize(cursor.getString(1)));
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns SQL statement that adds new row of table to search index. The statement has two
+     * arguments, the row ID and the {@link #normalize(String)}d name.
+     *
+     * @param tableName Name of table
+     * @return SQL statement or {@code null} if the table isn't indexed
+     */
+    @Nullable
+    public static String getIndexSql(@NonNull String tableName) {
+        switch (tableName) {
+            case Food.TABLE_NAME:
+                return SQL_INDEX_FOOD;
+            case MenuGroup.TABLE_NAME:
+                return SQL_INDEX_MENU_GROUP;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Removes diacritics from text and converts it to lower case
+     *
+     * @param text Original text
+     * @return Text used in search index
+     */
+    @NonNull
+    public static String normalize(@NonNull String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return DIACRITICS_PATTERN.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Builds FTS match expression from text typed by user. Each word of text is matched as prefix
+     * and all of them have to match.
+     *
+     * @param query Text typed by user
+     * @return Match expression or {@code null} if the query contains no word
+     */
+    @Nullable
+    public static String buildMatchQuery(@NonNull String query) {
+        StringBuilder match = new StringBuilder();
+        // Tokens are only letters and digits in lower case, so they cannot contain FTS operators
+        for (String token : TOKEN_SEPARATOR_PATTERN.split(normalize(query))) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(token).append('*');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+}
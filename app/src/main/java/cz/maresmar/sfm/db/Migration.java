@@ -0,0 +1,67 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+
+/**
+ * One step of database schema upgrade, it upgrades database from {@link #getFromVersion()} to the
+ * next version
+ *
+ * @see DbHelper
+ */
+public abstract class Migration {
+
+    private final int mFromVersion;
+
+    /**
+     * Creates new migration
+     *
+     * @param fromVersion Version of database that could be upgraded by this migration
+     */
+    protected Migration(int fromVersion) {
+        mFromVersion = fromVersion;
+    }
+
+    /**
+     * Returns version of database that could be upgraded by this migration
+     *
+     * @return Original database version
+     */
+    public int getFromVersion() {
+        return mFromVersion;
+    }
+
+    /**
+     * Returns version of database after this migration
+     *
+     * @return New database version
+     */
+    public int getToVersion() {
+        return mFromVersion + 1;
+    }
+
+    /**
+     * Upgrades database schema, the method is called inside transaction
+     *
+     * @param db Database to be upgraded
+     */
+    public abstract void migrate(@NonNull SQLiteDatabase db);
+}
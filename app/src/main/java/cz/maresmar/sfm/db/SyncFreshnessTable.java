@@ -0,0 +1,142 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+
+import cz.maresmar.sfm.plugin.ActionContract;
+import cz.maresmar.sfm.plugin.ActionContract.SyncTask;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Time of the last successful sync of each plugin task
+ * <p>
+ * The {@link SyncFreshness} table contains one row for each task of credential on portal, the task
+ * is stored as its {@link ActionContract} flag. Rows are deleted together with portal or credential.
+ * Menu and remaining food are shared by all credentials of portal, so their time is the latest
+ * time of any credential of the portal.</p>
+ */
+public final class SyncFreshnessTable {
+
+    // To prevent someone from accidentally instantiating the this class,
+    // make the constructor private.
+    private SyncFreshnessTable() {
+    }
+
+    /**
+     * Tasks with data that are shared by all credentials of portal
+     */
+    @SyncTask
+    public static final int PORTAL_TASKS = ActionContract.TASK_MENU_SYNC |
+            ActionContract.TASK_REMAINING_TO_TAKE_SYNC | ActionContract.TASK_REMAINING_TO_ORDER_SYNC;
+
+    private static final String SQL_CREATE =
+            "CREATE TABLE IF NOT EXISTS " + SyncFreshness.TABLE_NAME + " (" +
+                    SyncFreshness.COLUMN_NAME_PID + " INTEGER NOT NULL," +
+                    SyncFreshness.COLUMN_NAME_CID + " INTEGER NOT NULL," +
+                    SyncFreshness.COLUMN_NAME_TASK + " INTEGER NOT NULL," +
+                    SyncFreshness.COLUMN_NAME_LAST_SUCCESS + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + SyncFreshness.COLUMN_NAME_PID + "," + SyncFreshness.COLUMN_NAME_CID +
+                        "," + SyncFreshness.COLUMN_NAME_TASK + ")," +
+                    "FOREIGN KEY(" + SyncFreshness.COLUMN_NAME_PID + ") REFERENCES " +
+                        Portal.TABLE_NAME + "(" + Portal._ID + ") ON DELETE CASCADE," +
+                    "FOREIGN KEY(" + SyncFreshness.COLUMN_NAME_CID + ") REFERENCES " +
+                        Credential.TABLE_NAME + "(" + Credential._ID + ") ON DELETE CASCADE" +
+                    " )";
+
+    private static final String SQL_MARK_SYNCED = "INSERT OR REPLACE INTO " + SyncFreshness.TABLE_NAME +
+            " (" + SyncFreshness.COLUMN_NAME_PID + ", " + SyncFreshness.COLUMN_NAME_CID + ", " +
+            SyncFreshness.COLUMN_NAME_TASK + ", " + SyncFreshness.COLUMN_NAME_LAST_SUCCESS +
+            ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_LAST_SUCCESSES = "SELECT " + SyncFreshness.COLUMN_NAME_TASK + ", " +
+            "MAX(" + SyncFreshness.COLUMN_NAME_LAST_SUCCESS + ") FROM " + SyncFreshness.TABLE_NAME +
+            " WHERE " + SyncFreshness.COLUMN_NAME_PID + " = ? AND (" + SyncFreshness.COLUMN_NAME_CID +
+            " = ? OR (" + SyncFreshness.COLUMN_NAME_TASK + " & " + PORTAL_TASKS + ") != 0)" +
+            " GROUP BY " + SyncFreshness.COLUMN_NAME_TASK;
+
+    /**
+     * Creates the table
+     *
+     * @param db Database where the table will be created
+     */
+    static void create(@NonNull SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE);
+    }
+
+    /**
+     * Saves time of successful sync of tasks
+     *
+     * @param db           Database with the table
+     * @param portalId     ID of synced portal
+     * @param credentialId ID of synced credential
+     * @param tasks        Successfully synced tasks
+     * @param time         Time of the sync
+     * @return Number of saved tasks
+     */
+    public static int markSynced(@NonNull SQLiteDatabase db, long portalId, long credentialId,
+                                 @SyncTask int tasks, long time) {
+        int count = 0;
+        SQLiteStatement statement = db.compileStatement(SQL_MARK_SYNCED);
+        try {
+            for (int i = 0; i < ActionContract.PLUGIN_TASKS_LENGTH; i++) {
+                int task = 1 << i;
+                if ((tasks & task) == 0) {
+                    continue;
+                }
+                statement.bindLong(1, portalId);
+                statement.bindLong(2, credentialId);
+                statement.bindLong(3, task);
+                statement.bindLong(4, time);
+                statement.executeInsert();
+                count++;
+            }
+        } finally {
+            statement.close();
+        }
+        return count;
+    }
+
+    /**
+     * Returns time of the last successful sync of each task
+     *
+     * @param db           Database with the table
+     * @param portalId     ID of portal
+     * @param credentialId ID of credential
+     * @return Times indexed by bit position of task flag, {@code 0} if the task wasn't synced yet
+     */
+    @NonNull
+    public static long[] getLastSuccesses(@NonNull SQLiteDatabase db, long portalId, long credentialId) {
+        long[] lastSuccesses = new long[ActionContract.PLUGIN_TASKS_LENGTH];
+        try (Cursor cursor = db.rawQuery(SQL_LAST_SUCCESSES, new String[]{
+                String.valueOf(portalId), String.valueOf(credentialId)})) {
+            while (cursor.moveToNext()) {
+                int index = Integer.numberOfTrailingZeros(cursor.getInt(0));
+                if (index < lastSuccesses.length) {
+                    lastSuccesses[index] = cursor.getLong(1);
+                }
+            }
+        }
+        return lastSuccesses;
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import cz.maresmar.sfm.provider.PublicProviderContract;
+
+import static cz.maresmar.sfm.db.DbContract.*;
+
+/**
+ * Materialized per-user menu view
+ * <p>
+ * The {@link UserMenuEntry} table contains one row for each menu entry and user that has credential
+ * in the entry's portal group. It's filled with the same joins as the original user menu view
+ * (menu entry, food, menu group, portal, credential, group menu entry and synced, local and edit
+ * actions), so the user menu and day queries are simple range scans on {@code (UID, MEDate)}.</p>
+ * <p>
+ * The table is maintained incrementally by triggers. Each change of menu entry, group menu entry
+ * or action refreshes the rows of affected menu entry, changes of portal refresh rows of the portal
+ * and changes of credential refresh rows of the user. Food and menu group names are never updated
+ * (only inserted or deleted with cascade) so they don't need own triggers. In case of doubt the
+ * table could be rebuilt using {@link #rebuild(SQLiteDatabase)}.</p>
+ */
+public final class UserMenuTable {
+
+    // To prevent someone from accidentally instantiating the this class,
+    // make the constructor private.
+    private UserMenuTable() {
+    }
+
+    // Pairs of table column and expression in source view (the qualified expressions are the same
+    // as in PublicProviderContract.MenuEntry so they can be translated in queries)
+    private static final String[][] COLUMNS = new String[][]{
+            {UserMenuEntry.COLUMN_NAME_UID, Credential.TABLE_NAME + "." + Credential.COLUMN_NAME_UID},
+            {UserMenuEntry.COLUMN_NAME_ME_ID, MenuEntry.TABLE_NAME + "." + MenuEntry._ID},
+            {UserMenuEntry.COLUMN_NAME_ME_RELATIVE_ID, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_RELATIVE_ID},
+            {UserMenuEntry.COLUMN_NAME_ME_PID, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID},
+            {UserMenuEntry.COLUMN_NAME_MGID, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_MGID},
+            {UserMenuEntry.COLUMN_NAME_FOOD_NAME, Food.TABLE_NAME + "." + Food.COLUMN_NAME_NAME},
+            {UserMenuEntry.COLUMN_NAME_GROUP_NAME, MenuGroup.TABLE_NAME + "." + MenuGroup.COLUMN_NAME_NAME},
+            {UserMenuEntry.COLUMN_NAME_LABEL, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_LABEL},
+            {UserMenuEntry.COLUMN_NAME_DATE, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_DATE},
+            {UserMenuEntry.COLUMN_NAME_REMAINING_TO_TAKE, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_REMAINING_TO_TAKE},
+            {UserMenuEntry.COLUMN_NAME_REMAINING_TO_ORDER, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_REMAINING_TO_ORDER},
+            {UserMenuEntry.COLUMN_NAME_EXTRA, MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_EXTRA},
+            {UserMenuEntry.COLUMN_NAME_PRICE, GroupMenuEntry.TABLE_NAME + "." + GroupMenuEntry.COLUMN_NAME_PRICE},
+            {UserMenuEntry.COLUMN_NAME_STATUS, GroupMenuEntry.TABLE_NAME + "." + GroupMenuEntry.COLUMN_NAME_STATUS},
+            {UserMenuEntry.COLUMN_NAME_SYNCED_RESERVED_AMOUNT, PublicProviderContract.MenuEntry.SYNCED_RESERVED_AMOUNT},
+            {UserMenuEntry.COLUMN_NAME_SYNCED_OFFERED_AMOUNT, PublicProviderContract.MenuEntry.SYNCED_OFFERED_AMOUNT},
+            {UserMenuEntry.COLUMN_NAME_SYNCED_TAKEN_AMOUNT, PublicProviderContract.MenuEntry.SYNCED_TAKEN_AMOUNT},
+            {UserMenuEntry.COLUMN_NAME_SYNCED_LAST_CHANGE, MenuEntry.SYNCED_ACTION_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_LAST_CHANGE},
+            {UserMenuEntry.COLUMN_NAME_LOCAL_RESERVED_AMOUNT, PublicProviderContract.MenuEntry.LOCAL_RESERVED_AMOUNT},
+            {UserMenuEntry.COLUMN_NAME_LOCAL_OFFERED_AMOUNT, PublicProviderContract.MenuEntry.LOCAL_OFFERED_AMOUNT},
+            {UserMenuEntry.COLUMN_NAME_LOCAL_LAST_CHANGE, MenuEntry.LOCAL_ACTION_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_LAST_CHANGE},
+            {UserMenuEntry.COLUMN_NAME_EDIT_RESERVED_AMOUNT, PublicProviderContract.MenuEntry.EDIT_RESERVED_AMOUNT},
+            {UserMenuEntry.COLUMN_NAME_EDIT_OFFERED_AMOUNT, PublicProviderContract.MenuEntry.EDIT_OFFERED_AMOUNT},
+            {UserMenuEntry.COLUMN_NAME_EDIT_LAST_CHANGE, MenuEntry.EDIT_ACTION_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_LAST_CHANGE},
+            {UserMenuEntry.COLUMN_NAME_PORTAL_FEATURES, PublicProviderContract.MenuEntry.PORTAL_FEATURES},
+            {UserMenuEntry.COLUMN_NAME_PORTAL_NAME, PublicProviderContract.MenuEntry.PORTAL_NAME},
+    };
+
+    private static final String SQL_CREATE_TABLE;
+    private static final String SQL_INSERT_FROM_SOURCE;
+
+    static {
+        StringBuilder create = new StringBuilder("CREATE TABLE IF NOT EXISTS " + UserMenuEntry.TABLE_NAME + " (");
+        StringBuilder columns = new StringBuilder();
+        StringBuilder expressions = new StringBuilder();
+        for (String[] column : COLUMNS) {
+            if (columns.length() > 0) {
+                columns.append(",");
+                expressions.append(",");
+                create.append(",");
+            }
+            columns.append(column[0]);
+            expressions.append(column[1]);
+            create.append(column[0]);
+        }
+        create.append(")");
+
+        SQL_CREATE_TABLE = create.toString();
+        SQL_INSERT_FROM_SOURCE = "INSERT INTO " + UserMenuEntry.TABLE_NAME + " (" + columns + ")" +
+                " SELECT " + expressions + " FROM " + buildSourceTables();
+    }
+
+    private static final String[] SQL_CREATE_INDEXES = new String[]{
+            "CREATE INDEX IF NOT EXISTS UserMenuEntryUserIndex ON " + UserMenuEntry.TABLE_NAME +
+                    " (" + UserMenuEntry.COLUMN_NAME_UID + "," + UserMenuEntry.COLUMN_NAME_DATE + ")",
+            "CREATE INDEX IF NOT EXISTS UserMenuEntryMenuIndex ON " + UserMenuEntry.TABLE_NAME +
+                    " (" + UserMenuEntry.COLUMN_NAME_ME_PID + "," + UserMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + ")"
+    };
+
+    // Translation of public view columns to table columns
+    private static final Map<String, String> VIEW_COLUMNS;
+
+    static {
+        HashMap<String, String> viewColumns = new HashMap<>();
+        for (String[] column : COLUMNS) {
+            viewColumns.put(column[1], column[0]);
+        }
+        VIEW_COLUMNS = Collections.unmodifiableMap(viewColumns);
+    }
+
+    private static String buildSourceTables() {
+        return MenuEntry.TABLE_NAME +
+                // Food table
+                " LEFT OUTER JOIN " + Food.TABLE_NAME +
+                " ON (" + Food.TABLE_NAME + "." + Food._ID + " = " +
+                MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_FID + ")" +
+                // Menu group table
+                " LEFT OUTER JOIN " + MenuGroup.TABLE_NAME +
+                " ON (" + MenuGroup.TABLE_NAME + "." + MenuGroup._ID + " = " +
+                MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_MGID + ")" +
+                // Portal table
+                " INNER JOIN " + Portal.TABLE_NAME +
+                " ON (" + Portal.TABLE_NAME + "." + Portal._ID + " = " +
+                MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID + ")" +
+                // Credential table (all users)
+                " INNER JOIN " + Credential.TABLE_NAME +
+                " ON (" + Credential.TABLE_NAME + "." + Credential.COLUMN_NAME_PGID + " = " +
+                Portal.TABLE_NAME + "." + Portal.COLUMN_NAME_PGID + ")" +
+                // Group menu entry
+                " LEFT OUTER JOIN " + GroupMenuEntry.TABLE_NAME +
+                " ON (" + GroupMenuEntry.TABLE_NAME + "." + GroupMenuEntry.COLUMN_NAME_CGID + " = " +
+                Credential.TABLE_NAME + "." + Credential.COLUMN_NAME_CGID + " AND " +
+                GroupMenuEntry.TABLE_NAME + "." + GroupMenuEntry.COLUMN_NAME_ME_PID + " = " +
+                MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID + " AND " +
+                GroupMenuEntry.TABLE_NAME + "." + GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + " = " +
+                MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_RELATIVE_ID + ")" +
+                // Synced, local and edit food actions
+                buildActionJoin(MenuEntry.SYNCED_ACTION_TABLE_ALIAS, PublicProviderContract.ACTION_SYNC_STATUS_SYNCED) +
+                buildActionJoin(MenuEntry.LOCAL_ACTION_TABLE_ALIAS, PublicProviderContract.ACTION_SYNC_STATUS_LOCAL) +
+                buildActionJoin(MenuEntry.EDIT_ACTION_TABLE_ALIAS, PublicProviderContract.ACTION_SYNC_STATUS_EDIT);
+    }
+
+    private static String buildActionJoin(@NonNull String alias, int syncStatus) {
+        return " LEFT OUTER JOIN " + FoodAction.TABLE_NAME + " AS " + alias +
+                " ON (" + Credential.TABLE_NAME + "." + Credential._ID + " = " +
+                alias + "." + FoodAction.COLUMN_NAME_CID + " AND " +
+                MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID + " = " +
+                alias + "." + FoodAction.COLUMN_NAME_ME_PID + " AND " +
+                MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_RELATIVE_ID + " = " +
+                alias + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
+                alias + "." + FoodAction.COLUMN_NAME_SYNC_STATUS + " = " + syncStatus + ")";
+    }
+
+    // -------------------------------------------------------------------------------------------
+    // Refresh statements
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Returns statements that refresh rows of one menu entry
+     *
+     * @param portalId   SQL expression with portal ID (like {@code NEW.PID})
+     * @param relativeId SQL expression with menu entry relative ID
+     * @return SQL statements separated by {@code ;}
+     */
+    private static String refreshMenuEntry(@NonNull String portalId, @NonNull String relativeId) {
+        return "DELETE FROM " + UserMenuEntry.TABLE_NAME +
+                " WHERE " + UserMenuEntry.COLUMN_NAME_ME_PID + " = " + portalId +
+                " AND " + UserMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + " = " + relativeId + ";" +
+                SQL_INSERT_FROM_SOURCE +
+                " WHERE " + MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID + " = " + portalId +
+                " AND " + MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_RELATIVE_ID + " = " + relativeId + ";";
+    }
+
+    private static String refreshPortal(@NonNull String portalId) {
+        return "DELETE FROM " + UserMenuEntry.TABLE_NAME +
+                " WHERE " + UserMenuEntry.COLUMN_NAME_ME_PID + " = " + portalId + ";" +
+                SQL_INSERT_FROM_SOURCE +
+                " WHERE " + MenuEntry.TABLE_NAME + "." + MenuEntry.COLUMN_NAME_PID + " = " + portalId + ";";
+    }
+
+    private static String refreshUser(@NonNull String userId) {
+        return "DELETE FROM " + UserMenuEntry.TABLE_NAME +
+                " WHERE " + UserMenuEntry.COLUMN_NAME_UID + " = " + userId + ";" +
+                SQL_INSERT_FROM_SOURCE +
+                " WHERE " + Credential.TABLE_NAME + "." + Credential.COLUMN_NAME_UID + " = " + userId + ";";
+    }
+
+    private static String createTrigger(@NonNull String name, @NonNull String event, @NonNull String table,
+                                        @NonNull String when, @NonNull String body) {
+        return "CREATE TRIGGER IF NOT EXISTS " + name + " AFTER " + event + " ON " + table +
+                (when.isEmpty() ? "" : " WHEN " + when) +
+                " BEGIN " + body + " END";
+    }
+
+    // Builds condition that is true when some of columns changed in UPDATE
+    private static String changed(@NonNull String... columns) {
+        StringBuilder condition = new StringBuilder();
+        for (String column : columns) {
+            if (condition.length() > 0) {
+                condition.append(" OR ");
+            }
+            condition.append("OLD.").append(column).append(" IS NOT NEW.").append(column);
+        }
+        return "(" + condition + ")";
+    }
+
+    // Updates refresh new rows only when some column used by the table changes (like FAPrice or
+    // FADescription of actions isn't used), rows of old key are refreshed only when the key changes
+    private static final String[] SQL_CREATE_TRIGGERS = new String[]{
+            // Menu entries
+            createTrigger("UserMenuEntryMEInsert", "INSERT", MenuEntry.TABLE_NAME, "",
+                    refreshMenuEntry("NEW." + MenuEntry.COLUMN_NAME_PID, "NEW." + MenuEntry.COLUMN_NAME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryMEUpdate", "UPDATE", MenuEntry.TABLE_NAME,
+                    changed(MenuEntry._ID, MenuEntry.COLUMN_NAME_PID, MenuEntry.COLUMN_NAME_RELATIVE_ID,
+                            MenuEntry.COLUMN_NAME_FID, MenuEntry.COLUMN_NAME_MGID, MenuEntry.COLUMN_NAME_LABEL,
+                            MenuEntry.COLUMN_NAME_DATE, MenuEntry.COLUMN_NAME_REMAINING_TO_TAKE,
+                            MenuEntry.COLUMN_NAME_REMAINING_TO_ORDER, MenuEntry.COLUMN_NAME_EXTRA),
+                    refreshMenuEntry("NEW." + MenuEntry.COLUMN_NAME_PID, "NEW." + MenuEntry.COLUMN_NAME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryMEUpdateKey", "UPDATE", MenuEntry.TABLE_NAME,
+                    changed(MenuEntry.COLUMN_NAME_PID, MenuEntry.COLUMN_NAME_RELATIVE_ID),
+                    refreshMenuEntry("OLD." + MenuEntry.COLUMN_NAME_PID, "OLD." + MenuEntry.COLUMN_NAME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryMEDelete", "DELETE", MenuEntry.TABLE_NAME, "",
+                    refreshMenuEntry("OLD." + MenuEntry.COLUMN_NAME_PID, "OLD." + MenuEntry.COLUMN_NAME_RELATIVE_ID)),
+            // Group menu entries
+            createTrigger("UserMenuEntryGMEInsert", "INSERT", GroupMenuEntry.TABLE_NAME, "",
+                    refreshMenuEntry("NEW." + GroupMenuEntry.COLUMN_NAME_ME_PID, "NEW." + GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryGMEUpdate", "UPDATE", GroupMenuEntry.TABLE_NAME,
+                    changed(GroupMenuEntry.COLUMN_NAME_CGID, GroupMenuEntry.COLUMN_NAME_ME_PID,
+                            GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID, GroupMenuEntry.COLUMN_NAME_PRICE,
+                            GroupMenuEntry.COLUMN_NAME_STATUS),
+                    refreshMenuEntry("NEW." + GroupMenuEntry.COLUMN_NAME_ME_PID, "NEW." + GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryGMEUpdateKey", "UPDATE", GroupMenuEntry.TABLE_NAME,
+                    changed(GroupMenuEntry.COLUMN_NAME_ME_PID, GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID),
+                    refreshMenuEntry("OLD." + GroupMenuEntry.COLUMN_NAME_ME_PID, "OLD." + GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryGMEDelete", "DELETE", GroupMenuEntry.TABLE_NAME, "",
+                    refreshMenuEntry("OLD." + GroupMenuEntry.COLUMN_NAME_ME_PID, "OLD." + GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID)),
+            // Food actions (payments aren't in menu)
+            createTrigger("UserMenuEntryFAInsert", "INSERT", FoodAction.TABLE_NAME,
+                    "NEW." + FoodAction.COLUMN_NAME_ME_PID + " IS NOT NULL",
+                    refreshMenuEntry("NEW." + FoodAction.COLUMN_NAME_ME_PID, "NEW." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryFAUpdate", "UPDATE", FoodAction.TABLE_NAME,
+                    "NEW." + FoodAction.COLUMN_NAME_ME_PID + " IS NOT NULL AND " +
+                            changed(FoodAction.COLUMN_NAME_CID, FoodAction.COLUMN_NAME_ME_PID,
+                                    FoodAction.COLUMN_NAME_ME_RELATIVE_ID, FoodAction.COLUMN_NAME_SYNC_STATUS,
+                                    FoodAction.COLUMN_NAME_RESERVED_AMOUNT, FoodAction.COLUMN_NAME_OFFERED_AMOUNT,
+                                    FoodAction.COLUMN_NAME_TAKEN_AMOUNT, FoodAction.COLUMN_NAME_LAST_CHANGE),
+                    refreshMenuEntry("NEW." + FoodAction.COLUMN_NAME_ME_PID, "NEW." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryFAUpdateKey", "UPDATE", FoodAction.TABLE_NAME,
+                    "OLD." + FoodAction.COLUMN_NAME_ME_PID + " IS NOT NULL AND " +
+                            changed(FoodAction.COLUMN_NAME_ME_PID, FoodAction.COLUMN_NAME_ME_RELATIVE_ID),
+                    refreshMenuEntry("OLD." + FoodAction.COLUMN_NAME_ME_PID, "OLD." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID)),
+            createTrigger("UserMenuEntryFADelete", "DELETE", FoodAction.TABLE_NAME,
+                    "OLD." + FoodAction.COLUMN_NAME_ME_PID + " IS NOT NULL",
+                    refreshMenuEntry("OLD." + FoodAction.COLUMN_NAME_ME_PID, "OLD." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID)),
+            // Portals (inserted portal has no menu, deleted portal deletes its menu with cascade)
+            createTrigger("UserMenuEntryPUpdate", "UPDATE", Portal.TABLE_NAME,
+                    changed(Portal.COLUMN_NAME_PGID, Portal.COLUMN_NAME_NAME, Portal.COLUMN_NAME_FEATURES),
+                    refreshPortal("NEW." + Portal._ID)),
+            createTrigger("UserMenuEntryPUpdateKey", "UPDATE", Portal.TABLE_NAME, changed(Portal._ID),
+                    refreshPortal("OLD." + Portal._ID) + refreshPortal("NEW." + Portal._ID)),
+            // Credentials (other columns like credit aren't in menu)
+            createTrigger("UserMenuEntryCInsert", "INSERT", Credential.TABLE_NAME, "",
+                    refreshUser("NEW." + Credential.COLUMN_NAME_UID)),
+            createTrigger("UserMenuEntryCUpdate", "UPDATE", Credential.TABLE_NAME,
+                    changed(Credential._ID, Credential.COLUMN_NAME_PGID, Credential.COLUMN_NAME_CGID),
+                    refreshUser("NEW." + Credential.COLUMN_NAME_UID)),
+            createTrigger("UserMenuEntryCUpdateKey", "UPDATE", Credential.TABLE_NAME,
+                    changed(Credential.COLUMN_NAME_UID),
+                    refreshUser("OLD." + Credential.COLUMN_NAME_UID) + refreshUser("NEW." + Credential.COLUMN_NAME_UID)),
+            createTrigger("UserMenuEntryCDelete", "DELETE", Credential.TABLE_NAME, "",
+                    refreshUser("OLD." + Credential.COLUMN_NAME_UID)),
+    };
+
+    // -------------------------------------------------------------------------------------------
+    // Public methods
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the table, it's indexes and triggers and fills it with actual data
+     *
+     * @param db Database where the table will be created
+     */
+    static void create(@NonNull SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_TABLE);
+        for (String sql : SQL_CREATE_INDEXES) {
+            db.execSQL(sql);
+        }
+        for (String sql : SQL_CREATE_TRIGGERS) {
+            db.execSQL(sql);
+        }
+        rebuild(db);
+    }
+
+    /**
+     * Drops the triggers and creates them again, it's used when the triggers change
+     *
+     * @param db Database with the table
+     */
+    static void recreateTriggers(@NonNull SQLiteDatabase db) {
+        for (String sql : SQL_CREATE_TRIGGERS) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + triggerName(sql));
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * Deletes all rows in table and fills it again from source tables. It should be called inside
+     * transaction.
+     *
+     * @param db Database with the table
+     */
+    public static void rebuild(@NonNull SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + UserMenuEntry.TABLE_NAME);
+        db.execSQL(SQL_INSERT_FROM_SOURCE);
+    }
+
+    /**
+     * Translates columns from {@link PublicProviderContract.MenuEntry} (like {@code SyncedAction.FAResAmount})
+     * in projection item, selection or sort order to corresponding {@link UserMenuEntry} columns
+     *
+     * @param sql SQL fragment with view columns
+     * @return SQL fragment with table columns or {@code null} if {@code sql} is {@code null}
+     */
+    public static String translateColumns(String sql) {
+        if (sql == null) {
+            return null;
+        }
+
+        StringBuilder result = null;
+        int copied = 0;
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                // Literals and quoted identifiers are kept (doubled quote is escaped quote)
+                int end = sql.indexOf(c, i + 1);
+                while (end >= 0 && end + 1 < length && sql.charAt(end + 1) == c) {
+                    end = sql.indexOf(c, end + 2);
+                }
+                i = end < 0 ? length : end + 1;
+            } else if (isNamePart(c)) {
+                // Whole (qualified) name is compared with view column constants
+                int start = i;
+                while (i < length && (isNamePart(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                String column = VIEW_COLUMNS.get(sql.substring(start, i));
+                if (column != null) {
+                    if (result == null) {
+                        result = new StringBuilder(length);
+                    }
+                    result.append(sql, copied, start).append(column);
+                    copied = i;
+                }
+            } else {
+                i++;
+            }
+        }
+
+        if (result == null) {
+            return sql;
+        }
+        return result.append(sql, copied, length).toString();
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    // Name of trigger from its CREATE statement
+    private static String triggerName(@NonNull String createSql) {
+        int start = "CREATE TRIGGER IF NOT EXISTS ".length();
+        return createSql.substring(start, createSql.indexOf(' ', start));
+    }
+}
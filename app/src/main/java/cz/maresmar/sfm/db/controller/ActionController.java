@@ -21,15 +21,19 @@ package cz.maresmar.sfm.db.controller;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import cz.maresmar.sfm.Assert;
 import cz.maresmar.sfm.BuildConfig;
 import cz.maresmar.sfm.db.DbContract;
 import cz.maresmar.sfm.db.DbContract.FoodAction;
 import cz.maresmar.sfm.provider.PublicProviderContract;
+import cz.maresmar.sfm.provider.schema.UriParams;
 
 /**
  * Controller around Actions table
@@ -66,9 +70,90 @@ public class ActionController extends SimpleController {
             " ON (" + DbContract.Portal.TABLE_NAME + "." + DbContract.Portal._ID + " = " +
             FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + ")";
 
+    // User or credential ID itself is bound in selection so the query is same for all users
+    private static final String mCredentialQueryTables = mQueryTables +
+            // Credential table
+            " LEFT OUTER JOIN " + DbContract.Credential.TABLE_NAME +
+            " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential._ID + " = " +
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_CID + ")" +
+            // Group menu entry
+            " LEFT OUTER JOIN " + DbContract.GroupMenuEntry.TABLE_NAME +
+            " ON (" + DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_CGID + " = " +
+            DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_CGID + " AND " +
+            DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_PID + " = " +
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + " AND " +
+            DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + " = " +
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + ")";
+
     private static final String CIDS_LOADER_SELECT = "SELECT " + DbContract.Credential._ID +
             " FROM " + DbContract.Credential.TABLE_NAME +
-            " WHERE " + DbContract.Credential.COLUMN_NAME_UID + " = ";
+            " WHERE " + DbContract.Credential.COLUMN_NAME_UID + " = ?";
+
+    // Local and failed actions are joined with synced and local actions of the same menu entry, the
+    // join uses UNIQUE (CID, MERelativeID, MEPID, SyncStatus) index and the outer table is scanned
+    // using the sync status index (there are only few local or failed actions)
+    private static final String LOCAL_TABLE_ALIAS = "LocalFoodAction";
+    private static final String FAILED_TABLE_ALIAS = "FailedFoodAction";
+
+    private static final String SQL_SELECT_LOCAL_WITH_SYNCED = "SELECT " +
+            LOCAL_TABLE_ALIAS + "." + FoodAction._ID +
+            " FROM " + FoodAction.TABLE_NAME + " AS " + LOCAL_TABLE_ALIAS +
+            " LEFT OUTER JOIN " + FoodAction.TABLE_NAME + " AS " + FoodAction.SYNCED_TABLE_ALIAS +
+            " ON (" + sameMenuEntry(LOCAL_TABLE_ALIAS, FoodAction.SYNCED_TABLE_ALIAS) + " AND " +
+            FoodAction.SYNCED_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_SYNC_STATUS + " = " +
+            PublicProviderContract.ACTION_SYNC_STATUS_SYNCED + ")" +
+            " WHERE " + LOCAL_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_SYNC_STATUS + " = " +
+            PublicProviderContract.ACTION_SYNC_STATUS_LOCAL + " AND ";
+
+    private static final String SYNCED_EXISTS = FoodAction.SYNCED_TABLE_ALIAS + "." + FoodAction._ID + " IS NOT NULL";
+    private static final String SYNCED_MISSING = FoodAction.SYNCED_TABLE_ALIAS + "." + FoodAction._ID + " IS NULL";
+    private static final String SAME_AMOUNTS =
+            FoodAction.SYNCED_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " = " +
+                    LOCAL_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " AND " +
+                    FoodAction.SYNCED_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " = " +
+                    LOCAL_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_OFFERED_AMOUNT;
+    private static final String ZERO_AMOUNTS =
+            LOCAL_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " = 0 AND " +
+                    LOCAL_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " = 0";
+
+    // Local action failed if the synced action has different amounts or if there is no synced action
+    // and the local one reserves something
+    private static final String SQL_FAILED_LOCAL_ACTIONS = FoodAction._ID + " IN (" +
+            SQL_SELECT_LOCAL_WITH_SYNCED +
+            "((" + SYNCED_EXISTS + " AND NOT (" + SAME_AMOUNTS + ")) OR " +
+            "(" + SYNCED_MISSING + " AND NOT (" + ZERO_AMOUNTS + "))))";
+
+    // Local action is done if the synced action has same amounts or if there is no synced action
+    // and the local one reserves nothing
+    private static final String SQL_DONE_LOCAL_ACTIONS = FoodAction._ID + " IN (" +
+            SQL_SELECT_LOCAL_WITH_SYNCED +
+            "((" + SYNCED_EXISTS + " AND " + SAME_AMOUNTS + ") OR " +
+            "(" + SYNCED_MISSING + " AND " + ZERO_AMOUNTS + ")))";
+
+    // Failed actions that have newer local action
+    private static final String SQL_CONFLICT_FAILED_ACTIONS = FoodAction._ID + " IN (SELECT " +
+            FAILED_TABLE_ALIAS + "." + FoodAction._ID +
+            " FROM " + FoodAction.TABLE_NAME + " AS " + FAILED_TABLE_ALIAS +
+            " INNER JOIN " + FoodAction.TABLE_NAME + " AS " + LOCAL_TABLE_ALIAS +
+            " ON (" + sameMenuEntry(FAILED_TABLE_ALIAS, LOCAL_TABLE_ALIAS) + " AND " +
+            LOCAL_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_SYNC_STATUS + " = " +
+            PublicProviderContract.ACTION_SYNC_STATUS_LOCAL + ")" +
+            " WHERE " + FAILED_TABLE_ALIAS + "." + FoodAction.COLUMN_NAME_SYNC_STATUS + " = " +
+            PublicProviderContract.ACTION_SYNC_STATUS_FAILED + ")";
+
+    // Actions after (lastChange, _id) in descending order, the first condition allows range search
+    // in last change index (row values aren't supported by old SQLite versions)
+    private static final String SQL_PAGE_SELECTION =
+            FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_LAST_CHANGE + " <= ? AND (" +
+                    FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_LAST_CHANGE + " < ? OR " +
+                    FoodAction.TABLE_NAME + "." + FoodAction._ID + " < ?)";
+
+    // Doesn't match any table's UNIQUE constraint (sync status is included) so it cannot use UPSERT
+    private static final String[] UNIQUE_COLUMNS = new String[]{
+            FoodAction.COLUMN_NAME_FA_RELATIVE_ID,
+            FoodAction.COLUMN_NAME_CID,
+            FoodAction.COLUMN_NAME_SYNC_STATUS
+    };
 
     /**
      * Creates new controller
@@ -79,87 +164,65 @@ public class ActionController extends SimpleController {
 
     @Override
     public long insert(@NonNull SQLiteDatabase db, ContentValues newValues) {
-        return insertOrUpdate(db, mTableName, newValues,
-                new String[]{
-                        FoodAction.COLUMN_NAME_FA_RELATIVE_ID,
-                        FoodAction.COLUMN_NAME_CID,
-                        FoodAction.COLUMN_NAME_SYNC_STATUS
-                });
+        return insertOrUpdate(db, mTableName, newValues, UNIQUE_COLUMNS);
     }
 
     @Override
-    public int update(@NonNull SQLiteDatabase db, ContentValues values, String selection, String[] selectionArgs) {
-        if (selection != null && selection.contains(DbContract.Credential.COLUMN_NAME_UID)) {
-            long userId = getUserId(selection);
-            selection = selection.replaceAll("\\( *" + DbContract.Credential.COLUMN_NAME_UID + " *= *(-?\\d+) *\\)", "") +
-                    FoodAction.COLUMN_NAME_CID + " IN (" + CIDS_LOADER_SELECT + userId + ")";
-        }
-
-        return super.update(db, values, selection, selectionArgs);
+    public int bulkInsert(@NonNull SQLiteDatabase db, @NonNull ContentValues[] values) {
+        return bulkInsertOrUpdate(db, mTableName, values, UNIQUE_COLUMNS, UPSERT_SELECT_FIRST);
     }
 
     @Override
-    public int delete(@NonNull SQLiteDatabase db, String selection, String[] selectionArgs) {
-        if (selection != null && selection.contains(DbContract.Credential.COLUMN_NAME_UID)) {
-            long userId = getUserId(selection);
-            selection = selection.replaceAll("\\( *" + DbContract.Credential.COLUMN_NAME_UID + " *= *(-?\\d+) *\\)", "") +
-                    FoodAction.COLUMN_NAME_CID + " IN (" + CIDS_LOADER_SELECT + userId + ")";
-        }
+    public int update(@NonNull SQLiteDatabase db, ContentValues values, String selection, String[] selectionArgs,
+                      @NonNull UriParams params) {
+        return super.update(db, values, selection, selectionArgs, bindUserCredentials(params));
+    }
 
-        return super.delete(db, selection, selectionArgs);
+    @Override
+    public int delete(@NonNull SQLiteDatabase db, String selection, String[] selectionArgs,
+                      @NonNull UriParams params) {
+        return super.delete(db, selection, selectionArgs, bindUserCredentials(params));
     }
 
     @Override
     public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        // Using SQLiteQueryBuilder instead of query() method
-        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        // Takes all rows
+        return query(db, mQueryTables, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    @Override
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, @NonNull UriParams params) {
+        return query(db, projection, selection, selectionArgs, sortOrder, params, null);
+    }
 
+    @Override
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, @NonNull UriParams params, @Nullable String limit) {
         String tables;
-        if (selection.contains(DbContract.Credential.COLUMN_NAME_UID)) {
-            // Filter rows with correct userId
-            long userId = getUserId(selection);
-            tables = mQueryTables +
-                    // Credential table
-                    " INNER JOIN " + DbContract.Credential.TABLE_NAME +
-                    " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential._ID + " = " +
-                    DbContract.FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_CID + " AND " +
-                    DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID + " = " +
-                    userId + ")" +
-                    // Group menu entry
-                    " LEFT OUTER JOIN " + DbContract.GroupMenuEntry.TABLE_NAME +
-                    " ON (" + DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_CGID + " = " +
-                    DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_CGID + " AND " +
-                    DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_PID + " = " +
-                    FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + " AND " +
-                    DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + " = " +
-                    FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + ")";
-        } else if (selection.contains(DbContract.FoodAction.COLUMN_NAME_CID)) {
-            // Filter rows with correct userId
-            long credentialId = getIdFromSelection(selection, DbContract.FoodAction.COLUMN_NAME_CID);
-            tables = mQueryTables +
-                    // Credential table
-                    " LEFT OUTER JOIN " + DbContract.Credential.TABLE_NAME +
-                    " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential._ID + " = " + credentialId + ")" +
-                    // Group menu entry
-                    " LEFT OUTER JOIN " + DbContract.GroupMenuEntry.TABLE_NAME +
-                    " ON (" + DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_CGID + " = " +
-                    DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_CGID + " AND " +
-                    DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_PID + " = " +
-                    FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_PID + " AND " +
-                    DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + " = " +
-                    FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + ")";
+        if (params.contains(DbContract.Credential.COLUMN_NAME_UID) ||
+                params.contains(FoodAction.TABLE_NAME + "." + FoodAction.COLUMN_NAME_CID)) {
+            // Filter rows with correct userId or credential ID
+            tables = mCredentialQueryTables;
         } else {
             // Takes all rows
             tables = mQueryTables;
         }
 
+        return query(db, tables, projection, params.buildSelection(selection),
+                params.buildSelectionArgs(selectionArgs), sortOrder, limit);
+    }
+
+    private Cursor query(@NonNull SQLiteDatabase db, String tables, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder, @Nullable String limit) {
+        // Using SQLiteQueryBuilder instead of query() method
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
         queryBuilder.setTables(tables);
 
         fixIdColumnProjection(projection);
 
         return queryBuilder.query(db, projection, selection,
-                selectionArgs, null, null, sortOrder);
-
+                selectionArgs, null, null, sortOrder, limit);
     }
 
     /**
@@ -175,14 +238,14 @@ public class ActionController extends SimpleController {
                 // Credential table
                 " INNER JOIN " + DbContract.Credential.TABLE_NAME +
                 " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_PGID + " = " +
-                DbContract.Portal.TABLE_NAME + "." + DbContract.Portal.COLUMN_NAME_PGID + " AND " +
-                DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID + " = " +
-                userId + ")";
+                DbContract.Portal.TABLE_NAME + "." + DbContract.Portal.COLUMN_NAME_PGID + ")";
         String[] projection = new String[]{DbContract.Credential.TABLE_NAME + "." + DbContract.Credential._ID};
-        String selection = DbContract.Portal.TABLE_NAME + "." + DbContract.Portal._ID + " = " + portalId;
+        String selection = DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID + " = ? AND " +
+                DbContract.Portal.TABLE_NAME + "." + DbContract.Portal._ID + " = ?";
+        String[] selectionArgs = new String[]{Long.toString(userId), Long.toString(portalId)};
 
         // Ask for result
-        try (Cursor cursor = db.query(table, projection, selection, null, null,
+        try (Cursor cursor = db.query(table, projection, selection, selectionArgs, null,
                 null, null)) {
             // Get result
             cursor.moveToFirst();
@@ -193,7 +256,102 @@ public class ActionController extends SimpleController {
         }
     }
 
-    private long getUserId(String selection) {
-        return getIdFromSelection(selection, DbContract.Credential.COLUMN_NAME_UID);
+    /**
+     * Deletes old {@link PublicProviderContract#ACTION_SYNC_STATUS_FAILED} actions that are in conflict
+     * with {@link PublicProviderContract#ACTION_SYNC_STATUS_LOCAL} actions that will be synced
+     *
+     * @param db Database to work with
+     * @return Number of deleted actions
+     */
+    public static int deleteConflictFailedActions(@NonNull SQLiteDatabase db) {
+        return db.delete(FoodAction.TABLE_NAME, SQL_CONFLICT_FAILED_ACTIONS, null);
+    }
+
+    /**
+     * Marks {@link PublicProviderContract#ACTION_SYNC_STATUS_LOCAL} actions that weren't synced as
+     * {@link PublicProviderContract#ACTION_SYNC_STATUS_FAILED}. Action wasn't synced if the synced
+     * action of the same menu entry has different amounts or if there is no synced action and
+     * the local one reserves or offers something.
+     *
+     * @param db         Database to work with
+     * @param lastChange Time of change saved to failed actions
+     * @return Number of failed actions
+     */
+    public static int markFailedActions(@NonNull SQLiteDatabase db, long lastChange) {
+        ContentValues values = new ContentValues();
+        values.put(FoodAction.COLUMN_NAME_SYNC_STATUS, PublicProviderContract.ACTION_SYNC_STATUS_FAILED);
+        values.put(FoodAction.COLUMN_NAME_LAST_CHANGE, lastChange);
+
+        return db.update(FoodAction.TABLE_NAME, values, SQL_FAILED_LOCAL_ACTIONS, null);
+    }
+
+    /**
+     * Deletes {@link PublicProviderContract#ACTION_SYNC_STATUS_LOCAL} actions that were successfully
+     * synced (they are replaced by synced ones)
+     *
+     * @param db Database to work with
+     * @return Number of synced actions
+     */
+    public static int deleteDoneActions(@NonNull SQLiteDatabase db) {
+        return db.delete(FoodAction.TABLE_NAME, SQL_DONE_LOCAL_ACTIONS, null);
+    }
+
+    /**
+     * Returns selections of actions used by {@link #deleteConflictFailedActions(SQLiteDatabase)},
+     * {@link #markFailedActions(SQLiteDatabase, long)} and {@link #deleteDoneActions(SQLiteDatabase)}
+     * (in this order), so their query plans can be checked
+     *
+     * @return Selections over {@link FoodAction} table
+     */
+    @VisibleForTesting
+    @NonNull
+    public static String[] getCheckResultsSelections() {
+        return new String[]{SQL_CONFLICT_FAILED_ACTIONS, SQL_FAILED_LOCAL_ACTIONS, SQL_DONE_LOCAL_ACTIONS};
+    }
+
+    /**
+     * Adds keyset paging condition to selection. It selects actions that follows the given one in
+     * {@link cz.maresmar.sfm.provider.ProviderContract#ACTION_PAGE_SORT_ORDER}.
+     *
+     * @param selection Original selection
+     * @return Selection with paging condition
+     * @see #buildPageSelectionArgs(String[], long, long)
+     */
+    public static String buildPageSelection(String selection) {
+        return DatabaseUtils.concatenateWhere(selection, SQL_PAGE_SELECTION);
+    }
+
+    /**
+     * Adds arguments of keyset paging condition to selection args
+     *
+     * @param selectionArgs   Original selection args
+     * @param afterLastChange Last change of the last action of previous page
+     * @param afterId         ID of the last action of previous page
+     * @return Selection args with paging arguments
+     * @see #buildPageSelection(String)
+     */
+    public static String[] buildPageSelectionArgs(String[] selectionArgs, long afterLastChange, long afterId) {
+        return DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{
+                Long.toString(afterLastChange),
+                Long.toString(afterLastChange),
+                Long.toString(afterId)
+        });
+    }
+
+    private static String sameMenuEntry(@NonNull String alias, @NonNull String otherAlias) {
+        return alias + "." + FoodAction.COLUMN_NAME_CID + " = " + otherAlias + "." + FoodAction.COLUMN_NAME_CID + " AND " +
+                alias + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " = " +
+                otherAlias + "." + FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
+                alias + "." + FoodAction.COLUMN_NAME_ME_PID + " = " + otherAlias + "." + FoodAction.COLUMN_NAME_ME_PID;
+    }
+
+    @NonNull
+    private static UriParams bindUserCredentials(@NonNull UriParams params) {
+        if (params.contains(DbContract.Credential.COLUMN_NAME_UID)) {
+            // Actions table has no user ID column, so it's filtered using user's credentials
+            return params.withClause(DbContract.Credential.COLUMN_NAME_UID,
+                    FoodAction.COLUMN_NAME_CID + " IN (" + CIDS_LOADER_SELECT + ")");
+        }
+        return params;
     }
 }
@@ -0,0 +1,323 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db.controller;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helper for bulk inserts that compiles each SQL statement only once and reuses it for every
+ * inserted row.
+ * <p>
+ * The statements are bound to {@link SQLiteDatabase} so one instance should be used only during
+ * one bulk insert and closed after it.
+ * </p>
+ *
+ * @see ViewController#bulkInsert(SQLiteDatabase, ContentValues[])
+ */
+class BulkInserter implements Closeable {
+
+    private final SQLiteDatabase mDb;
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
+    /**
+     * Creates new helper
+     *
+     * @param db Database to work with
+     */
+    BulkInserter(@NonNull SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Inserts or update new values to specific table, it has same behaviour as
+     * {@link ViewController#insertOrUpdate(SQLiteDatabase, String, ContentValues, String[])}
+     *
+     * @param tableName     Name of table for inserting or updating
+     * @param newValues     Values to be inserted or updated
+     * @param uniqueColumns Columns that together making unique identification in table
+     * @return ID of new changed row or throws {@link IllegalArgumentException} (if some table constraint
+     * violated)
+     */
+    long insertOrUpdate(@NonNull String tableName, @NonNull ContentValues newValues,
+                        @NonNull String[] uniqueColumns) {
+        newValues = ViewController.cutOffTablePrefix(tableName, newValues);
+
+        // Finds used _ID
+        long originalRowId;
+        if (newValues.containsKey(BaseColumns._ID)) {
+            originalRowId = findId(tableName, new String[]{BaseColumns._ID},
+                    new Object[]{newValues.get(BaseColumns._ID)});
+        } else {
+            Object[] args = new Object[uniqueColumns.length];
+            for (int i = 0; i < uniqueColumns.length; i++) {
+                if (!newValues.containsKey(uniqueColumns[i])) {
+                    // Don't have enough values to identify the row so I can only do insert
+                    return insert(tableName, newValues);
+                }
+                args[i] = newValues.get(uniqueColumns[i]);
+            }
+            originalRowId = findId(tableName, uniqueColumns, args);
+        }
+
+        if (originalRowId == -1) {
+            return insert(tableName, newValues);
+        }
+
+        update(tableName, newValues, originalRowId);
+        return originalRowId;
+    }
+
+    /**
+     * Inserts or update new values to specific table using given strategy, it has same behaviour as
+     * {@link ViewController#insertOrUpdate(SQLiteDatabase, String, ContentValues, String[], int)} but
+     * it doesn't find ID of changed row
+     *
+     * @param tableName     Name of table for inserting or updating
+     * @param newValues     Values to be inserted or updated
+     * @param uniqueColumns Columns that together making unique identification in table
+     * @param strategy      How the original row is found
+     */
+    void insertOrUpdate(@NonNull String tableName, @NonNull ContentValues newValues,
+                        @NonNull String[] uniqueColumns, @ViewController.UpsertStrategy int strategy) {
+        if (strategy == ViewController.UPSERT_SELECT_FIRST) {
+            insertOrUpdate(tableName, newValues, uniqueColumns);
+            return;
+        }
+
+        newValues = ViewController.cutOffTablePrefix(tableName, newValues);
+        // Rows identified by _ID or without all unique values cannot conflict
+        if (newValues.containsKey(BaseColumns._ID) || !ViewController.containsAll(newValues, uniqueColumns)) {
+            insertOrUpdate(tableName, newValues, uniqueColumns);
+            return;
+        }
+
+        Set<Map.Entry<String, Object>> valueSet = newValues.valueSet();
+        String[] columns = new String[valueSet.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> value : valueSet) {
+            columns[i++] = value.getKey();
+        }
+
+        SQLiteStatement statement;
+        if (ViewController.NATIVE_UPSERT_SUPPORTED) {
+            statement = getStatement(ViewController.buildUpsertSql(tableName, columns, uniqueColumns));
+        } else {
+            StringBuilder sql = new StringBuilder();
+            sql.append("UPDATE ").append(tableName).append(" SET ");
+            for (i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? "," : "").append(columns[i]).append("=?");
+            }
+            sql.append(" WHERE ").append(ViewController.buildColumnsSelection(uniqueColumns));
+            statement = getStatement(sql.toString());
+        }
+
+        i = 1;
+        for (Map.Entry<String, Object> value : valueSet) {
+            bindValue(statement, i++, value.getValue());
+        }
+        if (!ViewController.NATIVE_UPSERT_SUPPORTED) {
+            for (String uniqueColumn : uniqueColumns) {
+                bindValue(statement, i++, newValues.get(uniqueColumn));
+            }
+        }
+
+        int affectedRows;
+        try {
+            affectedRows = statement.executeUpdateDelete();
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Cannot insert or update " + newValues + " in " + tableName, e);
+        }
+
+        if (affectedRows == 0 && !ViewController.NATIVE_UPSERT_SUPPORTED) {
+            insert(tableName, newValues);
+        }
+    }
+
+    /**
+     * Finds row with specific value in one column
+     *
+     * @param tableName Name of table
+     * @param colName   Name of column
+     * @param colValue  Value to be found
+     * @return ID of found row or {@code -1} if there is no such row
+     */
+    long findId(@NonNull String tableName, @NonNull String colName, @NonNull Object colValue) {
+        return findId(tableName, new String[]{colName}, new Object[]{colValue});
+    }
+
+    /**
+     * Inserts new values to specific table
+     *
+     * @param tableName Name of table
+     * @param values    Values to be inserted
+     * @return ID of inserted row or throws {@link IllegalArgumentException} (if some table constraint
+     * violated)
+     */
+    long insert(@NonNull String tableName, @NonNull ContentValues values) {
+        Set<Map.Entry<String, Object>> valueSet = values.valueSet();
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(tableName).append(" (");
+        int i = 0;
+        for (Map.Entry<String, Object> value : valueSet) {
+            sql.append(i++ > 0 ? "," : "").append(value.getKey());
+        }
+        sql.append(") VALUES (");
+        for (i = 0; i < valueSet.size(); i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+
+        SQLiteStatement statement = getStatement(sql.toString());
+        i = 1;
+        for (Map.Entry<String, Object> value : valueSet) {
+            bindValue(statement, i++, value.getValue());
+        }
+
+        long newEntryId;
+        try {
+            newEntryId = statement.executeInsert();
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Cannot insert " + values + " to " + tableName, e);
+        }
+        if (newEntryId == -1) {
+            throw new IllegalArgumentException("Cannot insert " + values + " to " + tableName);
+        }
+        return newEntryId;
+    }
+
+    /**
+     * Executes SQL statement that returns no data
+     *
+     * @param sql  SQL statement
+     * @param args Arguments of statement
+     */
+    void execute(@NonNull String sql, @NonNull Object... args) {
+        SQLiteStatement statement = getStatement(sql);
+        for (int i = 0; i < args.length; i++) {
+            bindValue(statement, i + 1, args[i]);
+        }
+        statement.execute();
+    }
+
+    @Override
+    public void close() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+    }
+
+    // -------------------------------------------------------------------------------------------
+    // Helping methods
+    // -------------------------------------------------------------------------------------------
+
+    private long findId(@NonNull String tableName, @NonNull String[] columns, @NonNull Object[] args) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT ").append(BaseColumns._ID).append(" FROM ").append(tableName).append(" WHERE ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(" AND ");
+            }
+            sql.append(columns[i]).append(" = ?");
+        }
+        sql.append(" LIMIT 1");
+
+        SQLiteStatement statement = getStatement(sql.toString());
+        for (int i = 0; i < args.length; i++) {
+            bindValue(statement, i + 1, args[i]);
+        }
+
+        try {
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No row found
+            return -1;
+        }
+    }
+
+    private void update(@NonNull String tableName, @NonNull ContentValues values, long rowId) {
+        Set<Map.Entry<String, Object>> valueSet = values.valueSet();
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("UPDATE ").append(tableName).append(" SET ");
+        int i = 0;
+        for (Map.Entry<String, Object> value : valueSet) {
+            sql.append(i++ > 0 ? "," : "").append(value.getKey()).append("=?");
+        }
+        sql.append(" WHERE ").append(BaseColumns._ID).append(" = ?");
+
+        SQLiteStatement statement = getStatement(sql.toString());
+        i = 1;
+        for (Map.Entry<String, Object> value : valueSet) {
+            bindValue(statement, i++, value.getValue());
+        }
+        statement.bindLong(i, rowId);
+
+        int affectedRows;
+        try {
+            affectedRows = statement.executeUpdateDelete();
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Cannot update " + values + " in " + tableName, e);
+        }
+        if (affectedRows != 1) {
+            throw new IllegalArgumentException("Cannot update " + values + " in " + tableName);
+        }
+    }
+
+    @NonNull
+    private SQLiteStatement getStatement(@NonNull String sql) {
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mDb.compileStatement(sql);
+            mStatements.put(sql, statement);
+        } else {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    private static void bindValue(@NonNull SQLiteStatement statement, int index, @Nullable Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
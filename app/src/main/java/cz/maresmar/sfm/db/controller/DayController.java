@@ -25,9 +25,12 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import androidx.annotation.NonNull;
 
 import cz.maresmar.sfm.db.DbContract;
+import cz.maresmar.sfm.db.UserMenuTable;
 
 /**
- * Controller around day view, this view extracts days existing in MenuEntry table
+ * Controller around day view, this view extracts days existing in materialized user menu
+ *
+ * @see UserMenuTable
  */
 public class DayController extends SimpleController {
 
@@ -35,7 +38,7 @@ public class DayController extends SimpleController {
      * Creates new controller
      */
     public DayController() {
-        super(DbContract.MenuEntry.TABLE_NAME);
+        super(DbContract.UserMenuEntry.TABLE_NAME);
     }
 
     // -------------------------------------------------------------------------------------------
@@ -48,32 +51,12 @@ public class DayController extends SimpleController {
         // Using SQLiteQueryBuilder instead of query() method
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
 
-        long userId = getUserId(selection);
-        String userQueryTables = mTableName +
-                // Portal table
-                " INNER JOIN " + DbContract.Portal.TABLE_NAME +
-                " ON (" + DbContract.Portal.TABLE_NAME + "." + DbContract.Portal._ID + " = " +
-                DbContract.MenuEntry.COLUMN_NAME_PID + ")" +
-                // Credential table
-                " INNER JOIN " + DbContract.Credential.TABLE_NAME +
-                " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_PGID + " = " +
-                DbContract.Portal.TABLE_NAME + "." + DbContract.Portal.COLUMN_NAME_PGID + " AND " +
-                DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID + " = " +
-                userId + ")";
-
-        queryBuilder.setTables(userQueryTables);
+        // Materialized view contains only menu entries from user's portals (selection contains UID)
+        queryBuilder.setTables(mTableName);
 
         fixIdColumnProjection(projection);
 
-        return queryBuilder.query(db, projection, selection,
-                selectionArgs, DbContract.MenuEntry.COLUMN_NAME_DATE, null, sortOrder);
-    }
-
-    // -------------------------------------------------------------------------------------------
-    // Helping methods
-    // -------------------------------------------------------------------------------------------
-
-    private long getUserId(String selection) {
-        return getIdFromSelection(selection, DbContract.Credential.COLUMN_NAME_UID);
+        return queryBuilder.query(db, projection, UserMenuTable.translateColumns(selection),
+                selectionArgs, DbContract.UserMenuEntry.COLUMN_NAME_DATE, null, sortOrder);
     }
 }
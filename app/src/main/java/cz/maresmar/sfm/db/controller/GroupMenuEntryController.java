@@ -30,6 +30,11 @@ import cz.maresmar.sfm.db.DbContract.GroupMenuEntry;
  */
 public class GroupMenuEntryController extends SimpleController {
 
+    // Matches table's UNIQUE constraint so it can use UPSERT
+    private static final String[] UNIQUE_COLUMNS = new String[]{GroupMenuEntry.COLUMN_NAME_CGID,
+            GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID, GroupMenuEntry.COLUMN_NAME_ME_PID};
+    private static final int UPSERT_STRATEGY = UPSERT_ON_CONFLICT;
+
     /**
      * Creates new controller
      */
@@ -39,7 +44,11 @@ public class GroupMenuEntryController extends SimpleController {
 
     @Override
     public long insert(@NonNull SQLiteDatabase db, ContentValues newValues) {
-        return insertOrUpdate(db, mTableName, newValues, new String[] { GroupMenuEntry.COLUMN_NAME_CGID,
-                GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID, GroupMenuEntry.COLUMN_NAME_ME_PID});
+        return insertOrUpdate(db, mTableName, newValues, UNIQUE_COLUMNS, UPSERT_STRATEGY);
+    }
+
+    @Override
+    public int bulkInsert(@NonNull SQLiteDatabase db, @NonNull ContentValues[] values) {
+        return bulkInsertOrUpdate(db, mTableName, values, UNIQUE_COLUMNS, UPSERT_STRATEGY);
     }
 }
@@ -32,7 +32,7 @@ import java.util.Set;
 
 import cz.maresmar.sfm.db.DbContract.Credential;
 import cz.maresmar.sfm.db.DbContract.Portal;
-import cz.maresmar.sfm.provider.ProviderContract;
+import cz.maresmar.sfm.provider.schema.UriParams;
 
 import static cz.maresmar.sfm.provider.ProviderContract.LogData;
 import static cz.maresmar.sfm.provider.PublicProviderContract.PORTAL_ONLY_CREDENTIAL_ID;
@@ -71,6 +71,12 @@ public class LogDataController extends ViewController {
 
     @Override
     public int update(@NonNull SQLiteDatabase db, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("LogData can be updated only using Uri with IDs");
+    }
+
+    @Override
+    public int update(@NonNull SQLiteDatabase db, ContentValues values, String selection, String[] selectionArgs,
+                      @NonNull UriParams params) {
         // Check params
         if(values.containsKey(LogData.CREDENTIALS_GROUP_ID) || values.containsKey(LogData.PORTAL_ID) ||
                 values.containsKey(LogData.CREDENTIAL_ID)) {
@@ -80,11 +86,11 @@ public class LogDataController extends ViewController {
         // Split values to two groups
         ContentValues credentialValues = new ContentValues();
         credentialValues.putAll(values);
-        long credentialId = getCredentialId(selection);
+        long credentialId = params.getLong(LogData.CREDENTIAL_ID, PORTAL_ONLY_CREDENTIAL_ID);
 
         ContentValues portalValues = new ContentValues();
         portalValues.putAll(values);
-        long portalId = getPortalId(selection);
+        long portalId = params.getLong(LogData.PORTAL_ID);
 
         for(Map.Entry<String, Object> value: values.valueSet()) {
             if(mCredentialsColumns.contains(value.getKey())) {
@@ -97,13 +103,13 @@ public class LogDataController extends ViewController {
         }
 
         int updatedPortalRows =  update(db, Portal.TABLE_NAME, portalValues,
-                Portal._ID + " = " + portalId, null);
+                Portal._ID + " = ?", new String[]{Long.toString(portalId)});
 
         // Does not update rows if it's portal only view (used in portal data tests)
         int updatedCredentialRows;
         if(credentialId != PORTAL_ONLY_CREDENTIAL_ID) {
             updatedCredentialRows = update(db, Credential.TABLE_NAME, credentialValues,
-                    Credential._ID + " = " + credentialId, null);
+                    Credential._ID + " = ?", new String[]{Long.toString(credentialId)});
         } else {
             updatedCredentialRows = updatedPortalRows;
         }
@@ -118,37 +124,41 @@ public class LogDataController extends ViewController {
 
     @Override
     public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        // Using SQLiteQueryBuilder instead of query() method
-        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        return query(db, mStandardQueryTables, projection, selection, selectionArgs, sortOrder);
+    }
 
-        if(isPortalOnlySelection(selection)) {
-            queryBuilder.setTables(mPortalOnlyQueryTables);
+    @Override
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, @NonNull UriParams params) {
+        String tables;
+        if(isPortalOnlySelection(selection, params)) {
+            tables = mPortalOnlyQueryTables;
         } else {
-            queryBuilder.setTables(mStandardQueryTables);
+            tables = mStandardQueryTables;
         }
 
-        return queryBuilder.query(db, projection, selection,
-                selectionArgs, null, null, sortOrder);
+        return query(db, tables, projection, params.buildSelection(selection),
+                params.buildSelectionArgs(selectionArgs), sortOrder);
     }
 
     // -------------------------------------------------------------------------------------------
     // Helping methods
     // -------------------------------------------------------------------------------------------
 
-    private long getCredentialId(String selection) {
-        if(selection.contains(LogData.CREDENTIAL_ID)) {
-            return getIdFromSelection(selection, LogData.CREDENTIAL_ID);
-        } else {
-            return ProviderContract.PORTAL_ONLY_CREDENTIAL_ID;
-        }
-    }
+    private static Cursor query(@NonNull SQLiteDatabase db, String tables, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        // Using SQLiteQueryBuilder instead of query() method
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(tables);
 
-    private long getPortalId(String selection) {
-        return getIdFromSelection(selection, LogData.PORTAL_ID);
+        return queryBuilder.query(db, projection, selection,
+                selectionArgs, null, null, sortOrder);
     }
 
-    private static boolean isPortalOnlySelection(@Nullable String selection) {
-        return selection != null && selection.matches(" *\\(? *" + LogData.PORTAL_ID + " *==? *[0-9]+ *\\)? *");
+    private static boolean isPortalOnlySelection(@Nullable String selection, @NonNull UriParams params) {
+        // Uri with portal ID and portal only credential ID (the credential param is missing then)
+        return (selection == null || selection.isEmpty()) && params.contains(LogData.PORTAL_ID) &&
+                !params.contains(LogData.CREDENTIAL_ID);
     }
 
 }
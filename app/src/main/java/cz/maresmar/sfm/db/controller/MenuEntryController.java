@@ -20,84 +20,195 @@
 package cz.maresmar.sfm.db.controller;
 
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.regex.Pattern;
 
 import cz.maresmar.sfm.db.DbContract;
-import cz.maresmar.sfm.provider.PublicProviderContract;
+import cz.maresmar.sfm.db.MenuSearchTable;
+import cz.maresmar.sfm.db.UserMenuTable;
+import cz.maresmar.sfm.provider.schema.UriParams;
+
+import static cz.maresmar.sfm.db.DbContract.FoodSearch;
+import static cz.maresmar.sfm.db.DbContract.MenuEntry;
+import static cz.maresmar.sfm.db.DbContract.MenuGroupSearch;
+import static cz.maresmar.sfm.db.DbContract.UserMenuEntry;
 
 /**
  * Controller around MenuEntry table (with user id)
+ * <p>
+ * The queries use materialized {@link DbContract.UserMenuEntry} table instead of joining menu entries
+ * with actions and another tables on each query.</p>
+ *
+ * @see UserMenuTable
  */
 public class MenuEntryController extends SimpleMenuEntryController {
 
+    private static final Pattern ALIAS_PATTERN = Pattern.compile("\\s+[aA][sS]\\s+");
+    private static final Pattern SIMPLE_COLUMN_PATTERN = Pattern.compile("\\w+\\.\\w+");
+
+    /**
+     * Relevance of found menu entry, the higher the better (see {@link #buildSearchSortOrder(long)})
+     */
+    public static final String SEARCH_RANK = "SearchRank";
+
+    private static final String SEARCH_ME_ID = "SearchMEID";
+    private static final String HEX_DIGITS = "'0123456789ABCDEF'";
+
+    // Found menu entries with their best rank, food matches are ranked above the menu group only
+    // matches. The tables have aliases so they aren't translated as view columns and unary + removes
+    // integer affinity so the typeless MEID index can be used. The MATCH arguments are in FROM clause,
+    // so they precede the selection args.
+    private static final String SQL_SEARCH_TABLES = "(SELECT " + SEARCH_ME_ID + ", MAX(" + SEARCH_RANK +
+            ") AS " + SEARCH_RANK + " FROM (" +
+            "SELECT +FoodEntry." + MenuEntry._ID + " AS " + SEARCH_ME_ID + ", 1 + " +
+            buildMatchRank(FoodSearch.TABLE_NAME) + " AS " + SEARCH_RANK + " FROM " + FoodSearch.TABLE_NAME +
+            " CROSS JOIN " + MenuEntry.TABLE_NAME + " AS FoodEntry ON FoodEntry." + MenuEntry.COLUMN_NAME_FID +
+            " = " + FoodSearch.TABLE_NAME + "." + FoodSearch.COLUMN_NAME_DOC_ID +
+            " WHERE " + FoodSearch.TABLE_NAME + " MATCH ?" +
+            " UNION ALL " +
+            "SELECT +GroupEntry." + MenuEntry._ID + ", " + buildMatchRank(MenuGroupSearch.TABLE_NAME) +
+            " FROM " + MenuGroupSearch.TABLE_NAME +
+            " CROSS JOIN " + MenuEntry.TABLE_NAME + " AS GroupEntry ON GroupEntry." + MenuEntry.COLUMN_NAME_MGID +
+            " = " + MenuGroupSearch.TABLE_NAME + "." + MenuGroupSearch.COLUMN_NAME_DOC_ID +
+            " WHERE " + MenuGroupSearch.TABLE_NAME + " MATCH ?" +
+            ") GROUP BY " + SEARCH_ME_ID + ") AS MenuSearch" +
+            " CROSS JOIN " + UserMenuEntry.TABLE_NAME + " ON " + UserMenuEntry.TABLE_NAME + "." +
+            UserMenuEntry.COLUMN_NAME_ME_ID + " = MenuSearch." + SEARCH_ME_ID;
+
+    private final String mQueryTables;
+
+    /**
+     * Create new controller of user's menu
+     */
+    public MenuEntryController() {
+        this(false);
+    }
+
+    /**
+     * Create new controller of user's menu
+     *
+     * @param search {@code true} if the controller returns only menu entries found by full-text
+     *               search, its selection args has to start with search arguments
+     * @see #buildSearchSelectionArgs(String[], String)
+     */
+    public MenuEntryController(boolean search) {
+        // Materialized view already contains all joined tables for each user
+        mQueryTables = search ? SQL_SEARCH_TABLES : UserMenuEntry.TABLE_NAME;
+    }
+
     @Override
     public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(db, projection, selection, selectionArgs, sortOrder, (String) null);
+    }
+
+    @Override
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, @NonNull UriParams params) {
+        return query(db, projection, selection, selectionArgs, sortOrder, params, null);
+    }
 
+    @Override
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, @NonNull UriParams params, @Nullable String limit) {
+        return query(db, projection, params.buildSelection(selection), params.buildSelectionArgs(selectionArgs),
+                sortOrder, limit);
+    }
+
+    private Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder, @Nullable String limit) {
         // Using SQLiteQueryBuilder instead of query() method
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
-
-        long userId = getUserId(selection);
-        String userQueryTables = mPortalQueryTables +
-                // Portal table
-                " INNER JOIN " + DbContract.Portal.TABLE_NAME +
-                " ON (" + DbContract.Portal.TABLE_NAME + "." + DbContract.Portal._ID + " = " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_PID + ")" +
-                // Credential table
-                " INNER JOIN " + DbContract.Credential.TABLE_NAME +
-                " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_PGID + " = " +
-                DbContract.Portal.TABLE_NAME + "." + DbContract.Portal.COLUMN_NAME_PGID + " AND " +
-                DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID + " = " +
-                userId + ")" +
-                // Group menu entry
-                " LEFT OUTER JOIN " + DbContract.GroupMenuEntry.TABLE_NAME +
-                " ON (" + DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_CGID + " = " +
-                DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_CGID + " AND " +
-                DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_PID + " = " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_PID + " AND " +
-                DbContract.GroupMenuEntry.TABLE_NAME + "." + DbContract.GroupMenuEntry.COLUMN_NAME_ME_RELATIVE_ID + " = " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_RELATIVE_ID + ")" +
-                // Synced Food action
-                " LEFT OUTER JOIN " + DbContract.FoodAction.TABLE_NAME + " AS " + DbContract.MenuEntry.SYNCED_ACTION_TABLE_ALIAS +
-                " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential._ID + " = " +
-                DbContract.MenuEntry.SYNCED_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_CID + " AND " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_PID + " = " +
-                DbContract.MenuEntry.SYNCED_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " AND " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_RELATIVE_ID + " = " +
-                DbContract.MenuEntry.SYNCED_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
-                DbContract.MenuEntry.SYNCED_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " = " +
-                PublicProviderContract.ACTION_SYNC_STATUS_SYNCED + ")" +
-                // Local Food action
-                " LEFT OUTER JOIN " + DbContract.FoodAction.TABLE_NAME + " AS " + DbContract.MenuEntry.LOCAL_ACTION_TABLE_ALIAS +
-                " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential._ID + " = " +
-                DbContract.MenuEntry.LOCAL_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_CID + " AND " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_PID + " = " +
-                DbContract.MenuEntry.LOCAL_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " AND " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_RELATIVE_ID + " = " +
-                DbContract.MenuEntry.LOCAL_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
-                DbContract.MenuEntry.LOCAL_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " = " +
-                PublicProviderContract.ACTION_SYNC_STATUS_LOCAL + ")" +
-                // Edit Food action
-                " LEFT OUTER JOIN " + DbContract.FoodAction.TABLE_NAME + " AS " + DbContract.MenuEntry.EDIT_ACTION_TABLE_ALIAS +
-                " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential._ID + " = " +
-                DbContract.MenuEntry.EDIT_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_CID + " AND " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_PID + " = " +
-                DbContract.MenuEntry.EDIT_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " AND " +
-                DbContract.MenuEntry.TABLE_NAME + "." + DbContract.MenuEntry.COLUMN_NAME_RELATIVE_ID + " = " +
-                DbContract.MenuEntry.EDIT_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " AND " +
-                DbContract.MenuEntry.EDIT_ACTION_TABLE_ALIAS + "." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " = " +
-                PublicProviderContract.ACTION_SYNC_STATUS_EDIT + ")";
-
-        queryBuilder.setTables(userQueryTables);
+        queryBuilder.setTables(mQueryTables);
 
         fixIdColumnProjection(projection);
 
-        return queryBuilder.query(db, projection, selection,
-                selectionArgs, null, null, sortOrder);
+        return queryBuilder.query(db, translateProjection(projection),
+                UserMenuTable.translateColumns(selection), selectionArgs, null, null,
+                UserMenuTable.translateColumns(sortOrder), limit);
+    }
+
+    /**
+     * Adds arguments of full-text search to selection args of search controller. They are put before
+     * the original args as the searched tables precede the selection.
+     *
+     * @param selectionArgs Original selection args
+     * @param matchQuery    FTS match expression
+     * @return Selection args with search arguments
+     * @see #MenuEntryController(boolean)
+     * @see MenuSearchTable#buildMatchQuery(String)
+     */
+    public static String[] buildSearchSelectionArgs(String[] selectionArgs, @NonNull String matchQuery) {
+        return DatabaseUtils.appendSelectionArgs(new String[]{matchQuery, matchQuery}, selectionArgs);
+    }
+
+    /**
+     * Returns sort order of search results. The menu entries are ranked by {@link #SEARCH_RANK} and
+     * the equally ranked ones by date, the upcoming ones first (from the nearest) and then the older
+     * ones (from the newest).
+     *
+     * @param today Date of today
+     * @return Sort order of search results
+     */
+    @NonNull
+    public static String buildSearchSortOrder(long today) {
+        return SEARCH_RANK + " DESC, " + UserMenuEntry.COLUMN_NAME_DATE + " < " + today + ", ABS(" +
+                UserMenuEntry.COLUMN_NAME_DATE + " - " + today + ")";
     }
 
-    private long getUserId(String selection) {
-        return getIdFromSelection(selection, DbContract.Credential.COLUMN_NAME_UID);
+    /**
+     * Returns SQL expression with rank of FTS4 match in range (0, 1]. FTS4 has no ranking function,
+     * so the rank is computed from {@code matchinfo()} as the longest matched run of query words
+     * ({@code s}) divided by number of words in name ({@code l}).
+     * <p>
+     * The values are read from the low bytes of hex blob (Android ABIs are little-endian and names
+     * are shorter than 256 words), {@code instr()} isn't available on old SQLite, so each hex digit
+     * is decoded as length of digits prefix trimmed by {@code rtrim()}.</p>
+     *
+     * @param table Name of FTS table used in MATCH
+     * @return SQL expression
+     */
+    private static String buildMatchRank(@NonNull String table) {
+        String matchInfo = "hex(matchinfo(" + table + ", 'ls'))";
+        return "1.0 * " + buildHexByte(matchInfo, 9) + " / " + buildHexByte(matchInfo, 1);
+    }
+
+    private static String buildHexByte(@NonNull String hex, int position) {
+        return "(" + buildHexDigit(hex, position) + " * 16 + " + buildHexDigit(hex, position + 1) + ")";
+    }
+
+    private static String buildHexDigit(@NonNull String hex, int position) {
+        return "(length(rtrim(" + HEX_DIGITS + ", replace(" + HEX_DIGITS + ", substr(" + hex + ", " +
+                position + ", 1), ''))) - 1)";
+    }
+
+    /**
+     * Translates projection to {@link DbContract.UserMenuEntry} columns. Translated columns keep
+     * their original names in result (like {@code SyncedAction.FAResAmount} is named {@code FAResAmount}).
+     *
+     * @param projection Projection with view columns
+     * @return New projection with table columns
+     */
+    private static String[] translateProjection(String[] projection) {
+        String[] translated = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i];
+            String tableColumn = UserMenuTable.translateColumns(column);
+
+            if (tableColumn.equals(column) || ALIAS_PATTERN.matcher(column).find()) {
+                translated[i] = tableColumn;
+            } else {
+                // Keep the SQLite's name of original column
+                int dotIndex = column.lastIndexOf('.');
+                String name = SIMPLE_COLUMN_PATTERN.matcher(column).matches() ?
+                        column.substring(dotIndex + 1) : column;
+                translated[i] = tableColumn + " AS \"" + name + "\"";
+            }
+        }
+        return translated;
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.db.controller;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Bounded cache of name to ID mapping of one column tables (like Food or MenuGroup)
+ * <p>
+ * The cache is created lazily for each opened {@link SQLiteDatabase}, so it's dropped together with
+ * the database connection. The values are added on lookup or insert and whole cache must be
+ * invalidated when the table rows are deleted or when the transaction that inserted them is rolled
+ * back. All methods are thread-safe.
+ * </p>
+ */
+public class NameIdCache {
+
+    /**
+     * Maximal number of names cached for one table
+     */
+    static final int MAX_SIZE = 512;
+
+    private static final Map<SQLiteDatabase, NameIdCache> sCaches = new WeakHashMap<>();
+
+    private final Map<String, LruCache<String, Long>> mTableCaches = new HashMap<>();
+
+    private NameIdCache() {
+    }
+
+    /**
+     * Returns cache of given database
+     *
+     * @param db Database to work with
+     * @return Cache of database
+     */
+    @NonNull
+    public static NameIdCache of(@NonNull SQLiteDatabase db) {
+        synchronized (sCaches) {
+            NameIdCache cache = sCaches.get(db);
+            if (cache == null) {
+                cache = new NameIdCache();
+                sCaches.put(db, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Finds cached ID of name
+     *
+     * @param tableName Name of table
+     * @param name      Name to be found
+     * @return ID or {@code null} if it's not in cache
+     */
+    @Nullable
+    public Long get(@NonNull String tableName, @NonNull String name) {
+        return getTableCache(tableName).get(name);
+    }
+
+    /**
+     * Saves ID of name to cache
+     *
+     * @param tableName Name of table
+     * @param name      Name
+     * @param id        ID of row with name
+     */
+    public void put(@NonNull String tableName, @NonNull String name, long id) {
+        getTableCache(tableName).put(name, id);
+    }
+
+    /**
+     * Removes all names of table from cache (should be called after delete from table)
+     *
+     * @param tableName Name of table
+     */
+    public void invalidate(@NonNull String tableName) {
+        getTableCache(tableName).evictAll();
+    }
+
+    /**
+     * Removes all names from cache (should be called after rolled back transaction)
+     */
+    public void invalidateAll() {
+        synchronized (mTableCaches) {
+            for (LruCache<String, Long> cache : mTableCaches.values()) {
+                cache.evictAll();
+            }
+        }
+    }
+
+    /**
+     * Returns number of cache hits in all tables
+     *
+     * @return Hit count
+     */
+    public int hitCount() {
+        int hits = 0;
+        synchronized (mTableCaches) {
+            for (LruCache<String, Long> cache : mTableCaches.values()) {
+                hits += cache.hitCount();
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns number of cache misses in all tables
+     *
+     * @return Miss count
+     */
+    public int missCount() {
+        int misses = 0;
+        synchronized (mTableCaches) {
+            for (LruCache<String, Long> cache : mTableCaches.values()) {
+                misses += cache.missCount();
+            }
+        }
+        return misses;
+    }
+
+    @NonNull
+    private LruCache<String, Long> getTableCache(@NonNull String tableName) {
+        synchronized (mTableCaches) {
+            LruCache<String, Long> cache = mTableCaches.get(tableName);
+            if (cache == null) {
+                cache = new LruCache<>(MAX_SIZE);
+                mTableCaches.put(tableName, cache);
+            }
+            return cache;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "NameIdCache{hits=" + hitCount() + ", misses=" + missCount() + "}";
+    }
+}
@@ -28,6 +28,7 @@ import androidx.annotation.NonNull;
 import cz.maresmar.sfm.db.DbContract;
 import cz.maresmar.sfm.db.DbContract.Portal;
 import cz.maresmar.sfm.db.DbContract.PortalGroup;
+import cz.maresmar.sfm.provider.schema.UriParams;
 
 /**
  * Controller around Portal table
@@ -37,6 +38,11 @@ public class PortalController extends SimpleController {
     private static final String mQueryTables = Portal.TABLE_NAME + " INNER JOIN " +
             PortalGroup.TABLE_NAME + " ON (" + PortalGroup.TABLE_NAME + "." + PortalGroup._ID + " = " +
             Portal.TABLE_NAME + "." + Portal.COLUMN_NAME_PGID + ")";
+    private static final String mUserQueryTables = mQueryTables +
+            // Credential table
+            " INNER JOIN " + DbContract.Credential.TABLE_NAME +
+            " ON (" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_PGID + " = " +
+            Portal.TABLE_NAME + "." + Portal.COLUMN_NAME_PGID + ")";
 
     /**
      * Creates new controller
@@ -57,25 +63,29 @@ public class PortalController extends SimpleController {
 
     @Override
     public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        // Using SQLiteQueryBuilder instead of query() method
-        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        return query(db, mQueryTables, projection, selection, selectionArgs, sortOrder);
+    }
 
+    @Override
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, @NonNull UriParams params) {
         String tables;
-        if(selection.contains(DbContract.Credential.COLUMN_NAME_UID)) {
-            // Filter rows with correct userId
-            long userId = getUserId(selection);
-            tables = mQueryTables +
-                    // Credential table
-                    " INNER JOIN " + DbContract.Credential.TABLE_NAME +
-                    " ON ((" + DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_PGID + " = " +
-                    DbContract.Portal.TABLE_NAME + "." + Portal.COLUMN_NAME_PGID + ") AND (" +
-                    DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID + " = " +
-                    userId + "))";
+        if(params.contains(DbContract.Credential.COLUMN_NAME_UID)) {
+            // Filter rows with correct userId (the user ID is bound in selection)
+            tables = mUserQueryTables;
         } else {
             // Takes all rows
             tables = mQueryTables;
         }
 
+        return query(db, tables, projection, params.buildSelection(selection),
+                params.buildSelectionArgs(selectionArgs), sortOrder);
+    }
+
+    private Cursor query(@NonNull SQLiteDatabase db, String tables, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+        // Using SQLiteQueryBuilder instead of query() method
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
         queryBuilder.setTables(tables);
 
         fixIdColumnProjection(projection);
@@ -83,8 +93,4 @@ public class PortalController extends SimpleController {
         return queryBuilder.query(db, projection, selection,
                 selectionArgs, null, null, sortOrder);
     }
-
-    private long getUserId(String selection) {
-        return getIdFromSelection(selection, DbContract.Credential.COLUMN_NAME_UID);
-    }
 }
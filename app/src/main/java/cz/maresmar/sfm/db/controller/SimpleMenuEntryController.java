@@ -24,7 +24,9 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import cz.maresmar.sfm.db.MenuSearchTable;
 import cz.maresmar.sfm.provider.ProviderContract;
 import timber.log.Timber;
 
@@ -47,6 +49,11 @@ public class SimpleMenuEntryController extends SimpleController {
             " ON (" + MenuGroup.TABLE_NAME + "." + MenuGroup._ID + " = " +
             MenuEntry.COLUMN_NAME_MGID + ")";
 
+    // Matches table's UNIQUE constraint so it can use UPSERT
+    private static final String[] UNIQUE_COLUMNS = new String[]{
+            MenuEntry.COLUMN_NAME_PID, MenuEntry.COLUMN_NAME_RELATIVE_ID};
+    private static final int UPSERT_STRATEGY = UPSERT_ON_CONFLICT;
+
     /**
      * Create new controller
      */
@@ -60,17 +67,51 @@ public class SimpleMenuEntryController extends SimpleController {
 
     @Override
     public long insert(@NonNull SQLiteDatabase db, ContentValues newValues) {
+        boolean successful = false;
         db.beginTransaction();
         try {
-            insertJoinedColumns(db, newValues);
+            insertJoinedColumns(db, newValues, null);
 
-            long newId = insertOrUpdate(db, mTableName, newValues, new String[]{
-                    MenuEntry.COLUMN_NAME_RELATIVE_ID, MenuEntry.COLUMN_NAME_PID});
+            long newId = insertOrUpdate(db, mTableName, newValues, UNIQUE_COLUMNS, UPSERT_STRATEGY);
             db.setTransactionSuccessful();
+            successful = true;
 
             return newId;
         } finally {
             db.endTransaction();
+            // Cached IDs inserted in rolled back transaction are not valid
+            if (!successful) {
+                NameIdCache.of(db).invalidateAll();
+            }
+        }
+    }
+
+    @Override
+    public int bulkInsert(@NonNull SQLiteDatabase db, @NonNull ContentValues[] values) {
+        // Nested transaction cannot yield
+        boolean canYield = !db.inTransaction();
+        boolean successful = false;
+        db.beginTransaction();
+        try (BulkInserter inserter = new BulkInserter(db)) {
+            for (int i = 0; i < values.length; i++) {
+                if (canYield && i > 0 && i % BULK_YIELD_ROWS == 0) {
+                    db.yieldIfContendedSafely();
+                }
+                ContentValues newValues = values[i];
+
+                insertJoinedColumns(db, newValues, inserter);
+                inserter.insertOrUpdate(mTableName, newValues, UNIQUE_COLUMNS, UPSERT_STRATEGY);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+            return values.length;
+        } finally {
+            db.endTransaction();
+            // Cached IDs inserted in rolled back transaction are not valid
+            if (!successful) {
+                NameIdCache.of(db).invalidateAll();
+            }
+            Timber.d("Bulk insert of %d menu entries, %s", values.length, NameIdCache.of(db));
         }
     }
 
@@ -91,12 +132,14 @@ public class SimpleMenuEntryController extends SimpleController {
     // Handling of "virtual" (in select joined columns)
     // -------------------------------------------------------------------------------------------
 
-    private static void insertJoinedColumns(@NonNull SQLiteDatabase db, ContentValues values) {
+    private static void insertJoinedColumns(@NonNull SQLiteDatabase db, ContentValues values,
+                                            @Nullable BulkInserter inserter) {
         // Provides insert to FoodEntry
         String foodName = values.getAsString(ProviderContract.MenuEntry.TEXT);
         if (foodName != null) {
             values.remove(ProviderContract.MenuEntry.TEXT);
-            long fid = findOrInsertFood(db, foodName);
+            long fid = findOrInsertToOneColumnTable(db, inserter, Food.TABLE_NAME,
+                    Food.COLUMN_NAME_NAME, foodName);
             values.put(MenuEntry.COLUMN_NAME_FID, fid);
         }
 
@@ -104,7 +147,8 @@ public class SimpleMenuEntryController extends SimpleController {
         String groupName = values.getAsString(ProviderContract.MenuEntry.GROUP);
         if (groupName != null) {
             values.remove(ProviderContract.MenuEntry.GROUP);
-            long mgid = findOrInsertMenuGroup(db, groupName);
+            long mgid = findOrInsertToOneColumnTable(db, inserter, MenuGroup.TABLE_NAME,
+                    MenuGroup.COLUMN_NAME_NAME, groupName);
             values.put(MenuEntry.COLUMN_NAME_MGID, mgid);
         }
     }
@@ -116,7 +160,7 @@ public class SimpleMenuEntryController extends SimpleController {
      * @param foodName Name to be found or inserted
      */
     static long findOrInsertFood(SQLiteDatabase db, String foodName) {
-        return findOrInsertToOneColumnTable(db, Food.TABLE_NAME,
+        return findOrInsertToOneColumnTable(db, null, Food.TABLE_NAME,
                 Food.COLUMN_NAME_NAME, foodName);
     }
 
@@ -127,13 +171,44 @@ public class SimpleMenuEntryController extends SimpleController {
      * @param groupName Name of group to be found or inserted
      */
     static long findOrInsertMenuGroup(SQLiteDatabase db, String groupName) {
-        return findOrInsertToOneColumnTable(db, MenuGroup.TABLE_NAME,
+        return findOrInsertToOneColumnTable(db, null, MenuGroup.TABLE_NAME,
                 MenuGroup.COLUMN_NAME_NAME, groupName);
     }
 
+    static private long findOrInsertToOneColumnTable(SQLiteDatabase db, @Nullable BulkInserter inserter,
+                                                     String tableName, String colName, String colValue) {
+        // Canteens repeats the same names so look into cache first
+        NameIdCache cache = NameIdCache.of(db);
+        Long cachedId = cache.get(tableName, colValue);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        long id;
+        if (inserter != null) {
+            id = inserter.findId(tableName, colName, colValue);
+            if (id == -1) {
+                ContentValues values = new ContentValues();
+                values.put(colName, colValue);
+                id = inserter.insert(tableName, values);
+
+                // Names are never updated so only new rows are added to search index
+                String indexSql = MenuSearchTable.getIndexSql(tableName);
+                if (indexSql != null) {
+                    inserter.execute(indexSql, id, MenuSearchTable.normalize(colValue));
+                }
+            }
+        } else {
+            id = findOrInsertToOneColumnTable(db, tableName, colName, colValue);
+        }
+
+        cache.put(tableName, colValue, id);
+        return id;
+    }
+
     static private long findOrInsertToOneColumnTable(SQLiteDatabase db, String tableName,
                                                      String colName, String colValue) {
-        Cursor cursor = db.query(
+        try (Cursor cursor = db.query(
                 tableName, // Table
                 new String[]{MenuGroup._ID}, // Selection
                 colName + "=?", // Where
@@ -141,21 +216,26 @@ public class SimpleMenuEntryController extends SimpleController {
                 null, // Group by
                 null, // Having
                 null // Sort by
-        );
-        if (cursor.getCount() > 0) {
-            if (cursor.getCount() != 1) {
-                Timber.wtf("Found %i entries with same name (%s) in %s",
-                        cursor.getCount(), colValue, tableName);
+        )) {
+            if (cursor.getCount() > 0) {
+                if (cursor.getCount() != 1) {
+                    Timber.wtf("Found %d entries with same name (%s) in %s",
+                            cursor.getCount(), colValue, tableName);
+                }
+                cursor.moveToFirst();
+                return cursor.getLong(0);
             }
-            cursor.moveToFirst();
-            final long id = cursor.getLong(0);
-            cursor.close();
-            return id;
-        } else {
-            cursor.close();
-            ContentValues values = new ContentValues();
-            values.put(colName, colValue);
-            return db.insert(tableName, null, values);
         }
+
+        ContentValues values = new ContentValues();
+        values.put(colName, colValue);
+        long id = insertOrThrow(db, tableName, values);
+
+        // Names are never updated so only new rows are added to search index
+        String indexSql = MenuSearchTable.getIndexSql(tableName);
+        if (indexSql != null) {
+            db.execSQL(indexSql, new Object[]{id, MenuSearchTable.normalize(colValue)});
+        }
+        return id;
     }
 }
@@ -21,14 +21,27 @@ package cz.maresmar.sfm.db.controller;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.provider.BaseColumns;
+import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import cz.maresmar.sfm.Assert;
 import cz.maresmar.sfm.BuildConfig;
+import cz.maresmar.sfm.provider.schema.UriParams;
 
 /**
  * Abstract table view controller that handles SQL operations on one view.
@@ -39,6 +52,40 @@ import cz.maresmar.sfm.BuildConfig;
  */
 public abstract class ViewController {
 
+    /**
+     * Number of rows after which the bulk insert could yield the transaction to another thread
+     */
+    static final int BULK_YIELD_ROWS = 100;
+
+    /**
+     * Finds original row using SELECT and then does INSERT or UPDATE (works with any unique columns)
+     */
+    public static final int UPSERT_SELECT_FIRST = 0;
+    /**
+     * Uses table's UNIQUE constraint to do insert or update in one statement ({@code INSERT ... ON
+     * CONFLICT DO UPDATE}), on older SQLite it does UPDATE and INSERT only when nothing was updated.
+     * The unique columns has to exactly match some UNIQUE constraint of table.
+     */
+    public static final int UPSERT_ON_CONFLICT = 1;
+
+    @IntDef(value = {UPSERT_SELECT_FIRST, UPSERT_ON_CONFLICT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface UpsertStrategy {
+    }
+
+    /**
+     * SQLite supports {@code ON CONFLICT DO UPDATE} since 3.24 that is bundled since Android 11
+     */
+    static final boolean NATIVE_UPSERT_SUPPORTED = Build.VERSION.SDK_INT >= 30;
+
+    /**
+     * SQLite supports {@code RETURNING} clause since 3.35 that is bundled since Android 14
+     */
+    static final boolean RETURNING_SUPPORTED = Build.VERSION.SDK_INT >= 34;
+
+    // Table name -> (value key -> column name without table prefix), each key is resolved only once
+    private static final ConcurrentHashMap<String, Map<String, String>> sColumnMaps = new ConcurrentHashMap<>();
+
     // -------------------------------------------------------------------------------------------
     // Database handling
     // -------------------------------------------------------------------------------------------
@@ -53,6 +100,34 @@ public abstract class ViewController {
      */
     public abstract long insert(@NonNull SQLiteDatabase db, ContentValues newValues);
 
+    /**
+     * Inserts more values to table associated with object in one transaction. Default implementation
+     * calls {@link #insert(SQLiteDatabase, ContentValues)} for each row, controllers with heavy inserts
+     * should override it with faster implementation (see {@link BulkInserter}).
+     *
+     * @param db     Database to work with
+     * @param values Values to be inserted
+     * @return Number of inserted rows or throws {@link IllegalArgumentException} (if some table
+     * constraint is violated)
+     */
+    public int bulkInsert(@NonNull SQLiteDatabase db, @NonNull ContentValues[] values) {
+        // Nested transaction cannot yield
+        boolean canYield = !db.inTransaction();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (canYield && i > 0 && i % BULK_YIELD_ROWS == 0) {
+                    db.yieldIfContendedSafely();
+                }
+                insert(db, values[i]);
+            }
+            db.setTransactionSuccessful();
+            return values.length;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /**
      * Inserts new values to specific table
      *
@@ -89,6 +164,81 @@ public abstract class ViewController {
         return newEntryId;
     }
 
+    /**
+     * Inserts or update new values to specific table using given strategy
+     *
+     * @param db            Database to work with
+     * @param tableName     Name of table for inserting or updating
+     * @param newValues     Values to be inserted or updated
+     * @param uniqueColumns Columns that together making unique identification in table
+     * @param strategy      How the original row is found
+     * @return ID of new changed row or throws {@link IllegalArgumentException} (if some table constraint
+     * violated)
+     */
+    protected static long insertOrUpdate(@NonNull SQLiteDatabase db, @NonNull String tableName,
+                                         ContentValues newValues, String[] uniqueColumns,
+                                         @UpsertStrategy int strategy) {
+        if (strategy == UPSERT_ON_CONFLICT) {
+            ContentValues values = cutOffTablePrefix(tableName, newValues);
+            // Rows identified by _ID or without all unique values cannot conflict
+            if (!values.containsKey(BaseColumns._ID) && containsAll(values, uniqueColumns)) {
+                return upsertOnConflict(db, tableName, values, uniqueColumns);
+            }
+        }
+        return insertOrUpdate(db, tableName, newValues, uniqueColumns);
+    }
+
+    private static long upsertOnConflict(@NonNull SQLiteDatabase db, @NonNull String tableName,
+                                         @NonNull ContentValues values, @NonNull String[] uniqueColumns) {
+        String uniqueSelection = buildColumnsSelection(uniqueColumns);
+        String[] uniqueArgs = new String[uniqueColumns.length];
+        for (int i = 0; i < uniqueColumns.length; i++) {
+            uniqueArgs[i] = "" + values.get(uniqueColumns[i]);
+        }
+
+        try {
+            if (NATIVE_UPSERT_SUPPORTED) {
+                String[] columns = new String[values.size()];
+                Object[] args = new Object[values.size()];
+                int i = 0;
+                for (Map.Entry<String, Object> value : values.valueSet()) {
+                    columns[i] = value.getKey();
+                    args[i++] = value.getValue();
+                }
+                String sql = buildUpsertSql(tableName, columns, uniqueColumns);
+
+                if (RETURNING_SUPPORTED) {
+                    // Both inserted and updated row return its ID (the whole statement runs in first step)
+                    SQLiteStatement statement = db.compileStatement(sql + " RETURNING " + BaseColumns._ID);
+                    try {
+                        for (i = 0; i < args.length; i++) {
+                            DatabaseUtils.bindObjectToProgram(statement, i + 1, args[i]);
+                        }
+                        return statement.simpleQueryForLong();
+                    } catch (SQLiteDoneException e) {
+                        // DO NOTHING conflict doesn't return any row, the ID is found bellow
+                    } finally {
+                        statement.close();
+                    }
+                } else {
+                    // Older SQLite cannot tell if the row was inserted or updated
+                    db.execSQL(sql, args);
+                }
+            } else {
+                int affectedRows = db.update(tableName, values, uniqueSelection, uniqueArgs);
+                if (affectedRows == 0) {
+                    return insertOrThrowStripped(db, tableName, values);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Cannot insert or update " + values + " in " + tableName, e);
+        }
+
+        // Only the insert tells the ID of changed row
+        return DatabaseUtils.longForQuery(db, "SELECT " + BaseColumns._ID + " FROM " + tableName +
+                " WHERE " + uniqueSelection, uniqueArgs);
+    }
+
     /**
      * Inserts or update new values to specific table
      *
@@ -169,6 +319,38 @@ public abstract class ViewController {
 
     }
 
+    /**
+     * Inserts or update more values to specific table in one transaction using compiled statements
+     *
+     * @param db            Database to work with
+     * @param tableName     Name of table for inserting or updating
+     * @param values        Values to be inserted or updated
+     * @param uniqueColumns Columns that together making unique identification in table
+     * @param strategy      How the original rows are found
+     * @return Number of changed rows or throws {@link IllegalArgumentException} (if some table
+     * constraint violated)
+     * @see #insertOrUpdate(SQLiteDatabase, String, ContentValues, String[], int)
+     */
+    protected static int bulkInsertOrUpdate(@NonNull SQLiteDatabase db, @NonNull String tableName,
+                                            @NonNull ContentValues[] values, String[] uniqueColumns,
+                                            @UpsertStrategy int strategy) {
+        // Nested transaction cannot yield
+        boolean canYield = !db.inTransaction();
+        db.beginTransaction();
+        try (BulkInserter inserter = new BulkInserter(db)) {
+            for (int i = 0; i < values.length; i++) {
+                if (canYield && i > 0 && i % BULK_YIELD_ROWS == 0) {
+                    db.yieldIfContendedSafely();
+                }
+                inserter.insertOrUpdate(tableName, values[i], uniqueColumns, strategy);
+            }
+            db.setTransactionSuccessful();
+            return values.length;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /**
      * Updates values in table associated with object
      *
@@ -181,6 +363,24 @@ public abstract class ViewController {
     public abstract int update(@NonNull SQLiteDatabase db, ContentValues values, String selection,
                                String[] selectionArgs);
 
+    /**
+     * Updates values in table associated with object using params parsed from {@link android.net.Uri}.
+     * The default implementation binds params to selection, controllers that need param values
+     * override it.
+     *
+     * @param db            Database to work with
+     * @param values        Values to be updated
+     * @param selection     Update selection
+     * @param selectionArgs Update selection args
+     * @param params        Params from Uri
+     * @return Number of changed rows
+     * @see UriParams#buildSelection(String)
+     */
+    public int update(@NonNull SQLiteDatabase db, ContentValues values, String selection,
+                      String[] selectionArgs, @NonNull UriParams params) {
+        return update(db, values, params.buildSelection(selection), params.buildSelectionArgs(selectionArgs));
+    }
+
     /**
      * Updates values in specific table
      *
@@ -208,6 +408,21 @@ public abstract class ViewController {
      */
     public abstract int delete(@NonNull SQLiteDatabase db, String selection, String[] selectionArgs);
 
+    /**
+     * Delete from table associated with object using params parsed from {@link android.net.Uri}
+     *
+     * @param db            Database to work with
+     * @param selection     Delete selection
+     * @param selectionArgs Delete selection args
+     * @param params        Params from Uri
+     * @return Number of deleted rows
+     * @see #update(SQLiteDatabase, ContentValues, String, String[], UriParams)
+     */
+    public int delete(@NonNull SQLiteDatabase db, String selection, String[] selectionArgs,
+                      @NonNull UriParams params) {
+        return delete(db, params.buildSelection(selection), params.buildSelectionArgs(selectionArgs));
+    }
+
     /**
      * Query table associated with object
      *
@@ -221,47 +436,222 @@ public abstract class ViewController {
     public abstract Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection,
                                  String[] selectionArgs, String sortOrder);
 
+    /**
+     * Query table associated with object using params parsed from {@link android.net.Uri}
+     *
+     * @param db            Database to work with
+     * @param projection    Select projection
+     * @param selection     Select selection
+     * @param selectionArgs Select selection args
+     * @param sortOrder     Select sort order
+     * @param params        Params from Uri
+     * @return Cursor with data or throws {@link IllegalArgumentException}
+     * @see #update(SQLiteDatabase, ContentValues, String, String[], UriParams)
+     */
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder, @NonNull UriParams params) {
+        return query(db, projection, params.buildSelection(selection), params.buildSelectionArgs(selectionArgs),
+                sortOrder);
+    }
+
+    /**
+     * Query limited number of rows from table associated with object using params parsed from
+     * {@link android.net.Uri}
+     *
+     * @param db            Database to work with
+     * @param projection    Select projection
+     * @param selection     Select selection
+     * @param selectionArgs Select selection args
+     * @param sortOrder     Select sort order
+     * @param params        Params from Uri
+     * @param limit         Maximal number of rows or {@code null} for all rows
+     * @return Cursor with data or throws {@link IllegalArgumentException}
+     * @throws UnsupportedOperationException If the controller doesn't support limited queries
+     */
+    public Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder, @NonNull UriParams params,
+                        @Nullable String limit) {
+        if (limit != null) {
+            throw new UnsupportedOperationException("Limited query isn't supported by " +
+                    getClass().getSimpleName());
+        }
+        return query(db, projection, selection, selectionArgs, sortOrder, params);
+    }
+
     // -------------------------------------------------------------------------------------------
     // Helping methods
     // -------------------------------------------------------------------------------------------
 
+    static boolean containsAll(@NonNull ContentValues values, @NonNull String[] columns) {
+        for (String column : columns) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds selection like {@code a = ? AND b = ?}
+     *
+     * @param columns Columns in selection
+     * @return SQL selection
+     */
+    @NonNull
+    static String buildColumnsSelection(@NonNull String[] columns) {
+        StringBuilder selection = new StringBuilder();
+        for (String column : columns) {
+            if (selection.length() != 0) {
+                selection.append(" AND ");
+            }
+            selection.append(column).append(" = ?");
+        }
+        return selection.toString();
+    }
+
     /**
-     * Parse ID value from selection String
+     * Builds {@code INSERT ... ON CONFLICT DO UPDATE} statement
      *
-     * @param selection  Selection to search within
-     * @param columnName Name of column to be found
-     * @return Parsed value
+     * @param tableName     Name of table
+     * @param columns       Inserted columns (bind args are in same order)
+     * @param uniqueColumns Columns of table's UNIQUE constraint
+     * @return SQL statement
      */
-    protected long getIdFromSelection(String selection, String columnName) {
-        return Long.parseLong(selection.replaceFirst(".*" + columnName + " *= *(-?\\d+).*",
-                "$1"));
+    @NonNull
+    static String buildUpsertSql(@NonNull String tableName, @NonNull String[] columns,
+                                 @NonNull String[] uniqueColumns) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(tableName).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(") ON CONFLICT (");
+        for (int i = 0; i < uniqueColumns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(uniqueColumns[i]);
+        }
+        sql.append(')');
+
+        List<String> uniqueColumnList = Arrays.asList(uniqueColumns);
+        boolean hasUpdate = false;
+        for (String column : columns) {
+            if (uniqueColumnList.contains(column))
+                continue;
+            sql.append(hasUpdate ? "," : " DO UPDATE SET ").append(column).append("=excluded.").append(column);
+            hasUpdate = true;
+        }
+        if (!hasUpdate) {
+            sql.append(" DO NOTHING");
+        }
+
+        return sql.toString();
     }
 
-    private static ContentValues cutOffTablePrefix(String tableName, ContentValues newValues) {
-        ContentValues fixedValues = null;
+    /**
+     * Returns values without table prefix in column names (eg. {@code Table.column} is changed to
+     * {@code column}). The values keep their types and the original values are returned when there
+     * is no prefixed column.
+     *
+     * @param tableName Name of table
+     * @param newValues Values with (optionally) prefixed columns
+     * @return Values without prefixed columns
+     */
+    static ContentValues cutOffTablePrefix(String tableName, ContentValues newValues) {
+        Map<String, String> columnMap = getColumnMap(tableName);
+
+        boolean hasPrefix = false;
+        for (String key : newValues.keySet()) {
+            if (isPrefixed(key, findColumnName(columnMap, tableName, key))) {
+                hasPrefix = true;
+                break;
+            }
+        }
+        if (!hasPrefix) {
+            return newValues;
+        }
+
+        ContentValues fixedValues = new ContentValues(newValues.size());
+        // Non prefixed values goes first, so prefixed ones override them as before
         for (Map.Entry<String, Object> value : newValues.valueSet()) {
-            String key = value.getKey();
-            if (key.startsWith(tableName + ".")) {
-                String newKey = key.replace(tableName + ".", "");
+            if (!isPrefixed(value.getKey(), findColumnName(columnMap, tableName, value.getKey()))) {
+                putValue(fixedValues, value.getKey(), value.getValue());
+            }
+        }
+        for (Map.Entry<String, Object> value : newValues.valueSet()) {
+            String columnName = findColumnName(columnMap, tableName, value.getKey());
+            if (isPrefixed(value.getKey(), columnName)) {
+                putValue(fixedValues, columnName, value.getValue());
+            }
+        }
+        return fixedValues;
+    }
 
-                if (fixedValues == null) {
-                    fixedValues = new ContentValues();
-                    fixedValues.putAll(newValues);
-                }
+    @NonNull
+    private static Map<String, String> getColumnMap(@NonNull String tableName) {
+        Map<String, String> columnMap = sColumnMaps.get(tableName);
+        if (columnMap == null) {
+            columnMap = new ConcurrentHashMap<>();
+            Map<String, String> oldMap = sColumnMaps.putIfAbsent(tableName, columnMap);
+            if (oldMap != null) {
+                columnMap = oldMap;
+            }
+        }
+        return columnMap;
+    }
 
-                fixedValues.remove(key);
-                if (value.getValue() != null) {
-                    fixedValues.put(newKey, value.getValue().toString());
-                } else {
-                    fixedValues.putNull(newKey);
-                }
+    @NonNull
+    private static String findColumnName(@NonNull Map<String, String> columnMap, @NonNull String tableName,
+                                         @NonNull String key) {
+        String columnName = columnMap.get(key);
+        if (columnName == null) {
+            if (key.length() > tableName.length() && key.charAt(tableName.length()) == '.' &&
+                    key.startsWith(tableName)) {
+                columnName = key.substring(tableName.length() + 1);
+            } else {
+                columnName = key;
             }
+            columnMap.put(key, columnName);
         }
+        return columnName;
+    }
+
+    private static boolean isPrefixed(@NonNull String key, @NonNull String columnName) {
+        return key.length() != columnName.length();
+    }
 
-        if (fixedValues != null) {
-            return fixedValues;
+    /**
+     * Puts value to {@link ContentValues} with respect to its type
+     *
+     * @param values Values to put into
+     * @param key    Column name
+     * @param value  Value from {@link ContentValues#valueSet()}
+     */
+    private static void putValue(@NonNull ContentValues values, @NonNull String key, Object value) {
+        if (value == null) {
+            values.putNull(key);
+        } else if (value instanceof String) {
+            values.put(key, (String) value);
+        } else if (value instanceof Long) {
+            values.put(key, (Long) value);
+        } else if (value instanceof Integer) {
+            values.put(key, (Integer) value);
+        } else if (value instanceof Double) {
+            values.put(key, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            values.put(key, (Boolean) value);
+        } else if (value instanceof Short) {
+            values.put(key, (Short) value);
+        } else if (value instanceof Byte) {
+            values.put(key, (Byte) value);
+        } else if (value instanceof byte[]) {
+            values.put(key, (byte[]) value);
         } else {
-            return newValues;
+            values.put(key, value.toString());
         }
     }
 }
@@ -20,24 +20,42 @@
 package cz.maresmar.sfm.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
 import android.provider.BaseColumns;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import cz.maresmar.sfm.BuildConfig;
+import cz.maresmar.sfm.db.DataRetention;
 import cz.maresmar.sfm.db.DbContract;
 import cz.maresmar.sfm.db.DbHelper;
+import cz.maresmar.sfm.db.MenuSearchTable;
+import cz.maresmar.sfm.db.SyncFreshnessTable;
+import cz.maresmar.sfm.db.UserMenuTable;
 import cz.maresmar.sfm.db.controller.ActionController;
 import cz.maresmar.sfm.db.controller.DayController;
 import cz.maresmar.sfm.db.controller.GroupMenuEntryController;
@@ -47,13 +65,16 @@ import cz.maresmar.sfm.db.controller.SimpleMenuEntryController;
 import cz.maresmar.sfm.db.controller.PortalController;
 import cz.maresmar.sfm.db.controller.SimpleController;
 import cz.maresmar.sfm.db.controller.MenuEntryController;
+import cz.maresmar.sfm.db.controller.NameIdCache;
 import cz.maresmar.sfm.provider.repository.ViewType;
 import cz.maresmar.sfm.provider.schema.AbstractUriSchema;
 import cz.maresmar.sfm.provider.schema.LogDataUriSchema;
-import cz.maresmar.sfm.provider.schema.Param;
 import cz.maresmar.sfm.provider.schema.IdEndingUriSchema;
+import cz.maresmar.sfm.provider.schema.UriParams;
+import cz.maresmar.sfm.utils.MenuUtils;
 import cz.maresmar.sfm.provider.repository.ContentRepository;
 import cz.maresmar.sfm.provider.repository.NotifyChangeListener;
+import cz.maresmar.sfm.provider.repository.SubscriptionIndex;
 import timber.log.Timber;
 
 import static cz.maresmar.sfm.provider.ProviderContract.ACTION_PATH;
@@ -65,9 +86,11 @@ import static cz.maresmar.sfm.provider.ProviderContract.GROUP_MENU_ENTRY_PATH;
 import static cz.maresmar.sfm.provider.ProviderContract.MENU_ENTRY_PATH;
 import static cz.maresmar.sfm.provider.ProviderContract.PORTAL_GROUP_PATH;
 import static cz.maresmar.sfm.provider.ProviderContract.PORTAL_PATH;
+import static cz.maresmar.sfm.provider.ProviderContract.SEARCH_PATH;
 import static cz.maresmar.sfm.provider.ProviderContract.USER_PATH;
 import static cz.maresmar.sfm.provider.PublicProviderContract.DOT;
 import static cz.maresmar.sfm.provider.PublicProviderContract.LOGIN_DATA_PATH;
+import static cz.maresmar.sfm.provider.PublicProviderContract.PORTAL_ONLY_CREDENTIAL_ID;
 import static cz.maresmar.sfm.provider.repository.ContentRepository.DISABLE_DELETE;
 import static cz.maresmar.sfm.provider.repository.ContentRepository.DISABLE_INSERT;
 import static cz.maresmar.sfm.provider.repository.ContentRepository.DISABLE_QUERY;
@@ -85,6 +108,11 @@ import static cz.maresmar.sfm.provider.repository.ContentRepository.DISABLE_UPDA
  */
 public class DataProvider extends ContentProvider {
 
+    // Max number of cells (rows times columns) in query cache, it's about 1 MB for usual values
+    private static final int QUERY_CACHE_SIZE = 20_000;
+    // Number of streamed rows that are held in memory and inserted together
+    private static final int STREAM_CHUNK_ROWS = 500;
+
     // -------------------------------------------------------------------------------------------
     // View types
     // -------------------------------------------------------------------------------------------
@@ -117,6 +145,10 @@ public class DataProvider extends ContentProvider {
             "vnd.cz.maresmar.sfm.menu",
             new MenuEntryController()
     );
+    private static final ViewType TYPE_MENU_SEARCH = new ViewType(
+            "vnd.cz.maresmar.sfm.menu",
+            new MenuEntryController(true)
+    );
     private static final ViewType TYPE_GROUP_MENU = new ViewType(
             "vnd.cz.maresmar.sfm.group-menu",
             new GroupMenuEntryController()
@@ -155,75 +187,35 @@ public class DataProvider extends ContentProvider {
     );
     private static final AbstractUriSchema UH_PORTAL_MENU = new IdEndingUriSchema(
             PORTAL_PATH + "/#/" + MENU_ENTRY_PATH,
-            DbContract.MenuEntry.TABLE_NAME + DOT + BaseColumns._ID
-    ) {
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
-
-            final long portalId = getPortalId(uri);
-            params.add(new Param(DbContract.MenuEntry.COLUMN_NAME_PID, portalId));
-
-            return params;
-        }
-    };
+            DbContract.MenuEntry.TABLE_NAME + DOT + BaseColumns._ID,
+            DbContract.MenuEntry.COLUMN_NAME_PID
+    );
     private static final AbstractUriSchema UH_PORTAL_GROUP_MENU = new IdEndingUriSchema(
             PORTAL_PATH + "/#/" + GROUP_MENU_ENTRY_PATH,
-            DbContract.GroupMenuEntry.TABLE_NAME + DOT + BaseColumns._ID
-    ) {
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
-
-            long portalId = getPortalId(uri);
-            params.add(new Param(DbContract.GroupMenuEntry.COLUMN_NAME_ME_PID, portalId));
-
-            return params;
-        }
-    };
+            DbContract.GroupMenuEntry.TABLE_NAME + DOT + BaseColumns._ID,
+            DbContract.GroupMenuEntry.COLUMN_NAME_ME_PID
+    );
     private static final AbstractUriSchema UH_ACTION = new IdEndingUriSchema(
             ACTION_PATH,
             DbContract.FoodAction.TABLE_NAME + DOT + BaseColumns._ID
     );
     private static final AbstractUriSchema UH_CREDENTIAL_ACTION = new IdEndingUriSchema(
             CREDENTIALS_PATH + "/#/" + ACTION_PATH,
-            DbContract.FoodAction.TABLE_NAME + DOT + BaseColumns._ID
-    ) {
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
-
-            long credentialId = getCredentialId(uri);
-            params.add(new Param(DbContract.FoodAction.TABLE_NAME + DOT + DbContract.FoodAction.COLUMN_NAME_CID, credentialId));
-
-            return params;
-        }
-    };
+            DbContract.FoodAction.TABLE_NAME + DOT + BaseColumns._ID,
+            DbContract.FoodAction.TABLE_NAME + DOT + DbContract.FoodAction.COLUMN_NAME_CID
+    );
     private static final AbstractUriSchema UH_LOG_DATA = new LogDataUriSchema(
             LOGIN_DATA_PATH, ProviderContract.LogData.PORTAL_ID, ProviderContract.LogData.CREDENTIAL_ID
     );
-    private final AbstractUriSchema UH_USER_ACTION = new IdEndingUriSchema(
-            USER_PATH + "/#/" + ACTION_PATH,
+    private final AbstractUriSchema UH_USER_ACTION = new UserUriSchema(
+            ACTION_PATH,
             DbContract.FoodAction.TABLE_NAME + DOT + BaseColumns._ID
     ) {
-        @NonNull
         @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
-
-            long userId = getUserId(uri);
-            params.add(new Param(DbContract.Credential.COLUMN_NAME_UID, userId));
-
-            return params;
-        }
-
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUriAndValues(@NonNull Uri uri, @Nullable ContentValues values) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
+        public void parseParamsWithValues(@NonNull List<String> segments, @Nullable ContentValues values,
+                                          @NonNull UriParams params) {
+            // Actions table has no user ID column, the credential ID is used instead
+            parseIdParam(segments, params);
 
             if (values == null || !values.containsKey(ProviderContract.Action.ME_PORTAL_ID) ||
                     !values.containsKey(ProviderContract.Action.ME_RELATIVE_ID)) {
@@ -232,76 +224,60 @@ public class DataProvider extends ContentProvider {
                 SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
                 // Prepare params
-                long userId = getUserId(uri);
+                long userId = getUserId(segments);
                 long portalId = values.getAsLong(ProviderContract.Action.ME_PORTAL_ID);
 
                 // Find corresponding credential ID
                 long credentialId = ActionController.findCredentialId(db, userId, portalId);
-                params.add(new Param(DbContract.FoodAction.TABLE_NAME + DOT + DbContract.FoodAction.COLUMN_NAME_CID, credentialId));
+                params.add(DbContract.FoodAction.TABLE_NAME + DOT + DbContract.FoodAction.COLUMN_NAME_CID, credentialId);
             }
-            return params;
         }
     };
-    private final AbstractUriSchema UH_USER_CREDENTIAL = new IdEndingUriSchema(
-            USER_PATH + "/#/" + CREDENTIALS_PATH,
+    private final AbstractUriSchema UH_USER_CREDENTIAL = new UserUriSchema(
+            CREDENTIALS_PATH,
             DbContract.Credential.TABLE_NAME + DOT + BaseColumns._ID
-    ) {
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
-
-            long userId = getUserId(uri);
-            params.add(new Param(DbContract.Credential.COLUMN_NAME_UID, userId));
-
-            return params;
-        }
-    };
-    private final AbstractUriSchema UH_USER_MENU = new IdEndingUriSchema(
-            USER_PATH + "/#/" + MENU_ENTRY_PATH,
+    );
+    private final AbstractUriSchema UH_USER_MENU = new UserUriSchema(
+            MENU_ENTRY_PATH,
             DbContract.MenuEntry.TABLE_NAME + DOT + BaseColumns._ID
-    ) {
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
+    );
+    private final AbstractUriSchema UH_USER_MENU_SEARCH = new UserUriSchema(
+            MENU_ENTRY_PATH + "/" + SEARCH_PATH,
+            DbContract.MenuEntry.TABLE_NAME + DOT + BaseColumns._ID
+    );
+    private final AbstractUriSchema UH_USER_PORTAL = new UserUriSchema(
+            PORTAL_PATH,
+            DbContract.Portal.TABLE_NAME + DOT + BaseColumns._ID
+    );
+    private final AbstractUriSchema UH_USER_DAY = new UserUriSchema(
+            DAY_PATH,
+            DbContract.MenuEntry.TABLE_NAME + DOT + DbContract.MenuEntry._ID
+    );
 
-            long userId = getUserId(uri);
-            params.add(new Param(DbContract.Credential.COLUMN_NAME_UID, userId));
+    /**
+     * Schema of {@code /user/#/xxx} Uris, it adds user ID param and marks the user as active
+     */
+    private class UserUriSchema extends IdEndingUriSchema {
 
-            return params;
+        UserUriSchema(@NonNull String path, @NonNull String idColumnName) {
+            super(USER_PATH + "/#/" + path, idColumnName, DbContract.Credential.COLUMN_NAME_UID);
         }
-    };
-    private final AbstractUriSchema UH_USER_PORTAL = new IdEndingUriSchema(
-            USER_PATH + "/#/" + PORTAL_PATH,
-            DbContract.Portal.TABLE_NAME + DOT + BaseColumns._ID
-    ) {
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
 
-            long userId = getUserId(uri);
-            params.add(new Param(DbContract.Credential.COLUMN_NAME_UID, userId));
+        @Override
+        public void parseParams(@NonNull List<String> segments, @NonNull UriParams params) {
+            super.parseParams(segments, params);
 
-            return params;
+            mActiveUsers.add(params.getLong(DbContract.Credential.COLUMN_NAME_UID));
         }
-    };
-    private final AbstractUriSchema UH_USER_DAY = new IdEndingUriSchema(
-            USER_PATH + "/#/" + DAY_PATH,
-            DbContract.MenuEntry.TABLE_NAME + DOT + DbContract.MenuEntry._ID
-    ) {
-        @NonNull
-        @Override
-        public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-            Deque<Param> params = super.parseParamsFromUri(uri);
 
-            long userId = getUserId(uri);
-            params.add(new Param(DbContract.Credential.COLUMN_NAME_UID, userId));
+        long getUserId(@NonNull List<String> segments) {
+            long userId = Long.parseLong(segments.get(1));
 
-            return params;
+            mActiveUsers.add(userId);
+
+            return userId;
         }
-    };
+    }
 
     // -------------------------------------------------------------------------------------------
     // NotifyChange listeners
@@ -330,9 +306,8 @@ public class DataProvider extends ContentProvider {
             // Notify self
             super.notifyChange(context, uri);
 
-            // Notify all /user/#/portal
-            for (int i = 0; i < mActiveUsersCount; i++) {
-                long userId = mActiveUsersList.get(i);
+            // Notify /user/#/portal of affected users
+            for (long userId : getAffectedUsers(uri)) {
                 NCL_SELF.notifyChange(context, new Uri.Builder()
                         .authority(AUTHORITY)
                         .appendPath(USER_PATH)
@@ -369,9 +344,8 @@ public class DataProvider extends ContentProvider {
             // Notify self
             super.notifyChange(context, uri);
 
-            // Notify all /user/#/credential
-            for (int i = 0; i < mActiveUsersCount; i++) {
-                long userId = mActiveUsersList.get(i);
+            // Notify /user/#/credential of affected users
+            for (long userId : getAffectedUsers(uri)) {
                 NCL_USER_CREDENTIAL.notifyChange(context, new Uri.Builder()
                         .authority(AUTHORITY)
                         .appendPath(USER_PATH)
@@ -395,9 +369,8 @@ public class DataProvider extends ContentProvider {
             // Notify self
             super.notifyChange(context, uri);
 
-            // Notify all /user/#/menu, /user/#/action and /user/#/day
-            for (int i = 0; i < mActiveUsersCount; i++) {
-                long userId = mActiveUsersList.get(i);
+            // Notify /user/#/menu, /user/#/action and /user/#/day of affected users
+            for (long userId : getAffectedUsers(uri)) {
 
                 // /user/#/menu
                 NCL_SELF.notifyChange(context, new Uri.Builder()
@@ -451,9 +424,9 @@ public class DataProvider extends ContentProvider {
 
     private DbHelper mDbHelper;
     private ContentRepository mRepository;
-    private Set<Long> mActiveUsersSet = new HashSet<>();
-    private final List<Long> mActiveUsersList = new ArrayList<>();
-    private int mActiveUsersCount = 0;
+    private SubscriptionIndex mSubscriptions;
+    // Users whose Uris were accessed (and so they could be observed), it's used from binder threads
+    private final Set<Long> mActiveUsers = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     // -------------------------------------------------------------------------------------------
     // Functions
@@ -462,6 +435,7 @@ public class DataProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mDbHelper = new DbHelper(getContext());
+        mSubscriptions = new SubscriptionIndex(mDbHelper);
         mRepository = new ContentRepository(getContext(), AUTHORITY);
 
         mRepository.registerSchema(UH_ACTION, TYPE_ACTION, NCL_PLUGIN_MENU_ACTION,
@@ -474,6 +448,8 @@ public class DataProvider extends ContentProvider {
         mRepository.registerSchema(UH_PORTAL_MENU, TYPE_PORTAL_MENU, NCL_PLUGIN_MENU_ACTION);
         mRepository.registerSchema(UH_USER_MENU, TYPE_MENU, NCL_SELF,
                 DISABLE_UPDATE | DISABLE_INSERT | DISABLE_DELETE);
+        mRepository.registerSchema(UH_USER_MENU_SEARCH, TYPE_MENU_SEARCH, NCL_SELF,
+                DISABLE_UPDATE | DISABLE_INSERT | DISABLE_DELETE);
         mRepository.registerSchema(UH_LOG_DATA, TYPE_LOG_DATA, NCL_LOG_DATA,
                 DISABLE_INSERT | DISABLE_DELETE);
         mRepository.registerSchema(UH_USER_PORTAL, TYPE_PORTAL, NCL_SELF,
@@ -484,38 +460,119 @@ public class DataProvider extends ContentProvider {
         mRepository.registerSchema(UH_USER_DAY, TYPE_DAY, NCL_SELF,
                 DISABLE_UPDATE | DISABLE_INSERT | DISABLE_DELETE);
 
+        mRepository.setQueryCacheSize(QUERY_CACHE_SIZE);
+
         return true;
     }
 
     private long getUserId(@NonNull Uri uri) {
         long userId = getSecondSegmentId(uri, USER_PATH);
 
-        // Protection against ConcurrentModificationException
-        if(mActiveUsersSet.add(userId)) {
-            synchronized (mActiveUsersList) {
-                mActiveUsersList.add(userId);
-                mActiveUsersCount++;
+        mActiveUsers.add(userId);
+
+        return userId;
+    }
+
+    /**
+     * Finds active users affected by change on {@link Uri}. Changes of some portal, credential or
+     * its log data affect only users with credential in the portal, other changes (or changes of
+     * unknown portal or credential) affect all active users.
+     *
+     * @param uri Changed Uri
+     * @return Collection of user IDs
+     */
+    @NonNull
+    private Collection<Long> getAffectedUsers(@NonNull Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) {
+            return mActiveUsers;
+        }
+
+        Collection<Long> users = null;
+        try {
+            switch (segments.get(0)) {
+                case PORTAL_PATH:
+                    users = mSubscriptions.getPortalUsers(Long.parseLong(segments.get(1)));
+                    break;
+                case CREDENTIALS_PATH:
+                    users = getCredentialUsers(Long.parseLong(segments.get(1)));
+                    break;
+                case LOGIN_DATA_PATH:
+                    long credentialId = segments.size() > 2 ? Long.parseLong(segments.get(2)) :
+                            PORTAL_ONLY_CREDENTIAL_ID;
+                    if (credentialId != PORTAL_ONLY_CREDENTIAL_ID) {
+                        users = getCredentialUsers(credentialId);
+                    } else {
+                        users = mSubscriptions.getPortalUsers(Long.parseLong(segments.get(1)));
+                    }
+                    break;
             }
+        } catch (NumberFormatException e) {
+            // Segment isn't ID so it's unknown
+            users = null;
         }
 
-        return userId;
+        if (users == null) {
+            return mActiveUsers;
+        }
+
+        // Only active users could be observed
+        List<Long> activeUsers = new ArrayList<>(users.size());
+        for (long userId : users) {
+            if (mActiveUsers.contains(userId)) {
+                activeUsers.add(userId);
+            }
+        }
+        return activeUsers;
+    }
+
+    @Nullable
+    private Collection<Long> getCredentialUsers(long credentialId) {
+        long userId = mSubscriptions.getCredentialUser(credentialId);
+        return userId != SubscriptionIndex.UNKNOWN_USER ? Collections.singleton(userId) : null;
     }
 
-    private static long getPortalId(@NonNull Uri uri) {
-        return getSecondSegmentId(uri, PORTAL_PATH);
+    /**
+     * Checks if the change on {@link Uri} could change users subscribed to portals (changes of
+     * users, credentials, portals or portal groups)
+     *
+     * @param uri Changed Uri
+     * @return {@code true} if {@link SubscriptionIndex} should be invalidated
+     */
+    private static boolean affectsSubscriptions(@NonNull Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return false;
+        }
+
+        switch (segments.get(0)) {
+            case USER_PATH:
+                // User itself or its credentials
+                return segments.size() <= 2 || CREDENTIALS_PATH.equals(segments.get(2));
+            case PORTAL_PATH:
+                // Portal itself (not its menu)
+                return segments.size() <= 2;
+            case PORTAL_GROUP_PATH:
+                return true;
+            default:
+                return false;
+        }
     }
 
-    private static long getCredentialId(@NonNull Uri uri) {
-        return getSecondSegmentId(uri, CREDENTIALS_PATH);
+    private void onDataChanged(@NonNull Uri uri) {
+        if (affectsSubscriptions(uri)) {
+            mSubscriptions.invalidate();
+        }
     }
 
     private static long getSecondSegmentId(@NonNull Uri uri, @NonNull String firstSegName) {
+        List<String> segments = uri.getPathSegments();
         if (BuildConfig.DEBUG)
-            if (!firstSegName.equals(uri.getPathSegments().get(0))) {
+            if (!firstSegName.equals(segments.get(0))) {
                 Timber.w("Uri %s does not match \"/%s/#\"", uri.toString(), firstSegName);
                 throw new IllegalArgumentException("Illegal Uri " + uri.toString() + " for " + firstSegName);
             }
-        return Long.valueOf(uri.getPathSegments().get(1));
+        return Long.parseLong(segments.get(1));
     }
 
     @Override
@@ -528,19 +585,40 @@ public class DataProvider extends ContentProvider {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         try {
-            return mRepository.doInsert(db, uri, values);
+            Uri result = mRepository.doInsert(db, uri, values);
+            onDataChanged(uri);
+            mDbHelper.onRowsWritten(db, 1);
+            return result;
         } catch (IllegalArgumentException e) {
             Timber.e(e, "Cannot insert values to %s", uri.toString());
             throw e;
         }
     }
 
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        try {
+            int count = mRepository.doBulkInsert(db, uri, values);
+            onDataChanged(uri);
+            mDbHelper.onRowsWritten(db, count);
+            return count;
+        } catch (IllegalArgumentException e) {
+            Timber.e(e, "Cannot bulk insert values to %s", uri.toString());
+            throw e;
+        }
+    }
+
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         try {
-            return mRepository.doDelete(db, uri, selection, selectionArgs);
+            int count = mRepository.doDelete(db, uri, selection, selectionArgs);
+            onDataChanged(uri);
+            mDbHelper.onRowsWritten(db, count);
+            return count;
         } catch (IllegalArgumentException e) {
             Timber.e(e, "Cannot delete values from %s", uri.toString());
             throw e;
@@ -553,18 +631,386 @@ public class DataProvider extends ContentProvider {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         try {
-            return mRepository.doUpdate(db, uri, values, selection, selectionArgs);
+            int count = mRepository.doUpdate(db, uri, values, selection, selectionArgs);
+            onDataChanged(uri);
+            mDbHelper.onRowsWritten(db, count);
+            return count;
         } catch (IllegalArgumentException e) {
             Timber.e(e, "Cannot update values from %s", uri.toString());
             throw e;
         }
     }
 
+    /**
+     * Applies all operations in one database transaction. Operations with
+     * {@link ContentProviderOperation#isYieldAllowed()} are used as yield points (the transaction
+     * could be committed there to let another threads use the database). The change notifications
+     * are postponed to end of batch and each distinct {@link Uri} is notified only once.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+
+        boolean successful = false;
+        boolean batchStarted = false;
+        db.beginTransaction();
+        try {
+            // Batch is started only with running transaction, so it isn't left on thread when the
+            // transaction cannot begin
+            mRepository.beginBatch();
+            batchStarted = true;
+
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    db.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            // IDs cached during rolled back transaction are not valid
+            if (!successful) {
+                NameIdCache.of(db).invalidateAll();
+            }
+            // Other threads could cache the old data until the commit (also before yield points)
+            mRepository.invalidateQueryCache();
+            // Operations invalidated the index inside of transaction, so it could be loaded with
+            // uncommitted data by another thread
+            for (ContentProviderOperation operation : operations) {
+                if (affectsSubscriptions(operation.getUri())) {
+                    mSubscriptions.invalidate();
+                    break;
+                }
+            }
+            // Notify also after failure as changes before yield points could be already committed
+            if (batchStarted) {
+                mRepository.endBatch();
+            }
+        }
+        // Rows are counted by the operations, this only runs checkpoint postponed by the transaction
+        mDbHelper.onRowsWritten(db, 0);
+        return results;
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        // Only stream insert could be used by plugins (it checks Uri permission itself)
+        if (!ProviderContract.METHOD_STREAM_INSERT.equals(method)) {
+            enforceCallerIsSelf(method);
+        }
+
+        switch (method) {
+            case ProviderContract.METHOD_REBUILD_USER_MENU: {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    UserMenuTable.rebuild(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                mRepository.invalidateQueryCache();
+
+                // Notify all /user/#/menu and /user/#/day
+                NCL_SELF.notifyChange(getContext(), new Uri.Builder()
+                        .authority(AUTHORITY)
+                        .appendPath(USER_PATH)
+                        .build());
+                return null;
+            }
+            case ProviderContract.METHOD_CHECK_ACTION_RESULTS: {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                Bundle result = new Bundle();
+                db.beginTransaction();
+                try {
+                    result.putInt(ProviderContract.EXTRA_CONFLICT_ACTIONS,
+                            ActionController.deleteConflictFailedActions(db));
+                    result.putInt(ProviderContract.EXTRA_FAILED_ACTIONS,
+                            ActionController.markFailedActions(db, System.currentTimeMillis()));
+                    result.putInt(ProviderContract.EXTRA_SYNCED_ACTIONS,
+                            ActionController.deleteDoneActions(db));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                mRepository.invalidateQueryCache();
+
+                // Notify /action and /user/#/menu, /user/#/action and /user/#/day of active users
+                NCL_PLUGIN_MENU_ACTION.notifyChange(getContext(), ProviderContract.Action.getUri());
+                return result;
+            }
+            case ProviderContract.METHOD_APPLY_RETENTION: {
+                if (extras == null) {
+                    throw new IllegalArgumentException("Missing retention extras");
+                }
+                long now = System.currentTimeMillis();
+                long menuCutoff = DataRetention.getCutoff(now, Calendar.DAY_OF_YEAR,
+                        extras.getInt(ProviderContract.EXTRA_MENU_RETENTION_DAYS));
+                long historyCutoff = DataRetention.getCutoff(now, Calendar.MONTH,
+                        extras.getInt(ProviderContract.EXTRA_HISTORY_RETENTION_MONTHS));
+
+                // Each chunk is deleted in own transaction so sync isn't blocked for long
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                int actions, menuEntries, foods, menuGroups;
+                try {
+                    actions = DataRetention.deleteOldActions(db, historyCutoff);
+                    menuEntries = DataRetention.deleteOldMenuEntries(db, menuCutoff);
+                    // Orphans invalidate cached IDs in their chunk transactions
+                    foods = DataRetention.deleteOrphanFoods(db);
+                    menuGroups = DataRetention.deleteOrphanMenuGroups(db);
+                } finally {
+                    // Chunks before a failure are already committed
+                    mRepository.invalidateQueryCache();
+                }
+                long reclaimedBytes = DataRetention.compact(db);
+                mDbHelper.onRowsWritten(db, actions + menuEntries + foods + menuGroups);
+
+                Timber.i("Retention deleted %d actions, %d menu entries, %d foods, %d menu groups " +
+                        "and reclaimed %d bytes", actions, menuEntries, foods, menuGroups, reclaimedBytes);
+
+                if (actions + menuEntries > 0) {
+                    // Notify everything as the old menu and history could be shown anywhere
+                    NCL_SELF.notifyChange(getContext(), new Uri.Builder()
+                            .authority(AUTHORITY)
+                            .build());
+                }
+
+                Bundle result = new Bundle();
+                result.putInt(ProviderContract.EXTRA_DELETED_ACTIONS, actions);
+                result.putInt(ProviderContract.EXTRA_DELETED_MENU_ENTRIES, menuEntries);
+                result.putInt(ProviderContract.EXTRA_DELETED_FOODS, foods);
+                result.putInt(ProviderContract.EXTRA_DELETED_MENU_GROUPS, menuGroups);
+                result.putLong(ProviderContract.EXTRA_RECLAIMED_BYTES, reclaimedBytes);
+                return result;
+            }
+            case ProviderContract.METHOD_STREAM_INSERT: {
+                ParcelFileDescriptor stream = extras != null ?
+                        (ParcelFileDescriptor) extras.getParcelable(ProviderContract.EXTRA_STREAM) : null;
+                if (stream == null) {
+                    throw new IllegalArgumentException("Missing stream in extras");
+                }
+                Bundle result = new Bundle();
+                result.putInt(ProviderContract.EXTRA_INSERTED_ROWS, streamInsert(arg, stream));
+                return result;
+            }
+            case ProviderContract.METHOD_GET_TASKS_FRESHNESS: {
+                if (extras == null) {
+                    throw new IllegalArgumentException("Missing portal and credential in extras");
+                }
+                SQLiteDatabase db = mDbHelper.getReadableDatabase();
+                Bundle result = new Bundle();
+                result.putLongArray(ProviderContract.EXTRA_LAST_SUCCESSES, SyncFreshnessTable.getLastSuccesses(db,
+                        extras.getLong(ProviderContract.EXTRA_PORTAL_ID),
+                        extras.getLong(ProviderContract.EXTRA_CREDENTIAL_ID)));
+                return result;
+            }
+            case ProviderContract.METHOD_MARK_TASKS_SYNCED: {
+                if (extras == null) {
+                    throw new IllegalArgumentException("Missing synced tasks in extras");
+                }
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                int rows;
+                db.beginTransaction();
+                try {
+                    rows = SyncFreshnessTable.markSynced(db,
+                            extras.getLong(ProviderContract.EXTRA_PORTAL_ID),
+                            extras.getLong(ProviderContract.EXTRA_CREDENTIAL_ID),
+                            extras.getInt(ProviderContract.EXTRA_SYNCED_TASKS),
+                            extras.getLong(ProviderContract.EXTRA_SYNC_TIME));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                mRepository.invalidateQueryCache();
+                mDbHelper.onRowsWritten(db, rows);
+                return null;
+            }
+            case ProviderContract.METHOD_DEBUG_QUERY_STATS: {
+                if (!BuildConfig.DEBUG) {
+                    return super.call(method, arg, extras);
+                }
+                Bundle stats = mRepository.getStats();
+                if (extras != null && extras.getBoolean(ProviderContract.EXTRA_RESET_STATS)) {
+                    mRepository.resetStats();
+                }
+                return stats;
+            }
+            case ProviderContract.METHOD_DEBUG_SET_SLOW_QUERY_THRESHOLD: {
+                if (!BuildConfig.DEBUG) {
+                    return super.call(method, arg, extras);
+                }
+                if (arg == null) {
+                    throw new IllegalArgumentException("Missing threshold in arg");
+                }
+                mRepository.setSlowQueryThreshold(Long.parseLong(arg));
+                return null;
+            }
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Checks that {@link #call(String, String, Bundle)} comes from this app. The provider isn't
+     * exported, but plugins with Uri permission grant can reach it, and unlike the Uri operations
+     * the call methods aren't checked by framework.
+     *
+     * @param method Called method
+     * @throws SecurityException If the caller is another app
+     */
+    private static void enforceCallerIsSelf(@NonNull String method) {
+        if (Binder.getCallingUid() != Process.myUid()) {
+            throw new SecurityException("Method " + method + " can be called only by the app itself");
+        }
+    }
+
+    /**
+     * Inserts records from {@link ContentValuesStream} in chunks, so the data never have to be held
+     * in memory at once. Each chunk is read from the stream first and then inserted in its own
+     * transaction, so a slow writer doesn't block the database. The insert isn't atomic, the chunks
+     * before a failure stay inserted. The change notifications are postponed to the end like in
+     * {@link #applyBatch(ArrayList)}.
+     *
+     * @param uriText Uri where the records are inserted
+     * @param stream  Read side of pipe with records
+     * @return Number of inserted rows
+     */
+    private int streamInsert(@Nullable String uriText, @NonNull ParcelFileDescriptor stream) {
+        InputStream in = new BufferedInputStream(new ParcelFileDescriptor.AutoCloseInputStream(stream));
+        try {
+            if (uriText == null) {
+                throw new IllegalArgumentException("Missing Uri in arg");
+            }
+            Uri uri = Uri.parse(uriText);
+            // Uri permissions aren't checked by framework for call()
+            getContext().enforceCallingOrSelfUriPermission(uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION,
+                    "Cannot stream insert to " + uri);
+
+            ContentValuesStream.Reader reader = new ContentValuesStream.Reader(in);
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            ContentValues[] chunk = new ContentValues[STREAM_CHUNK_ROWS];
+            int count = 0;
+
+            mRepository.beginBatch();
+            try {
+                int size;
+                do {
+                    size = 0;
+                    ContentValues values;
+                    while (size < chunk.length && (values = reader.read()) != null) {
+                        chunk[size++] = values;
+                    }
+
+                    if (size > 0) {
+                        count += streamInsertChunk(db, uri,
+                                size == chunk.length ? chunk : Arrays.copyOf(chunk, size));
+                    }
+                } while (size == chunk.length);
+            } finally {
+                onDataChanged(uri);
+                // Notify also after failure as the previous chunks are already committed
+                mRepository.endBatch();
+            }
+
+            mDbHelper.onRowsWritten(db, count);
+            Timber.d("Stream insert of %d rows to %s", count, uri);
+            return count;
+        } catch (IOException e) {
+            // Also truncated stream, the last chunk isn't inserted then
+            Timber.e(e, "Cannot read stream for %s", uriText);
+            throw new IllegalArgumentException("Cannot read stream for " + uriText, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Timber.w(e, "Cannot close stream for %s", uriText);
+            }
+        }
+    }
+
+    private int streamInsertChunk(@NonNull SQLiteDatabase db, @NonNull Uri uri, @NonNull ContentValues[] chunk) {
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            int count = mRepository.doBulkInsert(db, uri, chunk);
+            db.setTransactionSuccessful();
+            successful = true;
+            return count;
+        } finally {
+            db.endTransaction();
+            // IDs cached during rolled back transaction are not valid
+            if (!successful) {
+                NameIdCache.of(db).invalidateAll();
+            } else {
+                // Other threads could cache the old data until the commit
+                mRepository.invalidateQueryCache();
+            }
+        }
+    }
+
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
-        return mRepository.doQuery(db, uri, projection, selection, selectionArgs, sortOrder);
+        boolean isSearch = SEARCH_PATH.equals(uri.getLastPathSegment());
+        if (isSearch) {
+            String query = uri.getQueryParameter(ProviderContract.QUERY_PARAMETER_SEARCH);
+            if (query == null) {
+                throw new IllegalArgumentException("Missing searched text in " + uri);
+            }
+            // Text without words matches nothing (FTS returns no rows for empty match)
+            String matchQuery = MenuSearchTable.buildMatchQuery(query);
+            selectionArgs = MenuEntryController.buildSearchSelectionArgs(selectionArgs,
+                    matchQuery != null ? matchQuery : "");
+            if (sortOrder == null) {
+                // Today (not now) so the cached results could be reused
+                sortOrder = MenuEntryController.buildSearchSortOrder(MenuUtils.getTodayDate());
+            }
+        }
+
+        String limit = uri.getQueryParameter(ProviderContract.QUERY_PARAMETER_LIMIT);
+        String queryLimit = null;
+        if (limit != null && isSearch) {
+            if (Integer.parseInt(limit) <= 0) {
+                throw new IllegalArgumentException("Limit must be positive");
+            }
+            queryLimit = limit;
+        } else if (limit != null) {
+            // Keyset paging of actions
+            if (!ACTION_PATH.equals(uri.getLastPathSegment())) {
+                throw new IllegalArgumentException("Only action and search Uris could be limited");
+            }
+            if (sortOrder != null && !ProviderContract.ACTION_PAGE_SORT_ORDER.equals(sortOrder)) {
+                throw new IllegalArgumentException("Paged actions are sorted by " +
+                        ProviderContract.ACTION_PAGE_SORT_ORDER);
+            }
+            if (Integer.parseInt(limit) <= 0) {
+                throw new IllegalArgumentException("Page limit must be positive");
+            }
+
+            String afterLastChange = uri.getQueryParameter(ProviderContract.QUERY_PARAMETER_AFTER_LAST_CHANGE);
+            if (afterLastChange != null) {
+                String afterId = uri.getQueryParameter(ProviderContract.QUERY_PARAMETER_AFTER_ID);
+                if (afterId == null) {
+                    throw new IllegalArgumentException("Missing ID of the last action of previous page");
+                }
+
+                selection = ActionController.buildPageSelection(selection);
+                selectionArgs = ActionController.buildPageSelectionArgs(selectionArgs,
+                        Long.parseLong(afterLastChange), Long.parseLong(afterId));
+            }
+            sortOrder = ProviderContract.ACTION_PAGE_SORT_ORDER;
+            queryLimit = limit;
+        }
+
+        return mRepository.doQuery(db, uri, projection, selection, selectionArgs, sortOrder, queryLimit);
     }
 }
@@ -19,9 +19,12 @@
 
 package cz.maresmar.sfm.provider;
 
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -72,6 +75,191 @@ public class ProviderContract extends PublicProviderContract {
     public static final String PORTAL_GROUP_PATH = "portal-group";
     public static final String CREDENTIALS_GROUP_PATH = "credentials-group";
     public static final String DAY_PATH = "day";
+    public static final String SEARCH_PATH = "search";
+
+    // Query parameters
+    /**
+     * Maximal number of returned actions, it enables keyset paging of action Uris. Paged actions are
+     * sorted using {@link #ACTION_PAGE_SORT_ORDER}.
+     *
+     * @see #getActionPageUri(Uri, int, Cursor)
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    /**
+     * Text searched in food and menu group names of {@code /user/#/menu/search} Uri, all words of
+     * text are matched as prefixes without diacritics
+     *
+     * @see #getMenuSearchUri(long, String)
+     */
+    public static final String QUERY_PARAMETER_SEARCH = "query";
+    /**
+     * {@link Action#LAST_CHANGE} of the last action of previous page
+     */
+    public static final String QUERY_PARAMETER_AFTER_LAST_CHANGE = "after-last-change";
+    /**
+     * {@link Action#_ID} of the last action of previous page
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after-id";
+    /**
+     * Sort order of paged actions (newest changes first)
+     */
+    public static final String ACTION_PAGE_SORT_ORDER = Action.LAST_CHANGE + " DESC, " + Action._ID + " DESC";
+
+    // Provider methods (see ContentResolver#call()), they can be called only by the app itself
+    /**
+     * Rebuilds materialized user menu from source tables
+     */
+    public static final String METHOD_REBUILD_USER_MENU = "rebuild-user-menu";
+    /**
+     * Resolves results of finished sync in one transaction. It deletes failed actions that are in
+     * conflict with local ones, marks local actions that weren't synced as failed and deletes local
+     * actions that were synced. The counts are returned in {@link #EXTRA_CONFLICT_ACTIONS},
+     * {@link #EXTRA_FAILED_ACTIONS} and {@link #EXTRA_SYNCED_ACTIONS}.
+     */
+    public static final String METHOD_CHECK_ACTION_RESULTS = "check-action-results";
+    /**
+     * Result of {@link #METHOD_CHECK_ACTION_RESULTS} with number of deleted conflict failed actions (int)
+     */
+    public static final String EXTRA_CONFLICT_ACTIONS = "conflict-actions";
+    /**
+     * Result of {@link #METHOD_CHECK_ACTION_RESULTS} with number of local actions that failed to sync (int)
+     */
+    public static final String EXTRA_FAILED_ACTIONS = "failed-actions";
+    /**
+     * Result of {@link #METHOD_CHECK_ACTION_RESULTS} with number of successfully synced local actions (int)
+     */
+    public static final String EXTRA_SYNCED_ACTIONS = "synced-actions";
+    /**
+     * Deletes old menu entries and actions history in small transactions, then deletes foods and
+     * menu groups without menu entry and compacts the database. The retention is set by
+     * {@link #EXTRA_MENU_RETENTION_DAYS} and {@link #EXTRA_HISTORY_RETENTION_MONTHS}, the counts
+     * of deleted rows and reclaimed bytes are returned.
+     *
+     * @see cz.maresmar.sfm.db.DataRetention
+     */
+    public static final String METHOD_APPLY_RETENTION = "apply-retention";
+    /**
+     * Extra of {@link #METHOD_APPLY_RETENTION} with number of days the old menu is kept, {@code 0}
+     * means forever (int)
+     */
+    public static final String EXTRA_MENU_RETENTION_DAYS = "menu-retention-days";
+    /**
+     * Extra of {@link #METHOD_APPLY_RETENTION} with number of months the synced actions are kept,
+     * {@code 0} means forever (int)
+     */
+    public static final String EXTRA_HISTORY_RETENTION_MONTHS = "history-retention-months";
+    /**
+     * Result of {@link #METHOD_APPLY_RETENTION} with number of deleted actions (int)
+     */
+    public static final String EXTRA_DELETED_ACTIONS = "deleted-actions";
+    /**
+     * Result of {@link #METHOD_APPLY_RETENTION} with number of deleted menu entries (int)
+     */
+    public static final String EXTRA_DELETED_MENU_ENTRIES = "deleted-menu-entries";
+    /**
+     * Result of {@link #METHOD_APPLY_RETENTION} with number of deleted foods (int)
+     */
+    public static final String EXTRA_DELETED_FOODS = "deleted-foods";
+    /**
+     * Result of {@link #METHOD_APPLY_RETENTION} with number of deleted menu groups (int)
+     */
+    public static final String EXTRA_DELETED_MENU_GROUPS = "deleted-menu-groups";
+    /**
+     * Result of {@link #METHOD_APPLY_RETENTION} with size of database file reclaimed by vacuum in bytes (long)
+     */
+    public static final String EXTRA_RECLAIMED_BYTES = "reclaimed-bytes";
+    /**
+     * Returns time of the last successful sync of plugin tasks of credential on portal (set by
+     * {@link #EXTRA_PORTAL_ID} and {@link #EXTRA_CREDENTIAL_ID}) in {@link #EXTRA_LAST_SUCCESSES}
+     *
+     * @see cz.maresmar.sfm.db.SyncFreshnessTable
+     */
+    public static final String METHOD_GET_TASKS_FRESHNESS = "get-tasks-freshness";
+    /**
+     * Saves time of successful sync of {@link #EXTRA_SYNCED_TASKS} of credential on portal (set by
+     * {@link #EXTRA_PORTAL_ID} and {@link #EXTRA_CREDENTIAL_ID}), the time is in {@link #EXTRA_SYNC_TIME}
+     */
+    public static final String METHOD_MARK_TASKS_SYNCED = "mark-tasks-synced";
+    /**
+     * Extra of {@link #METHOD_GET_TASKS_FRESHNESS} and {@link #METHOD_MARK_TASKS_SYNCED} with portal ID (long)
+     */
+    public static final String EXTRA_PORTAL_ID = "portal-id";
+    /**
+     * Extra of {@link #METHOD_GET_TASKS_FRESHNESS} and {@link #METHOD_MARK_TASKS_SYNCED} with credential ID (long)
+     */
+    public static final String EXTRA_CREDENTIAL_ID = "credential-id";
+    /**
+     * Extra of {@link #METHOD_MARK_TASKS_SYNCED} with successfully synced
+     * {@link cz.maresmar.sfm.plugin.ActionContract.SyncTask} flags (int)
+     */
+    public static final String EXTRA_SYNCED_TASKS = "synced-tasks";
+    /**
+     * Extra of {@link #METHOD_MARK_TASKS_SYNCED} with time of the sync in ms (long)
+     */
+    public static final String EXTRA_SYNC_TIME = "sync-time";
+    /**
+     * Result of {@link #METHOD_GET_TASKS_FRESHNESS} with time of the last successful sync of each
+     * task indexed by bit position of task flag, {@code 0} means never (long[])
+     */
+    public static final String EXTRA_LAST_SUCCESSES = "last-successes";
+    /**
+     * Debug method that returns latency and row count stats of provider Uris as {@link android.os.Bundle}
+     * (see {@link cz.maresmar.sfm.provider.repository.QueryStats} for its keys). The stats are
+     * reset when {@link #EXTRA_RESET_STATS} is {@code true}. It's available only in debug builds
+     * and only to the app itself.
+     */
+    public static final String METHOD_DEBUG_QUERY_STATS = "debug-query-stats";
+    /**
+     * Debug method that sets threshold for logging of slow provider operations, the {@code arg}
+     * is threshold in ms (negative value disables the logging). It's available only in debug builds
+     * and only to the app itself.
+     */
+    public static final String METHOD_DEBUG_SET_SLOW_QUERY_THRESHOLD = "debug-set-slow-query-threshold";
+    /**
+     * Extra of {@link #METHOD_DEBUG_QUERY_STATS} that resets stats after they are returned (boolean)
+     */
+    public static final String EXTRA_RESET_STATS = "reset-stats";
+
+    /**
+     * Creates Uri of one page of actions
+     *
+     * @param actionUri    Uri of actions (like {@code /user/#/action})
+     * @param limit        Page size
+     * @param previousPage Cursor with previous page moved to its last row (it has to contain
+     *                     {@link Action#_ID} and {@link Action#LAST_CHANGE} columns) or {@code null}
+     *                     for the first page
+     * @return Uri of page
+     */
+    @NonNull
+    public static Uri getActionPageUri(@NonNull Uri actionUri, int limit, @Nullable Cursor previousPage) {
+        Uri.Builder builder = actionUri.buildUpon()
+                .clearQuery()
+                .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit));
+        if (previousPage != null) {
+            long lastChange = previousPage.getLong(previousPage.getColumnIndexOrThrow(Action.LAST_CHANGE));
+            long id = previousPage.getLong(previousPage.getColumnIndexOrThrow(Action._ID));
+            builder.appendQueryParameter(QUERY_PARAMETER_AFTER_LAST_CHANGE, Long.toString(lastChange))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, Long.toString(id));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns Uri that searches food and menu group names in user's menu. The found menu entries have
+     * the same columns as user's menu and they are sorted from the most relevant ones when no sort
+     * order is given.
+     *
+     * @param userId ID of user
+     * @param query  Searched text
+     * @return Uri of search results
+     */
+    @NonNull
+    public static Uri getMenuSearchUri(long userId, @NonNull String query) {
+        return Uri.parse("content://" + AUTHORITY + "/" +
+                USER_PATH + "/" + userId + "/" + MENU_ENTRY_PATH + "/" + SEARCH_PATH).buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_SEARCH, query)
+                .build();
+    }
 
     public static class User implements BaseColumns {
         public static final String NAME = DbContract.User.COLUMN_NAME_NAME;
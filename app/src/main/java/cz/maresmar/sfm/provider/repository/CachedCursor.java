@@ -0,0 +1,149 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.repository;
+
+import android.database.AbstractCursor;
+import android.database.CursorIndexOutOfBoundsException;
+import androidx.annotation.NonNull;
+
+/**
+ * Read-only cursor over result saved in {@link QueryCache}. Unlike {@link android.database.MatrixCursor}
+ * it doesn't copy the values, so many cursors could share one cached result.
+ */
+class CachedCursor extends AbstractCursor {
+
+    private final String[] mColumns;
+    private final Object[] mValues;
+    private final int mRowCount;
+
+    /**
+     * Create new cursor
+     *
+     * @param columns  Column names
+     * @param values   Values of all rows (row after row), they must not be changed later
+     * @param rowCount Number of rows
+     */
+    CachedCursor(@NonNull String[] columns, @NonNull Object[] values, int rowCount) {
+        mColumns = columns;
+        mValues = values;
+        mRowCount = rowCount;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mColumns.length) {
+            throw new CursorIndexOutOfBoundsException("Requested column: " + column +
+                    ", # of columns: " + mColumns.length);
+        }
+        if (mPos < 0) {
+            throw new CursorIndexOutOfBoundsException("Before first row.");
+        }
+        if (mPos >= mRowCount) {
+            throw new CursorIndexOutOfBoundsException("After last row.");
+        }
+        return mValues[mPos * mColumns.length + column];
+    }
+
+    @Override
+    public int getCount() {
+        return mRowCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns.clone();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumns.length;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        if (value == null) return null;
+        return value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        Object value = get(column);
+        if (value == null) return 0;
+        if (value instanceof Number) return ((Number) value).shortValue();
+        return Short.parseShort(value.toString());
+    }
+
+    @Override
+    public int getInt(int column) {
+        Object value = get(column);
+        if (value == null) return 0;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString());
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value == null) return 0;
+        if (value instanceof Number) return ((Number) value).longValue();
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        Object value = get(column);
+        if (value == null) return 0.0f;
+        if (value instanceof Number) return ((Number) value).floatValue();
+        return Float.parseFloat(value.toString());
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value == null) return 0.0d;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return (byte[]) get(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else {
+            return FIELD_TYPE_STRING;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+}
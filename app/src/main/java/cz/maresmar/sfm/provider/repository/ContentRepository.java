@@ -23,8 +23,10 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import androidx.annotation.CheckResult;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
@@ -33,12 +35,14 @@ import androidx.annotation.Nullable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import cz.maresmar.sfm.db.LastQueryCursorFactory;
 import cz.maresmar.sfm.db.controller.ViewController;
 import cz.maresmar.sfm.provider.schema.AbstractUriSchema;
-import cz.maresmar.sfm.provider.schema.Param;
+import cz.maresmar.sfm.provider.schema.UriParams;
 import timber.log.Timber;
 
 /**
@@ -57,6 +61,18 @@ public class ContentRepository {
     public static final int DISABLE_INSERT = 1 << 2;
     public static final int DISABLE_DELETE = 1 << 3;
 
+    /**
+     * Default threshold for logging slow operations
+     *
+     * @see #setSlowQueryThreshold(long)
+     */
+    public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MS = 100;
+
+    /**
+     * Key of query cache stats in {@link #getStats()} Bundle
+     */
+    public static final String STATS_QUERY_CACHE = "query-cache";
+
     @IntDef(value = {DISABLE_QUERY, DISABLE_UPDATE, DISABLE_INSERT, DISABLE_DELETE}, flag = true)
     @Retention(RetentionPolicy.SOURCE)
     public @interface ControllerPermission {
@@ -67,6 +83,11 @@ public class ContentRepository {
     private List<RepositoryEntry> mRepositoryEntries;
     private UriMatcher mUriMatcher;
     private int mLastUriIndex = 0;
+    private final ThreadLocal<Map<Uri, NotifyChangeListener>> mBatchChanges = new ThreadLocal<>();
+    // Reusable Uri params holder of each thread, so the dispatch doesn't allocate them per call
+    private final ThreadLocal<UriParams> mParamsCache = new ThreadLocal<>();
+    private volatile long mSlowQueryThresholdNanos = DEFAULT_SLOW_QUERY_THRESHOLD_MS * 1_000_000;
+    private volatile QueryCache mQueryCache;
 
     /**
      * Create new empty repository
@@ -105,7 +126,8 @@ public class ContentRepository {
                                @NonNull NotifyChangeListener notifyChanger, @ControllerPermission int permission) {
         String[] uris = schema.getUris();
 
-        mRepositoryEntries.add(mLastUriIndex, new RepositoryEntry(schema, viewType, permission, notifyChanger));
+        mRepositoryEntries.add(mLastUriIndex, new RepositoryEntry(schema, viewType, permission, notifyChanger,
+                new QueryStats(uris[0])));
 
         for (String uri : uris) {
             mUriMatcher.addURI(mAuthority, uri, mLastUriIndex);
@@ -131,18 +153,72 @@ public class ContentRepository {
             throw new IllegalArgumentException("Using this Uri for insert is forbidden");
         }
 
-        Deque<Param> uriParams = entry.uriHandler.parseParamsFromUriAndValues(uri, values);
+        long start = System.nanoTime();
+        UriParams uriParams = obtainParams();
+        long newEntryId;
+        try {
+            entry.uriHandler.parseParamsWithValues(uri.getPathSegments(), values, uriParams);
 
-        values = buildContentValues(values, uriParams);
+            values = buildContentValues(values, uriParams);
 
-        long newEntryId = entry.viewType.getController().insert(db, values);
+            newEntryId = entry.viewType.getController().insert(db, values);
+        } finally {
+            recycleParams(uriParams);
+        }
         Uri newEntryUri = entry.uriHandler.buildEntryUri(uri, newEntryId);
+        onOperationDone(entry, QueryStats.OPERATION_INSERT, uri, start, 1, null);
+        invalidateQueryCache();
 
-        entry.notifyChanger.notifyChange(mContext, newEntryUri);
+        // In batch the whole dir is notified once (it also notifies observers of the new entry)
+        notifyChange(entry, isInBatch() ? uri : newEntryUri);
 
         return newEntryUri;
     }
 
+    /**
+     * Inserts more values to view associated with given {@link Uri} in one transaction
+     *
+     * @param db     Database to work with
+     * @param uri    Uri to insert into
+     * @param values Values to be inserted
+     * @return Number of inserted rows or throws {@link IllegalArgumentException} (if some constraint is
+     * violated)
+     * @see ViewController#bulkInsert(SQLiteDatabase, ContentValues[])
+     */
+    public int doBulkInsert(@NonNull SQLiteDatabase db, @NonNull Uri uri, @NonNull ContentValues[] values) {
+        RepositoryEntry entry = findEntry(uri);
+
+        if ((entry.permissions & DISABLE_INSERT) == DISABLE_INSERT) {
+            Timber.e("Using Uri %s for insert is forbidden", uri.toString());
+            throw new IllegalArgumentException("Using this Uri for insert is forbidden");
+        }
+
+        long start = System.nanoTime();
+        List<String> segments = uri.getPathSegments();
+        ContentValues[] fullValues = new ContentValues[values.length];
+        UriParams uriParams = obtainParams();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                uriParams.clear();
+                entry.uriHandler.parseParamsWithValues(segments, values[i], uriParams);
+                fullValues[i] = buildContentValues(values[i], uriParams);
+            }
+        } finally {
+            recycleParams(uriParams);
+        }
+
+        int insertedRows = entry.viewType.getController().bulkInsert(db, fullValues);
+        onOperationDone(entry, QueryStats.OPERATION_INSERT, uri, start, insertedRows, null);
+
+        if (insertedRows > 0) {
+            invalidateQueryCache();
+            // Notifies the whole dir, it also notifies observers of new entries
+            notifyChange(entry, uri);
+        }
+
+        return insertedRows;
+    }
+
     /**
      * Updates values in view associated with given {@link Uri}
      *
@@ -162,14 +238,21 @@ public class ContentRepository {
             throw new IllegalArgumentException("Using this Uri for update is forbidden");
         }
 
-        Deque<Param> uriParams = entry.uriHandler.parseParamsFromUri(uri);
-
-        selection = buildSelection(selection, uriParams);
+        long start = System.nanoTime();
+        UriParams uriParams = obtainParams();
+        int updateRows;
+        try {
+            entry.uriHandler.parseParams(uri.getPathSegments(), uriParams);
 
-        int updateRows = entry.viewType.getController().update(db, values, selection, selectionArgs);
+            updateRows = entry.viewType.getController().update(db, values, selection, selectionArgs, uriParams);
+        } finally {
+            recycleParams(uriParams);
+        }
+        onOperationDone(entry, QueryStats.OPERATION_UPDATE, uri, start, updateRows, selection);
 
         if (updateRows > 0) {
-            entry.notifyChanger.notifyChange(mContext, uri);
+            invalidateQueryCache();
+            notifyChange(entry, uri);
         }
 
         return updateRows;
@@ -192,14 +275,21 @@ public class ContentRepository {
             throw new IllegalArgumentException("Using this Uri for delete is forbidden");
         }
 
-        Deque<Param> uriParams = entry.uriHandler.parseParamsFromUri(uri);
+        long start = System.nanoTime();
+        UriParams uriParams = obtainParams();
+        int deletedRows;
+        try {
+            entry.uriHandler.parseParams(uri.getPathSegments(), uriParams);
 
-        selection = buildSelection(selection, uriParams);
-
-        int deletedRows = entry.viewType.getController().delete(db, selection, selectionArgs);
+            deletedRows = entry.viewType.getController().delete(db, selection, selectionArgs, uriParams);
+        } finally {
+            recycleParams(uriParams);
+        }
+        onOperationDone(entry, QueryStats.OPERATION_DELETE, uri, start, deletedRows, selection);
 
         if (deletedRows > 0) {
-            entry.notifyChanger.notifyChange(mContext, uri);
+            invalidateQueryCache();
+            notifyChange(entry, uri);
         }
 
         return deletedRows;
@@ -219,6 +309,25 @@ public class ContentRepository {
     @NonNull
     public Cursor doQuery(@NonNull SQLiteDatabase db, @NonNull Uri uri, String[] projection, String selection,
                           String[] selectionArgs, String sortOrder) {
+        return doQuery(db, uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Query limited number of rows from view associated with given {@link Uri}
+     *
+     * @param db            Database to work with
+     * @param uri           Uri to view that will be query
+     * @param projection    Select projection
+     * @param selection     Select selection
+     * @param selectionArgs Select selection args
+     * @param sortOrder     Select sort order
+     * @param limit         Maximal number of rows or {@code null} for all rows (it has to be also in
+     *                      the Uri, so the limited results are cached separately)
+     * @return Cursor with data or throws {@link IllegalArgumentException}
+     */
+    @NonNull
+    public Cursor doQuery(@NonNull SQLiteDatabase db, @NonNull Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder, @Nullable String limit) {
         RepositoryEntry entry = findEntry(uri);
 
         if ((entry.permissions & DISABLE_QUERY) == DISABLE_QUERY) {
@@ -226,12 +335,43 @@ public class ContentRepository {
             throw new IllegalArgumentException("Using this Uri for query is forbidden");
         }
 
-        Deque<Param> uriParams = entry.uriHandler.parseParamsFromUri(uri);
+        long start = System.nanoTime();
+
+        // Uncommitted data must not get to the cache
+        QueryCache queryCache = db.inTransaction() ? null : mQueryCache;
+        QueryCache.Key cacheKey = null;
+        long cacheGeneration = 0;
+        if (queryCache != null) {
+            cacheKey = new QueryCache.Key(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cachedCursor = queryCache.get(cacheKey);
+            if (cachedCursor != null) {
+                onOperationDone(entry, QueryStats.OPERATION_QUERY, uri, start, cachedCursor.getCount(), selection);
+                cachedCursor.setNotificationUri(mContext.getContentResolver(), uri);
+                return cachedCursor;
+            }
+            cacheGeneration = queryCache.getGeneration();
+        }
+
+        LastQueryCursorFactory.clear();
+        UriParams uriParams = obtainParams();
+        Cursor cursor;
+        try {
+            entry.uriHandler.parseParams(uri.getPathSegments(), uriParams);
 
-        selection = buildSelection(selection, uriParams);
+            ViewController viewController = entry.viewType.getController();
+            cursor = viewController.query(db, projection, selection, selectionArgs, sortOrder, uriParams, limit);
+        } finally {
+            recycleParams(uriParams);
+        }
+        // The query is executed lazily, so the first window is filled to measure the real time
+        int rows = cursor.getCount();
+        if (onOperationDone(entry, QueryStats.OPERATION_QUERY, uri, start, rows, selection)) {
+            logQueryPlan(db);
+        }
 
-        ViewController viewController = entry.viewType.getController();
-        Cursor cursor = viewController.query(db, projection, selection, selectionArgs, sortOrder);
+        if (queryCache != null) {
+            cursor = queryCache.put(cacheKey, cacheGeneration, cursor);
+        }
 
         // make sure that potential listeners are getting notified
         cursor.setNotificationUri(mContext.getContentResolver(), uri);
@@ -239,6 +379,156 @@ public class ContentRepository {
         return cursor;
     }
 
+    /**
+     * Sets threshold for logging of slow operations. Slow queries are logged with their final SQL and
+     * {@code EXPLAIN QUERY PLAN} output.
+     *
+     * @param thresholdMillis Threshold in ms, negative value disables the logging
+     */
+    public void setSlowQueryThreshold(long thresholdMillis) {
+        mSlowQueryThresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : thresholdMillis * 1_000_000;
+    }
+
+    /**
+     * Sets size of query result cache. The cache is invalidated after each insert, update and delete
+     * done by this repository, other writes have to call {@link #invalidateQueryCache()}.
+     *
+     * @param maxCells Maximal number of cached cells (rows times columns), 0 disables the cache
+     * @see QueryCache
+     */
+    public synchronized void setQueryCacheSize(int maxCells) {
+        mQueryCache = maxCells > 0 ? new QueryCache(maxCells) : null;
+    }
+
+    /**
+     * Removes all cached query results. It has to be called after every write that doesn't use this
+     * repository and after commit of every transaction with writes (the queries from other threads
+     * could cache the old data until the commit).
+     */
+    public void invalidateQueryCache() {
+        QueryCache queryCache = mQueryCache;
+        if (queryCache != null) {
+            queryCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns latency and row count statistics of all used Uri schemas and stats of query cache
+     *
+     * @return Bundle with stats of each used schema and operation and with query cache stats
+     * (saved under {@link #STATS_QUERY_CACHE} key)
+     * @see QueryStats#writeTo(Bundle)
+     * @see QueryCache#writeTo(Bundle)
+     */
+    @NonNull
+    public Bundle getStats() {
+        Bundle stats = new Bundle();
+        for (RepositoryEntry entry : mRepositoryEntries) {
+            entry.stats.writeTo(stats);
+        }
+
+        QueryCache queryCache = mQueryCache;
+        if (queryCache != null) {
+            Bundle cacheStats = new Bundle();
+            queryCache.writeTo(cacheStats);
+            stats.putBundle(STATS_QUERY_CACHE, cacheStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Removes all saved statistics
+     */
+    public void resetStats() {
+        for (RepositoryEntry entry : mRepositoryEntries) {
+            entry.stats.reset();
+        }
+    }
+
+    /**
+     * Saves operation to stats and logs it if it's slow
+     *
+     * @return {@code true} if the operation was slow, {@code false} otherwise
+     */
+    private boolean onOperationDone(@NonNull RepositoryEntry entry, @QueryStats.Operation int operation,
+                                    @NonNull Uri uri, long start, long rows, @Nullable String selection) {
+        long nanos = System.nanoTime() - start;
+        entry.stats.record(operation, nanos, rows);
+
+        if (nanos < mSlowQueryThresholdNanos) {
+            return false;
+        }
+        Timber.w("Slow %s of %s took %d ms (%d rows, selection \"%s\")", QueryStats.getOperationName(operation),
+                uri, nanos / 1_000_000, rows, selection);
+        return true;
+    }
+
+    private static void logQueryPlan(@NonNull SQLiteDatabase db) {
+        String sql = LastQueryCursorFactory.takeLastSql();
+        if (sql == null) {
+            return;
+        }
+
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null)) {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append("\n  ").append(cursor.getString(detailIndex));
+            }
+        } catch (SQLException e) {
+            Timber.w(e, "Cannot explain query %s", sql);
+            return;
+        }
+        Timber.w("Slow query SQL: %s\nQuery plan:%s", sql, plan);
+    }
+
+    /**
+     * Starts batch on current thread. Until {@link #endBatch()} is called the change notifications
+     * are only collected, so the notification listeners run once for each distinct {@link Uri}.
+     *
+     * @see android.content.ContentProvider#applyBatch(ArrayList)
+     */
+    public void beginBatch() {
+        if (mBatchChanges.get() != null) {
+            throw new IllegalStateException("Batch is already running");
+        }
+        mBatchChanges.set(new LinkedHashMap<>());
+    }
+
+    /**
+     * Ends batch on current thread and sends collected change notifications (each distinct {@link Uri}
+     * is notified only once)
+     */
+    public void endBatch() {
+        Map<Uri, NotifyChangeListener> changes = mBatchChanges.get();
+        if (changes == null) {
+            throw new IllegalStateException("There is no running batch");
+        }
+        mBatchChanges.remove();
+
+        NotifyChangeListener.beginCoalescing();
+        try {
+            for (Map.Entry<Uri, NotifyChangeListener> change : changes.entrySet()) {
+                change.getValue().notifyChange(mContext, change.getKey());
+            }
+        } finally {
+            NotifyChangeListener.endCoalescing(mContext);
+        }
+    }
+
+    private boolean isInBatch() {
+        return mBatchChanges.get() != null;
+    }
+
+    private void notifyChange(@NonNull RepositoryEntry entry, @NonNull Uri uri) {
+        Map<Uri, NotifyChangeListener> changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.put(uri, entry.notifyChanger);
+        } else {
+            entry.notifyChanger.notifyChange(mContext, uri);
+        }
+    }
+
     /**
      * Returns mine type of given {@link Uri}
      *
@@ -252,13 +542,14 @@ public class ContentRepository {
         final AbstractUriSchema handler = entry.uriHandler;
         final ViewType type = entry.viewType;
 
-        switch (handler.getKind(uri)) {
+        @AbstractUriSchema.MineKind int kind = handler.getKind(uri.getPathSegments());
+        switch (kind) {
             case AbstractUriSchema.MINE_KIND_ITEM:
                 return "vnd.android.cursor.item/" + type.getMineType();
             case AbstractUriSchema.MINE_KIND_DIR:
                 return "vnd.android.cursor.dir/" + type.getMineType();
             default:
-                throw new IllegalStateException("Unsupported MINE kind " + handler.getKind(uri));
+                throw new IllegalStateException("Unsupported MINE kind " + kind);
 
         }
     }
@@ -286,45 +577,35 @@ public class ContentRepository {
 
     @CheckResult
     @Nullable
-    private ContentValues buildContentValues(@Nullable ContentValues values, @Nullable Deque<Param> params) {
-        if (params == null)
+    private ContentValues buildContentValues(@Nullable ContentValues values, @NonNull UriParams params) {
+        if (params.isEmpty())
             return values;
 
         if (values == null)
             values = new ContentValues();
-        for (Param param : params) {
-            values.put(param.paramName, param.paramValue);
-        }
+        params.putTo(values);
 
         return values;
     }
 
-    @CheckResult
-    @Nullable
-    private String buildSelection(@Nullable String selection, @Nullable Deque<Param> params) {
-        if (params == null)
-            return selection;
-
-        StringBuilder sb = new StringBuilder();
-        if (selection != null)
-            sb.append(selection);
-
-        int selectionLen = selection == null ? 0 : selection.length();
-        boolean firstClause = selectionLen == 0;
-
-        for (Param param : params) {
-            if (!firstClause) {
-                sb.append(" AND ");
-            } else {
-                firstClause = false;
-            }
-
-            sb.append('(');
-            sb.append(param.paramName).append(" = ").append(param.paramValue);
-            sb.append(')');
+    /**
+     * Returns params holder of current thread (or new one when it's already used by outer call on
+     * this thread). It has to be returned using {@link #recycleParams(UriParams)}.
+     */
+    @NonNull
+    private UriParams obtainParams() {
+        UriParams params = mParamsCache.get();
+        if (params == null) {
+            return new UriParams();
         }
 
-        return sb.toString();
+        mParamsCache.set(null);
+        return params;
+    }
+
+    private void recycleParams(@NonNull UriParams params) {
+        params.clear();
+        mParamsCache.set(params);
     }
 
     private class RepositoryEntry {
@@ -334,13 +615,16 @@ public class ContentRepository {
         final @ControllerPermission
         int permissions;
         final NotifyChangeListener notifyChanger;
+        final QueryStats stats;
 
         private RepositoryEntry(AbstractUriSchema uriHandler, ViewType viewType,
-                                @ControllerPermission int permissions, NotifyChangeListener notifyChanger) {
+                                @ControllerPermission int permissions, NotifyChangeListener notifyChanger,
+                                QueryStats stats) {
             this.uriHandler = uriHandler;
             this.viewType = viewType;
             this.permissions = permissions;
             this.notifyChanger = notifyChanger;
+            this.stats = stats;
         }
     }
 }
@@ -24,12 +24,21 @@ import android.net.Uri;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * Listener that notifies {@link android.content.ContentResolver} about changes in data. Some views could use
  * multiple tables so update to one table could cause changes in multiple views.
+ * <p>
+ * Notifications could be coalesced on one thread using {@link #beginCoalescing()} and
+ * {@link #endCoalescing(Context)}, then each distinct {@link Uri} is notified only once.
+ * </p>
  */
 public class NotifyChangeListener {
 
+    private static final ThreadLocal<Set<Uri>> sPendingUris = new ThreadLocal<>();
+
     /**
      * Notify about changes in {@link Uri} everyone that needs to be. Default implementation notifies only self.
      *
@@ -38,7 +47,36 @@ public class NotifyChangeListener {
      */
     @CallSuper
     public void notifyChange(@NonNull Context context, @NonNull Uri uri) {
-        context.getContentResolver().notifyChange(uri, null);
+        Set<Uri> pendingUris = sPendingUris.get();
+        if (pendingUris != null) {
+            pendingUris.add(uri);
+        } else {
+            context.getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Starts collecting notifications on current thread instead of sending them
+     */
+    public static void beginCoalescing() {
+        if (sPendingUris.get() == null) {
+            sPendingUris.set(new LinkedHashSet<>());
+        }
     }
 
+    /**
+     * Stops collecting notifications on current thread and sends each collected {@link Uri} once
+     *
+     * @param context Some valid context
+     */
+    public static void endCoalescing(@NonNull Context context) {
+        Set<Uri> pendingUris = sPendingUris.get();
+        if (pendingUris == null)
+            return;
+        sPendingUris.remove();
+
+        for (Uri uri : pendingUris) {
+            context.getContentResolver().notifyChange(uri, null);
+        }
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.repository;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Bounded in-process cache of materialized query results.
+ * <p>
+ * Results are keyed by the whole query ({@link Uri}, projection, selection, its args and sort order)
+ * and kept in immutable arrays that are shared by all returned {@link Cursor}s. The same tables are
+ * reachable through many {@link Uri}s that don't share any path, so the whole cache is invalidated
+ * after every write (see {@link #invalidateAll()}) instead of guessing the affected results.
+ * </p>
+ * <p>
+ * The size is counted in cells (rows times columns), bigger results than quarter of cache are
+ * not cached at all.
+ * </p>
+ *
+ * @see ContentRepository#setQueryCacheSize(int)
+ */
+public class QueryCache {
+
+    // Keys in stats Bundle
+    /**
+     * Number of queries served from cache (long)
+     */
+    public static final String KEY_HITS = "hits";
+    /**
+     * Number of queries that were not found in cache (long)
+     */
+    public static final String KEY_MISSES = "misses";
+    /**
+     * Number of results removed because of changes in data (long)
+     */
+    public static final String KEY_INVALIDATIONS = "invalidations";
+    /**
+     * Number of results removed because of cache size (long)
+     */
+    public static final String KEY_EVICTIONS = "evictions";
+    /**
+     * Actual size of cache in cells (long)
+     */
+    public static final String KEY_SIZE = "size";
+
+    private final int mMaxResultCells;
+    private final LruCache<Key, Result> mCache;
+    // Changed on every invalidation, results of queries started before it cannot be cached
+    private long mGeneration = 0;
+    private long mInvalidations = 0;
+
+    /**
+     * Create new cache
+     *
+     * @param maxCells Maximal number of cells (rows times columns) in cache
+     */
+    QueryCache(int maxCells) {
+        mMaxResultCells = maxCells / 4;
+        mCache = new LruCache<Key, Result>(maxCells) {
+            @Override
+            protected int sizeOf(Key key, Result value) {
+                return Math.max(1, value.values.length);
+            }
+        };
+    }
+
+    /**
+     * Returns cached result of query
+     *
+     * @param key Query key
+     * @return New cursor with cached result or {@code null} if the query isn't cached
+     */
+    @Nullable
+    Cursor get(@NonNull Key key) {
+        Result result = mCache.get(key);
+        if (result == null) {
+            return null;
+        }
+        return new CachedCursor(result.columns, result.values, result.rowCount);
+    }
+
+    /**
+     * Returns actual generation of cache, that has to be used in {@link #put(Key, long, Cursor)}
+     *
+     * @return Generation of cache
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Saves query result to cache (if it isn't too big)
+     *
+     * @param key        Query key
+     * @param generation Cache generation from time before the query was started
+     * @param cursor     Query result, it's closed when it's saved
+     * @return Cursor with same data as original one (it could be the original cursor)
+     */
+    @NonNull
+    Cursor put(@NonNull Key key, long generation, @NonNull Cursor cursor) {
+        int rowCount = cursor.getCount();
+        int columnCount = cursor.getColumnCount();
+        if ((long) rowCount * columnCount > mMaxResultCells) {
+            return cursor;
+        }
+
+        Object[] values = new Object[rowCount * columnCount];
+        int i = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < columnCount; column++) {
+                values[i++] = readValue(cursor, column);
+            }
+        }
+        String[] columns = cursor.getColumnNames();
+        cursor.close();
+
+        synchronized (this) {
+            // Data could change while the query was running
+            if (generation == mGeneration) {
+                mCache.put(key, new Result(columns, values, rowCount));
+            }
+        }
+        return new CachedCursor(columns, values, rowCount);
+    }
+
+    /**
+     * Removes all cached results because of change in data. It has to be called after the change is
+     * committed, so the queries that run meanwhile don't cache the old data.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        // Removed one by one, evictAll() would count them as evictions
+        for (Key key : mCache.snapshot().keySet()) {
+            mCache.remove(key);
+            mInvalidations++;
+        }
+    }
+
+    /**
+     * Writes cache stats to Bundle
+     *
+     * @param bundle Bundle to be written into
+     */
+    synchronized void writeTo(@NonNull Bundle bundle) {
+        bundle.putLong(KEY_HITS, mCache.hitCount());
+        bundle.putLong(KEY_MISSES, mCache.missCount());
+        bundle.putLong(KEY_INVALIDATIONS, mInvalidations);
+        bundle.putLong(KEY_EVICTIONS, mCache.evictionCount());
+        bundle.putLong(KEY_SIZE, mCache.size());
+    }
+
+    @Nullable
+    private static Object readValue(@NonNull Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            case Cursor.FIELD_TYPE_NULL:
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Key of cached query
+     */
+    static final class Key {
+
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final int mHashCode;
+
+        /**
+         * Create new query key (arrays are copied, so the caller could change them later)
+         */
+        Key(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+            @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+            mUri = uri;
+            mProjection = projection != null ? projection.clone() : null;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs != null ? selectionArgs.clone() : null;
+            mSortOrder = sortOrder;
+
+            int hashCode = uri.hashCode();
+            hashCode = 31 * hashCode + Arrays.hashCode(mProjection);
+            hashCode = 31 * hashCode + (mSelection != null ? mSelection.hashCode() : 0);
+            hashCode = 31 * hashCode + Arrays.hashCode(mSelectionArgs);
+            hashCode = 31 * hashCode + (mSortOrder != null ? mSortOrder.hashCode() : 0);
+            mHashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return mHashCode == key.mHashCode &&
+                    mUri.equals(key.mUri) &&
+                    Arrays.equals(mProjection, key.mProjection) &&
+                    (mSelection != null ? mSelection.equals(key.mSelection) : key.mSelection == null) &&
+                    Arrays.equals(mSelectionArgs, key.mSelectionArgs) &&
+                    (mSortOrder != null ? mSortOrder.equals(key.mSortOrder) : key.mSortOrder == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private static final class Result {
+
+        final String[] columns;
+        final Object[] values;
+        final int rowCount;
+
+        Result(@NonNull String[] columns, @NonNull Object[] values, int rowCount) {
+            this.columns = columns;
+            this.values = values;
+            this.rowCount = rowCount;
+        }
+    }
+}
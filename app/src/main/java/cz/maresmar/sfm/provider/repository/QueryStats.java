@@ -0,0 +1,172 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.repository;
+
+import android.os.Bundle;
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+/**
+ * Latency and row count statistics of operations on one {@link android.net.Uri} schema.
+ * <p>
+ * Latencies are counted in histogram with power of two millisecond buckets, the bucket {@code i}
+ * contains operations that took less than {@code 2^i} ms (the last one contains all slower ones).
+ * </p>
+ *
+ * @see ContentRepository#getStats()
+ */
+public class QueryStats {
+
+    public static final int OPERATION_QUERY = 0;
+    public static final int OPERATION_INSERT = 1;
+    public static final int OPERATION_UPDATE = 2;
+    public static final int OPERATION_DELETE = 3;
+
+    @IntDef(value = {OPERATION_QUERY, OPERATION_INSERT, OPERATION_UPDATE, OPERATION_DELETE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Operation {
+    }
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "update", "delete"};
+
+    /**
+     * Number of histogram buckets (the last one is for operations that took 1024 ms or more)
+     */
+    public static final int BUCKETS_COUNT = 12;
+
+    // Keys in stats Bundle of one operation
+    /**
+     * Number of operations (long)
+     */
+    public static final String KEY_COUNT = "count";
+    /**
+     * Sum of returned or changed rows (long)
+     */
+    public static final String KEY_ROWS = "rows";
+    /**
+     * Sum of operations durations in ms (long)
+     */
+    public static final String KEY_TOTAL_MS = "total-ms";
+    /**
+     * Duration of slowest operation in ms (long)
+     */
+    public static final String KEY_MAX_MS = "max-ms";
+    /**
+     * Latency histogram (long array with {@link #BUCKETS_COUNT} items)
+     */
+    public static final String KEY_HISTOGRAM = "histogram";
+
+    private static final int OPERATIONS_COUNT = OPERATION_NAMES.length;
+
+    private final String mPattern;
+    private final long[] mCounts = new long[OPERATIONS_COUNT];
+    private final long[] mRows = new long[OPERATIONS_COUNT];
+    private final long[] mTotalNanos = new long[OPERATIONS_COUNT];
+    private final long[] mMaxNanos = new long[OPERATIONS_COUNT];
+    private final long[][] mHistograms = new long[OPERATIONS_COUNT][BUCKETS_COUNT];
+
+    /**
+     * Create new empty stats
+     *
+     * @param pattern Uri schema pattern (eg. {@code user/#/menu})
+     */
+    QueryStats(@NonNull String pattern) {
+        mPattern = pattern;
+    }
+
+    /**
+     * Returns name of operation used in stats keys
+     *
+     * @param operation Operation
+     * @return Operation name
+     */
+    @NonNull
+    public static String getOperationName(@Operation int operation) {
+        return OPERATION_NAMES[operation];
+    }
+
+    /**
+     * Returns histogram bucket for operation duration
+     *
+     * @param nanos Duration in ns
+     * @return Bucket index
+     */
+    static int getBucket(long nanos) {
+        long millis = nanos / 1_000_000;
+        int bucket = Long.SIZE - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKETS_COUNT - 1);
+    }
+
+    /**
+     * Saves one operation
+     *
+     * @param operation Operation type
+     * @param nanos     Duration of operation in ns
+     * @param rows      Number of returned or changed rows
+     */
+    synchronized void record(@Operation int operation, long nanos, long rows) {
+        mCounts[operation]++;
+        mRows[operation] += rows;
+        mTotalNanos[operation] += nanos;
+        if (nanos > mMaxNanos[operation]) {
+            mMaxNanos[operation] = nanos;
+        }
+        mHistograms[operation][getBucket(nanos)]++;
+    }
+
+    /**
+     * Writes stats of used operations to {@link Bundle}, each operation is saved as inner Bundle
+     * with key {@code "pattern operation"} (eg. {@code "user/#/menu query"})
+     *
+     * @param bundle Bundle to be written into
+     */
+    synchronized void writeTo(@NonNull Bundle bundle) {
+        for (int operation = 0; operation < OPERATIONS_COUNT; operation++) {
+            if (mCounts[operation] == 0) {
+                continue;
+            }
+
+            Bundle operationStats = new Bundle();
+            operationStats.putLong(KEY_COUNT, mCounts[operation]);
+            operationStats.putLong(KEY_ROWS, mRows[operation]);
+            operationStats.putLong(KEY_TOTAL_MS, mTotalNanos[operation] / 1_000_000);
+            operationStats.putLong(KEY_MAX_MS, mMaxNanos[operation] / 1_000_000);
+            operationStats.putLongArray(KEY_HISTOGRAM, mHistograms[operation].clone());
+
+            bundle.putBundle(mPattern + " " + OPERATION_NAMES[operation], operationStats);
+        }
+    }
+
+    /**
+     * Removes all saved operations
+     */
+    synchronized void reset() {
+        for (int operation = 0; operation < OPERATIONS_COUNT; operation++) {
+            mCounts[operation] = 0;
+            mRows[operation] = 0;
+            mTotalNanos[operation] = 0;
+            mMaxNanos[operation] = 0;
+            Arrays.fill(mHistograms[operation], 0);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.repository;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.maresmar.sfm.db.DbContract;
+import cz.maresmar.sfm.db.DbHelper;
+import timber.log.Timber;
+
+/**
+ * Index from portals and credentials to users that has credential in them. It's used to notify only
+ * users affected by some change.
+ * <p>
+ * The index is loaded lazily from database and it has to be invalidated (using {@link #invalidate()})
+ * after each change of credentials or portals. The invalidation is cheap, the index is loaded again
+ * with next use. All methods are thread safe and they never block the writers.</p>
+ */
+public class SubscriptionIndex {
+
+    /**
+     * User ID returned for unknown credential
+     */
+    public static final long UNKNOWN_USER = -1;
+
+    // Immutable snapshot of index
+    private static class Snapshot {
+        final int version;
+        final HashMap<Long, Set<Long>> portalUsers = new HashMap<>();
+        final HashMap<Long, Long> credentialUsers = new HashMap<>();
+
+        Snapshot(int version) {
+            this.version = version;
+        }
+    }
+
+    private static final String SQL_LOAD_PORTALS = "SELECT " +
+            DbContract.Portal.TABLE_NAME + "." + DbContract.Portal._ID + ", " +
+            DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID +
+            " FROM " + DbContract.Portal.TABLE_NAME +
+            " LEFT OUTER JOIN " + DbContract.Credential.TABLE_NAME +
+            " ON (" + DbContract.Portal.TABLE_NAME + "." + DbContract.Portal.COLUMN_NAME_PGID + " = " +
+            DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_PGID + ")";
+    private static final String SQL_LOAD_CREDENTIALS = "SELECT " + DbContract.Credential._ID + ", " +
+            DbContract.Credential.COLUMN_NAME_UID + " FROM " + DbContract.Credential.TABLE_NAME;
+
+    private final DbHelper mDbHelper;
+    private final AtomicInteger mVersion = new AtomicInteger();
+    private volatile Snapshot mSnapshot;
+
+    /**
+     * Creates new index
+     *
+     * @param dbHelper Helper used to load the index
+     */
+    public SubscriptionIndex(@NonNull DbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Marks index as outdated, it should be called after change of credentials or portals is
+     * committed
+     */
+    public void invalidate() {
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns users with credential in portal's group
+     *
+     * @param portalId ID of portal
+     * @return Unmodifiable set of user IDs or {@code null} if the portal is unknown (like deleted one)
+     */
+    @Nullable
+    public Set<Long> getPortalUsers(long portalId) {
+        return getSnapshot().portalUsers.get(portalId);
+    }
+
+    /**
+     * Returns owner of credential
+     *
+     * @param credentialId ID of credential
+     * @return User ID or {@link #UNKNOWN_USER} if the credential is unknown (like deleted one)
+     */
+    public long getCredentialUser(long credentialId) {
+        Long userId = getSnapshot().credentialUsers.get(credentialId);
+        return userId != null ? userId : UNKNOWN_USER;
+    }
+
+    @NonNull
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = mSnapshot;
+        int version = mVersion.get();
+        if (snapshot == null || snapshot.version != version) {
+            // When it's invalidated during loading the snapshot has old version so it's loaded
+            // again with next use
+            snapshot = load(mDbHelper.getReadableDatabase(), version);
+            mSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    @NonNull
+    private static Snapshot load(@NonNull SQLiteDatabase db, int version) {
+        Snapshot snapshot = new Snapshot(version);
+
+        try (Cursor cursor = db.rawQuery(SQL_LOAD_PORTALS, null)) {
+            while (cursor.moveToNext()) {
+                long portalId = cursor.getLong(0);
+                Set<Long> users = snapshot.portalUsers.get(portalId);
+                if (users == null) {
+                    users = new HashSet<>();
+                    snapshot.portalUsers.put(portalId, users);
+                }
+
+                // Portal without credentials has only one row with null UID
+                if (!cursor.isNull(1)) {
+                    users.add(cursor.getLong(1));
+                }
+            }
+        }
+
+        try (Cursor cursor = db.rawQuery(SQL_LOAD_CREDENTIALS, null)) {
+            while (cursor.moveToNext()) {
+                snapshot.credentialUsers.put(cursor.getLong(0), cursor.getLong(1));
+            }
+        }
+
+        // Make sets read only as the snapshot is shared between threads
+        for (Map.Entry<Long, Set<Long>> entry : snapshot.portalUsers.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+
+        Timber.d("Subscription index loaded (%d credentials, %d portals)",
+                snapshot.credentialUsers.size(), snapshot.portalUsers.size());
+        return snapshot;
+    }
+}
@@ -27,7 +27,7 @@ import androidx.annotation.Nullable;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.Deque;
+import java.util.List;
 
 /**
  * Saves {@link android.content.UriMatcher} schemas with methods that help read existing {@link Uri}s
@@ -67,34 +67,35 @@ public abstract class AbstractUriSchema {
     /**
      * Returns kind of {@link Uri}
      *
-     * @param uri Uri to be checked
+     * @param segments Path segments of Uri to be checked (Uri has to match some of schemas)
      * @return {@link AbstractUriSchema#MINE_KIND_DIR} if it points to whole table or
      * {@link AbstractUriSchema#MINE_KIND_ITEM} if it points to one row
      * @see android.content.ContentProvider#getType(Uri)
+     * @see Uri#getPathSegments()
      */
     @MineKind
-    public abstract int getKind(@NonNull Uri uri);
+    public abstract int getKind(@NonNull List<String> segments);
 
     /**
      * Parse values from Uri. This method prepare (future selection) params for database operations.
      *
-     * @param uri Uri to get params from
-     * @return Queue of params parsed and counted from params
+     * @param segments Path segments of Uri to get params from (Uri has to match some of schemas)
+     * @param params   Params where the parsed params are added
+     * @see Uri#getPathSegments()
      */
-    @NonNull
-    public abstract Deque<Param> parseParamsFromUri(@NonNull Uri uri);
+    public abstract void parseParams(@NonNull List<String> segments, @NonNull UriParams params);
 
     /**
      * Parse values from Uri, this method allow also use Content values for finding of parameters. This
      * method finds params only for insert or update.
      *
-     * @param uri    Uri to get params from
-     * @param values Values used for getting result
-     * @return Queue of params parsed and counted from params
+     * @param segments Path segments of Uri to get params from (Uri has to match some of schemas)
+     * @param values   Values used for getting result
+     * @param params   Params where the parsed params are added
      */
-    @NonNull
-    public Deque<Param> parseParamsFromUriAndValues(@NonNull Uri uri, @Nullable ContentValues values) {
-        return parseParamsFromUri(uri);
+    public void parseParamsWithValues(@NonNull List<String> segments, @Nullable ContentValues values,
+                                      @NonNull UriParams params) {
+        parseParams(segments, params);
     }
 
     /**
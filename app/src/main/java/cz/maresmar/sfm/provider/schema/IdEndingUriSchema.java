@@ -24,8 +24,8 @@ import android.net.Uri;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.List;
 
 import cz.maresmar.sfm.Assert;
 import cz.maresmar.sfm.BuildConfig;
@@ -33,20 +33,49 @@ import cz.maresmar.sfm.BuildConfig;
 /**
  * Schema model for {@link Uri}s that can end on ID of row. Eg. {@code .../xxxx/} for dir and
  * {@code .../xxxx/ID} for items. It is standard behaviour how {@link Uri}s work.
+ * <p>
+ * The schema can also contain IDs inside path (eg. {@code user/#/menu}), their positions are
+ * found once when the schema is created, so the parsing only reads the segments on known indexes.
+ * </p>
  */
 public class IdEndingUriSchema extends AbstractUriSchema {
 
-    private String mIdColumnName;
-    private String mUri;
+    private final String mIdColumnName;
+    private final String mUri;
+    private final int mDirSegmentsCount;
+    private final int[] mSegmentIndexes;
+    private final String[] mSegmentColumnNames;
 
     /**
      * Create new handler from dir schema and ID column name
      * @param uri Schema of dir
      * @param idColumnName Name of ID column
+     * @param segmentColumnNames Names of columns for each {@code #} in dir schema (in same order)
      */
-    public IdEndingUriSchema(@NonNull String uri, @NonNull String idColumnName) {
+    public IdEndingUriSchema(@NonNull String uri, @NonNull String idColumnName,
+                             @NonNull String... segmentColumnNames) {
         mUri = uri;
         mIdColumnName = idColumnName;
+
+        String[] segments = uri.split("/");
+        mDirSegmentsCount = segments.length;
+
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < segments.length; i++) {
+            if ("#".equals(segments[i])) {
+                indexes.add(i);
+            }
+        }
+        if (indexes.size() != segmentColumnNames.length) {
+            throw new IllegalArgumentException("Schema " + uri + " has " + indexes.size() +
+                    " IDs but " + segmentColumnNames.length + " column names");
+        }
+
+        mSegmentIndexes = new int[indexes.size()];
+        for (int i = 0; i < mSegmentIndexes.length; i++) {
+            mSegmentIndexes[i] = indexes.get(i);
+        }
+        mSegmentColumnNames = segmentColumnNames;
     }
 
     @Override
@@ -57,37 +86,44 @@ public class IdEndingUriSchema extends AbstractUriSchema {
 
     @Override
     @MineKind
-    public int getKind(@NonNull Uri uri) {
-        if(isIdUri(uri))
+    public int getKind(@NonNull List<String> segments) {
+        if(isIdUri(segments))
             return MINE_KIND_ITEM;
         else
             return MINE_KIND_DIR;
     }
 
-    private boolean isIdUri(@NonNull Uri uri) {
-        String lastSegment = uri.getLastPathSegment();
-
-        return lastSegment.matches("[0-9]+");
+    private boolean isIdUri(@NonNull List<String> segments) {
+        // The Uri already matches one of schemas, so the ID is there if the path is longer than dir
+        return segments.size() > mDirSegmentsCount;
     }
 
     @Override
-    @NonNull
     @CallSuper
-    public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-        ArrayDeque<Param> params = new ArrayDeque<>();
+    public void parseParams(@NonNull List<String> segments, @NonNull UriParams params) {
+        parseIdParam(segments, params);
 
-        if(isIdUri(uri)) {
-            String lastSegment = uri.getLastPathSegment();
-            params.add(new Param(mIdColumnName, Long.valueOf(lastSegment)));
+        for (int i = 0; i < mSegmentIndexes.length; i++) {
+            params.add(mSegmentColumnNames[i], Long.parseLong(segments.get(mSegmentIndexes[i])));
         }
+    }
 
-        return params;
+    /**
+     * Parse only the ending row ID (if there is any)
+     *
+     * @param segments Path segments of Uri
+     * @param params   Params where the ID is added
+     */
+    protected void parseIdParam(@NonNull List<String> segments, @NonNull UriParams params) {
+        if(isIdUri(segments)) {
+            params.add(mIdColumnName, Long.parseLong(segments.get(mDirSegmentsCount)));
+        }
     }
 
     @NonNull
     @Override
     public Uri buildEntryUri(Uri insertUri, Long entryId) {
-        if(isIdUri(insertUri)) {
+        if(isIdUri(insertUri.getPathSegments())) {
             if(BuildConfig.DEBUG) {
                 Assert.that(ContentUris.parseId(insertUri) == entryId, "Inserted uri does not match id from before");
             }
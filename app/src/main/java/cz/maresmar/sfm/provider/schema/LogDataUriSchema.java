@@ -23,8 +23,7 @@ import android.net.Uri;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.List;
 
 import cz.maresmar.sfm.provider.PublicProviderContract;
 
@@ -34,14 +33,16 @@ import cz.maresmar.sfm.provider.PublicProviderContract;
  */
 public class LogDataUriSchema extends AbstractUriSchema {
 
-    private String mLastColumnName, mPenultimateColumnName;
-    private String mUri;
+    private final String mLastColumnName, mPenultimateColumnName;
+    private final String mUri;
+    private final int mDirSegmentsCount;
 
     public LogDataUriSchema(@NonNull String uri, @NonNull String penultimateColName,
                             @NonNull String lastColName) {
         mUri = uri;
         mPenultimateColumnName = penultimateColName;
         mLastColumnName = lastColName;
+        mDirSegmentsCount = uri.split("/").length;
     }
 
     @Override
@@ -52,39 +53,29 @@ public class LogDataUriSchema extends AbstractUriSchema {
 
     @Override
     @MineKind
-    public int getKind(@NonNull Uri uri) {
-        if(isIdsUri(uri))
+    public int getKind(@NonNull List<String> segments) {
+        if(isIdsUri(segments))
             return MINE_KIND_ITEM;
         else
             return MINE_KIND_DIR;
     }
 
-    private boolean isIdsUri(@NonNull Uri uri) {
-        String lastSegment = uri.getPath();
-
-        return lastSegment.matches(".+/[0-9]+/[^/]+");
+    private boolean isIdsUri(@NonNull List<String> segments) {
+        // The Uri already matches one of schemas, so the IDs are there if the path is longer than dir
+        return segments.size() > mDirSegmentsCount;
     }
 
     @Override
-    @NonNull
     @CallSuper
-    public Deque<Param> parseParamsFromUri(@NonNull Uri uri) {
-        ArrayDeque<Param> params = new ArrayDeque<>();
-
-        if(isIdsUri(uri)) {
-            int pathSize = uri.getPathSegments().size();
-            String lastSegment = uri.getPathSegments().get(pathSize - 1);
-            String penultimateSegment = uri.getPathSegments().get(pathSize - 2);
+    public void parseParams(@NonNull List<String> segments, @NonNull UriParams params) {
+        if(isIdsUri(segments)) {
+            params.add(mPenultimateColumnName, Long.parseLong(segments.get(mDirSegmentsCount)));
 
-            params.add(new Param(mPenultimateColumnName, Long.valueOf(penultimateSegment)));
-
-            long segmentValue = Long.valueOf(lastSegment);
+            long segmentValue = Long.parseLong(segments.get(mDirSegmentsCount + 1));
             if(segmentValue != PublicProviderContract.PORTAL_ONLY_CREDENTIAL_ID) {
-                params.add(new Param(mLastColumnName, segmentValue));
+                params.add(mLastColumnName, segmentValue);
             }
         }
-
-        return params;
     }
 
     @NonNull
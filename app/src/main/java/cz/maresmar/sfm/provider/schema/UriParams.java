@@ -0,0 +1,247 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.provider.schema;
+
+import android.content.ContentValues;
+import androidx.annotation.CheckResult;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Typed params parsed from {@link android.net.Uri} that are passed to
+ * {@link cz.maresmar.sfm.db.controller.ViewController}s together with the caller's selection.
+ * <p>
+ * Every param is written to selection as {@code ?} placeholder with value in selection args, so
+ * the SQL text is the same for all {@link android.net.Uri}s of one schema and SQLite can reuse
+ * the compiled statement. Controllers can read param values directly instead of parsing them back
+ * from the selection.
+ * </p>
+ * <p>
+ * The params are stored in primitive arrays and could be {@link #clear()}ed and reused for next
+ * {@link android.net.Uri}, so the parsing doesn't allocate any objects.
+ * </p>
+ */
+public class UriParams {
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private String[] mNames;
+    private long[] mValues;
+    // Custom selection clauses, null means "name = ?"
+    private String[] mClauses;
+    private int mSize = 0;
+
+    /**
+     * Create new empty params
+     */
+    public UriParams() {
+        mNames = new String[DEFAULT_CAPACITY];
+        mValues = new long[DEFAULT_CAPACITY];
+        mClauses = new String[DEFAULT_CAPACITY];
+    }
+
+    private UriParams(@NonNull UriParams params) {
+        mNames = params.mNames.clone();
+        mValues = params.mValues.clone();
+        mClauses = params.mClauses.clone();
+        mSize = params.mSize;
+    }
+
+    /**
+     * Adds new param
+     *
+     * @param paramName  Name of param (column)
+     * @param paramValue Value of param
+     */
+    public void add(@NonNull String paramName, long paramValue) {
+        if (mSize == mNames.length) {
+            int capacity = mSize * 2;
+            mNames = Arrays.copyOf(mNames, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+            mClauses = Arrays.copyOf(mClauses, capacity);
+        }
+        mNames[mSize] = paramName;
+        mValues[mSize] = paramValue;
+        mClauses[mSize] = null;
+        mSize++;
+    }
+
+    /**
+     * Removes all params (the object could be reused then)
+     */
+    public void clear() {
+        Arrays.fill(mNames, 0, mSize, null);
+        Arrays.fill(mClauses, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Returns number of params
+     *
+     * @return Number of params
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns if there are no params
+     *
+     * @return {@code true} if there are no params, {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+    /**
+     * Returns if param with given name exists
+     *
+     * @param paramName Name of param (column)
+     * @return {@code true} if param exists, {@code false} otherwise
+     */
+    public boolean contains(@NonNull String paramName) {
+        return indexOf(paramName) != -1;
+    }
+
+    /**
+     * Returns value of param or throws {@link IllegalArgumentException} if there is no such param
+     *
+     * @param paramName Name of param (column)
+     * @return Value of param
+     */
+    public long getLong(@NonNull String paramName) {
+        int index = indexOf(paramName);
+        if (index == -1) {
+            throw new IllegalArgumentException("Missing param " + paramName);
+        }
+        return mValues[index];
+    }
+
+    /**
+     * Returns value of param or default value if there is no such param
+     *
+     * @param paramName    Name of param (column)
+     * @param defaultValue Value returned when the param is missing
+     * @return Value of param or default value
+     */
+    public long getLong(@NonNull String paramName, long defaultValue) {
+        int index = indexOf(paramName);
+        return index == -1 ? defaultValue : mValues[index];
+    }
+
+    /**
+     * Returns copy of params where the param is written to selection using given clause. The clause
+     * must contain exactly one {@code ?} placeholder, that is bound to param value.
+     *
+     * @param paramName Name of param (column)
+     * @param clause    SQL clause with one {@code ?}, eg. {@code CID IN (SELECT _id FROM Credential WHERE UID = ?)}
+     * @return New params
+     */
+    @CheckResult
+    @NonNull
+    public UriParams withClause(@NonNull String paramName, @NonNull String clause) {
+        int index = indexOf(paramName);
+        if (index == -1) {
+            throw new IllegalArgumentException("Missing param " + paramName);
+        }
+
+        UriParams params = new UriParams(this);
+        params.mClauses[index] = clause;
+        return params;
+    }
+
+    /**
+     * Builds selection from caller's selection and params (caller's selection goes first, so its
+     * placeholders precede the param ones)
+     *
+     * @param selection Caller's selection
+     * @return Selection with {@code ?} placeholders for params
+     * @see #buildSelectionArgs(String[])
+     */
+    @Nullable
+    public String buildSelection(@Nullable String selection) {
+        if (mSize == 0)
+            return selection;
+
+        StringBuilder sb = new StringBuilder();
+        if (selection != null && !selection.isEmpty()) {
+            // Parenthesis keeps caller's OR from escaping the param clauses
+            sb.append('(').append(selection).append(')');
+        }
+
+        for (int i = 0; i < mSize; i++) {
+            if (sb.length() != 0) {
+                sb.append(" AND ");
+            }
+            sb.append('(');
+            if (mClauses[i] != null) {
+                sb.append(mClauses[i]);
+            } else {
+                sb.append(mNames[i]).append(" = ?");
+            }
+            sb.append(')');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Builds selection args from caller's selection args and param values
+     *
+     * @param selectionArgs Caller's selection args
+     * @return Selection args matching {@link #buildSelection(String)}
+     */
+    @Nullable
+    public String[] buildSelectionArgs(@Nullable String[] selectionArgs) {
+        if (mSize == 0)
+            return selectionArgs;
+
+        int argsLen = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[argsLen + mSize];
+        if (argsLen > 0) {
+            System.arraycopy(selectionArgs, 0, args, 0, argsLen);
+        }
+        for (int i = 0; i < mSize; i++) {
+            args[argsLen + i] = Long.toString(mValues[i]);
+        }
+
+        return args;
+    }
+
+    /**
+     * Puts params to values (used for inserts)
+     *
+     * @param values Values to be extended
+     */
+    public void putTo(@NonNull ContentValues values) {
+        for (int i = 0; i < mSize; i++) {
+            values.put(mNames[i], mValues[i]);
+        }
+    }
+
+    private int indexOf(@NonNull String paramName) {
+        for (int i = 0; i < mSize; i++) {
+            if (mNames[i].equals(paramName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
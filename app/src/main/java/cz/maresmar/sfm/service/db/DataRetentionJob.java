@@ -0,0 +1,118 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.service.db;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import androidx.annotation.NonNull;
+
+import com.firebase.jobdispatcher.Constraint;
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.GooglePlayDriver;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.RetryStrategy;
+import com.firebase.jobdispatcher.Trigger;
+
+import cz.maresmar.sfm.app.SettingsContract;
+import cz.maresmar.sfm.provider.ProviderContract;
+import timber.log.Timber;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+
+/**
+ * {@link JobService} that once a day applies data retention settings to database when phone charges
+ *
+ * @see ProviderContract#METHOD_APPLY_RETENTION
+ */
+public class DataRetentionJob extends JobService {
+
+    private static final String TAG_DATA_RETENTION = "dataRetention";
+
+    /**
+     * Plan daily data retention job, the already planed job is kept
+     *
+     * @param context Some valid context
+     */
+    public static void plan(@NonNull Context context) {
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+        int freqSec = (int) DAYS.toSeconds(1);
+        int thresholdSec = (int) HOURS.toSeconds(4);
+
+        Job job = dispatcher.newJobBuilder()
+                .setService(DataRetentionJob.class)
+                .setTag(TAG_DATA_RETENTION)
+                .setRecurring(true)
+                .setLifetime(Lifetime.FOREVER)
+                .setTrigger(Trigger.executionWindow(freqSec - thresholdSec, freqSec + thresholdSec))
+                // the settings are read when the job runs, so the existing job could be kept
+                .setReplaceCurrent(false)
+                .setRetryStrategy(RetryStrategy.DEFAULT_EXPONENTIAL)
+                // vacuum is I/O heavy, so run it only when the phone isn't used
+                .addConstraint(Constraint.DEVICE_CHARGING)
+                .addConstraint(Constraint.DEVICE_IDLE)
+                .build();
+
+        dispatcher.mustSchedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters job) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        Bundle extras = new Bundle();
+        extras.putInt(ProviderContract.EXTRA_MENU_RETENTION_DAYS, Integer.parseInt(prefs.getString(
+                SettingsContract.MENU_RETENTION_DAYS, SettingsContract.MENU_RETENTION_DAYS_DEFAULT)));
+        extras.putInt(ProviderContract.EXTRA_HISTORY_RETENTION_MONTHS, Integer.parseInt(prefs.getString(
+                SettingsContract.HISTORY_RETENTION_MONTHS, SettingsContract.HISTORY_RETENTION_MONTHS_DEFAULT)));
+
+        new Thread(() -> {
+            boolean resultOk = false;
+            try {
+                Bundle result = getContentResolver().call(ProviderContract.Action.getUri(),
+                        ProviderContract.METHOD_APPLY_RETENTION, null, extras);
+                if (result != null) {
+                    Timber.i("Data retention reclaimed %d bytes",
+                            result.getLong(ProviderContract.EXTRA_RECLAIMED_BYTES));
+                }
+                resultOk = true;
+            } catch (RuntimeException e) {
+                Timber.e(e, "Data retention failed");
+            }
+
+            jobFinished(job, !resultOk);
+        }).start();
+
+        Timber.d("Job %s started", job.getTag());
+
+        // Return true as there's more work to be done with this job.
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters job) {
+        Timber.w("Job %s stopped before finished", job.getTag());
+        return true; // Answers the question: "Should this job be retried?"
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.service.plugin.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+import cz.maresmar.sfm.plugin.ActionContract.SyncTask;
+
+/**
+ * Statistics of plugin sync durations per portal and synced tasks, used to set the timeout of next
+ * sync with the same tasks
+ * <p>
+ * Stores exponential moving average of successful sync durations, so the timeout follows the
+ * actual speed of portal. Slow portal gets more time (up to the timeout from settings) and hung plugin
+ * of fast portal is detected sooner. The tasks are part of the key as eg. credit sync takes only a
+ * fraction of full sync.</p>
+ */
+class SyncDurationStats {
+
+    private static final String PREFS_NAME = "sync-duration-stats";
+    private static final String KEY_PORTAL_PREFIX = "portal-";
+    private static final String KEY_TASKS_INFIX = "-tasks-";
+
+    // Weight of the latest duration in the average
+    private static final float AVERAGE_WEIGHT = 0.3f;
+    // Timeout is multiple of the average, so common fluctuations don't kill the plugin
+    private static final int TIMEOUT_MULTIPLIER = 3;
+    private static final long MIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+    private final SharedPreferences mPrefs;
+
+    /**
+     * Creates statistics saved in app's private preferences
+     *
+     * @param context Some valid context
+     */
+    SyncDurationStats(@NonNull Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String getKey(long portalId, @SyncTask int tasks) {
+        return KEY_PORTAL_PREFIX + portalId + KEY_TASKS_INFIX + tasks;
+    }
+
+    /**
+     * Records duration of successful sync
+     *
+     * @param portalId       ID of portal
+     * @param tasks          Synced tasks
+     * @param durationMillis Duration of the sync in ms
+     */
+    void record(long portalId, @SyncTask int tasks, long durationMillis) {
+        String key = getKey(portalId, tasks);
+        long average = mPrefs.getLong(key, -1);
+        if (average < 0) {
+            average = durationMillis;
+        } else {
+            average = Math.round(AVERAGE_WEIGHT * durationMillis + (1 - AVERAGE_WEIGHT) * average);
+        }
+        mPrefs.edit()
+                .putLong(key, average)
+                .apply();
+    }
+
+    /**
+     * Forgets durations of tasks on portal (eg. when the plugin timed out), so the next sync gets
+     * the full timeout from settings
+     *
+     * @param portalId ID of portal
+     * @param tasks    Synced tasks
+     */
+    void forget(long portalId, @SyncTask int tasks) {
+        mPrefs.edit()
+                .remove(getKey(portalId, tasks))
+                .apply();
+    }
+
+    /**
+     * Returns timeout of next sync of tasks on portal
+     *
+     * @param portalId                ID of portal
+     * @param tasks                   Tasks to be synced
+     * @param configuredTimeoutMillis Timeout from settings that is used as the upper limit
+     * @return Timeout in ms
+     */
+    long getTimeoutMillis(long portalId, @SyncTask int tasks, long configuredTimeoutMillis) {
+        long average = mPrefs.getLong(getKey(portalId, tasks), -1);
+        if (average < 0) {
+            return configuredTimeoutMillis;
+        }
+        long timeout = Math.max(TIMEOUT_MULTIPLIER * average, MIN_TIMEOUT_MILLIS);
+        return Math.min(timeout, configuredTimeoutMillis);
+    }
+}
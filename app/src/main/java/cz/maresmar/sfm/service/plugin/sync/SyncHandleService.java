@@ -16,34 +16,33 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <https://www.gnu.org/licenses/>.
  */
-
 package cz.maresmar.sfm.service.plugin.sync;
 
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import androidx.annotation.Nullable;
 
 /**
- * {@link IntentService} that handles sync when app is started
+ * {@link Service} that handles sync when app is started
  * <p>
- * This allows app to run sync without delay (caused sometimes by {@link android.app.job.JobScheduler})
+ * This allows app to run sync without delay (caused sometimes by {@link android.app.job.JobScheduler}).
+ * The sync itself runs in background in {@link SyncHandler}, so more syncs could overlap. The service
+ * stops itself when all of them are done.
  * </p>
  *
  * @see SyncHandler
  */
-public class SyncHandleIntentService extends IntentService {
-
-    SyncHandler mHandler = new SyncHandler();
+public class SyncHandleService extends Service {
 
-    /**
-     * Creates new IntentService
-     */
-    public SyncHandleIntentService() {
-        super("SyncHandlerIntentService");
-    }
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private int mRunningSyncs = 0;
+    private int mLastStartId;
 
     @Override
-    protected void onHandleIntent(@Nullable Intent intent) {
+    public int onStartCommand(@Nullable Intent intent, int flags, int startId) {
         if (intent == null || intent.getExtras() == null) {
             throw new IllegalArgumentException("You have to specifi correct extras");
         }
@@ -51,20 +50,23 @@ public class SyncHandleIntentService extends IntentService {
         @SyncHandler.Action
         int action = intent.getIntExtra(SyncHandler.ACTION, SyncHandler.ACTION_FULL_SYNC);
 
-        mHandler.startAction(action, intent.getExtras());
-    }
+        mLastStartId = startId;
+        mRunningSyncs++;
+        SyncHandler.getInstance(this).startAction(action, intent.getExtras(), successful ->
+                mMainHandler.post(() -> {
+                    // Stops only if no newer start came meanwhile
+                    if (--mRunningSyncs == 0) {
+                        stopSelf(mLastStartId);
+                    }
+                })
+        );
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
-
-        mHandler.onCreate(this);
+        return START_NOT_STICKY;
     }
 
+    @Nullable
     @Override
-    public void onDestroy() {
-        super.onDestroy();
-
-        mHandler.onDestroy();
+    public IBinder onBind(Intent intent) {
+        return null;
     }
 }
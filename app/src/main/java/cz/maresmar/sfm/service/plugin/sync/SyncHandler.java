@@ -20,7 +20,6 @@
 package cz.maresmar.sfm.service.plugin.sync;
 
 import android.annotation.SuppressLint;
-import android.app.IntentService;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -32,6 +31,7 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.collection.LongSparseArray;
 
@@ -45,7 +45,12 @@ import com.firebase.jobdispatcher.Trigger;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import cz.maresmar.sfm.BuildConfig;
 import cz.maresmar.sfm.app.SettingsContract;
@@ -67,6 +72,7 @@ import static cz.maresmar.sfm.plugin.BroadcastContract.EXTRA_TASKS_LIST;
 import static cz.maresmar.sfm.plugin.BroadcastContract.EXTRA_TASKS_RESULTS;
 import static cz.maresmar.sfm.plugin.BroadcastContract.EXTRA_WORST_RESULT;
 import static cz.maresmar.sfm.plugin.BroadcastContract.RESULT_NOT_SUPPORTED;
+import static cz.maresmar.sfm.plugin.BroadcastContract.RESULT_INTERNAL_ERROR;
 import static cz.maresmar.sfm.plugin.BroadcastContract.RESULT_PLUGIN_TIMEOUT;
 import static cz.maresmar.sfm.plugin.BroadcastContract.SyncResult;
 import static cz.maresmar.sfm.provider.PublicProviderContract.LogData;
@@ -125,6 +131,7 @@ public class SyncHandler {
 
     // Action params (intended for starting this service)
     private static final String EXTRA_USER_ID = "userId";
+    private static final String EXTRA_FORCE = "force";
 
     // Action param's constants
     private static final int UNKNOWN_ID = ActionContract.UNKNOWN_ID;
@@ -140,61 +147,99 @@ public class SyncHandler {
     @SyncTask
     private static final int ALL_TASKS = (1 << ActionContract.PLUGIN_TASKS_LENGTH) - 1;
 
+    // Plugin that reports progress could run up to this multiple of timeout from settings
+    private static final int MAX_TIMEOUT_MULTIPLIER = 4;
+    // Plugin that reports progress is considered as hung when it's silent for this time
+    private static final long SILENCE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
     // -------------------------------------------------------------------------------------------
     // Variables
     // -------------------------------------------------------------------------------------------
 
+    private static SyncHandler sInstance;
+
     // Update listener
     private BroadcastReceiver mSyncResultsReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             final long portalId = intent.getLongExtra(EXTRA_PORTAL_ID, UNKNOWN_ID);
             final long credentialsID = intent.getLongExtra(EXTRA_CREDENTIAL_ID, UNKNOWN_ID);
-            final int[] doneTasks = intent.getIntArrayExtra(EXTRA_TASKS_LIST);
-            @SyncResult final int[] results = intent.getIntArrayExtra(EXTRA_TASKS_RESULTS);
+
+            // Heartbeat of running plugin
+            if (BroadcastContract.BROADCAST_PLUGIN_SYNC_PROGRESS.equals(intent.getAction())) {
+                executeOnSyncThread(() -> onPluginProgressReceived(portalId, credentialsID));
+                return;
+            }
+
             @SyncResult final int worstResult = intent.getIntExtra(EXTRA_WORST_RESULT, RESULT_NOT_SUPPORTED);
             final String errorMsg = intent.getStringExtra(EXTRA_ERROR_MESSAGE);
+            @SyncTask final int syncedTasks = getSyncedTasks(intent.getIntArrayExtra(EXTRA_TASKS_LIST),
+                    intent.getIntArrayExtra(EXTRA_TASKS_RESULTS));
 
-            onPluginResultReceived(portalId, credentialsID, doneTasks, results, worstResult, errorMsg);
+            // Results are handled on sync thread as they touch the database
+            executeOnSyncThread(() -> onPluginResultReceived(portalId, credentialsID, worstResult, errorMsg,
+                    syncedTasks));
         }
     };
 
-    private Context mContext;
-    private CountDownLatch mRemainingResultsLatch;
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    // Runs sync state machine, all the following variables are used only there
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    // Runs long finishing tasks (with network access) so they don't delay other syncs
+    private final ExecutorService mFinishingExecutor = Executors.newSingleThreadExecutor();
+    private final SyncScheduler mScheduler;
+    private final SyncDurationStats mDurationStats;
+    private int mActiveSessions = 0;
+    private boolean mCheckActionsPending = false;
     @SyncResult
     private int mWorstResult;
-    private LongSparseArray<Integer> mPreviousCredit;
-    private LongSparseArray<Long> mPreviousLastMenuDate;
-    private SharedPreferences mPrefs;
 
     // -------------------------------------------------------------------------------------------
     // External starting methods
     // -------------------------------------------------------------------------------------------
 
     /**
-     * Starts full menu sync as {@link IntentService}
+     * Starts full menu sync as {@link Service}, the tasks whose data are still fresh are skipped
      *
      * @param context Some valid context
+     * @see TaskFreshness
      */
     public static void startFullSync(@NonNull Context context) {
-        Intent intent = new Intent(context, SyncHandleIntentService.class);
+        startFullSync(context, false);
+    }
+
+    /**
+     * Starts full menu sync as {@link Service}
+     *
+     * @param context Some valid context
+     * @param force   {@code true} if also the tasks with fresh data are synced (eg. when user asks
+     *                for refresh or when credentials are tested), {@code false} otherwise
+     */
+    public static void startFullSync(@NonNull Context context, boolean force) {
+        Intent intent = new Intent(context, SyncHandleService.class);
         intent.putExtra(ACTION, ACTION_FULL_SYNC);
+        intent.putExtra(EXTRA_FORCE, force);
         context.startService(intent);
     }
 
     /**
-     * Starts sync of remaining food in menu for specific user as {@link IntentService}
+     * Starts sync of remaining food in menu for specific user as {@link Service}
      * <p>
      * This could optimally save some mobile data.
      * </p>
      *
      * @param userId  ID of user that will be synced
      * @param context Some valid context
+     * @param force   {@code true} if also the tasks with fresh data are synced (eg. when user asks
+     *                for refresh), {@code false} otherwise
+     * @see TaskFreshness
      */
-    public static void startRemainingSync(@NonNull Context context, long userId) {
-        Intent intent = new Intent(context, SyncHandleIntentService.class);
+    public static void startRemainingSync(@NonNull Context context, long userId, boolean force) {
+        Intent intent = new Intent(context, SyncHandleService.class);
         intent.putExtra(ACTION, ACTION_REMAINING_SYNC);
         intent.putExtra(EXTRA_USER_ID, userId);
+        intent.putExtra(EXTRA_FORCE, force);
         context.startService(intent);
     }
 
@@ -281,29 +326,36 @@ public class SyncHandler {
     }
 
     // -------------------------------------------------------------------------------------------
-    // Service lifecycle
+    // Handler lifecycle
     // -------------------------------------------------------------------------------------------
 
-    /**
-     * {@link Service#onCreate()} method equivalent in this class
-     *
-     * @param context Some valid context
-     */
-    public void onCreate(@NonNull Context context) {
+    private SyncHandler(@NonNull Context context) {
         mContext = context;
-
         mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
-
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(BroadcastContract.BROADCAST_PLUGIN_SYNC_RESULT);
-        mContext.registerReceiver(mSyncResultsReceiver, filter);
+        mScheduler = new SyncScheduler(getConcurrency(), SILENCE_TIMEOUT_MILLIS, mExecutor, mJobStarter);
+        mDurationStats = new SyncDurationStats(mContext);
     }
 
     /**
-     * {@link Service#onDestroy()} method equivalent in this class
+     * Returns handler shared by all sync services, so the concurrency limit and the ordering of
+     * plugins apply to all running syncs together
+     *
+     * @param context Some valid context
+     * @return Shared handler
      */
-    public void onDestroy() {
-        mContext.unregisterReceiver(mSyncResultsReceiver);
+    @NonNull
+    static synchronized SyncHandler getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncHandler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private int getConcurrency() {
+        return Integer.valueOf(mPrefs.getString(
+                SettingsContract.SYNC_CONCURRENCY,
+                SettingsContract.SYNC_CONCURRENCY_DEFAULT)
+        );
     }
 
     // -------------------------------------------------------------------------------------------
@@ -311,184 +363,402 @@ public class SyncHandler {
     // -------------------------------------------------------------------------------------------
 
     /**
-     * Start the sync with given actions
+     * Listener of sync end
+     */
+    interface OnSyncDoneListener {
+        /**
+         * Called on background thread when the sync is done
+         *
+         * @param successful {@code true} if the action was successful, {@code false} otherwise
+         */
+        void onSyncDone(boolean successful);
+    }
+
+    /**
+     * Starts the sync with given actions. The method doesn't block, the sync runs in background
+     * and can overlap with other syncs.
      *
-     * @param action Action to be done
-     * @param extras Action's parameters
-     * @return {@code true} if the action was successful, {@code false} otherwise
+     * @param action   Action to be done
+     * @param extras   Action's parameters
+     * @param listener Listener that is called when the sync is done
      */
-    boolean startAction(@Action int action, @NonNull Bundle extras) {
-        broadcastStart();
+    void startAction(@Action int action, @NonNull Bundle extras, @NonNull OnSyncDoneListener listener) {
+        SyncSession session = new SyncSession(action, extras, listener);
+        executeOnSyncThread(session::start);
+    }
 
-        boolean successful;
-        try {
-            switch (action) {
-                case ACTION_FULL_SYNC:
-                    startPlugins(ALL_TASKS, null, null);
-                    break;
-                case ACTION_CHANGES_SYNC:
-                    startPlugins(TASKS_FOR_CHANGES_SYNC, null, null);
-                    break;
-                case ACTION_REMAINING_SYNC: {
-                    final long userId = extras.getLong(EXTRA_USER_ID, UNKNOWN_ID);
-                    startRemainingSync(userId);
-                    break;
-                }
-                default: {
-                    Timber.e("Unknown action %d", action);
-                    // As there cold be more important don't lost other tasks in queue, crash only in debug
-                    if (BuildConfig.DEBUG) {
-                        throw new IllegalArgumentException("Unknown action " + action);
-                    }
-                }
+    /**
+     * Runs task on sync thread. The executor would silently drop exception thrown by task, so it's
+     * logged here. The tasks finish their jobs and sessions in finally blocks, so a failed task
+     * doesn't leave the sync running.
+     *
+     * @param task Task to be run
+     */
+    private void executeOnSyncThread(@NonNull Runnable task) {
+        mExecutor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Timber.e(e, "Sync task failed");
             }
+        });
+    }
+
+    private void onSessionStarted() {
+        if (mActiveSessions++ == 0) {
+            mWorstResult = RESULT_NOT_SUPPORTED;
+
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(BroadcastContract.BROADCAST_PLUGIN_SYNC_RESULT);
+            filter.addAction(BroadcastContract.BROADCAST_PLUGIN_SYNC_PROGRESS);
+            mContext.registerReceiver(mSyncResultsReceiver, filter);
+
+            broadcastStart();
+        }
+        mScheduler.setConcurrency(getConcurrency());
+    }
+
+    private void onSessionFinished(@SyncResult int worstResult, boolean successful) {
+        mWorstResult = Math.max(mWorstResult, worstResult);
+        if (successful) {
+            mCheckActionsPending = true;
+
+            // Save time to settings
+            mPrefs.edit()
+                    .putLong(SettingsContract.LAST_DONE_SYNC, System.currentTimeMillis())
+                    .apply();
+        }
+
+        if (--mActiveSessions == 0) {
+            mContext.unregisterReceiver(mSyncResultsReceiver);
 
-            // Give plugins some time to make it done
             try {
-                int pluginsTimeout = Integer.valueOf(mPrefs.getString(
-                        SettingsContract.PLUGINS_TIMEOUT,
-                        SettingsContract.PLUGINS_TIMEOUT_DEFAULT)
-                );
-                boolean doneInTime = mRemainingResultsLatch.await(pluginsTimeout,
-                        java.util.concurrent.TimeUnit.SECONDS);
-
-                if (!doneInTime) {
-                    mWorstResult = RESULT_PLUGIN_TIMEOUT;
+                // Checks actions when no plugin runs, so actions that are being synced aren't marked as failed
+                if (mCheckActionsPending) {
+                    mCheckActionsPending = false;
+                    ActionUtils.checkActionResults(mContext);
                 }
-            } catch (InterruptedException e) {
-                Timber.e("Waiting to plugins was interrupted");
+            } catch (RuntimeException e) {
+                Timber.e(e, "Cannot check action results");
+                mWorstResult = Math.max(mWorstResult, RESULT_INTERNAL_ERROR);
+            } finally {
+                // Send broadcast
+                broadcastResults(mWorstResult);
             }
+        }
+    }
 
-            // Updates portals for next start
-            if (mPrefs.getBoolean(SettingsContract.UPDATE_PORTALS_AUTOMATICALLY,
-                    SettingsContract.UPDATE_PORTALS_AUTOMATICALLY_DEFAULT)) {
-                PortalsUpdateService.handleActionUpdate(mContext);
-            }
-        } finally {
-            // Check actions only if I had an connection
-            if (mWorstResult != BroadcastContract.RESULT_IO_EXCEPTION &&
-                    mWorstResult != BroadcastContract.RESULT_PORTAL_TEMPORALLY_INACCESSIBLE) {
+    private static final int STATE_CREATED = 0;
+    private static final int STATE_SYNCING = 1;
+    private static final int STATE_FINISHING = 2;
+    private static final int STATE_FINISHED = 3;
+
+    @IntDef(value = {
+            STATE_CREATED,
+            STATE_SYNCING,
+            STATE_FINISHING,
+            STATE_FINISHED
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    private @interface SessionState {
+    }
 
-                // Check actions
-                ActionUtils.deleteConflictFailedActions(mContext);
-                ActionUtils.checkActionResults(mContext);
+    /**
+     * State machine of one sync action. The session starts plugin jobs, handles their results as they
+     * come and finishes when the last job is done. Jobs that are already planned by other sessions are
+     * coalesced with them (see {@link SyncScheduler}), so overlapping syncs don't repeat plugin work.
+     * Everything except finishing tasks runs on sync thread.
+     */
+    private class SyncSession implements SyncScheduler.SyncJob.Listener {
+
+        @Action
+        private final int mAction;
+        private final Bundle mExtras;
+        private final OnSyncDoneListener mListener;
+
+        @SessionState
+        private int mState = STATE_CREATED;
+        private int mRemainingJobs = 0;
+        @SyncResult
+        private int mSessionWorstResult = RESULT_NOT_SUPPORTED;
+        private final LongSparseArray<Integer> mPreviousCredit = new LongSparseArray<>();
+        private final LongSparseArray<Long> mPreviousLastMenuDate = new LongSparseArray<>();
+
+        SyncSession(@Action int action, @NonNull Bundle extras, @NonNull OnSyncDoneListener listener) {
+            mAction = action;
+            mExtras = extras;
+            mListener = listener;
+        }
 
-                // Save time to settings
-                mPrefs.edit()
-                        .putLong(SettingsContract.LAST_DONE_SYNC, System.currentTimeMillis())
-                        .apply();
+        void start() {
+            mState = STATE_SYNCING;
 
-                successful = true;
-            } else {
-                successful = false;
+            List<SyncScheduler.SyncJob> jobs = new ArrayList<>();
+            try {
+                onSessionStarted();
+
+                switch (mAction) {
+                    case ACTION_FULL_SYNC:
+                        findJobs(ALL_TASKS, null, null, jobs);
+                        break;
+                    case ACTION_CHANGES_SYNC:
+                        findJobs(TASKS_FOR_CHANGES_SYNC, null, null, jobs);
+                        break;
+                    case ACTION_REMAINING_SYNC: {
+                        final long userId = mExtras.getLong(EXTRA_USER_ID, UNKNOWN_ID);
+                        findRemainingSyncJobs(userId, jobs);
+                        break;
+                    }
+                    default: {
+                        Timber.e("Unknown action %d", mAction);
+                        // As there cold be more important don't lost other tasks in queue, crash only in debug
+                        if (BuildConfig.DEBUG) {
+                            throw new IllegalArgumentException("Unknown action " + mAction);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                // The session has to be finished anyway, so the services could stop
+                Timber.e(e, "Cannot start sync action %d", mAction);
+                jobs.clear();
             }
 
-            // Send broadcast
-            broadcastResults(mWorstResult);
+            mRemainingJobs = jobs.size();
+            if (mRemainingJobs > 0) {
+                int coalescedCount = mScheduler.addAll(jobs);
+                if (coalescedCount > 0) {
+                    Timber.i("%d of %d jobs of sync action %d coalesced with other syncs", coalescedCount,
+                            mRemainingJobs, mAction);
+                }
+            } else {
+                finish();
+            }
         }
 
-        return successful;
-    }
+        @Override
+        public void onJobDone(@NonNull SyncScheduler.SyncJob job) {
+            if (mState != STATE_SYNCING) {
+                throw new IllegalStateException("Job done in state " + mState);
+            }
 
-    private void startPlugins(@SyncTask int taskFilter, String logDataSelection, String[] logDataArgs) {
-        mPreviousCredit = new LongSparseArray<>();
-        mPreviousLastMenuDate = new LongSparseArray<>();
-
-        // Prepare query
-        String[] projection = new String[]{
-                LogData.PORTAL_ID,
-                LogData.CREDENTIAL_ID,
-                LogData.CREDENTIALS_GROUP_ID,
-                LogData.PORTAL_PLUGIN,
-                LogData.PORTAL_FEATURES,
-                LogData.CREDIT
-        };
-        String sortOrder = LogData.CREDENTIALS_GROUP_ID + " ASC, " + LogData.PORTAL_ID + " ASC";
-
-        // Finds data
-        try (Cursor cursor = mContext.getContentResolver().query(LogData.getUri(), projection,
-                logDataSelection, logDataArgs, sortOrder)) {
-            long lastPortalId = UNKNOWN_ID;
-            long lastCredentialId = UNKNOWN_ID;
-
-            // Number of plugins to wait for
-            mRemainingResultsLatch = new CountDownLatch(cursor.getCount());
-
-            // For each log-data entry
-            while (cursor.moveToNext()) {
-                final long portalId = cursor.getLong(0);
-                final long credentialId = cursor.getLong(1);
-                final long credentialsGroupId = cursor.getLong(2);
-                final String portalPlugin = cursor.getString(3);
-                @PortalFeatures final int portalFeatures = cursor.getInt(4);
-                int credit;
-                if (!cursor.isNull(5)) {
-                    credit = cursor.getInt(5);
-                } else {
-                    credit = Integer.MAX_VALUE;
+            // Called by scheduler, so exception would skip other listeners of job
+            try {
+                // Credential change check
+                int previousCredit = mPreviousCredit.get(job.credentialId, Integer.MAX_VALUE);
+                if (previousCredit != Integer.MAX_VALUE) {
+                    boolean changed = MenuUtils.checkCreditChanges(mContext, job.portalId, job.credentialId, previousCredit);
+                    if (changed) {
+                        mPreviousCredit.put(job.credentialId, Integer.MAX_VALUE);
+                    }
                 }
 
-                if (mPreviousLastMenuDate.indexOfKey(portalId) < 0) {
-                    long lastMenuDate = MenuUtils.getLastMenuDate(mContext, portalId);
-                    mPreviousLastMenuDate.put(portalId, lastMenuDate);
+                // Long new menu check
+                long previousLastMenuDate = mPreviousLastMenuDate.get(job.portalId, 0L);
+                if (previousLastMenuDate != 0) {
+                    boolean changed = MenuUtils.checkMenuChanges(mContext, job.portalId, previousLastMenuDate);
+                    if (changed) {
+                        mPreviousLastMenuDate.put(job.portalId, 0L);
+                    }
                 }
 
-                @SyncTask int taskToDo = 0;
+                if (job.getResult() == RESULT_PLUGIN_TIMEOUT) {
+                    if (job.reportsProgress()) {
+                        Timber.w("Plugin \"%s\" on portal %d with credential %d stopped reporting progress",
+                                job.plugin, job.portalId, job.credentialId);
+                    } else {
+                        Timber.w("Plugin \"%s\" on portal %d with credential %d timed out", job.plugin,
+                                job.portalId, job.credentialId);
+                    }
+                    // Next sync gets the full timeout
+                    mDurationStats.forget(job.portalId, job.tasks);
+                }
+            } catch (RuntimeException e) {
+                Timber.e(e, "Cannot handle job of portal %d with credential %d", job.portalId,
+                        job.credentialId);
+            } finally {
+                // Update results for UI
+                mSessionWorstResult = Math.max(mSessionWorstResult, job.getResult());
+
+                if (--mRemainingJobs == 0) {
+                    finish();
+                }
+            }
+        }
 
-                // If first in group
-                if (lastCredentialId != credentialId) {
-                    lastCredentialId = credentialId;
+        private void finish() {
+            mState = STATE_FINISHING;
 
-                    taskToDo |= ActionContract.TASK_CREDIT_SYNC;
+            mFinishingExecutor.execute(() -> {
+                try {
+                    // Updates portals for next start
+                    if (mPrefs.getBoolean(SettingsContract.UPDATE_PORTALS_AUTOMATICALLY,
+                            SettingsContract.UPDATE_PORTALS_AUTOMATICALLY_DEFAULT)) {
+                        PortalsUpdateService.handleActionUpdate(mContext);
+                    }
+                } catch (RuntimeException e) {
+                    // Portals are updated again in next sync
+                    Timber.e(e, "Cannot update portals");
+                } finally {
+                    executeOnSyncThread(this::onFinished);
                 }
+            });
+        }
 
-                // If first in portal
-                if (lastPortalId != portalId) {
-                    lastPortalId = credentialId;
-
-                    taskToDo |= ActionContract.TASK_MENU_SYNC |
-                            ActionContract.TASK_GROUP_DATA_MENU_SYNC |
-                            ActionContract.TASK_REMAINING_TO_TAKE_SYNC |
-                            ActionContract.TASK_REMAINING_TO_ORDER_SYNC;
-                } else if ((portalFeatures & ProviderContract.FEATURE_GROUP_FULL_SYNC) ==
-                        ProviderContract.FEATURE_GROUP_FULL_SYNC) { // If not first in portal and portal needs it for everyone
-                    taskToDo |= ActionContract.TASK_GROUP_DATA_MENU_SYNC;
-                }
+        private void onFinished() {
+            mState = STATE_FINISHED;
+
+            // Check actions only if I had an connection
+            boolean successful = mSessionWorstResult != BroadcastContract.RESULT_IO_EXCEPTION &&
+                    mSessionWorstResult != BroadcastContract.RESULT_PORTAL_TEMPORALLY_INACCESSIBLE;
+            try {
+                onSessionFinished(mSessionWorstResult, successful);
+            } finally {
+                // Lets the service stop
+                mListener.onSyncDone(successful);
+            }
+        }
 
-                // Everyone
-                taskToDo |= ActionContract.TASK_ACTION_PRESENT_SYNC |
-                        ActionContract.TASK_ACTION_HISTORY_SYNC;
+        private void findJobs(@SyncTask int taskFilter, String logDataSelection, String[] logDataArgs,
+                              @NonNull List<SyncScheduler.SyncJob> jobs) {
+            int pluginsTimeout = Integer.valueOf(mPrefs.getString(
+                    SettingsContract.PLUGINS_TIMEOUT,
+                    SettingsContract.PLUGINS_TIMEOUT_DEFAULT)
+            );
+            long configuredTimeoutMillis = TimeUnit.SECONDS.toMillis(pluginsTimeout);
+            long maxTimeoutMillis = MAX_TIMEOUT_MULTIPLIER * configuredTimeoutMillis;
+
+            // Forced sync (eg. manual refresh) syncs also fresh data
+            TaskFreshness freshness = mExtras.getBoolean(EXTRA_FORCE, false) ? null :
+                    TaskFreshness.fromSettings(mPrefs);
+            long now = System.currentTimeMillis();
+
+            long selectedUserId = mPrefs.getLong(SettingsContract.LAST_USER, SettingsContract.LAST_USER_UNKNOWN);
+            String userIdColumn = DbContract.Credential.TABLE_NAME + "." + DbContract.Credential.COLUMN_NAME_UID;
+
+            // Prepare query
+            String[] projection = new String[]{
+                    LogData.PORTAL_ID,
+                    LogData.CREDENTIAL_ID,
+                    LogData.CREDENTIALS_GROUP_ID,
+                    LogData.PORTAL_PLUGIN,
+                    LogData.PORTAL_FEATURES,
+                    LogData.CREDIT,
+                    userIdColumn
+            };
+            // Selected user's credential is the first one in portal, so it gets also the menu
+            String sortOrder = "(" + userIdColumn + " = " + selectedUserId + ") DESC, " +
+                    LogData.CREDENTIALS_GROUP_ID + " ASC, " + LogData.PORTAL_ID + " ASC";
+
+            // Finds data
+            try (Cursor cursor = mContext.getContentResolver().query(LogData.getUri(), projection,
+                    logDataSelection, logDataArgs, sortOrder)) {
+                LongSparseArray<Boolean> creditSyncedCredentials = new LongSparseArray<>();
+
+                // For each log-data entry
+                while (cursor.moveToNext()) {
+                    final long portalId = cursor.getLong(0);
+                    final long credentialId = cursor.getLong(1);
+                    final long credentialsGroupId = cursor.getLong(2);
+                    final String portalPlugin = cursor.getString(3);
+                    @PortalFeatures final int portalFeatures = cursor.getInt(4);
+                    int credit;
+                    if (!cursor.isNull(5)) {
+                        credit = cursor.getInt(5);
+                    } else {
+                        credit = Integer.MAX_VALUE;
+                    }
+                    final boolean isSelectedUser = cursor.getLong(6) == selectedUserId;
+
+                    @SyncTask int taskToDo = 0;
+
+                    // If first of credential (credential could be used in more portals of group)
+                    if (creditSyncedCredentials.indexOfKey(credentialId) < 0) {
+                        creditSyncedCredentials.put(credentialId, true);
+
+                        taskToDo |= ActionContract.TASK_CREDIT_SYNC;
+                    }
 
-                // Apply filter
-                taskToDo &= taskFilter;
+                    // If first in portal
+                    if (mPreviousLastMenuDate.indexOfKey(portalId) < 0) {
+                        long lastMenuDate = MenuUtils.getLastMenuDate(mContext, portalId);
+                        mPreviousLastMenuDate.put(portalId, lastMenuDate);
+
+                        taskToDo |= ActionContract.TASK_MENU_SYNC |
+                                ActionContract.TASK_GROUP_DATA_MENU_SYNC |
+                                ActionContract.TASK_REMAINING_TO_TAKE_SYNC |
+                                ActionContract.TASK_REMAINING_TO_ORDER_SYNC;
+                    } else if ((portalFeatures & ProviderContract.FEATURE_GROUP_FULL_SYNC) ==
+                            ProviderContract.FEATURE_GROUP_FULL_SYNC) { // If not first in portal and portal needs it for everyone
+                        taskToDo |= ActionContract.TASK_GROUP_DATA_MENU_SYNC;
+                    }
 
-                // If I have what to do
-                if (taskToDo != 0) {
-                    if (mPreviousCredit.indexOfKey(credentialId) < 0) {
-                        mPreviousCredit.put(credentialId, credit);
+                    // Everyone
+                    taskToDo |= ActionContract.TASK_ACTION_PRESENT_SYNC |
+                            ActionContract.TASK_ACTION_HISTORY_SYNC;
+
+                    // Apply filter
+                    taskToDo &= taskFilter;
+
+                    // Skip tasks with fresh data
+                    if (freshness != null) {
+                        @SyncTask int staleTasks = freshness.getStaleTasks(mContext, portalId, credentialId,
+                                taskToDo, now);
+                        if (staleTasks != taskToDo) {
+                            Timber.d("Skipping fresh tasks %d on portal %d with credential %d",
+                                    taskToDo & ~staleTasks, portalId, credentialId);
+                            taskToDo = staleTasks;
+                        }
                     }
 
-                    startPlugin(portalPlugin, portalId, credentialId, taskToDo);
-                } else {
-                    mRemainingResultsLatch.countDown();
+                    // If I have what to do
+                    if (taskToDo != 0) {
+                        if (mPreviousCredit.indexOfKey(credentialId) < 0) {
+                            mPreviousCredit.put(credentialId, credit);
+                        }
+
+                        // Timeout of plugin that reports progress follows the usual sync duration
+                        // of the same tasks on portal
+                        long progressTimeoutMillis = mDurationStats.getTimeoutMillis(portalId, taskToDo,
+                                configuredTimeoutMillis);
+
+                        // The scheduler runs jobs of portal in this order, so the menu is synced first
+                        jobs.add(new SyncScheduler.SyncJob(portalPlugin, portalId, credentialId,
+                                taskToDo, isSelectedUser, configuredTimeoutMillis, progressTimeoutMillis,
+                                maxTimeoutMillis, this));
+                    }
                 }
             }
         }
-    }
 
-    private void startRemainingSync(long userId) {
-        String logDataSelection = LogData.CREDENTIAL_ID + " IN (" +
-                "SELECT " + DbContract.Credential._ID + " " +
-                "FROM " + DbContract.Credential.TABLE_NAME + " " +
-                "WHERE " + DbContract.Credential.COLUMN_NAME_UID + " = " + userId + ")";
+        private void findRemainingSyncJobs(long userId, @NonNull List<SyncScheduler.SyncJob> jobs) {
+            String logDataSelection = LogData.CREDENTIAL_ID + " IN (" +
+                    "SELECT " + DbContract.Credential._ID + " " +
+                    "FROM " + DbContract.Credential.TABLE_NAME + " " +
+                    "WHERE " + DbContract.Credential.COLUMN_NAME_UID + " = " + userId + ")";
 
-        startPlugins(TASKS_FOR_REMAINING_SYNC, logDataSelection, null);
+            findJobs(TASKS_FOR_REMAINING_SYNC, logDataSelection, null, jobs);
+        }
     }
 
     // -------------------------------------------------------------------------------------------
     // Start plugin
     // -------------------------------------------------------------------------------------------
 
+    private final SyncScheduler.JobStarter mJobStarter = job -> {
+        try {
+            startPlugin(job.plugin, job.portalId, job.credentialId, job.tasks);
+        } catch (RuntimeException e) {
+            Timber.e(e, "Cannot start plugin \"%s\" on portal %d with credential %d", job.plugin,
+                    job.portalId, job.credentialId);
+            // The scheduler is starting jobs now, so the job is completed later
+            executeOnSyncThread(() -> onPluginStartFailed(job));
+        }
+    };
+
+    private void onPluginStartFailed(@NonNull SyncScheduler.SyncJob job) {
+        mScheduler.complete(job.portalId, job.credentialId, RESULT_INTERNAL_ERROR);
+    }
+
     private void startPlugin(@NonNull String plugin, long portalId, long credentialsID, @SyncTask int pluginTasks) {
         Intent intent = PluginUtils.buildPluginIntent(plugin);
 
@@ -519,27 +789,22 @@ public class SyncHandler {
     // Sync results
     // -------------------------------------------------------------------------------------------
 
-    private void onPluginResultReceived(long portalId, long credentialsId, int[] doneTasks,
-                                        @SyncResult int[] results, @SyncResult int worstResult,
-                                        String errorMsg) {
-        // Credential change check
-        int previousCredit = mPreviousCredit.get(credentialsId);
-        if (previousCredit != Integer.MAX_VALUE) {
-            boolean changed = MenuUtils.checkCreditChanges(mContext, portalId, credentialsId, previousCredit);
-            if (changed) {
-                mPreviousCredit.put(credentialsId, Integer.MAX_VALUE);
-            }
-        }
-
-        // Long new menu check
-        long previousLastMenuDate = mPreviousLastMenuDate.get(portalId);
-        if (previousLastMenuDate != 0) {
-            boolean changed = MenuUtils.checkMenuChanges(mContext, portalId, previousLastMenuDate);
-            if (changed) {
-                mPreviousLastMenuDate.put(portalId, 0L);
+    @SyncTask
+    private static int getSyncedTasks(@Nullable int[] tasks, @Nullable int[] results) {
+        @SyncTask int syncedTasks = 0;
+        if (tasks != null && results != null) {
+            for (int i = 0; i < Math.min(tasks.length, results.length); i++) {
+                if (results[i] == BroadcastContract.RESULT_OK) {
+                    syncedTasks |= tasks[i];
+                }
             }
         }
+        return syncedTasks;
+    }
 
+    private void onPluginResultReceived(long portalId, long credentialsId, @SyncResult int worstResult,
+                                        String errorMsg, @SyncTask int syncedTasks) {
+        // Invalid result still completes the job, so the session doesn't wait for timeout
         switch (worstResult) {
             case BroadcastContract.RESULT_OK:
                 // It is OK ;-)
@@ -560,14 +825,38 @@ public class SyncHandler {
                 Timber.w("Portal %d does not support anything", portalId);
                 break;
             case BroadcastContract.RESULT_PLUGIN_TIMEOUT:
-                throw new IllegalArgumentException("Cannot get RESULT_PLUGIN_TIMEOUT from plugin");
+            case BroadcastContract.RESULT_INTERNAL_ERROR:
+                Timber.e("Portal %d reported result %d that cannot come from plugin", portalId, worstResult);
+                worstResult = RESULT_INTERNAL_ERROR;
+                break;
             default:
-                throw new UnsupportedOperationException("Unknown sync result " + worstResult);
+                Timber.e("Portal %d reported unknown sync result %d", portalId, worstResult);
+                worstResult = RESULT_INTERNAL_ERROR;
         }
 
-        // Update results for UI
-        mWorstResult = Math.max(mWorstResult, worstResult);
-        mRemainingResultsLatch.countDown();
+        try {
+            // Saves freshness also for late results as the data are already saved
+            if (syncedTasks != 0) {
+                TaskFreshness.markSynced(mContext, portalId, credentialsId, syncedTasks, System.currentTimeMillis());
+            }
+        } finally {
+            // Completes the plugin job, the session then handles the result
+            SyncScheduler.SyncJob job = mScheduler.complete(portalId, credentialsId, worstResult);
+            if (job == null) {
+                Timber.w("Ignoring result of portal %d with credential %d that isn't running", portalId,
+                        credentialsId);
+            } else if (worstResult == BroadcastContract.RESULT_OK) {
+                // Failed syncs usually end early, so they would shorten the timeout
+                mDurationStats.record(portalId, job.tasks, job.getDurationMillis());
+            }
+        }
+    }
+
+    private void onPluginProgressReceived(long portalId, long credentialsId) {
+        if (!mScheduler.onProgress(portalId, credentialsId)) {
+            Timber.d("Ignoring progress of portal %d with credential %d that isn't running", portalId,
+                    credentialsId);
+        }
     }
 
     // -------------------------------------------------------------------------------------------
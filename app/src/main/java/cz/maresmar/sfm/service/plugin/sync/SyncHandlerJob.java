@@ -34,19 +34,15 @@ import timber.log.Timber;
  */
 public class SyncHandlerJob extends JobService {
 
-    private SyncHandler mHandler = new SyncHandler();
-
     @Override
     public boolean onStartJob(JobParameters job) {
 
         @SyncHandler.Action
         int action = job.getExtras().getInt(SyncHandler.ACTION, SyncHandler.ACTION_FULL_SYNC);
 
-        new Thread(() -> {
-            boolean resultOk = mHandler.startAction(action, job.getExtras());
-
-            jobFinished(job, !resultOk);
-        }).start();
+        // Sync runs in background, so it doesn't block main thread
+        SyncHandler.getInstance(this).startAction(action, job.getExtras(),
+                successful -> jobFinished(job, !successful));
 
         Timber.d("Job %s started", job.getTag());
 
@@ -59,18 +55,4 @@ public class SyncHandlerJob extends JobService {
         Timber.e("Job %s stopped before finished", job.getTag());
         return true; // Answers the question: "Should this job be retried?"
     }
-
-    @Override
-    public void onCreate() {
-        super.onCreate();
-
-        mHandler.onCreate(this);
-    }
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-
-        mHandler.onDestroy();
-    }
 }
@@ -0,0 +1,447 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cz.maresmar.sfm.service.plugin.sync;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import cz.maresmar.sfm.plugin.ActionContract;
+import cz.maresmar.sfm.plugin.ActionContract.SyncTask;
+import cz.maresmar.sfm.plugin.BroadcastContract;
+import cz.maresmar.sfm.plugin.BroadcastContract.SyncResult;
+
+/**
+ * Scheduler of plugin sync jobs that limits number of concurrently running plugins
+ * <p>
+ * Jobs of one portal run one by one in order they were added, so the job that syncs portal's menu
+ * should be added first. Jobs of different portals run in parallel. Portals with prioritized jobs
+ * (eg. of currently selected user) are started before others. Each running job has own deadline,
+ * so slow portal doesn't delay results of the others.</p>
+ * <p>
+ * Plugin that reports progress (see {@link #onProgress(long, long)}) switches from the job's timeout
+ * to its progress timeout and each progress extends the deadline up to the job's max timeout. Once
+ * the plugin reported progress it's expected to keep doing it, so it's timed out early when it
+ * stays silent for longer than the silence timeout. Plugins that don't report progress keep the
+ * plain timeout.</p>
+ * <p>
+ * Each job works like a future that is completed by plugin result (see {@link #complete(long, long, int)})
+ * or by its deadline, then its {@link SyncJob.Listener} is called. Nothing blocks, so jobs of more
+ * syncs could be scheduled together. The scheduler isn't thread safe, all methods have to be called
+ * on the thread of its executor (the callbacks and timeouts are called there too).</p>
+ * <p>
+ * Jobs of the same credential on the same portal are coalesced. Job that is still waiting takes over
+ * tasks of new job, and new job whose tasks are covered by the running one waits for its result
+ * instead of starting the plugin again.</p>
+ */
+class SyncScheduler {
+
+    // Tasks that send local changes, the running plugin could have already read the old ones
+    @SyncTask
+    private static final int UPLOAD_TASKS = ActionContract.TASK_ACTION_PRESENT_SYNC;
+
+    /**
+     * Starter of jobs, the scheduler expects that result will be reported using
+     * {@link #complete(long, long, int)}
+     */
+    interface JobStarter {
+        /**
+         * Starts the job
+         *
+         * @param job Job to be started
+         */
+        void startJob(@NonNull SyncJob job);
+    }
+
+    /**
+     * Sync of one credential on one portal
+     */
+    static class SyncJob {
+
+        /**
+         * Listener of job result
+         */
+        interface Listener {
+            /**
+             * Called when the job is done (the plugin reported result or timed out)
+             *
+             * @param job Done job
+             */
+            void onJobDone(@NonNull SyncJob job);
+        }
+
+        final String plugin;
+        final long portalId;
+        final long credentialId;
+        // Following could be extended when other job is coalesced to this one
+        @SyncTask
+        int tasks;
+        boolean prioritized;
+        long timeoutMillis;
+        long progressTimeoutMillis;
+        long maxTimeoutMillis;
+        private final List<Listener> mListeners = new ArrayList<>(1);
+
+        private boolean mDone = false;
+        @SyncResult
+        private int mResult;
+        private ScheduledFuture<?> mTimeout;
+        // Times from SystemClock#elapsedRealtime()
+        private long mStartTime;
+        private long mDeadline;
+        private long mLastProgressTime;
+        private long mDoneTime;
+        private boolean mReportsProgress = false;
+
+        /**
+         * Creates new job
+         *
+         * @param plugin           Plugin that syncs the portal
+         * @param portalId         ID of portal
+         * @param credentialId     ID of credential
+         * @param tasks            Tasks to be done
+         * @param prioritized           If the portal should be synced before others
+         * @param timeoutMillis         Time the plugin has to report result or the first progress
+         * @param progressTimeoutMillis Time the plugin that reports progress has to report result,
+         *                              it's counted from the job start or from the last progress
+         * @param maxTimeoutMillis      Max time the plugin could run when it reports progress
+         * @param listener              Listener of job result
+         */
+        SyncJob(@NonNull String plugin, long portalId, long credentialId, @SyncTask int tasks,
+                boolean prioritized, long timeoutMillis, long progressTimeoutMillis, long maxTimeoutMillis,
+                @NonNull Listener listener) {
+            this.plugin = plugin;
+            this.portalId = portalId;
+            this.credentialId = credentialId;
+            this.tasks = tasks;
+            this.prioritized = prioritized;
+            this.timeoutMillis = timeoutMillis;
+            this.progressTimeoutMillis = progressTimeoutMillis;
+            this.maxTimeoutMillis = Math.max(Math.max(timeoutMillis, progressTimeoutMillis), maxTimeoutMillis);
+            mListeners.add(listener);
+        }
+
+        /**
+         * Returns if the plugin reported result or timed out
+         *
+         * @return {@code true} if the job is done, {@code false} otherwise
+         */
+        boolean isDone() {
+            return mDone;
+        }
+
+        /**
+         * Returns the worst result of plugin tasks
+         *
+         * @return Result reported by plugin or {@link BroadcastContract#RESULT_PLUGIN_TIMEOUT}
+         */
+        @SyncResult
+        int getResult() {
+            if (!mDone) {
+                throw new IllegalStateException("Job is not done yet");
+            }
+            return mResult;
+        }
+
+        /**
+         * Returns time between the job start and its end
+         *
+         * @return Duration in ms
+         */
+        long getDurationMillis() {
+            if (!mDone) {
+                throw new IllegalStateException("Job is not done yet");
+            }
+            return mDoneTime - mStartTime;
+        }
+
+        /**
+         * Returns if the plugin reported progress of the job
+         *
+         * @return {@code true} if the plugin reports progress, {@code false} otherwise
+         */
+        boolean reportsProgress() {
+            return mReportsProgress;
+        }
+    }
+
+    // Waiting jobs of one portal
+    private static class PortalQueue {
+        final ArrayDeque<SyncJob> jobs = new ArrayDeque<>();
+        boolean prioritized = false;
+    }
+
+    private final ScheduledExecutorService mExecutor;
+    private final JobStarter mStarter;
+    private final long mSilenceTimeoutMillis;
+    private int mConcurrency;
+
+    // Waiting jobs of each portal in order in which the portals are started
+    private final List<PortalQueue> mPortalQueues = new ArrayList<>();
+    private final LongSparseArray<PortalQueue> mQueueByPortal = new LongSparseArray<>();
+    // Running jobs by portal ID (each portal has at most one)
+    private final LongSparseArray<SyncJob> mRunningJobs = new LongSparseArray<>();
+
+    /**
+     * Creates new scheduler
+     *
+     * @param concurrency          Max number of concurrently running jobs
+     * @param silenceTimeoutMillis Max time between progress reports of plugin that reports progress
+     * @param executor             Executor that runs the scheduler and its timeouts
+     * @param starter              Starter of the jobs
+     */
+    SyncScheduler(int concurrency, long silenceTimeoutMillis, @NonNull ScheduledExecutorService executor,
+                  @NonNull JobStarter starter) {
+        mExecutor = executor;
+        mStarter = starter;
+        mSilenceTimeoutMillis = silenceTimeoutMillis;
+        setConcurrency(concurrency);
+    }
+
+    /**
+     * Sets max number of concurrently running jobs, it doesn't stop already running jobs
+     *
+     * @param concurrency Max number of jobs
+     */
+    void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive, but it's " + concurrency);
+        }
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * Adds new jobs and starts them when there is free place. Jobs that are coalesced with already
+     * added ones are not started, their listeners get result of the job they were coalesced with.
+     *
+     * @param jobs Jobs to be added
+     * @return Number of coalesced jobs
+     */
+    int addAll(@NonNull List<SyncJob> jobs) {
+        int coalescedCount = 0;
+        for (SyncJob job : jobs) {
+            if (attachToRunning(job)) {
+                coalescedCount++;
+                continue;
+            }
+
+            PortalQueue queue = mQueueByPortal.get(job.portalId);
+            if (queue == null) {
+                queue = new PortalQueue();
+                mQueueByPortal.put(job.portalId, queue);
+                mPortalQueues.add(queue);
+            }
+            if (mergeToWaiting(queue, job)) {
+                coalescedCount++;
+            } else {
+                queue.jobs.add(job);
+            }
+
+            // Prioritized portal is moved behind the last prioritized one
+            if (job.prioritized && !queue.prioritized) {
+                mPortalQueues.remove(queue);
+                int index = 0;
+                while (index < mPortalQueues.size() && mPortalQueues.get(index).prioritized) {
+                    index++;
+                }
+                mPortalQueues.add(index, queue);
+                queue.prioritized = true;
+            }
+        }
+        startJobs();
+        return coalescedCount;
+    }
+
+    private boolean attachToRunning(@NonNull SyncJob job) {
+        SyncJob runningJob = mRunningJobs.get(job.portalId);
+        if (runningJob == null || runningJob.credentialId != job.credentialId) {
+            return false;
+        }
+        if ((job.tasks & UPLOAD_TASKS) != 0 || (job.tasks & ~runningJob.tasks) != 0) {
+            return false;
+        }
+
+        runningJob.mListeners.addAll(job.mListeners);
+        return true;
+    }
+
+    private static boolean mergeToWaiting(@NonNull PortalQueue queue, @NonNull SyncJob job) {
+        for (SyncJob waitingJob : queue.jobs) {
+            if (waitingJob.credentialId == job.credentialId) {
+                waitingJob.tasks |= job.tasks;
+                waitingJob.prioritized |= job.prioritized;
+                waitingJob.timeoutMillis = Math.max(waitingJob.timeoutMillis, job.timeoutMillis);
+                waitingJob.progressTimeoutMillis = Math.max(waitingJob.progressTimeoutMillis,
+                        job.progressTimeoutMillis);
+                waitingJob.maxTimeoutMillis = Math.max(waitingJob.maxTimeoutMillis, job.maxTimeoutMillis);
+                waitingJob.mListeners.addAll(job.mListeners);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Completes running job with plugin result and starts next jobs
+     *
+     * @param portalId     Portal ID of finished job
+     * @param credentialId Credential ID of finished job
+     * @param result       The worst result reported by plugin
+     * @return Completed job or {@code null} if the job is unknown or already timed out
+     */
+    @Nullable
+    SyncJob complete(long portalId, long credentialId, @SyncResult int result) {
+        SyncJob job = getRunningJob(portalId, credentialId);
+        if (job == null) {
+            return null;
+        }
+
+        job.mTimeout.cancel(false);
+        finishJob(job, result);
+        return job;
+    }
+
+    /**
+     * Extends deadline of running job whose plugin reported progress, the first progress replaces
+     * the job's timeout with its progress timeout
+     *
+     * @param portalId     Portal ID of the job
+     * @param credentialId Credential ID of the job
+     * @return {@code true} if the job is running, {@code false} if it's unknown or already timed out
+     */
+    boolean onProgress(long portalId, long credentialId) {
+        SyncJob job = getRunningJob(portalId, credentialId);
+        if (job == null) {
+            return false;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        job.mLastProgressTime = now;
+        long deadline = job.mReportsProgress ? job.mDeadline : job.mStartTime + job.progressTimeoutMillis;
+        job.mDeadline = Math.min(Math.max(deadline, now + job.progressTimeoutMillis),
+                job.mStartTime + job.maxTimeoutMillis);
+        // The silence timeout could be sooner than the planned check
+        if (!job.mReportsProgress) {
+            job.mReportsProgress = true;
+            job.mTimeout.cancel(false);
+            scheduleTimeout(job);
+        }
+        return true;
+    }
+
+    @Nullable
+    private SyncJob getRunningJob(long portalId, long credentialId) {
+        SyncJob job = mRunningJobs.get(portalId);
+        if (job == null || job.credentialId != credentialId) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Returns number of jobs that are waiting or running
+     *
+     * @return Number of unfinished jobs
+     */
+    int getUnfinishedCount() {
+        int count = mRunningJobs.size();
+        for (PortalQueue queue : mPortalQueues) {
+            count += queue.jobs.size();
+        }
+        return count;
+    }
+
+    private void startJobs() {
+        SyncJob job;
+        while (mRunningJobs.size() < mConcurrency && (job = pollNextJob()) != null) {
+            mRunningJobs.put(job.portalId, job);
+            job.mStartTime = SystemClock.elapsedRealtime();
+            job.mDeadline = job.mStartTime + job.timeoutMillis;
+            scheduleTimeout(job);
+
+            mStarter.startJob(job);
+        }
+    }
+
+    private long getTimeoutTime(@NonNull SyncJob job) {
+        if (job.mReportsProgress) {
+            return Math.min(job.mDeadline, job.mLastProgressTime + mSilenceTimeoutMillis);
+        } else {
+            return job.mDeadline;
+        }
+    }
+
+    private void scheduleTimeout(@NonNull SyncJob job) {
+        long delay = getTimeoutTime(job) - SystemClock.elapsedRealtime();
+        job.mTimeout = mExecutor.schedule(() -> {
+            // The timeout could run after result that was posted to executor meanwhile
+            if (mRunningJobs.get(job.portalId) != job) {
+                return;
+            }
+            // Deadline could be extended by progress since the timeout was planned
+            if (SystemClock.elapsedRealtime() >= getTimeoutTime(job)) {
+                finishJob(job, BroadcastContract.RESULT_PLUGIN_TIMEOUT);
+            } else {
+                scheduleTimeout(job);
+            }
+        }, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+    }
+
+    private void finishJob(@NonNull SyncJob job, @SyncResult int result) {
+        mRunningJobs.remove(job.portalId);
+        job.mResult = result;
+        job.mDone = true;
+        job.mDoneTime = SystemClock.elapsedRealtime();
+
+        // Starts next jobs before listeners, so the listeners don't delay them
+        startJobs();
+        for (SyncJob.Listener listener : job.mListeners) {
+            listener.onJobDone(job);
+        }
+    }
+
+    @Nullable
+    private SyncJob pollNextJob() {
+        for (int i = 0; i < mPortalQueues.size(); i++) {
+            PortalQueue queue = mPortalQueues.get(i);
+            SyncJob job = queue.jobs.getFirst();
+            // Jobs of one portal run one by one
+            if (mRunningJobs.indexOfKey(job.portalId) >= 0) {
+                continue;
+            }
+
+            queue.jobs.removeFirst();
+            if (queue.jobs.isEmpty()) {
+                mPortalQueues.remove(i);
+                mQueueByPortal.remove(job.portalId);
+            }
+            return job;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.service.plugin.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+import cz.maresmar.sfm.app.SettingsContract;
+import cz.maresmar.sfm.plugin.ActionContract;
+import cz.maresmar.sfm.plugin.ActionContract.SyncTask;
+import cz.maresmar.sfm.provider.ProviderContract;
+
+/**
+ * Filter of plugin tasks whose data were synced recently
+ * <p>
+ * Each type of task (menu, remaining food, orders history and credit) has own time to live set in
+ * settings. Tasks that were successfully synced within their TTL are skipped, so repeated syncs
+ * don't download the same data again. Tasks that send local changes are never skipped.</p>
+ *
+ * @see cz.maresmar.sfm.db.SyncFreshnessTable
+ */
+class TaskFreshness {
+
+    // Tasks that send local changes
+    @SyncTask
+    private static final int ALWAYS_SYNCED_TASKS = ActionContract.TASK_ACTION_PRESENT_SYNC;
+
+    private final long[] mTtlMillis = new long[ActionContract.PLUGIN_TASKS_LENGTH];
+    @SyncTask
+    private int mSkippableTasks = 0;
+
+    /**
+     * Creates filter with given TTLs, zero TTL means that the task is always synced
+     *
+     * @param menuTtlMillis      TTL of menu and group menu
+     * @param remainingTtlMillis TTL of remaining food
+     * @param historyTtlMillis   TTL of orders history
+     * @param creditTtlMillis    TTL of credit
+     */
+    TaskFreshness(long menuTtlMillis, long remainingTtlMillis, long historyTtlMillis, long creditTtlMillis) {
+        setTtl(ActionContract.TASK_MENU_SYNC | ActionContract.TASK_GROUP_DATA_MENU_SYNC, menuTtlMillis);
+        setTtl(ActionContract.TASK_REMAINING_TO_TAKE_SYNC | ActionContract.TASK_REMAINING_TO_ORDER_SYNC,
+                remainingTtlMillis);
+        setTtl(ActionContract.TASK_ACTION_HISTORY_SYNC, historyTtlMillis);
+        setTtl(ActionContract.TASK_CREDIT_SYNC, creditTtlMillis);
+    }
+
+    /**
+     * Creates filter with TTLs from settings
+     *
+     * @param prefs App's settings
+     * @return New filter
+     */
+    @NonNull
+    static TaskFreshness fromSettings(@NonNull SharedPreferences prefs) {
+        return new TaskFreshness(
+                getTtlMillis(prefs, SettingsContract.SYNC_MENU_TTL, SettingsContract.SYNC_MENU_TTL_DEFAULT),
+                getTtlMillis(prefs, SettingsContract.SYNC_REMAINING_TTL, SettingsContract.SYNC_REMAINING_TTL_DEFAULT),
+                getTtlMillis(prefs, SettingsContract.SYNC_HISTORY_TTL, SettingsContract.SYNC_HISTORY_TTL_DEFAULT),
+                getTtlMillis(prefs, SettingsContract.SYNC_CREDIT_TTL, SettingsContract.SYNC_CREDIT_TTL_DEFAULT)
+        );
+    }
+
+    private static long getTtlMillis(@NonNull SharedPreferences prefs, @NonNull String key,
+                                     @NonNull String defaultValue) {
+        return TimeUnit.MINUTES.toMillis(Integer.valueOf(prefs.getString(key, defaultValue)));
+    }
+
+    private void setTtl(@SyncTask int tasks, long ttlMillis) {
+        for (int i = 0; i < ActionContract.PLUGIN_TASKS_LENGTH; i++) {
+            if ((tasks & (1 << i)) != 0) {
+                mTtlMillis[i] = ttlMillis;
+            }
+        }
+        if (ttlMillis > 0) {
+            mSkippableTasks |= tasks & ~ALWAYS_SYNCED_TASKS;
+        } else {
+            mSkippableTasks &= ~tasks;
+        }
+    }
+
+    /**
+     * Returns tasks that have to be synced as their data aren't fresh
+     *
+     * @param tasks         Tasks to be checked
+     * @param lastSuccesses Time of the last successful sync of each task (indexed by bit position of
+     *                      task flag, {@code 0} means never)
+     * @param now           Actual time
+     * @return Tasks that aren't fresh
+     */
+    @SyncTask
+    int getStaleTasks(@SyncTask int tasks, @NonNull long[] lastSuccesses, long now) {
+        @SyncTask int staleTasks = tasks & ~mSkippableTasks;
+        for (int i = 0; i < ActionContract.PLUGIN_TASKS_LENGTH; i++) {
+            int task = 1 << i;
+            if ((tasks & mSkippableTasks & task) == 0) {
+                continue;
+            }
+            // Time in future means that the clock was changed
+            long lastSuccess = lastSuccesses[i];
+            if (lastSuccess + mTtlMillis[i] <= now || lastSuccess > now) {
+                staleTasks |= task;
+            }
+        }
+        return staleTasks;
+    }
+
+    /**
+     * Returns tasks of credential on portal that have to be synced as their data aren't fresh
+     *
+     * @param context      Some valid context
+     * @param portalId     ID of portal
+     * @param credentialId ID of credential
+     * @param tasks        Tasks to be checked
+     * @param now          Actual time
+     * @return Tasks that aren't fresh
+     */
+    @SyncTask
+    int getStaleTasks(@NonNull Context context, long portalId, long credentialId, @SyncTask int tasks,
+                      long now) {
+        // Saves query if nothing could be skipped
+        if ((tasks & mSkippableTasks) == 0) {
+            return tasks;
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLong(ProviderContract.EXTRA_PORTAL_ID, portalId);
+        extras.putLong(ProviderContract.EXTRA_CREDENTIAL_ID, credentialId);
+        Bundle result = context.getContentResolver().call(ProviderContract.Portal.getUri(),
+                ProviderContract.METHOD_GET_TASKS_FRESHNESS, null, extras);
+        if (result == null) {
+            throw new IllegalStateException("Provider doesn't return tasks freshness");
+        }
+
+        long[] lastSuccesses = result.getLongArray(ProviderContract.EXTRA_LAST_SUCCESSES);
+        return getStaleTasks(tasks, lastSuccesses, now);
+    }
+
+    /**
+     * Saves time of successful sync of tasks
+     *
+     * @param context      Some valid context
+     * @param portalId     ID of synced portal
+     * @param credentialId ID of synced credential
+     * @param tasks        Successfully synced tasks
+     * @param time         Time of the sync
+     */
+    static void markSynced(@NonNull Context context, long portalId, long credentialId,
+                           @SyncTask int tasks, long time) {
+        Bundle extras = new Bundle();
+        extras.putLong(ProviderContract.EXTRA_PORTAL_ID, portalId);
+        extras.putLong(ProviderContract.EXTRA_CREDENTIAL_ID, credentialId);
+        extras.putInt(ProviderContract.EXTRA_SYNCED_TASKS, tasks);
+        extras.putLong(ProviderContract.EXTRA_SYNC_TIME, time);
+        context.getContentResolver().call(ProviderContract.Portal.getUri(),
+                ProviderContract.METHOD_MARK_TASKS_SYNCED, null, extras);
+    }
+}
@@ -349,44 +349,30 @@ public class ActionUtils {
     }
 
     /**
-     * Check if all {@link ProviderContract#ACTION_SYNC_STATUS_LOCAL} actions were synced. If some
-     * action fails the notification is shown.
+     * Check if all {@link ProviderContract#ACTION_SYNC_STATUS_LOCAL} actions were synced. Old failed
+     * actions that are in conflict with local actions are deleted, not synced actions are marked as
+     * failed and synced ones are deleted (all in one provider transaction). If some action fails
+     * the notification is shown.
      *
      * @param context Some valid context
+     * @see ProviderContract#METHOD_CHECK_ACTION_RESULTS
      */
     @WorkerThread
     public static void checkActionResults(@NonNull Context context) {
+        Bundle result = context.getContentResolver().call(ProviderContract.Action.getUri(),
+                ProviderContract.METHOD_CHECK_ACTION_RESULTS, null, null);
+        if (result == null) {
+            Timber.e("Provider returned no action results");
+            return;
+        }
 
-        ContentValues newValues = new ContentValues();
-        newValues.put(ProviderContract.Action.SYNC_STATUS, ProviderContract.ACTION_SYNC_STATUS_FAILED);
-        newValues.put(ProviderContract.Action.LAST_CHANGE, System.currentTimeMillis());
+        int conflictActions = result.getInt(ProviderContract.EXTRA_CONFLICT_ACTIONS);
+        int failedActions = result.getInt(ProviderContract.EXTRA_FAILED_ACTIONS);
+        int doneOrders = result.getInt(ProviderContract.EXTRA_SYNCED_ACTIONS);
 
-        // Mark not synced actions as failed
-        int failedActions = context.getContentResolver().update(
-                ProviderContract.Action.getUri(),
-                newValues,
-                ProviderContract.Action.SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_LOCAL + " AND " +
-                        "(" +
-                        "(EXISTS ( SELECT * FROM " + DbContract.FoodAction.TABLE_NAME + " AS SyncedAct WHERE " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_CID + " == " + ProviderContract.Action.CREDENTIAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " == " + ProviderContract.Action.ME_PORTAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " == " + ProviderContract.Action.ME_RELATIVE_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_SYNCED + " AND " +
-                        "(SyncedAct." + DbContract.FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " != " + ProviderContract.Action.RESERVED_AMOUNT + " OR " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " != " + ProviderContract.Action.OFFERED_AMOUNT + "))" +
-                        ") OR (" +
-                        "NOT EXISTS ( SELECT * FROM " + DbContract.FoodAction.TABLE_NAME + " AS SyncedAct WHERE " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_CID + " == " + ProviderContract.Action.CREDENTIAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " == " + ProviderContract.Action.ME_PORTAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " == " + ProviderContract.Action.ME_RELATIVE_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_SYNCED + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " == " + ProviderContract.Action.RESERVED_AMOUNT + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " == " + ProviderContract.Action.OFFERED_AMOUNT + ") AND " +
-                        "(" + ProviderContract.Action.RESERVED_AMOUNT + " != 0 OR " +
-                        ProviderContract.Action.OFFERED_AMOUNT + " != 0))" +
-                        ")",
-                null
-        );
+        if (conflictActions > 0) {
+            Timber.w("%d conflict failed actions deleted", conflictActions);
+        }
 
         if (failedActions > 0) {
             Timber.e("%d action failed to sync", failedActions);
@@ -415,32 +401,6 @@ public class ActionUtils {
             localBroadcastManager.sendBroadcast(intent);
         }
 
-        // Delete fully synced actions
-        int doneOrders = context.getContentResolver().delete(
-                ProviderContract.Action.getUri(),
-                ProviderContract.Action.SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_LOCAL + " AND " +
-                        "(" +
-                        "(EXISTS ( SELECT * FROM " + DbContract.FoodAction.TABLE_NAME + " AS SyncedAct WHERE " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_CID + " == " + ProviderContract.Action.CREDENTIAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " == " + ProviderContract.Action.ME_PORTAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " == " + ProviderContract.Action.ME_RELATIVE_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_SYNCED + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " == " + ProviderContract.Action.RESERVED_AMOUNT + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " == " + ProviderContract.Action.OFFERED_AMOUNT + ") " +
-                        ") OR (" +
-                        "NOT EXISTS ( SELECT * FROM " + DbContract.FoodAction.TABLE_NAME + " AS SyncedAct WHERE " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_CID + " == " + ProviderContract.Action.CREDENTIAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " == " + ProviderContract.Action.ME_PORTAL_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " == " + ProviderContract.Action.ME_RELATIVE_ID + " AND " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_SYNCED + " AND " +
-                        "(SyncedAct." + DbContract.FoodAction.COLUMN_NAME_RESERVED_AMOUNT + " != " + ProviderContract.Action.RESERVED_AMOUNT + " OR " +
-                        "SyncedAct." + DbContract.FoodAction.COLUMN_NAME_OFFERED_AMOUNT + " != " + ProviderContract.Action.OFFERED_AMOUNT + ")) AND " +
-                        ProviderContract.Action.RESERVED_AMOUNT + " == 0 AND " +
-                        ProviderContract.Action.OFFERED_AMOUNT + " == 0)" +
-                        ")",
-                null
-        );
-
         // Log Firebase event
         Bundle syncParams = new Bundle();
         syncParams.putInt("failed_actions", failedActions);
@@ -450,25 +410,4 @@ public class ActionUtils {
 
         Timber.i("%d actions synced", doneOrders);
     }
-
-    /**
-     * Deletes old failed actions that are in conflict with local actions that will be synced
-     *
-     * @param context Some valid context
-     */
-    @WorkerThread
-    public static void deleteConflictFailedActions(@NonNull Context context) {
-        int affectedRows = context.getContentResolver().delete(
-                ProviderContract.Action.getUri(),
-                ProviderContract.Action.SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_FAILED + " AND " +
-                        "EXISTS ( SELECT * FROM " + DbContract.FoodAction.TABLE_NAME + " AS LocAct WHERE " +
-                        "LocAct." + DbContract.FoodAction.COLUMN_NAME_CID + " == " + ProviderContract.Action.CREDENTIAL_ID + " AND " +
-                        "LocAct." + DbContract.FoodAction.COLUMN_NAME_ME_PID + " == " + ProviderContract.Action.ME_PORTAL_ID + " AND " +
-                        "LocAct." + DbContract.FoodAction.COLUMN_NAME_ME_RELATIVE_ID + " == " + ProviderContract.Action.ME_RELATIVE_ID + " AND " +
-                        "LocAct." + DbContract.FoodAction.COLUMN_NAME_SYNC_STATUS + " == " + ProviderContract.ACTION_SYNC_STATUS_LOCAL + ")",
-                null);
-        if (affectedRows > 0) {
-            Timber.w("%d conflict failed actions deleted", affectedRows);
-        }
-    }
 }
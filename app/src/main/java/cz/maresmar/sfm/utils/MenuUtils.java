@@ -130,11 +130,25 @@ public class MenuUtils {
                 return R.string.sync_result_io_exception;
             case BroadcastContract.RESULT_PLUGIN_TIMEOUT:
                 return R.string.sync_result_plugin_timeout;
+            case BroadcastContract.RESULT_INTERNAL_ERROR:
+                return R.string.sync_result_internal_error;
             default:
                 throw new UnsupportedOperationException("Unknown result " + syncResult);
         }
     }
 
+    /**
+     * Checks if the sync failed because of bug (in app, plugin or because of portal changes), so
+     * the user should be offered to send feedback with logs
+     *
+     * @param syncResult Worst sync result
+     * @return {@code true} if the feedback should be offered, {@code false} otherwise
+     */
+    public static boolean isSyncErrorReportable(@BroadcastContract.SyncResult int syncResult) {
+        return syncResult == BroadcastContract.RESULT_UNKNOWN_PORTAL_FORMAT ||
+                syncResult == BroadcastContract.RESULT_INTERNAL_ERROR;
+    }
+
     /**
      * Check if credit is different from previous credit. If so it shows notification (if enabled)
      *
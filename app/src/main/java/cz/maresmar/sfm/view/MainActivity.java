@@ -539,10 +539,11 @@ public class MainActivity extends AppCompatActivity
             mIsRefreshing = true;
             mSwipeRefreshLayout.setRefreshing(true);
 
+            // User wants actual data, so fresh data are synced too
             if (mSelectedFragmentId == TODAY_FRAGMENT_ID) {
-                SyncHandler.startRemainingSync(this, mSelectedUserId);
+                SyncHandler.startRemainingSync(this, mSelectedUserId, true);
             } else {
-                SyncHandler.startFullSync(this);
+                SyncHandler.startFullSync(this, true);
             }
         }
     }
@@ -563,7 +564,7 @@ public class MainActivity extends AppCompatActivity
 
             Snackbar snackbar = Snackbar.make(mSwipeRefreshLayout, errMsg, Snackbar.LENGTH_LONG);
 
-            if (errMsg == BroadcastContract.RESULT_UNKNOWN_PORTAL_FORMAT) {
+            if (MenuUtils.isSyncErrorReportable(worstResult)) {
                 // Give user option to send logs
                 snackbar.setAction(R.string.action_feedback_send, view -> {
                     SfmApp app = (SfmApp)getApplication();
@@ -0,0 +1,181 @@
+/*
+ * SmartFoodMenu - Android application for canteens extendable with plugins
+ *
+ * Copyright © 2016-2018  Martin Mareš <mmrmartin[at]gmail[dot]com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cz.maresmar.sfm.view;
+
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CursorRecyclerViewAdapter} that shows data loaded in pages. The next page is requested
+ * from {@link PageLoader} when the list is scrolled near to the end of loaded data, so only visible
+ * part of data has to be loaded.
+ * <p>
+ * Pages are separate {@link Cursor}s owned by the {@link PageLoader} (like
+ * {@link androidx.loader.content.CursorLoader}s), the adapter never closes them. When some page is
+ * reloaded (because of data change) the following pages are dropped as they could be shifted, and
+ * they are requested again when they are needed.</p>
+ */
+public abstract class PagingCursorRecyclerViewAdapter<T extends RecyclerView.ViewHolder>
+        extends CursorRecyclerViewAdapter<T> {
+
+    /**
+     * Loads pages of data
+     */
+    public interface PageLoader {
+
+        /**
+         * Starts loading of page, the loaded page has to be passed to {@link #setPage(int, Cursor)}
+         *
+         * @param page         Page number
+         * @param previousPage Previous page moved to its last row (for keyset paging) or {@code null}
+         *                     for the first page
+         */
+        void loadPage(int page, @Nullable Cursor previousPage);
+
+        /**
+         * Cancels loading of pages and releases them
+         *
+         * @param fromPage First page to be canceled
+         * @param toPage   Page after the last canceled page
+         */
+        void cancelPages(int fromPage, int toPage);
+    }
+
+    private final int mPageSize;
+    private final int mPrefetchDistance;
+    private final PageLoader mPageLoader;
+    private final List<Cursor> mPages = new ArrayList<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Number of loaded pages and page that is loading now
+    private int mRequestedPages = 0;
+
+    /**
+     * Create new adapter
+     *
+     * @param pageSize   Number of rows in one page
+     * @param pageLoader Loader of pages
+     */
+    public PagingCursorRecyclerViewAdapter(int pageSize, @NonNull PageLoader pageLoader) {
+        super(null);
+
+        mPageSize = pageSize;
+        mPrefetchDistance = pageSize / 2;
+        mPageLoader = pageLoader;
+    }
+
+    /**
+     * Sets loaded page. If already shown page is replaced the following pages are dropped.
+     *
+     * @param page   Page number
+     * @param cursor Page data
+     */
+    public void setPage(int page, @NonNull Cursor cursor) {
+        if (page < mPages.size()) {
+            // Page reloaded, following pages could be shifted
+            mPages.set(page, cursor);
+            dropPages(page + 1);
+        } else if (page == mPages.size()) {
+            mPages.add(cursor);
+        } else {
+            // Previous page was dropped meanwhile
+            return;
+        }
+        mRequestedPages = mPages.size();
+
+        updateCursor();
+    }
+
+    /**
+     * Drops pages from adapter (with canceling of them in {@link PageLoader})
+     *
+     * @param fromPage First dropped page
+     */
+    public void dropPages(int fromPage) {
+        int toPage = Math.max(mRequestedPages, mPages.size());
+        if (fromPage >= toPage) {
+            return;
+        }
+
+        while (mPages.size() > fromPage) {
+            mPages.remove(mPages.size() - 1);
+        }
+        mRequestedPages = mPages.size();
+        mPageLoader.cancelPages(fromPage, toPage);
+
+        updateCursor();
+    }
+
+    /**
+     * Returns page size
+     *
+     * @return Number of rows in one page
+     */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull T viewHolder, int position) {
+        super.onBindViewHolder(viewHolder, position);
+
+        if (position >= getItemCount() - mPrefetchDistance) {
+            // Adapter cannot be changed during binding
+            mHandler.post(this::loadNextPage);
+        }
+    }
+
+    private void loadNextPage() {
+        if (mRequestedPages != mPages.size() || mPages.isEmpty()) {
+            // Already loading
+            return;
+        }
+
+        Cursor lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage.getCount() < mPageSize) {
+            // All data loaded
+            return;
+        }
+
+        mRequestedPages++;
+        lastPage.moveToLast();
+        mPageLoader.loadPage(mPages.size(), lastPage);
+    }
+
+    private void updateCursor() {
+        Cursor cursor;
+        if (mPages.isEmpty()) {
+            cursor = null;
+        } else if (mPages.size() == 1) {
+            cursor = mPages.get(0);
+        } else {
+            cursor = new MergeCursor(mPages.toArray(new Cursor[0]));
+        }
+        // Pages are owned by page loader so they aren't closed here
+        swapCursor(cursor);
+    }
+}
@@ -118,6 +118,13 @@ public class SettingsActivity extends AppCompatActivity {
             });
 
             enableValueAsSummary(SettingsContract.PLUGINS_TIMEOUT);
+            enableValueAsSummary(SettingsContract.SYNC_CONCURRENCY);
+            enableValueAsSummary(SettingsContract.SYNC_MENU_TTL);
+            enableValueAsSummary(SettingsContract.SYNC_REMAINING_TTL);
+            enableValueAsSummary(SettingsContract.SYNC_HISTORY_TTL);
+            enableValueAsSummary(SettingsContract.SYNC_CREDIT_TTL);
+            enableValueAsSummary(SettingsContract.MENU_RETENTION_DAYS);
+            enableValueAsSummary(SettingsContract.HISTORY_RETENTION_MONTHS);
         }
 
         private void enableValueAsSummary(@NonNull String key) {
@@ -145,8 +152,17 @@ public class SettingsActivity extends AppCompatActivity {
 
         @Override
         public boolean onPreferenceChange(Preference preference, Object newValue) {
-            if(SettingsContract.PLUGINS_TIMEOUT.equals(preference.getKey())) {
-                return true;
+            switch (preference.getKey()) {
+                case SettingsContract.PLUGINS_TIMEOUT:
+                case SettingsContract.SYNC_CONCURRENCY:
+                case SettingsContract.SYNC_MENU_TTL:
+                case SettingsContract.SYNC_REMAINING_TTL:
+                case SettingsContract.SYNC_HISTORY_TTL:
+                case SettingsContract.SYNC_CREDIT_TTL:
+                case SettingsContract.MENU_RETENTION_DAYS:
+                case SettingsContract.HISTORY_RETENTION_MONTHS:
+                    // Values are read when used, nothing to plan
+                    return true;
             }
 
             // Extract other values
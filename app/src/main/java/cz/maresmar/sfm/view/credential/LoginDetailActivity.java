@@ -277,8 +277,8 @@ public class LoginDetailActivity extends AppCompatActivity implements ViewPager.
                 mCredentialUri = credentialDetailFragment.saveData();
                 mValidatedCredentialId = ContentUris.parseId(mCredentialUri);
 
-                // Starts "credentials test"
-                SyncHandler.startFullSync(this);
+                // Starts "credentials test" (the portal has to be contacted even with fresh data)
+                SyncHandler.startFullSync(this, true);
             } else {
                 // Show credential tab
                 mViewPager.setCurrentItem(CREDENTIAL_TAB);
@@ -332,7 +332,7 @@ public class LoginDetailActivity extends AppCompatActivity implements ViewPager.
             /* Disappears in 1 s (probably bug in support library)
             Snackbar snackbar = Snackbar.make(mSwipeRefreshLayout, errMsg, Snackbar.LENGTH_LONG);
 
-            if (errMsg == BroadcastContract.RESULT_UNKNOWN_PORTAL_FORMAT) {
+            if (MenuUtils.isSyncErrorReportable(worstResult)) {
                 // Give user option to send logs
                 snackbar.setAction(R.string.action_feedback_send, view -> {
                     SfmApp app = (SfmApp)getApplication();
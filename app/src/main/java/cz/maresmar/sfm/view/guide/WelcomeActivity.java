@@ -375,8 +375,8 @@ public class WelcomeActivity extends AppCompatActivity
                     CredentialDetailFragment credentialDetailFragment = (CredentialDetailFragment) formFragment;
                     Uri credentialUri = credentialDetailFragment.saveData();
                     mValidatedCredentialId = ContentUris.parseId(credentialUri);
-                    // Start plugin
-                    SyncHandler.startFullSync(this);
+                    // Start plugin (the portal has to be contacted even with fresh data)
+                    SyncHandler.startFullSync(this, true);
                     mActiveToast = Toast.makeText(getBaseContext(), R.string.credential_detail_checking_credential_data, Toast.LENGTH_LONG);
                     mActiveToast.show();
                     mSwipeRefreshLayout.setRefreshing(true);
@@ -514,7 +514,7 @@ public class WelcomeActivity extends AppCompatActivity
             Snackbar snackbar = Snackbar.make(findViewById(android.R.id.content),
                     errMsg, Snackbar.LENGTH_LONG);
 
-            if (errMsg == BroadcastContract.RESULT_UNKNOWN_PORTAL_FORMAT) {
+            if (MenuUtils.isSyncErrorReportable(worstResult)) {
                 // Give user option to send logs
                 snackbar.setAction(R.string.action_feedback_send, view -> {
                     SfmApp app = (SfmApp)getApplication();
@@ -45,8 +45,8 @@ import cz.maresmar.sfm.BuildConfig;
 import cz.maresmar.sfm.R;
 import cz.maresmar.sfm.provider.ProviderContract;
 import cz.maresmar.sfm.utils.MenuUtils;
-import cz.maresmar.sfm.view.CursorRecyclerViewAdapter;
 import cz.maresmar.sfm.view.FragmentChangeRequestListener;
+import cz.maresmar.sfm.view.PagingCursorRecyclerViewAdapter;
 import timber.log.Timber;
 
 /**
@@ -57,7 +57,10 @@ public class OrderFragment extends Fragment implements LoaderManager.LoaderCallb
     // the fragment initialization parameters
     private static final String ARG_USER_URI = "userUri";
 
+    // Page loaders use IDs from ACTION_LOADER_ID + page number
     private static final int ACTION_LOADER_ID = 1;
+    private static final int ACTION_PAGE_SIZE = 50;
+    private static final String ARG_PAGE_URI = "pageUri";
 
     private Uri mUserUri;
 
@@ -87,7 +90,7 @@ public class OrderFragment extends Fragment implements LoaderManager.LoaderCallb
             mUserUri = getArguments().getParcelable(ARG_USER_URI);
         }
 
-        getLoaderManager().initLoader(ACTION_LOADER_ID, null, this);
+        getLoaderManager().initLoader(ACTION_LOADER_ID, getPageArgs(null), this);
     }
 
     @Override
@@ -97,7 +100,20 @@ public class OrderFragment extends Fragment implements LoaderManager.LoaderCallb
         View view = inflater.inflate(R.layout.fragment_orders, container, false);
 
         mRecyclerView = view.findViewById(R.id.orders_recycle_view);
-        mActionsAdapter = new ActionsViewAdapter();
+        mActionsAdapter = new ActionsViewAdapter(new PagingCursorRecyclerViewAdapter.PageLoader() {
+            @Override
+            public void loadPage(int page, @Nullable Cursor previousPage) {
+                getLoaderManager().initLoader(ACTION_LOADER_ID + page, getPageArgs(previousPage),
+                        OrderFragment.this);
+            }
+
+            @Override
+            public void cancelPages(int fromPage, int toPage) {
+                for (int page = fromPage; page < toPage; page++) {
+                    getLoaderManager().destroyLoader(ACTION_LOADER_ID + page);
+                }
+            }
+        });
         mRecyclerView.setAdapter(mActionsAdapter);
 
         // Prepare empty view
@@ -130,72 +146,79 @@ public class OrderFragment extends Fragment implements LoaderManager.LoaderCallb
     @NonNull
     @Override
     public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
-        switch (id) {
-            case ACTION_LOADER_ID: {
-                Uri actionsUri = Uri.withAppendedPath(mUserUri, ProviderContract.ACTION_PATH);
-                return new CursorLoader(
-                        getContext(),
-                        actionsUri,
-                        new String[]{
-                                ProviderContract.Action._ID,
-                                ProviderContract.Action.ENTRY_TYPE,
-                                ProviderContract.Action.SYNC_STATUS,
-                                ProviderContract.Action.ME_DATE,
-                                ProviderContract.Action.PRICE,
-                                ProviderContract.Action.ME_PORTAL_NAME,
-                                ProviderContract.Action.ME_LABEL,
-                                ProviderContract.Action.RESERVED_AMOUNT,
-                                ProviderContract.Action.OFFERED_AMOUNT,
-                                ProviderContract.Action.TAKEN_AMOUNT,
-                                ProviderContract.Action.LAST_CHANGE,
-                                ProviderContract.Action.DESCRIPTION,
-                                ProviderContract.Action.ME_RELATIVE_ID,
-                                ProviderContract.Action.ME_PORTAL_ID
-                        },
-                        ProviderContract.Action.ENTRY_TYPE + " != " + ProviderContract.ACTION_ENTRY_TYPE_VIRTUAL,
-                        null,
-                        "MAX(" + ProviderContract.Action.ME_DATE + ", " + ProviderContract.Action.LAST_CHANGE
-                                + " ) DESC, " + ProviderContract.Action.SYNC_STATUS + " ASC"
-                );
-            }
-            default:
-                throw new UnsupportedOperationException("Unknown loader id: " + id);
+        if (id < ACTION_LOADER_ID || args == null) {
+            throw new UnsupportedOperationException("Unknown loader id: " + id);
         }
+
+        // Page of actions
+        Uri pageUri = args.getParcelable(ARG_PAGE_URI);
+        return new CursorLoader(
+                getContext(),
+                pageUri,
+                new String[]{
+                        ProviderContract.Action._ID,
+                        ProviderContract.Action.ENTRY_TYPE,
+                        ProviderContract.Action.SYNC_STATUS,
+                        ProviderContract.Action.ME_DATE,
+                        ProviderContract.Action.PRICE,
+                        ProviderContract.Action.ME_PORTAL_NAME,
+                        ProviderContract.Action.ME_LABEL,
+                        ProviderContract.Action.RESERVED_AMOUNT,
+                        ProviderContract.Action.OFFERED_AMOUNT,
+                        ProviderContract.Action.TAKEN_AMOUNT,
+                        ProviderContract.Action.LAST_CHANGE,
+                        ProviderContract.Action.DESCRIPTION,
+                        ProviderContract.Action.ME_RELATIVE_ID,
+                        ProviderContract.Action.ME_PORTAL_ID
+                },
+                ProviderContract.Action.ENTRY_TYPE + " != " + ProviderContract.ACTION_ENTRY_TYPE_VIRTUAL,
+                null,
+                ProviderContract.ACTION_PAGE_SORT_ORDER
+        );
     }
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
-        switch (loader.getId()) {
-            case ACTION_LOADER_ID: {
-                Timber.d("Action data loaded");
-
-                // Empty state
-                if (cursor.getCount() > 0) {
-                    mEmptyView.setVisibility(View.GONE);
-                    mRecyclerView.setVisibility(View.VISIBLE);
-                } else {
-                    mRecyclerView.setVisibility(View.GONE);
-                    mEmptyView.setVisibility(View.VISIBLE);
-                }
+        if (loader.getId() < ACTION_LOADER_ID) {
+            throw new UnsupportedOperationException("Unknown loader id: " + loader.getId());
+        }
 
-                mActionsAdapter.swapCursor(cursor);
-                break;
-            }
-            default:
-                throw new UnsupportedOperationException("Unknown loader id: " + loader.getId());
+        int page = loader.getId() - ACTION_LOADER_ID;
+        Timber.d("Action data page %d loaded", page);
+
+        mActionsAdapter.setPage(page, cursor);
+
+        // Empty state
+        if (mActionsAdapter.getItemCount() > 0) {
+            mEmptyView.setVisibility(View.GONE);
+            mRecyclerView.setVisibility(View.VISIBLE);
+        } else {
+            mRecyclerView.setVisibility(View.GONE);
+            mEmptyView.setVisibility(View.VISIBLE);
         }
     }
 
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        switch (loader.getId()) {
-            case ACTION_LOADER_ID:
-                Timber.e("Action data with user %s is no longer valid", mUserUri);
-                mActionsAdapter.swapCursor(null);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown loader id: " + loader.getId());
+        if (loader.getId() < ACTION_LOADER_ID) {
+            throw new UnsupportedOperationException("Unknown loader id: " + loader.getId());
+        }
+
+        int page = loader.getId() - ACTION_LOADER_ID;
+        if (page == 0) {
+            Timber.e("Action data with user %s is no longer valid", mUserUri);
         }
+        mActionsAdapter.dropPages(page);
+    }
+
+    @NonNull
+    private Bundle getPageArgs(@Nullable Cursor previousPage) {
+        Uri actionsUri = Uri.withAppendedPath(mUserUri, ProviderContract.ACTION_PATH);
+
+        Bundle args = new Bundle();
+        args.putParcelable(ARG_PAGE_URI, ProviderContract.getActionPageUri(actionsUri, ACTION_PAGE_SIZE,
+                previousPage));
+        return args;
     }
 
     /**
@@ -205,7 +228,8 @@ public class OrderFragment extends Fragment implements LoaderManager.LoaderCallb
     public void reset(Uri userUri) {
         if (!mUserUri.equals(userUri)) {
             mUserUri = userUri;
-            getLoaderManager().restartLoader(ACTION_LOADER_ID, null, this);
+            mActionsAdapter.dropPages(1);
+            getLoaderManager().restartLoader(ACTION_LOADER_ID, getPageArgs(null), this);
         }
     }
 
@@ -236,7 +260,7 @@ public class OrderFragment extends Fragment implements LoaderManager.LoaderCallb
      * {@link RecyclerView} adapter that shows orders
      */
     public class ActionsViewAdapter
-            extends CursorRecyclerViewAdapter<ActionsViewAdapter.ViewHolder> {
+            extends PagingCursorRecyclerViewAdapter<ActionsViewAdapter.ViewHolder> {
 
         private final View.OnClickListener mOnClickListener = view -> {
             OrderInfo orderInfo = (OrderInfo) view.getTag();
@@ -274,9 +298,11 @@ public class OrderFragment extends Fragment implements LoaderManager.LoaderCallb
 
         /**
          * Creates new adapter
+         *
+         * @param pageLoader Loader of action pages
          */
-        ActionsViewAdapter() {
-            super(null);
+        ActionsViewAdapter(@NonNull PageLoader pageLoader) {
+            super(ACTION_PAGE_SIZE, pageLoader);
         }
 
         @NonNull
@@ -125,7 +125,7 @@ public class ICanteenService extends TasksPluginService {
         try {
             URL url = new URL(logData.portalReference + URL_MAIN);
             HttpURLConnection urlConnection = openUrl(url);
-            Scanner sc = new Scanner(urlConnection.getInputStream());
+            Scanner sc = new Scanner(openInputStream(urlConnection));
             while (sc.hasNextLine()) {
                 if (sc.nextLine().contains("iCanteen")) {
                     return BroadcastContract.TEST_RESULT_OK;
@@ -335,7 +335,7 @@ public class ICanteenService extends TasksPluginService {
         urlConnection.addRequestProperty("Content-Type", "text/xml; charset=utf-8");
 
         // Output check up
-        try (Scanner sc = new Scanner(urlConnection.getInputStream())) {
+        try (Scanner sc = new Scanner(openInputStream(urlConnection))) {
             Pattern pattern = Pattern.compile(".*<input +type=\"hidden\" +name=\"_csrf\" +value=\"([^\"]+) *\"/>.*");
 
             while (sc.hasNextLine()) {
@@ -396,7 +396,7 @@ public class ICanteenService extends TasksPluginService {
         urlConnection.setInstanceFollowRedirects(true);
 
         // Output check up
-        try (Scanner sc = new Scanner(urlConnection.getInputStream())) {
+        try (Scanner sc = new Scanner(openInputStream(urlConnection))) {
             while (sc.hasNextLine()) {
                 String line = sc.nextLine();
                 if (line.contains("Špatné přihlašovací údaje") | line.contains("Bad credentials")) {
@@ -467,7 +467,7 @@ public class ICanteenService extends TasksPluginService {
             urlConnection.addRequestProperty("Content-Type", "text/xml; charset=utf-8");
 
 
-            try (InputStream is = urlConnection.getInputStream()) {
+            try (InputStream is = openInputStream(urlConnection)) {
                 // Skip first bites as there is some weird characters that crash parser
                 int ch;
                 //noinspection StatementWithEmptyBody
@@ -571,7 +571,7 @@ public class ICanteenService extends TasksPluginService {
                 urlConnection.addRequestProperty("Content-Type", "text/xml; charset=utf-8");
                 // Get new time flag
                 if (changeUrl.contains("time=")) {
-                    Scanner sc = new Scanner(urlConnection.getInputStream());
+                    Scanner sc = new Scanner(openInputStream(urlConnection));
                     switch (mPortalVersion) {
                         case 205:
                         case 206:
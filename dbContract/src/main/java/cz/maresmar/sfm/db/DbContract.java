@@ -71,6 +71,24 @@ public class DbContract {
         public static final String COLUMN_NAME_NAME = "MGName";
     }
 
+    /**
+     * Full-text index of food names without diacritics, the document ID is ID of {@link Food}
+     */
+    public static class FoodSearch {
+        public static final String TABLE_NAME = "FoodSearch";
+        public static final String COLUMN_NAME_DOC_ID = "docid";
+        public static final String COLUMN_NAME_NAME = "Name";
+    }
+
+    /**
+     * Full-text index of menu group names without diacritics, the document ID is ID of {@link MenuGroup}
+     */
+    public static class MenuGroupSearch {
+        public static final String TABLE_NAME = "MenuGroupSearch";
+        public static final String COLUMN_NAME_DOC_ID = "docid";
+        public static final String COLUMN_NAME_NAME = "Name";
+    }
+
     public static class GroupMenuEntry implements BaseColumns {
         public static final String TABLE_NAME = "GroupMenuEntry";
         public static final String COLUMN_NAME_CGID = "CGID";
@@ -104,9 +122,53 @@ public class DbContract {
         public static final String COLUMN_NAME_DESCRIPTION = "PGDes";
     }
 
+    /**
+     * Denormalized copy of menu entries joined with user's data, it's maintained by triggers
+     */
+    public static class UserMenuEntry {
+        public static final String TABLE_NAME = "UserMenuEntry";
+        public static final String COLUMN_NAME_UID = Credential.COLUMN_NAME_UID;
+        public static final String COLUMN_NAME_ME_ID = "MEID";
+        public static final String COLUMN_NAME_ME_RELATIVE_ID = MenuEntry.COLUMN_NAME_RELATIVE_ID;
+        public static final String COLUMN_NAME_ME_PID = MenuEntry.COLUMN_NAME_PID;
+        public static final String COLUMN_NAME_MGID = MenuEntry.COLUMN_NAME_MGID;
+        public static final String COLUMN_NAME_FOOD_NAME = Food.COLUMN_NAME_NAME;
+        public static final String COLUMN_NAME_GROUP_NAME = MenuGroup.COLUMN_NAME_NAME;
+        public static final String COLUMN_NAME_LABEL = MenuEntry.COLUMN_NAME_LABEL;
+        public static final String COLUMN_NAME_DATE = MenuEntry.COLUMN_NAME_DATE;
+        public static final String COLUMN_NAME_REMAINING_TO_TAKE = MenuEntry.COLUMN_NAME_REMAINING_TO_TAKE;
+        public static final String COLUMN_NAME_REMAINING_TO_ORDER = MenuEntry.COLUMN_NAME_REMAINING_TO_ORDER;
+        public static final String COLUMN_NAME_EXTRA = MenuEntry.COLUMN_NAME_EXTRA;
+        public static final String COLUMN_NAME_PRICE = GroupMenuEntry.COLUMN_NAME_PRICE;
+        public static final String COLUMN_NAME_STATUS = GroupMenuEntry.COLUMN_NAME_STATUS;
+        public static final String COLUMN_NAME_SYNCED_RESERVED_AMOUNT = "SyncedResAmount";
+        public static final String COLUMN_NAME_SYNCED_OFFERED_AMOUNT = "SyncedOffAmount";
+        public static final String COLUMN_NAME_SYNCED_TAKEN_AMOUNT = "SyncedTakenAmount";
+        public static final String COLUMN_NAME_SYNCED_LAST_CHANGE = "SyncedLastChange";
+        public static final String COLUMN_NAME_LOCAL_RESERVED_AMOUNT = "LocalResAmount";
+        public static final String COLUMN_NAME_LOCAL_OFFERED_AMOUNT = "LocalOffAmount";
+        public static final String COLUMN_NAME_LOCAL_LAST_CHANGE = "LocalLastChange";
+        public static final String COLUMN_NAME_EDIT_RESERVED_AMOUNT = "EditResAmount";
+        public static final String COLUMN_NAME_EDIT_OFFERED_AMOUNT = "EditOffAmount";
+        public static final String COLUMN_NAME_EDIT_LAST_CHANGE = "EditLastChange";
+        public static final String COLUMN_NAME_PORTAL_FEATURES = Portal.COLUMN_NAME_FEATURES;
+        public static final String COLUMN_NAME_PORTAL_NAME = Portal.COLUMN_NAME_NAME;
+    }
+
     public static class User implements BaseColumns {
         public static final String TABLE_NAME = "User";
         public static final String COLUMN_NAME_NAME = "UName";
         public static final String COLUMN_NAME_PICTURE = "UPicture";
     }
+
+    /**
+     * Time of the last successful sync of each plugin task, it's used to skip tasks with fresh data
+     */
+    public static class SyncFreshness {
+        public static final String TABLE_NAME = "SyncFreshness";
+        public static final String COLUMN_NAME_PID = MenuEntry.COLUMN_NAME_PID;
+        public static final String COLUMN_NAME_CID = FoodAction.COLUMN_NAME_CID;
+        public static final String COLUMN_NAME_TASK = "SFTask";
+        public static final String COLUMN_NAME_LAST_SUCCESS = "SFLastSuccess";
+    }
 }
@@ -0,0 +1,12 @@
+# Mappers generated by ProviderColumnProcessor are found by model class name at runtime
+-keepnames class * {
+    @cz.maresmar.sfm.plugin.controller.ProviderColumn <fields>;
+}
+-keep class * implements cz.maresmar.sfm.plugin.controller.ProviderColumnMapper {
+    public <init>();
+}
+# Reflection fallback of ObjectHandler reads annotated fields
+-keepattributes *Annotation*
+-keepclassmembers class * {
+    @cz.maresmar.sfm.plugin.controller.ProviderColumn <fields>;
+}
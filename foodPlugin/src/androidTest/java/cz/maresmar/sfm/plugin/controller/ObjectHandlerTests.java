@@ -0,0 +1,158 @@
+package cz.maresmar.sfm.plugin.controller;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cz.maresmar.sfm.plugin.model.Action;
+import cz.maresmar.sfm.plugin.model.MenuEntry;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ObjectHandler}. Checks that objects survive inflate and deflate and measures per-row
+ * cost of both operations (see logcat output tagged {@code ObjectHandlerTests}).
+ */
+@RunWith(AndroidJUnit4.class)
+public class ObjectHandlerTests {
+
+    private static final String TAG = "ObjectHandlerTests";
+    private static final int BENCHMARK_ROWS = 5000;
+
+    private static MatrixCursor buildMenuCursor(MenuEntry.Initializer initializer, int rows) {
+        String[] projection = initializer.getInflateProjection();
+        MatrixCursor cursor = new MatrixCursor(projection, rows);
+
+        for (int i = 0; i < rows; i++) {
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (String column : projection) {
+                switch (column) {
+                    case PublicProviderContract.MenuEntry.ME_RELATIVE_ID:
+                        row.add((long) i);
+                        break;
+                    case PublicProviderContract.MenuEntry.TEXT:
+                        row.add("Food " + i);
+                        break;
+                    case PublicProviderContract.MenuEntry.GROUP:
+                        row.add("Group " + (i % 4));
+                        break;
+                    case PublicProviderContract.MenuEntry.LABEL:
+                        row.add("" + (i % 4));
+                        break;
+                    case PublicProviderContract.MenuEntry.DATE:
+                        row.add(1_500_000_000_000L + i);
+                        break;
+                    case PublicProviderContract.MenuEntry.EXTRA:
+                        row.add(null);
+                        break;
+                    default:
+                        row.add(i % 10);
+                }
+            }
+        }
+        return cursor;
+    }
+
+    @Test
+    public void inflateMenuEntry() {
+        MenuEntry.Initializer initializer = new MenuEntry.Initializer();
+        MatrixCursor cursor = buildMenuCursor(initializer, 1);
+
+        assertTrue(cursor.moveToFirst());
+        MenuEntry entry = ObjectHandler.inflate(cursor, initializer);
+
+        assertEquals(0, entry.relativeId);
+        assertEquals("Food 0", entry.text);
+        assertEquals("Group 0", entry.group);
+        assertEquals(1_500_000_000_000L, entry.date);
+        assertNull(entry.extra);
+    }
+
+    @Test
+    public void deflateMenuEntry() {
+        MenuEntry entry = new MenuEntry(42);
+        entry.text = "Food";
+        entry.date = 1_500_000_000_000L;
+
+        ContentValues values = ObjectHandler.deflate(entry);
+
+        assertEquals(42L, (long) values.getAsLong(PublicProviderContract.MenuEntry.ME_RELATIVE_ID));
+        assertEquals("Food", values.getAsString(PublicProviderContract.MenuEntry.TEXT));
+        assertEquals(PublicProviderContract.NO_INFO,
+                (int) values.getAsInteger(PublicProviderContract.MenuEntry.REMAINING_TO_TAKE));
+        assertEquals(PublicProviderContract.MenuEntry.ME_RELATIVE_ID + " == 42",
+                ObjectHandler.getIdSelection(entry));
+    }
+
+    @Test
+    public void usesGeneratedMapper() {
+        assertNotNull(ColumnMapping.of(MenuEntry.class).mapper);
+        assertNotNull(ColumnMapping.of(Action.MenuEntryAction.class).mapper);
+        assertNotNull(ColumnMapping.of(Action.PaymentAction.class).mapper);
+    }
+
+    @Test
+    public void publicColumnMapIsCopy() {
+        MenuEntry.Initializer initializer = new MenuEntry.Initializer();
+        HashMap<String, Integer> columnMap = initializer.getColumnMap();
+
+        assertEquals(initializer.getSharedColumnMap(), columnMap);
+        assertNotSame(columnMap, initializer.getColumnMap());
+        // Changes of the copy don't get to the shared map
+        columnMap.put("unknown", 0);
+        assertFalse(initializer.getSharedColumnMap().containsKey("unknown"));
+    }
+
+    @Test
+    public void sharedColumnMapIsCachedAndUnmodifiable() {
+        MenuEntry.Initializer initializer = new MenuEntry.Initializer();
+        Map<String, Integer> columnMap = initializer.getSharedColumnMap();
+
+        assertSame(columnMap, initializer.getSharedColumnMap());
+        assertSame(initializer.getColumnIndexes(MenuEntry.class), initializer.getColumnIndexes(MenuEntry.class));
+        try {
+            columnMap.put("unknown", 0);
+            fail("Shared column map could be changed");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void perRowCost() {
+        MenuEntry.Initializer initializer = new MenuEntry.Initializer();
+        MatrixCursor cursor = buildMenuCursor(initializer, BENCHMARK_ROWS);
+        MenuEntry[] entries = new MenuEntry[BENCHMARK_ROWS];
+
+        // Inflate
+        long start = SystemClock.elapsedRealtimeNanos();
+        int i = 0;
+        while (cursor.moveToNext()) {
+            entries[i++] = ObjectHandler.inflate(cursor, initializer);
+        }
+        long inflateNs = (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_ROWS;
+
+        // Deflate
+        start = SystemClock.elapsedRealtimeNanos();
+        for (MenuEntry entry : entries) {
+            ObjectHandler.deflate(entry);
+        }
+        long deflateNs = (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_ROWS;
+
+        Log.i(TAG, "Per row cost: inflate " + inflateNs + " ns, deflate " + deflateNs + " ns");
+        assertEquals(BENCHMARK_ROWS, i);
+        // Cached indexes map all rows to the same columns
+        MenuEntry last = entries[BENCHMARK_ROWS - 1];
+        assertEquals(BENCHMARK_ROWS - 1, last.relativeId);
+        assertEquals("Food " + (BENCHMARK_ROWS - 1), last.text);
+    }
+}
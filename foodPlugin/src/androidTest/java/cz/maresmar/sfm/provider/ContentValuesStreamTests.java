@@ -0,0 +1,121 @@
+package cz.maresmar.sfm.provider;
+
+import android.content.ContentValues;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ContentValuesStream} format
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContentValuesStreamTests {
+
+    private static ContentValues buildValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(PublicProviderContract.MenuEntry.ME_RELATIVE_ID, (long) i);
+        values.put(PublicProviderContract.MenuEntry.TEXT, "Svíčková " + i);
+        values.put(PublicProviderContract.MenuEntry.REMAINING_TO_TAKE, i);
+        values.put("price", 25.5);
+        values.put("flag", i % 2 == 0);
+        values.put("data", new byte[]{1, 2, (byte) i});
+        values.putNull(PublicProviderContract.MenuEntry.EXTRA);
+        return values;
+    }
+
+    private static byte[] writeRecords(int count, boolean finish) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ContentValuesStream.Writer writer = new ContentValuesStream.Writer(out);
+        for (int i = 0; i < count; i++) {
+            writer.write(buildValues(i));
+        }
+        if (finish) {
+            writer.finish();
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] data = writeRecords(3, true);
+
+        ContentValuesStream.Reader reader = new ContentValuesStream.Reader(new ByteArrayInputStream(data));
+        for (int i = 0; i < 3; i++) {
+            ContentValues expected = buildValues(i);
+            ContentValues values = reader.read();
+
+            assertNotNull(values);
+            assertEquals(expected.size(), values.size());
+            assertEquals(expected.getAsLong(PublicProviderContract.MenuEntry.ME_RELATIVE_ID),
+                    values.getAsLong(PublicProviderContract.MenuEntry.ME_RELATIVE_ID));
+            assertEquals(expected.getAsString(PublicProviderContract.MenuEntry.TEXT),
+                    values.getAsString(PublicProviderContract.MenuEntry.TEXT));
+            assertEquals(expected.getAsInteger(PublicProviderContract.MenuEntry.REMAINING_TO_TAKE),
+                    values.getAsInteger(PublicProviderContract.MenuEntry.REMAINING_TO_TAKE));
+            assertEquals(expected.getAsDouble("price"), values.getAsDouble("price"));
+            assertEquals(expected.getAsBoolean("flag"), values.getAsBoolean("flag"));
+            assertTrue(Arrays.equals(expected.getAsByteArray("data"), values.getAsByteArray("data")));
+            assertTrue(values.containsKey(PublicProviderContract.MenuEntry.EXTRA));
+            assertNull(values.get(PublicProviderContract.MenuEntry.EXTRA));
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void columnNamesAreSentOnce() throws IOException {
+        int oneRecordSize = writeRecords(1, true).length;
+        int twoRecordsSize = writeRecords(2, true).length;
+
+        // Second record references column names by index
+        int secondRecordSize = twoRecordsSize - oneRecordSize;
+        assertTrue(secondRecordSize < oneRecordSize - PublicProviderContract.MenuEntry.ME_RELATIVE_ID.length());
+    }
+
+    @Test
+    public void tooBigRecordIsSkipped() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ContentValuesStream.Writer writer = new ContentValuesStream.Writer(out);
+
+        ContentValues bigValues = new ContentValues();
+        bigValues.put("big", new byte[ContentValuesStream.MAX_RECORD_SIZE]);
+        bigValues.put(PublicProviderContract.MenuEntry.TEXT, "Big");
+        try {
+            writer.write(bigValues);
+            fail("Too big record was written");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        writer.write(buildValues(0));
+        writer.finish();
+        writer.close();
+
+        // Columns of rejected record are sent again with the next record
+        ContentValuesStream.Reader reader = new ContentValuesStream.Reader(
+                new ByteArrayInputStream(out.toByteArray()));
+        ContentValues values = reader.read();
+        assertNotNull(values);
+        assertEquals("Svíčková 0", values.getAsString(PublicProviderContract.MenuEntry.TEXT));
+        assertNull(reader.read());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedStream() throws IOException {
+        byte[] data = writeRecords(2, false);
+
+        ContentValuesStream.Reader reader = new ContentValuesStream.Reader(new ByteArrayInputStream(data));
+        reader.read();
+        reader.read();
+        // Missing end of stream mark
+        reader.read();
+    }
+}
@@ -0,0 +1,214 @@
+package cz.maresmar.sfm.plugin.controller;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed mapping between model fields annotated with {@link ProviderColumn} and provider columns
+ * <p>
+ * The reflection (fields and annotations lookup) is done only once per model class, the created
+ * mapping is immutable and it is reused for every inflated or deflated object. When the model
+ * class has generated {@link ProviderColumnMapper} the field lookup is skipped completely and
+ * the column arrays are left empty.
+ * </p>
+ *
+ * @see ObjectHandler
+ */
+final class ColumnMapping {
+
+    static final int TYPE_UNKNOWN = 0;
+    static final int TYPE_INT = 1;
+    static final int TYPE_LONG = 2;
+    static final int TYPE_FLOAT = 3;
+    static final int TYPE_DOUBLE = 4;
+    static final int TYPE_SHORT = 5;
+    static final int TYPE_STRING = 6;
+
+    private static final String TAG = "ColumnMapping";
+
+    private static final Map<Class<?>, ColumnMapping> sMappings = new ConcurrentHashMap<>();
+
+    /**
+     * Generated mapper of class or {@code null} if reflection should be used
+     */
+    @Nullable
+    final ProviderColumnMapper<Object> mapper;
+
+    /**
+     * All annotated columns in {@link Class#getFields()} order
+     */
+    final Column[] columns;
+
+    /**
+     * Columns that could be set from {@link android.database.Cursor} (the final ones are set using constructor)
+     */
+    final Column[] inflateColumns;
+
+    /**
+     * Columns that are saved to {@link android.content.ContentValues} (without read only ones)
+     */
+    final Column[] deflateColumns;
+
+    /**
+     * Columns that acts as ID columns
+     */
+    final Column[] idColumns;
+
+    /**
+     * Names of columns that are set during inflate, in order of column indexes
+     */
+    final String[] inflateColumnNames;
+
+    private final String[] mProjection;
+
+    private ColumnMapping(@NonNull Class<?> clazz) {
+        mapper = findMapper(clazz);
+        if (mapper != null) {
+            columns = inflateColumns = deflateColumns = idColumns = new Column[0];
+            inflateColumnNames = mapper.getInflateColumns();
+            mProjection = mapper.getProjection();
+            return;
+        }
+
+        List<Column> all = new ArrayList<>();
+        List<Column> inflate = new ArrayList<>();
+        List<Column> deflate = new ArrayList<>();
+        List<Column> id = new ArrayList<>();
+
+        for (Field field : clazz.getFields()) {
+            ProviderColumn fieldAnnotation = field.getAnnotation(ProviderColumn.class);
+            if (fieldAnnotation == null)
+                continue;
+
+            Column column = new Column(field, fieldAnnotation);
+            all.add(column);
+
+            // Skip final fields, they should be set using constructor
+            if ((field.getModifiers() & Modifier.FINAL) != Modifier.FINAL)
+                inflate.add(column);
+            if (!column.ro)
+                deflate.add(column);
+            if (column.id)
+                id.add(column);
+        }
+
+        columns = all.toArray(new Column[0]);
+        inflateColumns = inflate.toArray(new Column[0]);
+        deflateColumns = deflate.toArray(new Column[0]);
+        idColumns = id.toArray(new Column[0]);
+
+        mProjection = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            mProjection[i] = columns[i].name;
+        }
+        inflateColumnNames = new String[inflateColumns.length];
+        for (int i = 0; i < inflateColumns.length; i++) {
+            inflateColumnNames[i] = inflateColumns[i].name;
+        }
+    }
+
+    /**
+     * Finds mapper generated by {@code ProviderColumnProcessor} for given class
+     *
+     * @param clazz Model class
+     * @return Mapper or {@code null} if there isn't any
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static ProviderColumnMapper<Object> findMapper(@NonNull Class<?> clazz) {
+        String className = clazz.getName();
+        int packageEnd = className.lastIndexOf('.');
+        String mapperName = className.substring(0, packageEnd + 1) +
+                className.substring(packageEnd + 1).replace('$', '_') +
+                ProviderColumnMapper.MAPPER_SUFFIX;
+
+        try {
+            Class<?> mapperClass = Class.forName(mapperName, true, clazz.getClassLoader());
+            return (ProviderColumnMapper<Object>) mapperClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            // Class is not processed so fall back to reflection
+            return null;
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
+                InvocationTargetException | ClassCastException e) {
+            // Listed one by one as ReflectiveOperationException isn't available before API 19
+            Log.w(TAG, "Cannot use generated mapper " + mapperName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns mapping of given class, the mapping is created only on first call
+     *
+     * @param clazz Model class
+     * @return Mapping of model class
+     */
+    @NonNull
+    static ColumnMapping of(@NonNull Class<?> clazz) {
+        ColumnMapping mapping = sMappings.get(clazz);
+        if (mapping == null) {
+            // Concurrent creation is harmless as both mappings are equal
+            mapping = new ColumnMapping(clazz);
+            sMappings.put(clazz, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Returns names of all annotated columns
+     *
+     * @return New projection array (could be changed by caller)
+     */
+    @NonNull
+    String[] getProjection() {
+        return mProjection.clone();
+    }
+
+    /**
+     * One annotated field of model
+     */
+    static final class Column {
+        final Field field;
+        final String name;
+        final int type;
+        final boolean id;
+        final boolean ro;
+        final boolean zeroOnNull;
+
+        private Column(@NonNull Field field, @NonNull ProviderColumn annotation) {
+            this.field = field;
+            this.name = annotation.name();
+            this.type = typeOf(field.getType());
+            this.id = annotation.id();
+            this.ro = annotation.ro();
+            this.zeroOnNull = annotation.zeroOnNull();
+        }
+
+        private static int typeOf(@NonNull Class<?> elementType) {
+            if (elementType.equals(int.class)) {
+                return TYPE_INT;
+            } else if (elementType.equals(long.class)) {
+                return TYPE_LONG;
+            } else if (elementType.equals(float.class)) {
+                return TYPE_FLOAT;
+            } else if (elementType.equals(double.class)) {
+                return TYPE_DOUBLE;
+            } else if (elementType.equals(Short.class)) {
+                return TYPE_SHORT;
+            } else if (elementType.equals(String.class)) {
+                return TYPE_STRING;
+            } else {
+                // Thrown lazily when the field is really used
+                return TYPE_UNKNOWN;
+            }
+        }
+    }
+}
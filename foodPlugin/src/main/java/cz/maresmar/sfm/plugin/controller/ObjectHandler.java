@@ -7,17 +7,19 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import cz.maresmar.sfm.plugin.BuildConfig;
 
 /**
  * Class that for loading and saving of one object to {@link android.content.ContentProvider}
  * <p>
- * The model objects needs to be annotated with {@link ProviderColumn}
+ * The model objects needs to be annotated with {@link ProviderColumn}. When the model has
+ * {@link ProviderColumnMapper} generated at compile time it is used, otherwise the fields are
+ * accessed using reflection.
  * </p>
  */
 public class ObjectHandler {
@@ -46,59 +48,51 @@ public class ObjectHandler {
         Class<? extends T> clazz = initializer.getClass(cursor);
         T element = initializer.newInstance(cursor);
 
-        HashMap<String, Integer> projectionHashMap = initializer.getColumnMap();
-
-        for (Field field : clazz.getFields()) {
-            // Skip final fields, they should be set using constructor
-            if ((field.getModifiers() & Modifier.FINAL) == Modifier.FINAL)
-                continue;
-
-            ProviderColumn fieldAnnotation = field.getAnnotation(ProviderColumn.class);
-
-            if (fieldAnnotation != null) {
-                String columnName = fieldAnnotation.name();
+        ColumnMapping mapping = ColumnMapping.of(clazz);
+        int[] columnIndexes = initializer.getColumnIndexes(clazz);
+        if (mapping.mapper != null) {
+            mapping.mapper.inflate(cursor, columnIndexes, element);
+            return element;
+        }
 
-                if (BuildConfig.DEBUG) {
-                    if (!projectionHashMap.containsKey(columnName)) {
-                        throw new UnsupportedOperationException("Unknown column " + columnName);
-                    }
-                }
+        ColumnMapping.Column[] columns = mapping.inflateColumns;
 
-                int columnIndex = projectionHashMap.get(columnName);
+        for (int i = 0; i < columns.length; i++) {
+            ColumnMapping.Column column = columns[i];
+            int columnIndex = columnIndexes[i];
 
-                // Skip null values (leaving the defaults)
-                if (cursor.isNull(columnIndex) && !fieldAnnotation.zeroOnNull())
-                    continue;
+            // Skip null values (leaving the defaults)
+            boolean isNull = cursor.isNull(columnIndex);
+            if (isNull && !column.zeroOnNull)
+                continue;
 
-                Class<?> elementType = field.getType();
-                try {
-                    if (elementType.equals(int.class)) {
-                        if (!cursor.isNull(columnIndex)) {
-                            field.setInt(element, cursor.getInt(columnIndex));
-                        } else if (fieldAnnotation.zeroOnNull()) {
-                            field.setInt(element, 0);
-                        }
-                    } else if (elementType.equals(long.class)) {
-                        if (!cursor.isNull(columnIndex)) {
-                            field.setLong(element, cursor.getLong(columnIndex));
-                        } else if (fieldAnnotation.zeroOnNull()) {
-                            field.setLong(element, 0);
-                        }
-                    } else if (elementType.equals(float.class)) {
+            Field field = column.field;
+            try {
+                switch (column.type) {
+                    case ColumnMapping.TYPE_INT:
+                        field.setInt(element, isNull ? 0 : cursor.getInt(columnIndex));
+                        break;
+                    case ColumnMapping.TYPE_LONG:
+                        field.setLong(element, isNull ? 0 : cursor.getLong(columnIndex));
+                        break;
+                    case ColumnMapping.TYPE_FLOAT:
                         field.setFloat(element, cursor.getFloat(columnIndex));
-                    } else if (elementType.equals(double.class)) {
+                        break;
+                    case ColumnMapping.TYPE_DOUBLE:
                         field.setDouble(element, cursor.getDouble(columnIndex));
-                    } else if (elementType.equals(Short.class)) {
+                        break;
+                    case ColumnMapping.TYPE_SHORT:
                         field.setShort(element, cursor.getShort(columnIndex));
-                    } else if (elementType.equals(String.class)) {
+                        break;
+                    case ColumnMapping.TYPE_STRING:
                         field.set(element, cursor.getString(columnIndex));
-                    } else {
-                        throw new UnsupportedTypeException("Unknown type " + elementType.toString());
-                    }
-                } catch (IllegalAccessException e) {
-                    // It shouldn't happen
-                    throw new RuntimeException("Accessed private field that should be public", e);
+                        break;
+                    default:
+                        throw new UnsupportedTypeException("Unknown type " + field.getType().toString());
                 }
+            } catch (IllegalAccessException e) {
+                // It shouldn't happen
+                throw new RuntimeException("Accessed private field that should be public", e);
             }
         }
 
@@ -114,45 +108,50 @@ public class ObjectHandler {
      */
     @NonNull
     static public <T> ContentValues deflate(@NonNull T element) {
-        ContentValues values = new ContentValues();
-
-        for (Field field : element.getClass().getFields()) {
-            ProviderColumn fieldAnnotation = field.getAnnotation(ProviderColumn.class);
-
-            if (fieldAnnotation != null) {
-                String columnName = fieldAnnotation.name();
+        ColumnMapping mapping = ColumnMapping.of(element.getClass());
+        if (mapping.mapper != null) {
+            return mapping.mapper.deflate(element);
+        }
 
-                // Skip read only values
-                if (fieldAnnotation.ro())
-                    continue;
+        ColumnMapping.Column[] columns = mapping.deflateColumns;
+        ContentValues values = new ContentValues(columns.length);
 
-                Class<?> elementType = field.getType();
-                try {
-                    if (elementType.equals(int.class)) {
+        for (ColumnMapping.Column column : columns) {
+            Field field = column.field;
+            try {
+                switch (column.type) {
+                    case ColumnMapping.TYPE_INT: {
                         int value = field.getInt(element);
                         if (value == EXCLUDED)
                             continue;
-                        values.put(columnName, value);
-                    } else if (elementType.equals(long.class)) {
+                        values.put(column.name, value);
+                        break;
+                    }
+                    case ColumnMapping.TYPE_LONG: {
                         long value = field.getLong(element);
                         if (value == EXCLUDED)
                             continue;
-                        values.put(columnName, value);
-                    } else if (elementType.equals(float.class)) {
-                        values.put(columnName, field.getFloat(element));
-                    } else if (elementType.equals(double.class)) {
-                        values.put(columnName, field.getDouble(element));
-                    } else if (elementType.equals(Short.class)) {
-                        values.put(columnName, field.getShort(element));
-                    } else if (elementType.equals(String.class)) {
-                        values.put(columnName, (String) field.get(element));
-                    } else {
-                        throw new UnsupportedTypeException("Unknown type " + elementType.toString());
+                        values.put(column.name, value);
+                        break;
                     }
-                } catch (IllegalAccessException e) {
-                    // It shouldn't happen
-                    throw new RuntimeException("Accessed private field that should be public", e);
+                    case ColumnMapping.TYPE_FLOAT:
+                        values.put(column.name, field.getFloat(element));
+                        break;
+                    case ColumnMapping.TYPE_DOUBLE:
+                        values.put(column.name, field.getDouble(element));
+                        break;
+                    case ColumnMapping.TYPE_SHORT:
+                        values.put(column.name, field.getShort(element));
+                        break;
+                    case ColumnMapping.TYPE_STRING:
+                        values.put(column.name, (String) field.get(element));
+                        break;
+                    default:
+                        throw new UnsupportedTypeException("Unknown type " + field.getType().toString());
                 }
+            } catch (IllegalAccessException e) {
+                // It shouldn't happen
+                throw new RuntimeException("Accessed private field that should be public", e);
             }
         }
 
@@ -169,28 +168,23 @@ public class ObjectHandler {
      */
     @NonNull
     public static <T> String getIdSelection(@NonNull T element) {
-        StringBuilder selection = new StringBuilder();
-
-        for (Field field : element.getClass().getFields()) {
-            ProviderColumn fieldAnnotation = field.getAnnotation(ProviderColumn.class);
-
-            if (fieldAnnotation != null) {
-                String columnName = fieldAnnotation.name();
-                boolean isIdColumn = fieldAnnotation.id();
+        ColumnMapping mapping = ColumnMapping.of(element.getClass());
+        if (mapping.mapper != null) {
+            return mapping.mapper.getIdSelection(element);
+        }
 
-                if (isIdColumn) {
-                    if (selection.length() > 0) {
-                        selection.append(" AND ");
-                    }
-                    selection.append(columnName);
-                    selection.append(" == ");
-                    try {
-                        selection.append(field.get(element));
-                    } catch (IllegalAccessException e) {
-                        // It shouldn't happen
-                        throw new RuntimeException("Accessed private field that should be public", e);
-                    }
-                }
+        StringBuilder selection = new StringBuilder();
+        for (ColumnMapping.Column column : mapping.idColumns) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append(column.name);
+            selection.append(" == ");
+            try {
+                selection.append(column.field.get(element));
+            } catch (IllegalAccessException e) {
+                // It shouldn't happen
+                throw new RuntimeException("Accessed private field that should be public", e);
             }
         }
 
@@ -205,6 +199,9 @@ public class ObjectHandler {
     public static abstract class Initializer<T> {
 
         Class<T> mClass;
+        // Initializer could be shared by more threads, maps are published only when they are complete
+        private volatile Map<String, Integer> mColumnMap;
+        private final Map<Class<?>, int[]> mColumnIndexes = new ConcurrentHashMap<>();
 
         /**
          * Creates new Initializer with {@link Class} of object
@@ -243,42 +240,78 @@ public class ObjectHandler {
          */
         @NonNull
         public String[] getInflateProjection() {
-            Field[] fields = mClass.getFields();
-            List<String> columns = new ArrayList<>();
+            return ColumnMapping.of(mClass).getProjection();
+        }
 
-            for (Field field : fields) {
-                ProviderColumn fieldAnnotation = field.getAnnotation(ProviderColumn.class);
+        /**
+         * Returns {@link HashMap} from projection. It can be used for column searching
+         *
+         * @return New {@link HashMap} from projection
+         * @see #getInflateProjection()
+         * @see #getSharedColumnMap()
+         */
+        public HashMap<String, Integer> getColumnMap() {
+            return new HashMap<>(getSharedColumnMap());
+        }
 
-                if (fieldAnnotation != null) {
-                    columns.add(fieldAnnotation.name());
+        /**
+         * Returns unmodifiable {@link Map} from projection. Unlike {@link #getColumnMap()} the map
+         * is created only once for each Initializer.
+         *
+         * @return Unmodifiable {@link Map} from projection
+         * @see #getInflateProjection()
+         */
+        @NonNull
+        protected final Map<String, Integer> getSharedColumnMap() {
+            Map<String, Integer> columnMap = mColumnMap;
+            if (columnMap == null) {
+                String[] projection = getInflateProjection();
+
+                HashMap<String, Integer> projectionHashMap = new HashMap<>();
+                for (int i = 0; i < projection.length; i++) {
+                    projectionHashMap.put(projection[i], i);
                 }
-            }
 
-            String[] array = new String[columns.size()];
-            int i = 0;
-            for (String col : columns) {
-                array[i] = col;
-                i++;
+                // Concurrent callers could create the same map, any of them could be kept
+                columnMap = Collections.unmodifiableMap(projectionHashMap);
+                mColumnMap = columnMap;
             }
 
-            return array;
+            return columnMap;
         }
 
         /**
-         * Returns {@link HashMap} from projection. It can be used for column searching
+         * Returns {@link Cursor} column indexes of {@link ColumnMapping#inflateColumnNames} for given
+         * class. The indexes are counted only once for each class.
          *
-         * @return {@link HashMap} from projection
-         * @see #getInflateProjection()
+         * @param clazz Class or subclass of {@code <T>} type
+         * @return Array of column indexes
          */
-        public HashMap<String, Integer> getColumnMap() {
-            String[] projection = getInflateProjection();
+        @NonNull
+        int[] getColumnIndexes(@NonNull Class<?> clazz) {
+            int[] indexes = mColumnIndexes.get(clazz);
+
+            if (indexes == null) {
+                Map<String, Integer> projectionHashMap = getSharedColumnMap();
+                String[] columnNames = ColumnMapping.of(clazz).inflateColumnNames;
+
+                indexes = new int[columnNames.length];
+                for (int i = 0; i < columnNames.length; i++) {
+                    String columnName = columnNames[i];
+
+                    if (BuildConfig.DEBUG) {
+                        if (!projectionHashMap.containsKey(columnName)) {
+                            throw new UnsupportedOperationException("Unknown column " + columnName);
+                        }
+                    }
+
+                    indexes[i] = projectionHashMap.get(columnName);
+                }
 
-            HashMap<String, Integer> projectionHashMap = new HashMap<>();
-            for (int i = 0; i < projection.length; i++) {
-                projectionHashMap.put(projection[i], i);
+                mColumnIndexes.put(clazz, indexes);
             }
 
-            return projectionHashMap;
+            return indexes;
         }
     }
 }
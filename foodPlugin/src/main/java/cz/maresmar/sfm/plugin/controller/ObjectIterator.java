@@ -0,0 +1,68 @@
+package cz.maresmar.sfm.plugin.controller;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that lazily inflates objects from {@link Cursor}, one row at a time
+ * <p>
+ * Only the actual row is held in memory so it's suitable for big results. The iterator must be
+ * closed after use (it's closed automatically when all rows are read), ideally using
+ * try-with-resources statement.
+ * </p>
+ *
+ * @param <T> Type of objects
+ * @see ObjectsController#iterateElements(android.content.Context, android.net.Uri, ObjectHandler.Initializer, String, String[], String)
+ */
+public class ObjectIterator<T> implements Iterator<T>, Closeable {
+
+    private final Cursor mCursor;
+    private final ObjectHandler.Initializer<T> mInitializer;
+
+    private boolean mMoved = false;
+    private boolean mHasNext = false;
+
+    /**
+     * Creates new iterator over cursor rows
+     *
+     * @param cursor      Cursor with projection from {@link ObjectHandler.Initializer#getInflateProjection()}
+     * @param initializer Creator of new objects
+     */
+    public ObjectIterator(@NonNull Cursor cursor, @NonNull ObjectHandler.Initializer<T> initializer) {
+        mCursor = cursor;
+        mInitializer = initializer;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!mMoved) {
+            mHasNext = !mCursor.isClosed() && mCursor.moveToNext();
+            mMoved = true;
+
+            if (!mHasNext) {
+                close();
+            }
+        }
+        return mHasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        mMoved = false;
+        return ObjectHandler.inflate(mCursor, mInitializer);
+    }
+
+    @Override
+    public void close() {
+        if (!mCursor.isClosed()) {
+            mCursor.close();
+        }
+    }
+}
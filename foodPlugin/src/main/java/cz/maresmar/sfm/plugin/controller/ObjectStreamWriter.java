@@ -0,0 +1,181 @@
+package cz.maresmar.sfm.plugin.controller;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+
+import cz.maresmar.sfm.provider.ContentValuesStream;
+import cz.maresmar.sfm.provider.PublicProviderContract;
+
+/**
+ * Writer that streams objects to {@link android.content.ContentProvider} through pipe, one by one
+ * <p>
+ * Unlike {@link ObjectsController#saveElements(Context, Uri, java.util.List)} the objects don't
+ * have to be held in memory and there is no limit of binder transaction size. Provider inserts the
+ * objects in chunks, each chunk in its own transaction (see {@link PublicProviderContract#METHOD_STREAM_INSERT}),
+ * so the insert isn't atomic. The writer must be closed after use, ideally using try-with-resources
+ * statement. When it's closed without {@link #finish()} the insert is stopped, but the already
+ * inserted chunks stay in database.
+ * </p>
+ *
+ * @param <T> Type of objects
+ */
+public class ObjectStreamWriter<T> implements Closeable {
+
+    private static final String TAG = "ObjectStreamWriter";
+
+    private final Uri mUri;
+    private final ParcelFileDescriptor mReadSide;
+    private final ParcelFileDescriptor mWriteSide;
+    private final ContentValuesStream.Writer mWriter;
+    private final Thread mCallThread;
+
+    private volatile Bundle mResult;
+    private volatile RuntimeException mError;
+    private int mWrittenRows = 0;
+    private boolean mClosed = false;
+
+    /**
+     * Creates new writer and starts the insert in provider
+     *
+     * @param context Some valid context
+     * @param uri     Uri pointing to place where objects will be stored
+     * @throws IllegalArgumentException If the pipe cannot be created
+     */
+    public ObjectStreamWriter(@NonNull Context context, @NonNull Uri uri) {
+        mUri = uri;
+
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot create pipe for " + uri, e);
+        }
+        mReadSide = pipe[0];
+        mWriteSide = pipe[1];
+
+        // Provider reads the stream during the call, so the call has to run in another thread
+        Bundle extras = new Bundle();
+        extras.putParcelable(PublicProviderContract.EXTRA_STREAM, mReadSide);
+        mCallThread = new Thread(() -> {
+            try {
+                mResult = context.getContentResolver().call(uri,
+                        PublicProviderContract.METHOD_STREAM_INSERT, uri.toString(), extras);
+            } catch (RuntimeException e) {
+                mError = e;
+            } finally {
+                // Writes to pipe without reader fail instead of blocking forever
+                closeQuietly(mReadSide);
+            }
+        }, TAG);
+        mCallThread.start();
+
+        try {
+            mWriter = new ContentValuesStream.Writer(new BufferedOutputStream(
+                    new ParcelFileDescriptor.AutoCloseOutputStream(mWriteSide)));
+        } catch (IOException e) {
+            throw onWriteFailed(e);
+        }
+    }
+
+    /**
+     * Writes one object to stream
+     *
+     * @param element Object to be saved
+     * @throws IllegalArgumentException If the provider stopped reading (eg. because of error)
+     */
+    public void write(@NonNull T element) {
+        try {
+            mWriter.write(ObjectHandler.deflate(element));
+            mWrittenRows++;
+        } catch (IOException e) {
+            throw onWriteFailed(e);
+        }
+    }
+
+    /**
+     * Finishes stream and waits until provider inserts all objects
+     *
+     * @return Number of inserted objects
+     * @throws IllegalArgumentException If insert failed
+     */
+    public int finish() {
+        try {
+            mWriter.finish();
+            mWriter.close();
+        } catch (IOException e) {
+            throw onWriteFailed(e);
+        } finally {
+            mClosed = true;
+        }
+
+        joinCall();
+        if (mError != null) {
+            throw new IllegalArgumentException("Cannot save elements to " + mUri, mError);
+        }
+        if (mResult == null) {
+            throw new IllegalArgumentException("Provider doesn't support stream insert");
+        }
+
+        int insertedRows = mResult.getInt(PublicProviderContract.EXTRA_INSERTED_ROWS);
+        if (insertedRows != mWrittenRows) {
+            throw new IllegalArgumentException("Cannot save elements to db, only " + insertedRows +
+                    " of " + mWrittenRows + " saved");
+        }
+        return insertedRows;
+    }
+
+    /**
+     * Closes the stream, if it wasn't finished the provider stops the insert (the already inserted
+     * chunks aren't removed)
+     */
+    @Override
+    public void close() {
+        if (!mClosed) {
+            mClosed = true;
+            // Provider doesn't insert the last chunk of stream without end mark
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close stream to " + mUri, e);
+            }
+            joinCall();
+        }
+    }
+
+    private IllegalArgumentException onWriteFailed(@NonNull IOException e) {
+        // Closed stream lets provider finish the call, so it could be waited for
+        mClosed = true;
+        closeQuietly(mWriteSide);
+        // Broken pipe means that provider stopped reading, so the reason is the call result
+        joinCall();
+        if (mError != null) {
+            return new IllegalArgumentException("Cannot save elements to " + mUri, mError);
+        }
+        return new IllegalArgumentException("Cannot write elements to " + mUri, e);
+    }
+
+    private void joinCall() {
+        try {
+            mCallThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + mUri, e);
+        }
+    }
+
+    private static void closeQuietly(@NonNull ParcelFileDescriptor descriptor) {
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot close pipe", e);
+        }
+    }
+}
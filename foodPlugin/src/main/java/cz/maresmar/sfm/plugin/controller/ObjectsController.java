@@ -7,6 +7,7 @@ import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.RemoteException;
+import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -57,21 +58,50 @@ public class ObjectsController {
                                            String[] selectionArgs, String sortOrder) {
         List<T> elements = new ArrayList<>();
 
-        // Does a query against the table and returns a Cursor object
-        try (Cursor cursor = context.getContentResolver().query(uri, initializer.getInflateProjection(), selection,
-                selectionArgs, sortOrder)) {
+        try (ObjectIterator<T> iterator = iterateElements(context, uri, initializer, selection, selectionArgs,
+                sortOrder)) {
             // For each row of result
-            while (cursor.moveToNext()) {
-                T newElement = ObjectHandler.inflate(cursor, initializer);
-                elements.add(newElement);
+            while (iterator.hasNext()) {
+                elements.add(iterator.next());
             }
         }
 
         return elements;
     }
 
+    /**
+     * Lazily loads more objects from {@link android.content.ContentProvider}. The objects are inflated
+     * one by one during iteration, so the whole result is never held in memory.
+     *
+     * @param context       Some valid context
+     * @param uri           Uri pointing to place where object are stored
+     * @param initializer   Creator of new objects
+     * @param selection     Provider selection
+     * @param selectionArgs Provider selection args
+     * @param sortOrder     Provider sort order
+     * @param <T>           Type of objects
+     * @return Iterator over objects that must be closed after use
+     * @throws IllegalArgumentException If query failed
+     */
+    @NonNull
+    static public <T> ObjectIterator<T> iterateElements(Context context, Uri uri, ObjectHandler.Initializer<T> initializer,
+                                                       String selection, String[] selectionArgs, String sortOrder) {
+        // Does a query against the table and returns a Cursor object
+        Cursor cursor = context.getContentResolver().query(uri, initializer.getInflateProjection(), selection,
+                selectionArgs, sortOrder);
+        if (cursor == null) {
+            throw new IllegalArgumentException("Cannot load elements from " + uri);
+        }
+
+        return new ObjectIterator<>(cursor, initializer);
+    }
+
     /**
      * Inserts more objects to {@link android.content.ContentProvider}
+     * <p>
+     * The objects are inserted using {@link android.content.ContentResolver#bulkInsert(Uri, ContentValues[])}
+     * so the provider could insert them all in one transaction.
+     * </p>
      *
      * @param context  Some valid context
      * @param elements Objects to be inserted
@@ -80,28 +110,41 @@ public class ObjectsController {
      * @throws IllegalArgumentException If insert failed
      */
     static public <T> void saveElements(Context context, Uri uri, List<T> elements) {
-        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        if (elements.isEmpty())
+            return;
 
-        // Build insert request for each element
-        for (T element : elements) {
-            // Get values
-            ContentValues values = ObjectHandler.deflate(element);
-            // Save to operation
-            operations.add(
-                    ContentProviderOperation.newInsert(uri)
-                            .withValues(values)
-                            .withYieldAllowed(true)
-                            .build());
+        ContentValues[] values = new ContentValues[elements.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ObjectHandler.deflate(elements.get(i));
         }
 
-        // Apply them once for performance boost
-        try {
-            context.getContentResolver().
-                    applyBatch(PublicProviderContract.AUTHORITY, operations);
-        } catch (OperationApplicationException e) {
-            throw new IllegalArgumentException("Cannot save elements to db ", e);
-        } catch (RemoteException e) {
-            throw new IllegalArgumentException("Cannot save elements to db ", e);
+        int insertedRows = context.getContentResolver().bulkInsert(uri, values);
+        if (insertedRows != values.length) {
+            throw new IllegalArgumentException("Cannot save elements to db, only " + insertedRows +
+                    " of " + values.length + " saved");
+        }
+    }
+
+    /**
+     * Inserts more objects to {@link android.content.ContentProvider} through pipe
+     * <p>
+     * The objects are streamed using {@link ObjectStreamWriter}, so there is no limit of binder
+     * transaction size as in {@link #saveElements(Context, Uri, List)}. Unlike it the insert isn't
+     * atomic, the objects inserted before a failure stay saved.
+     * </p>
+     *
+     * @param context  Some valid context
+     * @param uri      Uri pointing to place where objects will be stored
+     * @param elements Objects to be inserted
+     * @param <T>      Type of objects
+     * @throws IllegalArgumentException If insert failed
+     */
+    static public <T> void streamElements(Context context, Uri uri, Iterable<T> elements) {
+        try (ObjectStreamWriter<T> writer = new ObjectStreamWriter<>(context, uri)) {
+            for (T element : elements) {
+                writer.write(element);
+            }
+            writer.finish();
         }
     }
 
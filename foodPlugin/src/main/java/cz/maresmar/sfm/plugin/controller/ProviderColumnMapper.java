@@ -0,0 +1,72 @@
+package cz.maresmar.sfm.plugin.controller;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+
+/**
+ * Reflection-free loader and saver of one model class
+ * <p>
+ * Implementations are generated at compile time by {@code ProviderColumnProcessor} for every
+ * model class with {@link ProviderColumn} annotated fields. The generated class lives in the
+ * model's package and it is named as model's nested class name joined by {@code _} with
+ * {@value #MAPPER_SUFFIX} suffix (for example {@code Action_MenuEntryAction_ProviderMapper}).
+ * When no implementation is found, {@link ObjectHandler} falls back to reflection.
+ * </p>
+ *
+ * @param <T> Type of model object
+ * @see ObjectHandler
+ */
+public interface ProviderColumnMapper<T> {
+
+    /**
+     * Suffix of generated mapper class names
+     */
+    String MAPPER_SUFFIX = "_ProviderMapper";
+
+    /**
+     * Returns names of all annotated columns
+     *
+     * @return New projection array (could be changed by caller)
+     */
+    @NonNull
+    String[] getProjection();
+
+    /**
+     * Returns names of columns that are set by {@link #inflate(Cursor, int[], Object)} in the order
+     * used by {@code columnIndexes} array
+     *
+     * @return New array of column names
+     */
+    @NonNull
+    String[] getInflateColumns();
+
+    /**
+     * Loads non-final fields of object from actual {@link Cursor} row
+     *
+     * @param cursor        Cursor on row that containing object values
+     * @param columnIndexes Cursor indexes of {@link #getInflateColumns()} columns
+     * @param element       Element created by {@link ObjectHandler.Initializer#newInstance(Cursor)}
+     */
+    void inflate(@NonNull Cursor cursor, @NonNull int[] columnIndexes, @NonNull T element);
+
+    /**
+     * Saves object values to {@link ContentValues}
+     *
+     * @param element Element to be saved
+     * @return Return {@link ContentValues} created from object
+     * @see ObjectHandler#deflate(Object)
+     */
+    @NonNull
+    ContentValues deflate(@NonNull T element);
+
+    /**
+     * Counts selection of object's ID columns
+     *
+     * @param element Element where the selection is needed
+     * @return SQL selection String
+     * @see ObjectHandler#getIdSelection(Object)
+     */
+    @NonNull
+    String getIdSelection(@NonNull T element);
+}
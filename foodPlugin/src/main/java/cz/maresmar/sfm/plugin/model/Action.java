@@ -4,7 +4,7 @@ package cz.maresmar.sfm.plugin.model;
 import android.database.Cursor;
 import androidx.annotation.NonNull;
 
-import java.util.HashMap;
+import java.util.Map;
 
 import cz.maresmar.sfm.plugin.controller.ObjectHandler;
 import cz.maresmar.sfm.plugin.controller.ProviderColumn;
@@ -152,12 +152,12 @@ public abstract class Action {
     public static class Initializer extends ObjectHandler.Initializer<Action> {
 
         // Workaround https://issuetracker.google.com/issues/37052343
-        private HashMap<String, Integer> mColMap;
+        private Map<String, Integer> mColMap;
 
         public Initializer() {
             super(null);
 
-            mColMap = getColumnMap();
+            mColMap = getSharedColumnMap();
         }
 
         @Override
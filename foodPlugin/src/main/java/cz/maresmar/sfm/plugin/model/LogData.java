@@ -3,7 +3,7 @@ package cz.maresmar.sfm.plugin.model;
 import android.database.Cursor;
 import androidx.annotation.NonNull;
 
-import java.util.HashMap;
+import java.util.Map;
 
 import cz.maresmar.sfm.plugin.controller.ObjectHandler;
 import cz.maresmar.sfm.plugin.controller.ProviderColumn;
@@ -89,12 +89,12 @@ public class LogData {
     public static class LogDataInitializer extends ObjectHandler.Initializer<LogData> {
 
         // Workaround https://issuetracker.google.com/issues/37052343
-        private HashMap<String, Integer> mColMap;
+        private Map<String, Integer> mColMap;
 
         public LogDataInitializer() {
             super(LogData.class);
 
-            mColMap = getColumnMap();
+            mColMap = getSharedColumnMap();
         }
 
         @NonNull
@@ -3,7 +3,7 @@ package cz.maresmar.sfm.plugin.model;
 import android.database.Cursor;
 import androidx.annotation.NonNull;
 
-import java.util.HashMap;
+import java.util.Map;
 
 import cz.maresmar.sfm.plugin.controller.ObjectHandler;
 import cz.maresmar.sfm.plugin.controller.ProviderColumn;
@@ -58,12 +58,12 @@ public class MenuEntry {
     public static class Initializer extends ObjectHandler.Initializer<MenuEntry> {
 
         // Workaround https://issuetracker.google.com/issues/37052343
-        private HashMap<String, Integer> mColMap;
+        private Map<String, Integer> mColMap;
 
         public Initializer() {
             super(MenuEntry.class);
 
-            mColMap = getColumnMap();
+            mColMap = getSharedColumnMap();
         }
 
         @Override
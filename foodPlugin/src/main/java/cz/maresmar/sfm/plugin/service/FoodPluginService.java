@@ -3,6 +3,7 @@ package cz.maresmar.sfm.plugin.service;
 import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.SystemClock;
 import androidx.annotation.CallSuper;
 import androidx.annotation.CheckResult;
 import androidx.annotation.NonNull;
@@ -16,7 +17,9 @@ import android.util.SparseIntArray;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
@@ -38,10 +41,13 @@ import cz.maresmar.sfm.plugin.ActionContract;
 import cz.maresmar.sfm.plugin.ActionContract.ExtraFormatType;
 import cz.maresmar.sfm.plugin.ActionContract.SyncTask;
 import cz.maresmar.sfm.plugin.BroadcastContract;
+import cz.maresmar.sfm.plugin.BroadcastContract.ProgressEvent;
 import cz.maresmar.sfm.plugin.BroadcastContract.SyncResult;
 import cz.maresmar.sfm.plugin.BroadcastContract.TestResult;
 import cz.maresmar.sfm.plugin.BuildConfig;
 import cz.maresmar.sfm.plugin.ExtraFormat;
+import cz.maresmar.sfm.plugin.controller.ObjectIterator;
+import cz.maresmar.sfm.plugin.controller.ObjectStreamWriter;
 import cz.maresmar.sfm.plugin.controller.ObjectsController;
 import cz.maresmar.sfm.plugin.model.Action;
 import cz.maresmar.sfm.plugin.model.GroupMenuEntry;
@@ -63,10 +69,21 @@ public abstract class FoodPluginService extends JobIntentService {
 
     private static final String TAG = "FoodPluginService";
 
+    // Min time between two progress broadcasts
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
     private Uri mLogDataUri;
     private LogData mLogData;
     public String mErrorMessage = null;
 
+    // Progress of sync started by app
+    private Intent mSyncIntent;
+    @SyncTask
+    private int mProgressTasks;
+    private long mBytesRead;
+    private long mRowsWritten;
+    private long mLastProgressTime;
+
     /**
      * Sets LogData (used only for testing)
      *
@@ -149,8 +166,16 @@ public abstract class FoodPluginService extends JobIntentService {
         loadLogData(mLogDataUri);
 
         // Run sync action
-        //noinspection WrongConstant
-        SparseIntArray results = handleActionSync(todo);
+        mSyncIntent = intent;
+        mBytesRead = 0;
+        mRowsWritten = 0;
+        SparseIntArray results;
+        try {
+            //noinspection WrongConstant
+            results = handleActionSync(todo);
+        } finally {
+            mSyncIntent = null;
+        }
 
         // Send back results
         @SyncTask int[] task = new int[results.size()];
@@ -239,6 +264,9 @@ public abstract class FoodPluginService extends JobIntentService {
             onSyncRequestStarted(mLogData);
 
             while (todo > 0) {
+                mProgressTasks = todo;
+                reportProgress(BroadcastContract.PROGRESS_TASKS_STARTED, true);
+
                 // Do the job
                 @SyncTask int done = handleSyncTasks(mLogData, todo);
 
@@ -409,17 +437,32 @@ public abstract class FoodPluginService extends JobIntentService {
      */
     @NonNull
     protected List<? extends Action> loadActions(String selection, String[] selectionArgs, String sortOrder) {
+        return ObjectsController.loadElements(this, getActionsUri(),
+                new Action.Initializer(), filterVirtualActions(selection), selectionArgs, sortOrder);
+    }
+
+    /**
+     * Lazily loads actions associated with current sync action
+     *
+     * @param selection     {@link android.content.ContentProvider} select selection
+     * @param selectionArgs {@link android.content.ContentProvider} select arguments
+     * @param sortOrder     {@link android.content.ContentProvider} select sort order
+     * @return Iterator over loaded actions that must be closed after use
+     */
+    @NonNull
+    protected ObjectIterator<Action> iterateActions(String selection, String[] selectionArgs, String sortOrder) {
+        return ObjectsController.iterateElements(this, getActionsUri(),
+                new Action.Initializer(), filterVirtualActions(selection), selectionArgs, sortOrder);
+    }
+
+    private static String filterVirtualActions(String selection) {
         // Not include PublicProviderContract.ACTION_ENTRY_TYPE_VIRTUAL in results
         final String filterVirtual = "(" + PublicProviderContract.Action.ENTRY_TYPE + " != " + PublicProviderContract.ACTION_ENTRY_TYPE_VIRTUAL + ")";
         if (TextUtils.isEmpty(selection)) {
-            selection = filterVirtual;
+            return filterVirtual;
         } else {
-            selection = selection + " AND " + filterVirtual;
+            return selection + " AND " + filterVirtual;
         }
-
-        // Do the query
-        return ObjectsController.loadElements(this, getActionsUri(),
-                new Action.Initializer(), selection, selectionArgs, sortOrder);
     }
 
     /**
@@ -428,7 +471,21 @@ public abstract class FoodPluginService extends JobIntentService {
      * @param actions Actions to be saved
      */
     protected void saveActions(@NonNull List<? extends Action> actions) {
-        ObjectsController.saveElements(this, getActionsUri(), actions);
+        if (!actions.isEmpty()) {
+            ObjectsController.streamElements(this, getActionsUri(), actions);
+            onRowsWritten(actions.size());
+        }
+    }
+
+    /**
+     * Opens writer that saves actions one by one using parameters from current sync action. It's
+     * suitable for big amount of actions that are parsed from stream.
+     *
+     * @return Writer that must be finished and closed after use
+     */
+    @NonNull
+    protected ObjectStreamWriter<Action> openActionsWriter() {
+        return new ProgressStreamWriter<>(getActionsUri());
     }
 
     /**
@@ -470,7 +527,21 @@ public abstract class FoodPluginService extends JobIntentService {
      * @param entries MenuEntries to be saved
      */
     protected void saveMenuEntries(@NonNull List<MenuEntry> entries) {
-        ObjectsController.saveElements(this, getMenuEntriesUri(), entries);
+        if (!entries.isEmpty()) {
+            ObjectsController.streamElements(this, getMenuEntriesUri(), entries);
+            onRowsWritten(entries.size());
+        }
+    }
+
+    /**
+     * Opens writer that saves MenuEntries one by one using parameters from current sync action.
+     * It's suitable for big menus that are parsed from stream.
+     *
+     * @return Writer that must be finished and closed after use
+     */
+    @NonNull
+    protected ObjectStreamWriter<MenuEntry> openMenuEntriesWriter() {
+        return new ProgressStreamWriter<>(getMenuEntriesUri());
     }
 
     /**
@@ -487,6 +558,20 @@ public abstract class FoodPluginService extends JobIntentService {
                 new MenuEntry.Initializer(), selection, selectionArgs, sortOrder);
     }
 
+    /**
+     * Lazily loads MenuEntries associated with current sync action
+     *
+     * @param selection     {@link android.content.ContentProvider} select selection
+     * @param selectionArgs {@link android.content.ContentProvider} select arguments
+     * @param sortOrder     {@link android.content.ContentProvider} select sort order
+     * @return Iterator over loaded MenuEntries that must be closed after use
+     */
+    @NonNull
+    protected ObjectIterator<MenuEntry> iterateMenuEntries(String selection, String[] selectionArgs, String sortOrder) {
+        return ObjectsController.iterateElements(this, getMenuEntriesUri(),
+                new MenuEntry.Initializer(), selection, selectionArgs, sortOrder);
+    }
+
     /**
      * Deletes MenuEntries using parameters from current sync action
      *
@@ -519,6 +604,7 @@ public abstract class FoodPluginService extends JobIntentService {
      */
     protected void saveGroupMenuEntries(@NonNull List<GroupMenuEntry> entries) {
         ObjectsController.saveElements(this, getGroupMenuEntriesUri(), entries);
+        onRowsWritten(entries.size());
     }
 
     /**
@@ -548,12 +634,13 @@ public abstract class FoodPluginService extends JobIntentService {
         String dbSelection = PublicProviderContract.MenuEntry.DATE + " >= ?";
         String[] dbSelectionArgs = new String[]{"" + firstEntry.date};
         String dbSortOrder = PublicProviderContract.MenuEntry.ME_RELATIVE_ID + " ASC";
-        List<MenuEntry> dbEntries = loadMenuEntries(dbSelection, dbSelectionArgs, dbSortOrder);
 
         // Decide witch entry delete or save
         List<MenuEntry> toDelete = new ArrayList<>();
         // Go thought entries
-        mergeEntries(dbEntries, newEntries, toDelete, (entry) -> entry.relativeId);
+        try (ObjectIterator<MenuEntry> dbEntries = iterateMenuEntries(dbSelection, dbSelectionArgs, dbSortOrder)) {
+            mergeEntries(dbEntries, newEntries, toDelete, (entry) -> entry.relativeId);
+        }
 
         // Send result to db
         deleteMenuEntries(toDelete);
@@ -583,24 +670,25 @@ public abstract class FoodPluginService extends JobIntentService {
                 "" + portalId
         };
         String dbSortOrder = PublicProviderContract.Action.ME_RELATIVE_ID + " ASC";
-        List<Action.MenuEntryAction> dbEntries =
-                (List<Action.MenuEntryAction>) loadActions(dbSelection, dbSelectionArgs, dbSortOrder);
 
         // Decide witch entry delete or save
         List<Action.MenuEntryAction> toDelete = new ArrayList<>();
 
-        mergeEntries(dbEntries, newEntries, toDelete, (action) -> action.relativeMenuEntryId);
-
+        // Selection contains only standard entries that are MenuEntryActions
+        try (ObjectIterator<Action> dbEntries = iterateActions(dbSelection, dbSelectionArgs, dbSortOrder)) {
+            @SuppressWarnings("unchecked")
+            Iterator<Action.MenuEntryAction> dbEntryIt = (Iterator<Action.MenuEntryAction>) (Iterator<?>) dbEntries;
+            mergeEntries(dbEntryIt, newEntries, toDelete, (action) -> action.relativeMenuEntryId);
+        }
 
         // Send result to db
         deleteActions(toDelete);
         saveActions(newEntries);
     }
 
-    private <T> void mergeEntries(@NonNull List<T> dbEntries, @NonNull List<T> newEntries,
+    private <T> void mergeEntries(@NonNull Iterator<T> dbEntryIt, @NonNull List<T> newEntries,
                                   @NonNull List<T> toDelete, @NonNull Function<T, Long> mapper) {
         // Go thought entries
-        Iterator<T> dbEntryIt = dbEntries.iterator();
         Iterator<T> newEntryIt = newEntries.iterator();
 
         if (dbEntryIt.hasNext() && newEntryIt.hasNext()) {
@@ -788,6 +876,103 @@ public abstract class FoodPluginService extends JobIntentService {
         }
     }};
 
+    // -------------------------------------------------------------------------------------------
+    // Sync progress
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Reports that data were read from portal. It's called automatically for streams opened by
+     * {@link #openInputStream(HttpURLConnection)}.
+     *
+     * @param bytes Number of read bytes
+     */
+    protected void onBytesRead(long bytes) {
+        mBytesRead += bytes;
+        reportProgress(BroadcastContract.PROGRESS_BYTES_READ, false);
+    }
+
+    /**
+     * Reports that data were saved to app. It's called automatically when entries are saved using
+     * this class.
+     *
+     * @param rows Number of saved rows
+     */
+    protected void onRowsWritten(long rows) {
+        mRowsWritten += rows;
+        reportProgress(BroadcastContract.PROGRESS_ROWS_WRITTEN, false);
+    }
+
+    /**
+     * Broadcasts sync progress to app, so app knows that plugin isn't hung
+     *
+     * @param event Event that caused the progress
+     * @param force If the broadcast should be sent even if the last one was sent recently
+     */
+    private void reportProgress(@ProgressEvent int event, boolean force) {
+        // Only sync started by app is watched
+        if (mSyncIntent == null) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (!force && now - mLastProgressTime < PROGRESS_INTERVAL_MILLIS) {
+            return;
+        }
+        mLastProgressTime = now;
+
+        BroadcastContract.broadcastSyncProgress(this, mSyncIntent.getPackage(), mLogData.portalId,
+                mLogData.credentialId, event, mProgressTasks, mBytesRead, mRowsWritten);
+    }
+
+    /**
+     * Opens input stream of connection that reports read bytes as sync progress. Plugins should use it
+     * instead of {@link HttpURLConnection#getInputStream()}, so the long downloads don't time out.
+     *
+     * @param connection Opened connection
+     * @return Input stream of connection
+     * @throws IOException If an I/O exception occurs
+     */
+    @NonNull
+    protected InputStream openInputStream(@NonNull HttpURLConnection connection) throws IOException {
+        return new FilterInputStream(connection.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                int data = super.read();
+                if (data != -1) {
+                    onBytesRead(1);
+                }
+                return data;
+            }
+
+            @Override
+            public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                if (count > 0) {
+                    onBytesRead(count);
+                }
+                return count;
+            }
+        };
+    }
+
+    /**
+     * {@link ObjectStreamWriter} that reports written objects as sync progress
+     *
+     * @param <T> Type of objects
+     */
+    private class ProgressStreamWriter<T> extends ObjectStreamWriter<T> {
+
+        ProgressStreamWriter(@NonNull Uri uri) {
+            super(FoodPluginService.this, uri);
+        }
+
+        @Override
+        public void write(@NonNull T element) {
+            super.write(element);
+            onRowsWritten(1);
+        }
+    }
+
     /**
      * Converts {@link URL} to (optimally subclass of) {@link HttpURLConnection} with application of
      * {@link cz.maresmar.sfm.provider.PublicProviderContract.LogData#PORTAL_SECURITY}. This validates using of encryption and
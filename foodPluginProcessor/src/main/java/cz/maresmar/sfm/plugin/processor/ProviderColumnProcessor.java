@@ -0,0 +1,393 @@
+package cz.maresmar.sfm.plugin.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor that generates {@code ProviderColumnMapper} for each model class with
+ * {@code ProviderColumn} annotated fields
+ * <p>
+ * The generated code mirrors reflection based {@code ObjectHandler} (final fields are not inflated,
+ * read only fields are not deflated, {@code EXCLUDED} int and long values are skipped). Classes
+ * with unsupported field types are skipped with warning so they still use reflection.
+ * </p>
+ */
+@SupportedAnnotationTypes(ProviderColumnProcessor.PROVIDER_COLUMN)
+public class ProviderColumnProcessor extends AbstractProcessor {
+
+    static final String CONTROLLER_PACKAGE = "cz.maresmar.sfm.plugin.controller";
+    static final String PROVIDER_COLUMN = CONTROLLER_PACKAGE + ".ProviderColumn";
+    static final String MAPPER_INTERFACE = CONTROLLER_PACKAGE + ".ProviderColumnMapper";
+    static final String OBJECT_HANDLER = CONTROLLER_PACKAGE + ".ObjectHandler";
+    static final String MAPPER_SUFFIX = "_ProviderMapper";
+
+    private final Set<String> mGenerated = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (annotations.isEmpty())
+            return false;
+
+        // Walk all types as subclasses could inherit all annotated fields
+        List<TypeElement> types = new ArrayList<>();
+        for (Element element : roundEnv.getRootElements()) {
+            collectTypes(element, types);
+        }
+
+        for (TypeElement type : types) {
+            if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)
+                    || !type.getModifiers().contains(Modifier.PUBLIC))
+                continue;
+
+            List<Column> columns = findColumns(type);
+            if (columns == null || columns.isEmpty())
+                continue;
+
+            String qualifiedName = type.getQualifiedName().toString();
+            if (mGenerated.add(qualifiedName)) {
+                writeMapper(type, columns);
+            }
+        }
+
+        // Don't claim annotation, it's also read at runtime
+        return false;
+    }
+
+    private static void collectTypes(Element element, List<TypeElement> types) {
+        if (!(element instanceof TypeElement))
+            return;
+
+        TypeElement type = (TypeElement) element;
+        types.add(type);
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            if (nested.getModifiers().contains(Modifier.STATIC)) {
+                collectTypes(nested, types);
+            }
+        }
+    }
+
+    /**
+     * Finds annotated fields of type and its superclasses
+     *
+     * @return List of columns or {@code null} if some field is not supported
+     */
+    private List<Column> findColumns(TypeElement type) {
+        List<Column> columns = new ArrayList<>();
+        Set<String> fieldNames = new HashSet<>();
+
+        TypeElement actual = type;
+        while (actual != null) {
+            for (VariableElement field : ElementFilter.fieldsIn(actual.getEnclosedElements())) {
+                AnnotationMirror annotation = findAnnotation(field);
+                if (annotation == null)
+                    continue;
+
+                String fieldName = field.getSimpleName().toString();
+                // Subclass field hides the superclass one
+                if (!fieldNames.add(fieldName))
+                    continue;
+
+                if (!field.getModifiers().contains(Modifier.PUBLIC) ||
+                        field.getModifiers().contains(Modifier.STATIC)) {
+                    // Only public fields are used by ObjectHandler
+                    continue;
+                }
+
+                int columnType = typeOf(field.asType());
+                if (columnType == Column.TYPE_UNKNOWN) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "Unsupported type " + field.asType() + ", " + type.getQualifiedName() +
+                                    " will use reflection", field);
+                    return null;
+                }
+
+                columns.add(new Column(fieldName, columnType, field.getModifiers().contains(Modifier.FINAL),
+                        processingEnv.getElementUtils().getElementValuesWithDefaults(annotation)));
+            }
+
+            TypeMirror superclass = actual.getSuperclass();
+            if (superclass.getKind() != TypeKind.DECLARED)
+                break;
+            actual = (TypeElement) ((DeclaredType) superclass).asElement();
+        }
+
+        return columns;
+    }
+
+    private static AnnotationMirror findAnnotation(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(PROVIDER_COLUMN))
+                return mirror;
+        }
+        return null;
+    }
+
+    private static int typeOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return Column.TYPE_INT;
+            case LONG:
+                return Column.TYPE_LONG;
+            case FLOAT:
+                return Column.TYPE_FLOAT;
+            case DOUBLE:
+                return Column.TYPE_DOUBLE;
+            case DECLARED:
+                String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+                if (name.equals("java.lang.Short")) {
+                    return Column.TYPE_SHORT;
+                } else if (name.equals("java.lang.String")) {
+                    return Column.TYPE_STRING;
+                }
+                return Column.TYPE_UNKNOWN;
+            default:
+                return Column.TYPE_UNKNOWN;
+        }
+    }
+
+    private void writeMapper(TypeElement type, List<Column> columns) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.getQualifiedName().toString();
+        String typeName = type.getQualifiedName().toString();
+
+        // Nested class names are joined with "_" (ie. Action_MenuEntryAction)
+        String flatName = packageElement.isUnnamed() ? typeName : typeName.substring(packageName.length() + 1);
+        String mapperName = flatName.replace('.', '_') + MAPPER_SUFFIX;
+
+        StringBuilder code = new StringBuilder();
+        code.append("// Generated by ProviderColumnProcessor, do not edit\n");
+        if (!packageElement.isUnnamed()) {
+            code.append("package ").append(packageName).append(";\n\n");
+        }
+        code.append("import android.content.ContentValues;\n");
+        code.append("import android.database.Cursor;\n\n");
+        code.append("public final class ").append(mapperName).append(" implements ")
+                .append(MAPPER_INTERFACE).append("<").append(typeName).append("> {\n\n");
+
+        // Projections
+        code.append("    private static final String[] PROJECTION = new String[]{");
+        appendColumnNames(code, columns, false);
+        code.append("};\n");
+        code.append("    private static final String[] INFLATE_COLUMNS = new String[]{");
+        appendColumnNames(code, columns, true);
+        code.append("};\n\n");
+
+        code.append("    @Override\n");
+        code.append("    public String[] getProjection() {\n");
+        code.append("        return PROJECTION.clone();\n");
+        code.append("    }\n\n");
+
+        code.append("    @Override\n");
+        code.append("    public String[] getInflateColumns() {\n");
+        code.append("        return INFLATE_COLUMNS.clone();\n");
+        code.append("    }\n\n");
+
+        // Inflate
+        code.append("    @Override\n");
+        code.append("    public void inflate(Cursor cursor, int[] columnIndexes, ").append(typeName)
+                .append(" element) {\n");
+        int index = 0;
+        for (Column column : columns) {
+            if (column.isFinal)
+                continue;
+            String columnIndex = "columnIndexes[" + index++ + "]";
+            code.append("        if (!cursor.isNull(").append(columnIndex).append(")) {\n");
+            code.append("            element.").append(column.fieldName).append(" = ")
+                    .append(column.cursorGetter(columnIndex)).append(";\n");
+            code.append("        }");
+            if (column.zeroOnNull) {
+                code.append(" else {\n");
+                code.append("            element.").append(column.fieldName).append(" = ")
+                        .append(column.zeroValue()).append(";\n");
+                code.append("        }");
+            }
+            code.append("\n");
+        }
+        code.append("    }\n\n");
+
+        // Deflate
+        code.append("    @Override\n");
+        code.append("    public ContentValues deflate(").append(typeName).append(" element) {\n");
+        code.append("        ContentValues values = new ContentValues(").append(columns.size()).append(");\n");
+        for (Column column : columns) {
+            if (column.ro)
+                continue;
+            String put = "values.put(" + column.nameLiteral() + ", element." + column.fieldName + ");\n";
+            if (column.type == Column.TYPE_INT || column.type == Column.TYPE_LONG) {
+                code.append("        if (element.").append(column.fieldName).append(" != ")
+                        .append(OBJECT_HANDLER).append(".EXCLUDED) {\n");
+                code.append("            ").append(put);
+                code.append("        }\n");
+            } else {
+                code.append("        ").append(put);
+            }
+        }
+        code.append("        return values;\n");
+        code.append("    }\n\n");
+
+        // ID selection
+        code.append("    @Override\n");
+        code.append("    public String getIdSelection(").append(typeName).append(" element) {\n");
+        code.append("        return \"\"");
+        boolean first = true;
+        for (Column column : columns) {
+            if (!column.id)
+                continue;
+            String prefix = first ? column.name + " == " : " AND " + column.name + " == ";
+            code.append(" + ").append(processingEnv.getElementUtils().getConstantExpression(prefix))
+                    .append(" + element.").append(column.fieldName);
+            first = false;
+        }
+        code.append(";\n");
+        code.append("    }\n");
+        code.append("}\n");
+
+        String fileName = packageElement.isUnnamed() ? mapperName : packageName + "." + mapperName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(fileName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(code.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write " + fileName + ": " + e.getMessage(), type);
+        }
+    }
+
+    private void appendColumnNames(StringBuilder code, List<Column> columns, boolean inflateOnly) {
+        boolean first = true;
+        for (Column column : columns) {
+            if (inflateOnly && column.isFinal)
+                continue;
+            if (!first)
+                code.append(", ");
+            code.append(column.nameLiteral());
+            first = false;
+        }
+    }
+
+    /**
+     * One annotated field of model
+     */
+    private class Column {
+        static final int TYPE_UNKNOWN = 0;
+        static final int TYPE_INT = 1;
+        static final int TYPE_LONG = 2;
+        static final int TYPE_FLOAT = 3;
+        static final int TYPE_DOUBLE = 4;
+        static final int TYPE_SHORT = 5;
+        static final int TYPE_STRING = 6;
+
+        final String fieldName;
+        final int type;
+        final boolean isFinal;
+        final String name;
+        final boolean id;
+        final boolean ro;
+        final boolean zeroOnNull;
+
+        Column(String fieldName, int type, boolean isFinal,
+               Map<? extends ExecutableElement, ? extends AnnotationValue> values) {
+            this.fieldName = fieldName;
+            this.type = type;
+            this.isFinal = isFinal;
+
+            String name = null;
+            boolean id = false, ro = false, zeroOnNull = false;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+                Object value = entry.getValue().getValue();
+                switch (entry.getKey().getSimpleName().toString()) {
+                    case "name":
+                        name = (String) value;
+                        break;
+                    case "id":
+                        id = (Boolean) value;
+                        break;
+                    case "ro":
+                        ro = (Boolean) value;
+                        break;
+                    case "zeroOnNull":
+                        zeroOnNull = (Boolean) value;
+                        break;
+                }
+            }
+            this.name = name;
+            this.id = id;
+            this.ro = ro;
+            this.zeroOnNull = zeroOnNull;
+        }
+
+        String nameLiteral() {
+            return processingEnv.getElementUtils().getConstantExpression(name);
+        }
+
+        String cursorGetter(String columnIndex) {
+            switch (type) {
+                case TYPE_INT:
+                    return "cursor.getInt(" + columnIndex + ")";
+                case TYPE_LONG:
+                    return "cursor.getLong(" + columnIndex + ")";
+                case TYPE_FLOAT:
+                    return "cursor.getFloat(" + columnIndex + ")";
+                case TYPE_DOUBLE:
+                    return "cursor.getDouble(" + columnIndex + ")";
+                case TYPE_SHORT:
+                    return "cursor.getShort(" + columnIndex + ")";
+                case TYPE_STRING:
+                    return "cursor.getString(" + columnIndex + ")";
+                default:
+                    throw new IllegalStateException("Unknown type " + type);
+            }
+        }
+
+        String zeroValue() {
+            switch (type) {
+                case TYPE_INT:
+                    return "0";
+                case TYPE_LONG:
+                    return "0L";
+                case TYPE_FLOAT:
+                    return "0f";
+                case TYPE_DOUBLE:
+                    return "0d";
+                case TYPE_SHORT:
+                    return "(short) 0";
+                case TYPE_STRING:
+                    return "null";
+                default:
+                    throw new IllegalStateException("Unknown type " + type);
+            }
+        }
+    }
+}
@@ -219,7 +219,7 @@ public class UpdateService extends TasksPluginService {
         long actTime = System.currentTimeMillis();
         long today = actTime - (actTime % (1000 * 60 * 60 * 24));
 
-        try (FirstLineInputStream is = new FirstLineInputStream(urlConnection.getInputStream())) {
+        try (FirstLineInputStream is = new FirstLineInputStream(openInputStream(urlConnection))) {
             Reader reader = new InputStreamReader(is, "UTF-8");
 
             Type listType = new TypeToken<ArrayList<Menu>>() {
@@ -261,7 +261,7 @@ public class UpdateService extends TasksPluginService {
     private void parseOrders(LogData data, URL url, boolean history) throws IOException {
         HttpURLConnection urlConnection = openUrl(url);
 
-        try (FirstLineInputStream is = new FirstLineInputStream(urlConnection.getInputStream())) {
+        try (FirstLineInputStream is = new FirstLineInputStream(openInputStream(urlConnection))) {
             Reader reader = new InputStreamReader(is, "UTF-8");
 
             Type listType = new TypeToken<ArrayList<Order>>() {
@@ -449,7 +449,7 @@ public class UpdateService extends TasksPluginService {
             URL creditUrl = new URL(data.portalReference + CREDIT_PATH + "&user=" + data.credentialName);
             HttpURLConnection urlConnection = openUrl(creditUrl);
 
-            try (FirstLineInputStream is = new FirstLineInputStream(urlConnection.getInputStream())) {
+            try (FirstLineInputStream is = new FirstLineInputStream(openInputStream(urlConnection))) {
                 Reader reader = new InputStreamReader(is, "UTF-8");
 
                 Credit result = new Gson().fromJson(reader, Credit.class);